@@ -0,0 +1,14 @@
+package org.nachodb;
+
+/**
+ * Marker interface of persistent classes which objects are stored in compact record format.
+ * In this format integer fields, enums, dates and lengths of arrays are stored as variable length integers
+ * (so small values take one byte instead of four or eight), references are stored as variable length
+ * object identifiers and elements of arrays of references and links are stored as differences between
+ * adjacent object identifiers. Value objects embedded in the persistent object are stored in the same format.
+ * Format is recorded in class descriptor, so objects stored before the class was marked as compact
+ * (or after the mark was removed) remain accessible. Use <code>Storage.upgradeFormat</code> to
+ * convert all objects of the class to the current format.
+ */
+public interface CompactRecord { 
+}
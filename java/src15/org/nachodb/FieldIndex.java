@@ -37,6 +37,19 @@ public interface FieldIndex<T extends IPersistent> extends GenericIndex<T>
      */
     public T set(T obj);
 
+    /**
+     * Bulk load objects in the index. Instead of inserting objects one by one, index is constructed
+     * bottom-up: objects are sorted by key (using temporary files if there are too many of them) and index
+     * pages are filled sequentially till the fill factor specified by "perst.bulk.load.fill.factor" property.
+     * It is much faster than insertion of the same objects and produces more compact index.
+     * If index is not empty, its entries are merged with the new ones and the whole index is rebuilt.
+     * @param objects objects to be inserted in index. Objects should contain indexed field.
+     * Object can be not yet persistent, in this case its forced to become persistent by assigning OID to it.
+     * @return number of objects inserted in the index. If index was declared as unique, then
+     * objects with duplicate keys are not inserted.
+     */
+    public int bulkLoad(Iterable<T> objects);
+
     /**
      * Assign to the integer indexed field unique autoicremented value and 
      * insert object in the index. 
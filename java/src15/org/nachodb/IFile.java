@@ -5,6 +5,8 @@ package org.nachodb;
  * Programmer can provide its own impleentation of this interface, adding such features
  * as support of flash cards, encrypted files,...
  * Implentation of this interface should throw StorageError exception in case of failure
+ * Methods of this interface can be concurrently invoked by different threads, so implementation
+ * should be thread safe.
  */
 public interface IFile { 
     /**
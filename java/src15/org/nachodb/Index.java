@@ -34,6 +34,45 @@ public interface Index<T extends IPersistent> extends GenericIndex<T>
      */
     public T set(Key key, T obj);
 
+    /**
+     * Bulk load objects in the index. Instead of inserting entries one by one, index is constructed
+     * bottom-up: entries are sorted (using temporary files if there are too many of them) and index pages
+     * are filled sequentially till the fill factor specified by "perst.bulk.load.fill.factor" property.
+     * It is much faster than insertion of the same entries and produces more compact index.
+     * If index is not empty, its entries are merged with the new ones and the whole index is rebuilt.
+     * @param entries iterator through pairs of object key and object. Object can be not yet persistent,
+     * in this case its forced to become persistent by assigning OID to it.
+     * @return number of objects inserted in the index. If index was declared as unique, then
+     * objects with duplicate keys are not inserted.
+     */
+    public int bulkLoad(Iterator<Map.Entry<Key,T>> entries);
+
+    /**
+     * Get objects with the specified keys. Keys are sorted and searched in ascending order,
+     * so that lookup of neighbouring keys reuses path from the root of the index.
+     * It is more efficient than separate lookup of each key, especially if keys are already sorted.
+     * @param keys keys of the objects
+     * @param result array receiving the objects: <code>result[i]</code> is set to the object with key
+     * <code>keys[i]</code> or <code>null</code> if there is no such object in the index.
+     * Array should be not shorter than array of keys.
+     * @return number of found objects
+     * @exception StorageError(StorageError.KEY_NOT_UNIQUE) exception if there are more than
+     * one objects with one of the keys
+     */
+    public int getAll(Key[] keys, T[] result);
+
+    /**
+     * Put several objects in the index. Keys are sorted and inserted in ascending order,
+     * so that insertion of neighbouring keys reuses path from the root of the index.
+     * @param keys keys of the objects
+     * @param objs objects associated with the keys: <code>objs[i]</code> is inserted with key <code>keys[i]</code>.
+     * Object can be not yet persistent, in this case
+     * its forced to become persistent by assigning OID to it.
+     * @return number of inserted objects. If index was declared as unique, then
+     * objects with keys already present in the index are not inserted.
+     */
+    public int putAll(Key[] keys, T[] objs);
+
     /**
      * Remove object with specified key from the index
      * @param key value of the key of removed object
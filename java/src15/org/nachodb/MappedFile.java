@@ -9,45 +9,92 @@ import org.nachodb.impl.OSFile;
  * Class using NIO mapping file on virtual mapping.
  * Useing this class instead standard OSFile can significantly increase
  * speed of application in some cases. 
+ * File is mapped by windows of fixed size (1Gb by default), so size of the file is not limited by 2Gb.
+ * When file is extended, only last window is remapped. Data is accessed using absolute positions
+ * in the windows, so read and write operations can be concurrently performed by several threads.
  */
 public class MappedFile implements IFile { 
     private final void checkSize(long size) throws IOException { 
         if (size > mapSize) { 
-            long newSize = mapSize < Integer.MAX_VALUE/2 ? mapSize*2 : Integer.MAX_VALUE;
+            extend(size);
+        }
+    }
+
+    private final synchronized void extend(long size) throws IOException { 
+        if (size > mapSize) { 
+            long newSize = mapSize < windowSize ? mapSize*2 : mapSize + windowSize;
             if (newSize < size) { 
                 newSize = size;
             }
-            mapSize = newSize;
-            map = chan.map(FileChannel.MapMode.READ_WRITE,
-                           0, // position
-                           mapSize);
+            map(newSize, FileChannel.MapMode.READ_WRITE);
+        }
+    }
+
+    private final void map(long newSize, FileChannel.MapMode mode) throws IOException { 
+        int nWindows = (int)((newSize + windowSize - 1) >>> windowBits);
+        MappedByteBuffer[] newWindows = new MappedByteBuffer[nWindows];
+        int i = 0;
+        if (windows != null && windows.length != 0) { 
+            // all windows except the last one are completely mapped
+            i = windows.length - 1;
+            System.arraycopy(windows, 0, newWindows, 0, i);
         }
+        for (; i < nWindows; i++) { 
+            long pos = (long)i << windowBits;
+            newWindows[i] = chan.map(mode, pos, Math.min(windowSize, newSize - pos));
+        }
+        // windows should be assigned before mapSize: readers get mapSize first
+        windows = newWindows;
+        mapSize = newSize;
     }
 
-    public void write(long pos, byte[] buf) 
+    public void write(long pos, byte[] buf)
     {
         try { 
             checkSize(pos + buf.length);
-            map.position((int)pos);
-            map.put(buf, 0, buf.length);
+            MappedByteBuffer[] w = windows;
+            int offs = 0;
+            int len = buf.length;
+            while (len > 0) { 
+                ByteBuffer b = w[(int)(pos >>> windowBits)].duplicate();
+                b.position((int)pos & (windowSize-1));
+                int n = len < b.remaining() ? len : b.remaining();
+                b.put(buf, offs, n);
+                offs += n;
+                pos += n;
+                len -= n;
+            }
         } catch (IOException x) { 
             throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
         }
     }
 
-    public int read(long pos, byte[] buf) 
+    public int read(long pos, byte[] buf)
     { 
-        if (pos >= mapSize) { 
+        long size = mapSize;
+        MappedByteBuffer[] w = windows;
+        if (pos >= size) { 
             return 0;
         }
-        map.position((int)pos);
-        map.get(buf, 0, buf.length);
-        return buf.length;
+        int offs = 0;
+        int len = size - pos < buf.length ? (int)(size - pos) : buf.length;
+        while (offs < len) { 
+            ByteBuffer b = w[(int)(pos >>> windowBits)].duplicate();
+            b.position((int)pos & (windowSize-1));
+            int n = len - offs < b.remaining() ? len - offs : b.remaining();
+            b.get(buf, offs, n);
+            offs += n;
+            pos += n;
+        }
+        return len;
     }
         
     public void sync()
     { 
-        map.force();
+        MappedByteBuffer[] w = windows;
+        for (int i = 0; i < w.length; i++) { 
+            w[i].force();
+        }
     }
     
     public void close() 
@@ -73,23 +120,43 @@ public class MappedFile implements IFile {
         }
     }
 
+    /**
+     * Constructor of mapped file
+     * @param filePath path to the file
+     * @param initialSize initial size of mapping: file is extended to this size
+     * @param readOnly open file in read-only mode
+     */
     public MappedFile(String filePath, long initialSize, boolean readOnly) { 
+        this(filePath, initialSize, readOnly, DEFAULT_WINDOW_BITS);
+    }
+
+    /**
+     * Constructor of mapped file
+     * @param filePath path to the file
+     * @param initialSize initial size of mapping: file is extended to this size
+     * @param readOnly open file in read-only mode
+     * @param windowBits log2 of size of mapped window (should be not smaller than 12 and not larger than 30)
+     */
+    public MappedFile(String filePath, long initialSize, boolean readOnly, int windowBits) { 
+        this.windowBits = windowBits;
+        windowSize = 1 << windowBits;
         try { 
             f = new RandomAccessFile(filePath, readOnly ? "r" : "rw");
             chan = f.getChannel();
             long size = chan.size();
-            mapSize = (readOnly || size > initialSize) ? size : initialSize;
-            map = chan.map(readOnly
-                           ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE,
-                           0, // position
-                           mapSize);
+            map((readOnly || size > initialSize) ? size : initialSize,
+                readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE);
         } catch(IOException x) { 
             throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
         }
     }
 
-    RandomAccessFile f;
-    MappedByteBuffer map;
-    FileChannel      chan;
-    long             mapSize;
+    static final int DEFAULT_WINDOW_BITS = 30;
+
+    RandomAccessFile            f;
+    volatile MappedByteBuffer[] windows;
+    FileChannel                 chan;
+    volatile long               mapSize;
+    int                         windowBits;
+    int                         windowSize;
 }
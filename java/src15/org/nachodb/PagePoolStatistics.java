@@ -0,0 +1,39 @@
+package org.nachodb;
+
+/**
+ * Page pool usage statistic. Instances of this class are created by Storage.getPagePoolStatistics method.
+ * Counters are accumulated since the storage was opened.
+ */
+public class PagePoolStatistics { 
+    /**
+     * Name of the page replacement policy (value of <code>perst.page.pool.policy</code> property)
+     */
+    public String policy;
+
+    /**
+     * Number of page requests satisfied without access to the disk
+     */
+    public long nHits;
+
+    /**
+     * Number of pages loaded from the disk
+     */
+    public long nMisses;
+
+    /**
+     * Number of pages thrown away from the pool to free space for other pages
+     */
+    public long nEvictions;
+
+    /**
+     * Number of dirty pages written to the disk
+     */
+    public long nWrites;
+
+    /**
+     * PagePoolStatistics constructor
+     */
+    public PagePoolStatistics(String policy) { 
+        this.policy = policy;
+    }
+}
@@ -91,6 +91,18 @@ public interface Storage {
      */
     public void commit();
 
+    /**
+     * Commit changes done by the last transaction without waiting until they are written to the disk.
+     * Modified pages are written to the file and new database header is prepared when this method is called,
+     * but synchronization of the file and writing of the header are performed in background,
+     * so application can start next transaction while commit I/O is in progress.
+     * Next commit waits completion of the previous asynchronous commit.
+     * If redo log is used (<code>perst.redo.log</code> property), commit is performed synchronously.
+     * @return future which is completed when changes are durable. Its <code>get</code> method
+     * throws <code>ExecutionException</code> if commit I/O is failed.
+     */
+    public java.util.concurrent.Future<Void> commitAsync();
+
     /**
      * Rollback changes made by the last transaction
      */
@@ -228,6 +240,23 @@ public interface Storage {
      */
     public <T extends IPersistent> Index<T> createIndex(Class type, boolean unique);
 
+    /**
+     * Create new index with optional prefix compression of keys. In pages of such index common prefix
+     * of the keys is stored only once and keys of internal pages are truncated to the length needed to
+     * separate keys of their child pages. So index with long keys having common prefixes (URLs, file
+     * paths, hierarchical identifiers) has more keys in the page and smaller height.
+     * Prefix compression is applicable only to keys of <code>String</code> and <code>byte[]</code> types
+     * and is not supported by alternative B-Tree implementation, in other cases this parameter is ignored.
+     * @param type type of the index key (you should path here <code>String.class</code>,
+     * <code>int.class</code>, ...)
+     * @param unique whether index is unique (duplicate value of keys are not allowed)
+     * @param prefixCompression whether keys should be stored with prefix compression
+     * @return persistent object implementing index
+     * @exception StorageError(StorageError.UNSUPPORTED_INDEX_TYPE) exception if
+     * specified key type is not supported by implementation.
+     */
+    public <T extends IPersistent> Index<T> createIndex(Class type, boolean unique, boolean prefixCompression);
+
     /**
      * Create new think index (index with large number of duplicated keys)
      * @param type type of the index key (you should path here <code>String.class</code>, 
@@ -370,6 +399,15 @@ public interface Storage {
      */
     public int gc();
 
+    /**
+     * Rewrite all objects in the database using current representation of records
+     * (for example to convert strings stored by previous versions of Perst to compact representation
+     * or to store objects of classes marked with <code>CompactRecord</code> interface in compact record format).
+     * Objects are loaded and stored one by one, changes should be committed as usual.
+     * @return number of rewritten objects
+     */
+    public int upgradeFormat();
+
     /**
      * Export database in XML format 
      * @param writer writer for generated XML document
@@ -424,12 +462,18 @@ public interface Storage {
      * to persistent objects. If such object is referenced from N persistent object, N instances of this object
      * will be stored in the database and after loading there will be N instances in memory.
      * </TD></TR>
+     * <TR><TD><code>perst.unsafe.field.access</code></TD><TD>Boolean</TD><TD>true</TD>
+     * <TD>Access fields of persistent objects when they are packed and unpacked using
+     * <code>sun.misc.Unsafe</code> with field offsets calculated when class descriptor is resolved.
+     * If this property is false or Unsafe is not available, fields are accessed using reflection.
+     * This property should be set before the storage is opened.
+     * </TD></TR>
      * <TR><TD><code>perst.object.cache.init.size</code></TD><TD>Integer</TD><TD>1319</TD>
      * <TD>Initial size of object cache
      * </TD></TR>
      * <TR><TD><code>perst.object.cache.kind</code></TD><TD>String</TD><TD>"lru"</TD>
      * <TD>Kind of object cache. The following values are supported:
-     * "strong", "weak", "soft", "lru". <B>Strong</B> cache uses strong (normal) 
+     * "strong", "compact", "weak", "soft", "lru", "clock". <B>Strong</B> cache uses strong (normal)
      * references to refer persistent objects. Thus none of loaded persistent objects
      * can be deallocated by GC. <B>Weak</B> cache use weak references and
      * soft cache - <B>soft</B> references. The main difference between soft and weak references is
@@ -443,6 +487,13 @@ public interface Storage {
      * (except the rule mentioned above). Unlike it <B>lru</B> cache provide determined behavior, 
      * pinning most recently used objects in memory. Number of pinned objects is determined 
      * for lru cache by <code>perst.object.index.init.size</code> parameter (it can be 0).      
+     * <B>Clock</B> cache is similar to lru cache, but it uses CLOCK algorithm to choose pinned objects
+     * and lookup of pinned objects is performed without locking, so it is better suited for
+     * concurrent access to the storage by many threads.
+     * <B>Compact</B> cache is strong cache which keeps OIDs and objects in arrays instead of
+     * allocating entry object for each cached object, so it consumes less memory and
+     * reduces GC overhead when very large number of objects is loaded. It is always used for
+     * in-memory databases (infinite page pool) unless strong cache is requested explicitly.
      * </TD></TR>
      * <TR><TD><code>perst.object.index.init.size</code></TD><TD>Integer</TD><TD>1024</TD>
      * <TD>Initial size of object index (specifying large value increase initial size of database, but reduce
@@ -474,6 +525,27 @@ public interface Storage {
      * the problem, because all data which were written to the file, but is not yet saved to the disk is 
      * stored in OS file buffers and sooner or later them will be written to the disk)
      * </TD></TR>
+     * <TR><TD><code>perst.file.nio</code></TD><TD>Boolean</TD><TD>false</TD>
+     * <TD>Access database file using positional read/write operations of <code>java.nio.channels.FileChannel</code>
+     * instead of <code>RandomAccessFile</code>. Pages can be concurrently accessed by several threads and
+     * adjacent pages are written by commit using one gathering write. But file channel is closed
+     * if thread performing I/O operation is interrupted. This property is used by <code>open(String)</code>
+     * methods which are not using encryption or multifile.
+     * </TD></TR>
+     * <TR><TD><code>perst.file.compression</code></TD><TD>Boolean</TD><TD>false</TD>
+     * <TD>Store each 4Kb page of the database file compressed (see <code>org.nachodb.impl.CompressedFile</code>).
+     * It reduces size of the file and amount of data read from the disk and cached by OS at the cost of
+     * compression/decompression of the pages. Database should be created and opened with the same value of this property.
+     * This property is used by <code>open(String)</code> methods which are not using encryption.
+     * </TD></TR>
+     * <TR><TD><code>perst.file.encryption</code></TD><TD>String</TD><TD>"rc4"</TD>
+     * <TD>Cipher used by <code>open(String filePath, int pagePoolSize, String cipherKey)</code> method.
+     * The following values are supported: "rc4" and "aes". <B>RC4</B> file encrypts pages by
+     * stream cipher implemented in Java and serializes all file operations. <B>AES</B> file uses
+     * JCE implementation of AES in counter mode (with hardware acceleration if it is supported by JVM)
+     * and allows concurrent access to the file. Database should be opened with the same cipher
+     * which was used to create it.
+     * </TD></TR>
      * <TR><TD><code>perst.alternative.btree</code></TD><TD>Boolean</TD><TD>false</TD>
      * <TD>Use aternative implementation of B-Tree (not using direct access to database
      * file pages). This implementation should be used in case of serialized per thread transctions.
@@ -484,17 +556,44 @@ public interface Storage {
      * Also it provides better performance (about 3 times comaring with old implementation) because
      * of object caching. And B-Tree supports keys of user defined types. 
      * </TD></TR>
+     * <TR><TD><code>perst.bulk.load.fill.factor</code></TD><TD>Integer</TD><TD>90</TD>
+     * <TD>Percent of B-Tree page space filled by <code>Index.bulkLoad</code> and <code>FieldIndex.bulkLoad</code>
+     * methods. Space left free in the pages allows to insert new keys without splitting the pages.
+     * Set 100 for indices which are not updated after loading to get the most compact tree.
+     * </TD></TR>
+     * <TR><TD><code>perst.bulk.load.memory</code></TD><TD>Long</TD><TD>0</TD>
+     * <TD>Size of memory used by <code>bulkLoad</code> to sort unordered input. Input which fits in this memory is
+     * sorted in memory, otherwise sorted runs of this size are saved in temporary files and merged.
+     * 0 means a quarter of memory available in Java heap when bulk load is started.
+     * </TD></TR>
+     * <TR><TD><code>perst.concurrent.iterator</code></TD><TD>Boolean</TD><TD>false</TD>
+     * <TD>By default B-Tree iterator throws <code>ConcurrentModificationException</code> if the index was updated
+     * after creation of the iterator. When this option is true, iterator restores its position after
+     * update of the index: it continues iteration from the last returned key, so objects inserted or removed
+     * in the rest of the range are visible to the iterator and no object is returned twice.
+     * It allows to update the index while iterating through it without making copy of its members.
+     * </TD></TR>
      * <TR><TD><code>perst.background.gc</code></TD><TD>Boolean</TD><TD>false</TD>
      * <TD>Perform garbage collection in separate thread without blocking the main application.
      * </TD></TR>
      * <TR><TD><code>perst.string.encoding</code></TD><TD>String</TD><TD>null</TD>
      * <TD>Specifies encoding of storing strings in the database. By default Perst stores 
-     * strings as sequence of chars (two bytes per char). If all strings in application are in 
-     * the same language, then using encoding  can signifficantly reduce space needed
-     * to store string (about two times). But please notice, that this option has influence
+     * strings in compact representation (see <code>perst.compact.strings</code>).
+     * If encoding is specified, it is used instead of compact representation.
+     * But please notice, that this option has influence
      * on all strings  stored in database. So if you already have some data in the storage
      * and then change encoding, then it will cause database crash.
      * </TD></TR>
+     * <TR><TD><code>perst.compact.strings</code></TD><TD>Boolean</TD><TD>true</TD>
+     * <TD>Store strings as Latin-1 (one byte per char) if all characters of the string fit in one byte
+     * and in UTF-8 otherwise, with variable length encoding of string length. When this option is false,
+     * strings are stored as sequence of chars (two bytes per char) with 4 bytes length, as in
+     * previous versions of Perst. Strings in both representations can be read, so existing databases can be used
+     * without conversion: compact representation is used for all objects stored after the database is opened.
+     * To convert all objects at once, use Storage.upgradeFormat method. Set this option to false
+     * if database should be accessed by previous versions of Perst.
+     * B-Tree keys are not affected by this option.
+     * </TD></TR>
      * <TR><TD><code>perst.replication.ack</code></TD><TD>Boolean</TD><TD>false</TD>
      * <TD>Request acknowledgement from slave that it receives all data before transaction
      * commit. If this option is not set, then replication master node just writes
@@ -507,6 +606,73 @@ public interface Storage {
      * for acknowledgment, while in the asynchronous mode special replication thread will be blocked
      * allowing thread performing commit to proceed.
      * </TD></TR>
+     * <TR><TD><code>perst.page.pool.segments</code></TD><TD>Integer</TD><TD>1</TD>
+     * <TD>Number of independently locked segments of page pool. Each segment has its own
+     * hash table and list of pages for replacement, so threads accessing different pages do not block each other.
+     * It is useful for read intensive applications running on multiprocessor systems.
+     * Database file opened by <code>open(String)</code> methods is also opened with the same number of descriptors,
+     * so pages of different segments can be read from the disk concurrently.
+     * Value is rounded down to power of two and reduced if page pool is too small to be
+     * split in the requested number of segments.
+     * </TD></TR>
+     * <TR><TD><code>perst.page.pool.policy</code></TD><TD>String</TD><TD>"lru"</TD>
+     * <TD>Policy used to select page to be thrown away from the page pool. The following values are
+     * supported: "lru", "2q" (other values cause <code>StorageError.BAD_PROPERTY_VALUE</code> error when storage is opened).
+     * <B>LRU</B> policy replaces least recently used page. <B>2Q</B> policy
+     * places in the main LRU list only pages which were accessed more than once, so sequential
+     * scan of large index or backup will not throw away frequently used pages from the pool.
+     * Efficiency of the policy can be checked using Storage.getPagePoolStatistics method.
+     * </TD></TR>
+     * <TR><TD><code>perst.page.pool.dirty.ratio</code></TD><TD>Integer</TD><TD>0</TD>
+     * <TD>Maximal percent of modified pages in page pool. When it is exceeded, background thread starts
+     * writing modified pages to the disk, so commit has to write only pages which were modified recently
+     * and page pool rarely has to write modified page to free space for the new one.
+     * 0 disables background writing. This property is ignored for infinite page pool.
+     * </TD></TR>
+     * <TR><TD><code>perst.page.pool.direct</code></TD><TD>Boolean</TD><TD>false</TD>
+     * <TD>Load objects directly from the mapped region if database is opened with <code>MappedFile</code>.
+     * When object is loaded and its page is not present in page pool, object is copied from the mapped region
+     * without placing the page in the pool. So loading of objects doesn't throw away index pages from the pool,
+     * object data is copied once instead of twice and is not kept in memory twice (in page pool and in OS file cache).
+     * Objects crossing page boundary and pages of indices are still accessed through the pool.
+     * This property is ignored for infinite page pool and for other file implementations.
+     * </TD></TR>
+     * <TR><TD><code>perst.page.size</code></TD><TD>Integer</TD><TD>4096</TD>
+     * <TD>Size of database page: 4096, 8192, 16384 or 32768. Page size is chosen when database is created
+     * and is stored in the database header, so this property is ignored when existing database is opened.
+     * Larger pages increase number of items in B-Tree and R-Tree pages, reducing height of the tree,
+     * and increase size of unit of disk I/O. Replication slave should use the same page size as master.
+     * </TD></TR>
+     * <TR><TD><code>perst.group.commit.delay</code></TD><TD>Integer</TD><TD>0</TD>
+     * <TD>Time in milliseconds during which commit requests of concurrent threads are collected
+     * to be committed together. Thread calling <code>commit</code> or <code>endThreadTransaction</code>
+     * waits until transaction including its changes is committed, but all threads in the group share one
+     * switch of the root page and one pair of disk flushes. Zero value disables group commit.
+     * </TD></TR>
+     * <TR><TD><code>perst.redo.log</code></TD><TD>String</TD><TD>null</TD>
+     * <TD>Path to the write-ahead redo log. If specified, commit appends images of all modified pages
+     * to this file and synchronizes only it, instead of synchronizing the database file twice.
+     * Pages are written to the database file without synchronization and are made durable by checkpoint
+     * performed in background, after which the log is truncated. When database is opened,
+     * all transactions completely written to the log are applied to the database file.
+     * Please notice that pages are stored in the log as is, even if the database file is encrypted.
+     * </TD></TR>
+     * <TR><TD><code>perst.redo.log.limit</code></TD><TD>Long</TD><TD>64Mb</TD>
+     * <TD>Size of redo log after which checkpoint is performed.
+     * </TD></TR>
+     * <TR><TD><code>perst.statistics</code></TD><TD>Boolean</TD><TD>false</TD>
+     * <TD>Collect statistic of object cache usage, allocations, commits and garbage collections,
+     * available through Storage.getStatistics method. When collection of statistic is disabled,
+     * counters are not updated at all.
+     * </TD></TR>
+     * <TR><TD><code>perst.statistics.mbean</code></TD><TD>String</TD><TD>null</TD>
+     * <TD>Name under which statistic MBean is registered in platform MBean server when storage is opened.
+     * Setting this property also enables collection of statistic.
+     * </TD></TR>
+     * <TR><TD><code>perst.slow.operation.threshold</code></TD><TD>Long</TD><TD>0</TD>
+     * <TD>Duration of commit or garbage collection (in milliseconds) after which
+     * StorageListener.slowOperation method is called. 0 disables notification.
+     * </TD></TR>
      * </TABLE>
      * @param name name of the property
      * @param value value of the property (for boolean properties pass <code>java.lang.Boolean.TRUE</code>
@@ -552,6 +718,18 @@ public interface Storage {
      */
     public long getDatabaseSize();
 
+    /**
+     * Get page pool usage statistic: number of hits, misses and evicted pages since
+     * the storage was opened
+     */
+    public PagePoolStatistics getPagePoolStatistics();
+
+    /**
+     * Get snapshot of storage usage statistic. Page pool statistic is always available,
+     * other counters are collected only if <code>perst.statistics</code> property is set.
+     */
+    public StorageStatistics getStatistics();
+
  
     /**
      * Set class loader. This class loader will be used to locate classes for 
@@ -56,6 +56,7 @@ public class StorageError extends RuntimeException {
         "Could not find indexed field",
         "Lock could not be granted",
         "No such database property",
+        "Bad property value",
         "Attempt to store persistent object as raw object",
         "Attempt to store java.lang.Object as value",
         "Unsupported encoding", 
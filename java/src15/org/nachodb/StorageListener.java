@@ -38,6 +38,21 @@ public abstract class StorageListener {
      */
     public void gcCompleted(int nDeallocatedObjects) {}
 
+    /**
+     * This method is called after completion of each commit. It can be used to monitor
+     * duration of commits without enabling collection of statistic.
+     * @param elapsedTime duration of commit in nanoseconds
+     */
+    public void commitCompleted(long elapsedTime) {}
+
+    /**
+     * This method is called when duration of commit or garbage collection exceeds value
+     * of <code>perst.slow.operation.threshold</code> property
+     * @param operation name of operation: "commit" or "gc"
+     * @param elapsedTime duration of operation in nanoseconds
+     */
+    public void slowOperation(String operation, long elapsedTime) {}
+
     /**
      * Handle replication error 
      * @param host address of host replication to which is failed (null if error jappens at slave node)
@@ -0,0 +1,69 @@
+package org.nachodb;
+
+/**
+ * Snapshot of storage usage statistic. Instances of this class are created by Storage.getStatistics method.
+ * Counters are accumulated since the storage was opened. Except page pool statistic, counters are collected
+ * only if <code>perst.statistics</code> property is set, otherwise they are zero.
+ * All times are measured in nanoseconds.
+ */
+public class StorageStatistics { 
+    /**
+     * Page pool usage statistic
+     */
+    public PagePoolStatistics pagePool;
+
+    /**
+     * Number of object requests satisfied by object cache
+     */
+    public long nObjectCacheHits;
+
+    /**
+     * Number of objects loaded from the database
+     */
+    public long nObjectCacheMisses;
+
+    /**
+     * Number of allocations of space in the database file
+     */
+    public long nAllocations;
+
+    /**
+     * Number of allocation bitmap pages inspected while searching for free space
+     */
+    public long nAllocationBitmapPages;
+
+    /**
+     * Number of committed transactions
+     */
+    public long nCommits;
+
+    /**
+     * Total time spent in commit
+     */
+    public long commitTime;
+
+    /**
+     * Maximal duration of commit
+     */
+    public long maxCommitTime;
+
+    /**
+     * Number of garbage collections
+     */
+    public long nGcRuns;
+
+    /**
+     * Total time of mark phase of garbage collection
+     */
+    public long gcMarkTime;
+
+    /**
+     * Total time of sweep phase of garbage collection
+     */
+    public long gcSweepTime;
+
+    /**
+     * Number of objects deallocated by garbage collector
+     */
+    public long nDeallocatedObjects;
+}
@@ -0,0 +1,213 @@
+package org.nachodb.impl;
+import  org.nachodb.*;
+
+import java.security.*;
+import javax.crypto.*;
+import javax.crypto.spec.*;
+
+/**
+ * Encrypted file using AES cipher in counter (CTR) mode provided by JCE.
+ * Counter of the first cipher block of the page is derived from position of the page in the file,
+ * so any page can be encrypted or decrypted independently of others. Unlike <code>Rc4File</code>
+ * this class doesn't serialize access to the file: each thread uses its own cipher instance
+ * and buffer, so pages can be concurrently read and written by several threads
+ * (if it is supported by the underlying file).<br>
+ * Cipher key is derived from the specified password by PBKDF2 (HMAC-SHA256 or, if it is not supported by JRE,
+ * HMAC-SHA1) with random salt, which is stored together with number of iterations and used PBKDF2
+ * algorithm in the header of the file preceding the first page.
+ * The header also contains check value derived from the password, so wrong password is
+ * reported when the file is opened.
+ * Please notice that, as in any disk encryption scheme without authentication,
+ * modification of the page in the file is not detected and consecutive versions of the same page
+ * are encrypted with the same key stream.
+ */
+public class AesFile implements IFile
+{
+    public void write(long pos, byte[] buf)
+    { 
+        CipherState state = getCipherState();
+        byte[] cipherText = state.getBuffer(buf.length);
+        crypt(state, pos, buf, cipherText, buf.length);
+        synchronized (this) { 
+            if (pos > length) { 
+                // fill gap with encrypted zero pages: otherwise hole in the file will be decrypted to garbage
+                byte[] zeroPage = new byte[buf.length];
+                byte[] zeroCipherText = new byte[buf.length];
+                do { 
+                    crypt(state, length, zeroPage, zeroCipherText, buf.length);
+                    file.write(HEADER_SIZE + length, zeroCipherText);
+                } while ((length += buf.length) < pos);
+            }
+            if (pos + buf.length > length) { 
+                length = pos + buf.length;
+            }
+        }
+        file.write(HEADER_SIZE + pos, cipherText);
+    }
+
+    public int read(long pos, byte[] buf)
+    { 
+        synchronized (this) { 
+            if (pos >= length) { 
+                return 0;
+            }
+        }
+        int rc = file.read(HEADER_SIZE + pos, buf);
+        if (rc > 0) { 
+            crypt(getCipherState(), pos, buf, buf, rc);
+        }
+        return rc;
+    }
+
+    public AesFile(String filePath, boolean readOnly, boolean noFlush, String key)
+    { 
+        this(new OSFile(filePath, readOnly, noFlush), key);
+    }
+
+    public AesFile(IFile file, String key)
+    { 
+        this.file = file;
+        long size = file.length();
+        length = size > HEADER_SIZE ? (size - HEADER_SIZE) & ~(Page.minPageSize-1) : 0;
+        byte[] header = new byte[HEADER_SIZE];
+        byte[] derived;
+        try { 
+            if (size == 0) { 
+                byte[] salt = new byte[SALT_SIZE];
+                new SecureRandom().nextBytes(salt);
+                int algorithm = PBKDF2_HMAC_SHA256;
+                try { 
+                    derived = deriveKey(key, salt, PBKDF2_ITERATIONS, algorithm);
+                } catch (NoSuchAlgorithmException x) { 
+                    algorithm = PBKDF2_HMAC_SHA1;
+                    derived = deriveKey(key, salt, PBKDF2_ITERATIONS, algorithm);
+                }
+                Bytes.pack4(header, 0, MAGIC);
+                Bytes.pack4(header, 4, PBKDF2_ITERATIONS);
+                System.arraycopy(salt, 0, header, 8, SALT_SIZE);
+                System.arraycopy(derived, KEY_SIZE + 8, header, 8 + SALT_SIZE, CHECK_SIZE);
+                header[8 + SALT_SIZE + CHECK_SIZE] = (byte)algorithm;
+                file.write(0, header);
+            } else { 
+                if (file.read(0, header) != HEADER_SIZE || Bytes.unpack4(header, 0) != MAGIC) { 
+                    throw new StorageError(StorageError.DATABASE_CORRUPTED);
+                }
+                byte[] salt = new byte[SALT_SIZE];
+                System.arraycopy(header, 8, salt, 0, SALT_SIZE);
+                derived = deriveKey(key, salt, Bytes.unpack4(header, 4), header[8 + SALT_SIZE + CHECK_SIZE]);
+                for (int i = 0; i < CHECK_SIZE; i++) { 
+                    if (derived[KEY_SIZE + 8 + i] != header[8 + SALT_SIZE + i]) { 
+                        throw new StorageError(StorageError.FILE_ACCESS_ERROR, "invalid encryption key");
+                    }
+                }
+            }
+            secretKey = new SecretKeySpec(derived, 0, KEY_SIZE, "AES");
+            nonce = Bytes.unpack8(derived, KEY_SIZE);
+            // check that cipher is available
+            createCipher();
+        } catch (StorageError x) { 
+            throw x;
+        } catch (Exception x) { 
+            throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+        }
+    }
+
+    /**
+     * Derive cipher key, nonce and check value from the password using PBKDF2 (RFC 2898)
+     * @param algorithm <code>PBKDF2_HMAC_SHA256</code> or <code>PBKDF2_HMAC_SHA1</code>
+     */
+    static byte[] deriveKey(String password, byte[] salt, int iterations, int algorithm) throws GeneralSecurityException { 
+        SecretKeyFactory factory = SecretKeyFactory.getInstance(algorithm == PBKDF2_HMAC_SHA1 
+                                                                ? "PBKDF2WithHmacSHA1" : "PBKDF2WithHmacSHA256");
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, (KEY_SIZE + 8 + CHECK_SIZE)*8);
+        try { 
+            return factory.generateSecret(spec).getEncoded();
+        } finally { 
+            spec.clearPassword();
+        }
+    }
+
+    private Cipher createCipher() throws GeneralSecurityException { 
+        return Cipher.getInstance("AES/CTR/NoPadding");
+    }
+
+    /**
+     * Cipher, counter block and page buffer used by one thread
+     */
+    static class CipherState { 
+        Cipher cipher;
+        byte[] iv = new byte[BLOCK_SIZE];
+        byte[] buf;
+
+        byte[] getBuffer(int size) { 
+            if (buf == null || buf.length != size) { 
+                // buffer size is equal to the database page size
+                buf = new byte[size];
+            }
+            return buf;
+        }
+    }
+
+    private CipherState getCipherState() { 
+        CipherState state = cipherCache.get();
+        if (state == null) { 
+            state = new CipherState();
+            try { 
+                state.cipher = createCipher();
+            } catch (GeneralSecurityException x) { 
+                throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+            }
+            Bytes.pack8(state.iv, 0, nonce);
+            cipherCache.set(state);
+        }
+        return state;
+    }
+
+    /**
+     * Encrypt or decrypt (in CTR mode it is the same operation) data at the specified position.
+     * Cipher is reinitialized with counter of the first block of the page and the whole page
+     * is processed by one call.
+     */
+    private void crypt(CipherState state, long pos, byte[] src, byte[] dst, int len) { 
+        Bytes.pack8(state.iv, 8, pos / BLOCK_SIZE);
+        try { 
+            state.cipher.init(Cipher.ENCRYPT_MODE, secretKey, new IvParameterSpec(state.iv));
+            state.cipher.doFinal(src, 0, len, dst, 0);
+        } catch (GeneralSecurityException x) { 
+            throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+        }
+    }
+
+    public void close() { 
+        file.close();
+    }
+
+    public boolean lock() { 
+        return file.lock();
+    }
+
+    public void sync() { 
+        file.sync();
+    }
+
+    public long length() { 
+        long size = file.length();
+        return size > HEADER_SIZE ? size - HEADER_SIZE : 0;
+    }
+
+    static final int KEY_SIZE = 16;
+    static final int BLOCK_SIZE = 16;
+    static final int SALT_SIZE = 16;
+    static final int CHECK_SIZE = 8;
+    static final int MAGIC = 0x41455331; // "AES1"
+    static final int PBKDF2_ITERATIONS = 65536;
+    static final int PBKDF2_HMAC_SHA256 = 0;
+    static final int PBKDF2_HMAC_SHA1 = 1;
+    static final int HEADER_SIZE = Page.minPageSize; // pages in the file remain aligned
+
+    private IFile         file;
+    private long          length;
+    private SecretKeySpec secretKey;
+    private long          nonce;
+    private ThreadLocal<CipherState> cipherCache = new ThreadLocal<CipherState>();
+}
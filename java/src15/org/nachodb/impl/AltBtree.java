@@ -29,7 +29,10 @@ class AltBtree<T extends IPersistent> extends PersistentCollection<T> implements
         int  nItems;
         Link items;
 
-        static final int BTREE_PAGE_SIZE = Page.pageSize - ObjectHeader.sizeof - 4*3;
+        // number of items in the new page depends on the page size of the database
+        static int maxItems(Storage s, int keySize) { 
+            return (((StorageImpl)s).pageSize - ObjectHeader.sizeof - 4*3) / (4 + keySize);
+        }
 
         abstract Object    getData();
         abstract Object    getKeyValue(int i);
@@ -347,8 +350,6 @@ class AltBtree<T extends IPersistent> extends PersistentCollection<T> implements
     static class BtreePageOfByte extends BtreePage { 
         byte[] data; 
 
-        static final int MAX_ITEMS = BTREE_PAGE_SIZE / (4 + 1);
-            
         Object getData() { 
             return data;
         }
@@ -375,8 +376,8 @@ class AltBtree<T extends IPersistent> extends PersistentCollection<T> implements
         }
 
         BtreePageOfByte(Storage s) {
-            super(s, MAX_ITEMS);
-            data = new byte[MAX_ITEMS];
+            super(s, maxItems(s, 1));
+            data = new byte[items.size()];
         }
 
         BtreePageOfByte() {}
@@ -405,8 +406,6 @@ class AltBtree<T extends IPersistent> extends PersistentCollection<T> implements
     static class BtreePageOfShort extends BtreePage { 
         short[] data; 
 
-        static final int MAX_ITEMS = BTREE_PAGE_SIZE / (4 + 2);
-            
         Object getData() { 
             return data;
         }
@@ -433,8 +432,8 @@ class AltBtree<T extends IPersistent> extends PersistentCollection<T> implements
         }
 
         BtreePageOfShort(Storage s) {
-            super(s, MAX_ITEMS);
-            data = new short[MAX_ITEMS];
+            super(s, maxItems(s, 2));
+            data = new short[items.size()];
         }
 
         BtreePageOfShort() {}
@@ -442,8 +441,6 @@ class AltBtree<T extends IPersistent> extends PersistentCollection<T> implements
 
     static class BtreePageOfInt extends BtreePage { 
         int[] data; 
-
-        static final int MAX_ITEMS = BTREE_PAGE_SIZE / (4 + 4);
             
         Object getData() { 
             return data;
@@ -471,8 +468,8 @@ class AltBtree<T extends IPersistent> extends PersistentCollection<T> implements
         }
 
         BtreePageOfInt(Storage s) { 
-            super(s, MAX_ITEMS);
-            data = new int[MAX_ITEMS];
+            super(s, maxItems(s, 4));
+            data = new int[items.size()];
         }
 
         BtreePageOfInt() {}
@@ -480,8 +477,6 @@ class AltBtree<T extends IPersistent> extends PersistentCollection<T> implements
 
     static class BtreePageOfLong extends BtreePage { 
         long[] data; 
-
-        static final int MAX_ITEMS = BTREE_PAGE_SIZE / (4 + 8);
             
         Object getData() { 
             return data;
@@ -509,8 +504,8 @@ class AltBtree<T extends IPersistent> extends PersistentCollection<T> implements
         }
 
         BtreePageOfLong(Storage s) { 
-            super(s, MAX_ITEMS);
-            data = new long[MAX_ITEMS];
+            super(s, maxItems(s, 8));
+            data = new long[items.size()];
         }
 
         BtreePageOfLong() {}
@@ -518,8 +513,6 @@ class AltBtree<T extends IPersistent> extends PersistentCollection<T> implements
 
     static class BtreePageOfFloat extends BtreePage { 
         float[] data; 
-
-        static final int MAX_ITEMS = BTREE_PAGE_SIZE / (4 + 4);
             
         Object getData() { 
             return data;
@@ -547,8 +540,8 @@ class AltBtree<T extends IPersistent> extends PersistentCollection<T> implements
         }
 
         BtreePageOfFloat(Storage s) {
-            super(s, MAX_ITEMS);
-            data = new float[MAX_ITEMS];
+            super(s, maxItems(s, 4));
+            data = new float[items.size()];
         }
 
         BtreePageOfFloat() {}
@@ -556,8 +549,6 @@ class AltBtree<T extends IPersistent> extends PersistentCollection<T> implements
 
     static class BtreePageOfDouble extends BtreePage { 
         double[] data; 
-
-        static final int MAX_ITEMS = BTREE_PAGE_SIZE / (4 + 8);
             
         Object getData() { 
             return data;
@@ -585,8 +576,8 @@ class AltBtree<T extends IPersistent> extends PersistentCollection<T> implements
         }
 
         BtreePageOfDouble(Storage s) {
-            super(s, MAX_ITEMS);
-            data = new double[MAX_ITEMS];
+            super(s, maxItems(s, 8));
+            data = new double[items.size()];
         }
 
         BtreePageOfDouble() {}
@@ -595,8 +586,6 @@ class AltBtree<T extends IPersistent> extends PersistentCollection<T> implements
 
     static class BtreePageOfObject extends BtreePage { 
         Link data; 
-
-        static final int MAX_ITEMS = BTREE_PAGE_SIZE / (4 + 4);
             
         Object getData() { 
             return data.toRawArray();
@@ -624,9 +613,9 @@ class AltBtree<T extends IPersistent> extends PersistentCollection<T> implements
         }
 
         BtreePageOfObject(Storage s) {
-            super(s, MAX_ITEMS);
-            data = s.createLink(MAX_ITEMS);
-            data.setSize(MAX_ITEMS);
+            super(s, maxItems(s, 4));
+            data = s.createLink(items.size());
+            data.setSize(items.size());
         }
 
         BtreePageOfObject() {}
@@ -728,7 +717,7 @@ class AltBtree<T extends IPersistent> extends PersistentCollection<T> implements
         }
 
         Key getKey(int i) { 
-            return new Key(((Comparable[])data)[i]);
+            return new Key((Comparable)((Object[])data)[i]);
         }
 
         Object getKeyValue(int i) { 
@@ -1014,6 +1003,37 @@ class AltBtree<T extends IPersistent> extends PersistentCollection<T> implements
         return get(new Key(prefix, true), new Key(prefix + Character.MAX_VALUE, false));
     }
 
+    public int bulkLoad(Iterator<Map.Entry<Key,T>> entries) { 
+        int n = 0;
+        while (entries.hasNext()) { 
+            Map.Entry<Key,T> e = entries.next();
+            if (put(e.getKey(), e.getValue())) { 
+                n += 1;
+            }
+        }
+        return n;
+    }
+
+    public int getAll(Key[] keys, T[] result) { 
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) { 
+            if ((result[i] = get(keys[i])) != null) { 
+                n += 1;
+            }
+        }
+        return n;
+    }
+
+    public int putAll(Key[] keys, T[] objs) { 
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) { 
+            if (put(keys[i], objs[i])) { 
+                n += 1;
+            }
+        }
+        return n;
+    }
+
     public boolean put(Object key, T obj) {
         return put(Btree.getKeyFromObject(key), obj);
     }
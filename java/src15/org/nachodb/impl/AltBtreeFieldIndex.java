@@ -116,6 +116,16 @@ class AltBtreeFieldIndex<T extends IPersistent> extends AltBtree<T> implements F
         return super.insert(extractKey(obj), obj, false) == null;
     }
 
+    public int bulkLoad(Iterable<T> objects) { 
+        int n = 0;
+        for (T obj : objects) { 
+            if (put(obj)) { 
+                n += 1;
+            }
+        }
+        return n;
+    }
+
     public T set(T obj) {
         return super.set(extractKey(obj), obj);
     }
@@ -11,6 +11,7 @@ class AltBtreeMultiFieldIndex<T extends IPersistent> extends AltBtree<T> impleme
 
     transient Class   cls;
     transient Field[] fld;
+    transient int[]   types;
 
     AltBtreeMultiFieldIndex() {}
     
@@ -27,6 +28,7 @@ class AltBtreeMultiFieldIndex<T extends IPersistent> extends AltBtree<T> impleme
     {
         Class scope = cls;
         fld = new Field[fieldName.length];
+        types = new int[fieldName.length];
         for (int i = 0; i < fieldName.length; i++) {
             try { 
                 do { 
@@ -44,6 +46,7 @@ class AltBtreeMultiFieldIndex<T extends IPersistent> extends AltBtree<T> impleme
             if (fld[i] == null) { 
                 throw new StorageError(StorageError.INDEXED_FIELD_NOT_FOUND, className + "." + fieldName[i]);
             }
+            types[i] = Btree.checkType(fld[i].getType());
         }
     }
 
@@ -61,23 +64,20 @@ class AltBtreeMultiFieldIndex<T extends IPersistent> extends AltBtree<T> impleme
         locateFields();
     }
 
-    static class CompoundKey implements Comparable {
-        Object[] keys;
+    /**
+     * Compound key encoded by NormalizedKey, so keys are compared as strings of unsigned bytes
+     */
+    static class CompoundKey implements Comparable, java.io.Serializable { 
+        byte[] bytes;
 
         public int compareTo(Object o) { 
-            CompoundKey c = (CompoundKey)o;
-            int n = keys.length < c.keys.length ? keys.length : c.keys.length; 
-            for (int i = 0; i < n; i++) { 
-                int diff = ((Comparable)keys[i]).compareTo(c.keys[i]);
-                if (diff != 0) { 
-                    return diff;
-                }
-            }
-            return keys.length - c.keys.length;
+            byte[] b = ((CompoundKey)o).bytes;
+            int diff = NormalizedKey.compare(bytes, b, 0, b.length);
+            return diff != 0 ? diff : bytes.length - b.length;
         }
 
-        CompoundKey(Object[] keys) { 
-            this.keys = keys;
+        CompoundKey(byte[] bytes) { 
+            this.bytes = bytes;
         }
     }
                 
@@ -88,7 +88,7 @@ class AltBtreeMultiFieldIndex<T extends IPersistent> extends AltBtree<T> impleme
         if (key.type != ClassDescriptor.tpArrayOfObject) { 
             throw new StorageError(StorageError.INCOMPATIBLE_KEY_TYPE);
         }
-        return new Key(new CompoundKey((Object[])key.oval), key.inclusion != 0);
+        return new Key(new CompoundKey(NormalizedKey.pack(types, (Object[])key.oval)), key.inclusion != 0);
     }
             
     private Key extractKey(IPersistent obj) {
@@ -100,13 +100,23 @@ class AltBtreeMultiFieldIndex<T extends IPersistent> extends AltBtree<T> impleme
         } catch (Exception x) { 
             throw new StorageError(StorageError.ACCESS_VIOLATION, x);
         }
-        return new Key(new CompoundKey(keys));
+        return new Key(new CompoundKey(NormalizedKey.pack(types, keys)));
     }
 
     public boolean put(T obj) {
         return super.put(extractKey(obj), obj);
     }
 
+    public int bulkLoad(Iterable<T> objects) { 
+        int n = 0;
+        for (T obj : objects) { 
+            if (put(obj)) { 
+                n += 1;
+            }
+        }
+        return n;
+    }
+
     public T set(T obj) {
         return super.set(extractKey(obj), obj);
     }
@@ -49,7 +49,7 @@ public class AsyncReplicationMasterFile extends ReplicationMasterFile implements
         Parcel next;
     }
     
-    public void write(long pos, byte[] buf) {
+    public synchronized void write(long pos, byte[] buf) { 
         file.write(pos, buf);
         for (int i = 0; i < out.length; i++) { 
             if (out[i] != null) {                
@@ -71,7 +71,7 @@ class BitIndexImpl<T extends IPersistent> extends Btree<T> implements BitIndex<T
             if (BitIndexPage.getnItems(pg) == 0) {                         
                 int newRoot = 0;
                 if (height != 1) { 
-                    newRoot = BitIndexPage.getItem(pg, BitIndexPage.maxItems-1);
+                    newRoot = BitIndexPage.getItem(pg, BitIndexPage.maxItems(pg)-1);
                 }
                 db.freePage(root);
                 root = newRoot;
@@ -112,7 +112,7 @@ class BitIndexImpl<T extends IPersistent> extends Btree<T> implements BitIndex<T
                     gotoNextItem(pg, 0);
                     break;
                 }
-                pageId = BitIndexPage.getItem(pg, BitIndexPage.maxItems-1);
+                pageId = BitIndexPage.getItem(pg, BitIndexPage.maxItems(pg)-1);
                 db.pool.unfix(pg);
             }
         }
@@ -133,7 +133,7 @@ class BitIndexImpl<T extends IPersistent> extends Btree<T> implements BitIndex<T
             StorageImpl db = (StorageImpl)getStorage();
             int pos = posStack[sp-1];   
             Page pg = db.getPage(pageStack[sp-1]);
-            Object curr = db.lookupObject(BitIndexPage.getItem(pg, BitIndexPage.maxItems-1-pos), null);
+            Object curr = db.lookupObject(BitIndexPage.getItem(pg, BitIndexPage.maxItems(pg)-1-pos), null);
             gotoNextItem(pg, pos+1);
             return (E)curr;
         }
@@ -160,7 +160,7 @@ class BitIndexImpl<T extends IPersistent> extends Btree<T> implements BitIndex<T
                     if (++pos <= BitIndexPage.getnItems(pg)) {
                         posStack[sp-1] = pos;
                         do { 
-                            int pageId = BitIndexPage.getItem(pg, BitIndexPage.maxItems-1-pos);
+                            int pageId = BitIndexPage.getItem(pg, BitIndexPage.maxItems(pg)-1-pos);
                             db.pool.unfix(pg);
                             pg = db.getPage(pageId);
                             pageStack[sp] = pageId;
@@ -198,7 +198,9 @@ class BitIndexImpl<T extends IPersistent> extends Btree<T> implements BitIndex<T
     }
 
     static class BitIndexPage extends BtreePage { 
-        static final int max = keySpace / 8;    
+        static int max(Page pg) { 
+            return keySpace(pg) / 8;
+        }
 
         static int getItem(Page pg, int index) { 
             return Bytes.unpack4(pg.data, firstKeyOffs + index*4);
@@ -214,8 +216,8 @@ class BitIndexImpl<T extends IPersistent> extends Btree<T> implements BitIndex<T
             Page pg = db.putPage(pageId);
             setnItems(pg, 1);
             setItem(pg, 0, ins.key);
-            setItem(pg, maxItems-1, ins.oid);
-            setItem(pg, maxItems-2, root);
+            setItem(pg, maxItems(pg)-1, ins.oid);
+            setItem(pg, maxItems(pg)-2, root);
             db.pool.unfix(pg);
             return pageId;
         }
@@ -235,13 +237,13 @@ class BitIndexImpl<T extends IPersistent> extends Btree<T> implements BitIndex<T
                 if (--height == 0) {
                     while (l < r)  {
                         i = (l+r) >> 1;
-                        if (oid > getItem(pg, maxItems-1-i)) { 
+                        if (oid > getItem(pg, maxItems(pg)-1-i)) { 
                             l = i+1; 
                         } else { 
                             r = i;
                         }
                     }
-                    if (r < n && getItem(pg, maxItems-r-1) == oid) {
+                    if (r < n && getItem(pg, maxItems(pg)-r-1) == oid) { 
                         return getItem(pg, r);
                     }
                     throw new StorageError(StorageError.KEY_NOT_FOUND);                    
@@ -254,7 +256,7 @@ class BitIndexImpl<T extends IPersistent> extends Btree<T> implements BitIndex<T
                             r = i;
                         }
                     }
-                    return find(db, getItem(pg, maxItems-r-1), oid, height);
+                    return find(db, getItem(pg, maxItems(pg)-r-1), oid, height);
                 }
             } finally { 
                 if (pg != null) { 
@@ -280,7 +282,7 @@ class BitIndexImpl<T extends IPersistent> extends Btree<T> implements BitIndex<T
                     }
                     Assert.that(l == r);
                     /* insert before e[r] */
-                    int result = insert(db, getItem(pg, maxItems-r-1), ins, height);
+                    int result = insert(db, getItem(pg, maxItems(pg)-r-1), ins, height);
                     Assert.that(result != op_not_found);
                     if (result != op_overflow) {
                         return result;
@@ -289,13 +291,13 @@ class BitIndexImpl<T extends IPersistent> extends Btree<T> implements BitIndex<T
                 } else { 
                     while (l < r)  {
                         int i = (l+r) >> 1;
-                        if (oid > getItem(pg,  maxItems-1-i)) { 
+                        if (oid > getItem(pg,  maxItems(pg)-1-i)) { 
                             l = i+1; 
                         } else { 
                             r = i;
                         }
                     }
-                    if (r < n && oid == getItem(pg,  maxItems-1-r)) { 
+                    if (r < n && oid == getItem(pg,  maxItems(pg)-1-r)) { 
                         db.pool.unfix(pg);
                         pg = null;
                         pg = db.putPage(pageId);
@@ -306,45 +308,45 @@ class BitIndexImpl<T extends IPersistent> extends Btree<T> implements BitIndex<T
                 db.pool.unfix(pg);
                 pg = null;
                 pg = db.putPage(pageId);
-                if (n < max) {
+                if (n < max(pg)) { 
                     memcpy(pg, r+1, pg, r, n - r);
-                    memcpy(pg, maxItems-n-1, pg, maxItems-n, n-r);
+                    memcpy(pg, maxItems(pg)-n-1, pg, maxItems(pg)-n, n-r);
                     setItem(pg, r, ins.key);
-                    setItem(pg, maxItems-1-r, ins.oid);
+                    setItem(pg, maxItems(pg)-1-r, ins.oid);
                     setnItems(pg, getnItems(pg)+1);
                     return op_done;
                 } else { /* page is full then divide page */
                     pageId = db.allocatePage();
                     Page b = db.putPage(pageId);
-                    Assert.that(n == max);
-                    int m = max/2;
+                    Assert.that(n == max(pg));
+                    int m = max(pg)/2;
                     if (r < m) {
                         memcpy(b, 0, pg, 0, r);
                         memcpy(b, r+1, pg, r, m-r-1);
-                        memcpy(pg, 0, pg, m-1, max-m+1);
-                        memcpy(b, maxItems-r, pg, maxItems-r, r);
+                        memcpy(pg, 0, pg, m-1, max(pg)-m+1);
+                        memcpy(b, maxItems(pg)-r, pg, maxItems(pg)-r, r);
                         setItem(b, r, ins.key);
-                        setItem(b, maxItems-1-r, ins.oid);
-                        memcpy(b, maxItems-m, pg, maxItems-m+1, m-r-1);
-                        memcpy(pg, maxItems-max+m-1, pg, maxItems-max, max-m+1);
+                        setItem(b, maxItems(pg)-1-r, ins.oid);
+                        memcpy(b, maxItems(pg)-m, pg, maxItems(pg)-m+1, m-r-1);
+                        memcpy(pg, maxItems(pg)-max(pg)+m-1, pg, maxItems(pg)-max(pg), max(pg)-m+1);
                     } else {
                         memcpy(b, 0, pg, 0, m);
                         memcpy(pg, 0, pg, m, r-m);
-                        memcpy(pg, r-m+1, pg, r, max-r);
-                        memcpy(b, maxItems-m, pg, maxItems-m, m);
-                        memcpy(pg, maxItems-r+m, pg, maxItems-r, r-m);
+                        memcpy(pg, r-m+1, pg, r, max(pg)-r);
+                        memcpy(b, maxItems(pg)-m, pg, maxItems(pg)-m, m);
+                        memcpy(pg, maxItems(pg)-r+m, pg, maxItems(pg)-r, r-m);
                         setItem(pg, r-m, ins.key);
-                        setItem(pg, maxItems-1-r+m, ins.oid);
-                        memcpy(pg, maxItems-max+m-1, pg, maxItems-max, max-r);
+                        setItem(pg, maxItems(pg)-1-r+m, ins.oid);
+                        memcpy(pg, maxItems(pg)-max(pg)+m-1, pg, maxItems(pg)-max(pg), max(pg)-r);
                     }
                     ins.oid = pageId;
                     if (height == 0) {
-                        ins.key = getItem(b, maxItems-m);
-                        setnItems(pg, max - m + 1);
+                        ins.key = getItem(b, maxItems(pg)-m);
+                        setnItems(pg, max(pg) - m + 1);
                         setnItems(b, m);
                     } else {
                         ins.key = getItem(b, m-1);
-                        setnItems(pg, max - m);
+                        setnItems(pg, max(pg) - m);
                         setnItems(b, m - 1);
                     }                            
                     db.pool.unfix(b);
@@ -361,10 +363,10 @@ class BitIndexImpl<T extends IPersistent> extends Btree<T> implements BitIndex<T
         static int handlePageUnderflow(StorageImpl db, Page pg, int r, int height)
         {
             int nItems = getnItems(pg);
-            Page a = db.putPage(getItem(pg, maxItems-r-1));
+            Page a = db.putPage(getItem(pg, maxItems(pg)-r-1));
             int an = getnItems(a);
             if (r < nItems) { // exists greater page
-                Page b = db.getPage(getItem(pg, maxItems-r-2));
+                Page b = db.getPage(getItem(pg, maxItems(pg)-r-2));
                 int bn = getnItems(b); 
                 Assert.that(bn >= an);
                 if (height != 1) { 
@@ -372,19 +374,19 @@ class BitIndexImpl<T extends IPersistent> extends Btree<T> implements BitIndex<T
                     an += 1;
                     bn += 1;
                 }
-                if (an+bn > max) { 
+                if (an+bn > max(pg)) { 
                     // reallocation of nodes between pages a and b
                     int i = bn - ((an + bn) >> 1);
                     db.pool.unfix(b);
-                    b = db.putPage(getItem(pg, maxItems-r-2));
+                    b = db.putPage(getItem(pg, maxItems(pg)-r-2));
                     memcpy(a, an, b, 0, i);
                     memcpy(b, 0, b, i, bn-i);
-                    memcpy(a, maxItems-an-i, b, maxItems-i, i);
-                    memcpy(b, maxItems-bn+i, b, maxItems-bn, bn-i);
+                    memcpy(a, maxItems(pg)-an-i, b, maxItems(pg)-i, i);
+                    memcpy(b, maxItems(pg)-bn+i, b, maxItems(pg)-bn, bn-i);
                     if (height != 1) { 
                         memcpy(pg, r, a, an+i-1, 1);
                     } else { 
-                        memcpy(pg, r, a, maxItems-an-i, 1);
+                        memcpy(pg, r, a, maxItems(pg)-an-i, 1);
                     }
                     setnItems(b, getnItems(b) - i);
                     setnItems(a, getnItems(a) + i);
@@ -393,39 +395,39 @@ class BitIndexImpl<T extends IPersistent> extends Btree<T> implements BitIndex<T
                     return op_done;
                 } else { // merge page b to a  
                     memcpy(a, an, b, 0, bn);
-                    memcpy(a, maxItems-an-bn, b, maxItems-bn, bn);
-                    db.freePage(getItem(pg, maxItems-r-2));
-                    memcpy(pg, maxItems-nItems, pg, maxItems-nItems-1, 
+                    memcpy(a, maxItems(pg)-an-bn, b, maxItems(pg)-bn, bn);
+                    db.freePage(getItem(pg, maxItems(pg)-r-2));
+                    memcpy(pg, maxItems(pg)-nItems, pg, maxItems(pg)-nItems-1,
                            nItems - r - 1);
                     memcpy(pg, r, pg, r+1, nItems - r - 1);
                     setnItems(a, getnItems(a) + bn);
                     setnItems(pg, nItems - 1);
                     db.pool.unfix(a);
                     db.pool.unfix(b);
-                    return nItems < max/2 ? op_underflow : op_done;
+                    return nItems < max(pg)/2 ? op_underflow : op_done;
                 }
             } else { // page b is before a
-                Page b = db.getPage(getItem(pg, maxItems-r));
+                Page b = db.getPage(getItem(pg, maxItems(pg)-r));
                 int bn = getnItems(b); 
                 Assert.that(bn >= an);
                 if (height != 1) { 
                     an += 1;
                     bn += 1;
                 }
-                if (an+bn > max) { 
+                if (an+bn > max(pg)) { 
                     // reallocation of nodes between pages a and b
                     int i = bn - ((an + bn) >> 1);
                     db.pool.unfix(b);
-                    b = db.putPage(getItem(pg, maxItems-r));
+                    b = db.putPage(getItem(pg, maxItems(pg)-r));
                     memcpy(a, i, a, 0, an);
                     memcpy(a, 0, b, bn-i, i);
-                    memcpy(a, maxItems-an-i, a, maxItems-an, an);
-                    memcpy(a, maxItems-i, b, maxItems-bn, i);
+                    memcpy(a, maxItems(pg)-an-i, a, maxItems(pg)-an, an);
+                    memcpy(a, maxItems(pg)-i, b, maxItems(pg)-bn, i);
                     if (height != 1) { 
                         memcpy(a, i-1, pg, r-1, 1);
                         memcpy(pg, r-1, b, bn-i-1, 1);
                     } else { 
-                        memcpy(pg, r-1, b, maxItems-bn+i, 1);
+                        memcpy(pg, r-1, b, maxItems(pg)-bn+i, 1);
                     }
                     setnItems(b, getnItems(b) - i);
                     setnItems(a, getnItems(a) + i);
@@ -435,18 +437,18 @@ class BitIndexImpl<T extends IPersistent> extends Btree<T> implements BitIndex<T
                 } else { // merge page b to a
                     memcpy(a, bn, a, 0, an);
                     memcpy(a, 0, b, 0, bn);
-                    memcpy(a, maxItems-an-bn, a, maxItems-an, an);
-                    memcpy(a, maxItems-bn, b, maxItems-bn, bn);
+                    memcpy(a, maxItems(pg)-an-bn, a, maxItems(pg)-an, an);
+                    memcpy(a, maxItems(pg)-bn, b, maxItems(pg)-bn, bn);
                     if (height != 1) { 
                         memcpy(a, bn-1, pg, r-1, 1);
                     }
-                    db.freePage(getItem(pg, maxItems-r));
-                    setItem(pg, maxItems-r, getItem(pg, maxItems-r-1));
+                    db.freePage(getItem(pg, maxItems(pg)-r));
+                    setItem(pg, maxItems(pg)-r, getItem(pg, maxItems(pg)-r-1));
                     setnItems(a, getnItems(a) + bn);
                     setnItems(pg, nItems - 1);
                     db.pool.unfix(a);
                     db.pool.unfix(b);
-                    return nItems < max/2 ? op_underflow : op_done;
+                    return nItems < max(pg)/2 ? op_underflow : op_done;
                 }
             }
         }
@@ -459,20 +461,20 @@ class BitIndexImpl<T extends IPersistent> extends Btree<T> implements BitIndex<T
                 if (--height == 0) {
                     while (l < r)  {
                         i = (l+r) >> 1;
-                        if (oid > getItem(pg, maxItems-1-i)) { 
+                        if (oid > getItem(pg, maxItems(pg)-1-i)) { 
                             l = i+1; 
                         } else { 
                             r = i;
                         }
                     }
-                    if (r < n && getItem(pg, maxItems-r-1) == oid) {
+                    if (r < n && getItem(pg, maxItems(pg)-r-1) == oid) { 
                         db.pool.unfix(pg);
                         pg = null;
                         pg = db.putPage(pageId);
                         memcpy(pg, r, pg, r+1, n - r - 1);
-                        memcpy(pg, maxItems-n+1, pg, maxItems-n, n - r - 1);
+                        memcpy(pg, maxItems(pg)-n+1, pg, maxItems(pg)-n, n - r - 1);
                         setnItems(pg, --n);
-                        return n < max/2 ? op_underflow : op_done;
+                        return n < max(pg)/2 ? op_underflow : op_done;
                     }
                     return op_not_found;
                 } else { 
@@ -484,7 +486,7 @@ class BitIndexImpl<T extends IPersistent> extends Btree<T> implements BitIndex<T
                             r = i;
                         }
                     }
-                    int result = remove(db, getItem(pg, maxItems-r-1), oid, height);
+                    int result = remove(db, getItem(pg, maxItems(pg)-r-1), oid, height);
                     if (result == op_underflow) { 
                         db.pool.unfix(pg);
                         pg = null;
@@ -27,6 +27,17 @@ class Btree<T extends IPersistent> extends PersistentCollection<T> implements In
         return elemType;
     }
        
+    static final int BYTES_SIGNED = 0;   // byte arrays are compared as strings of signed bytes
+    static final int BYTES_UNSIGNED = 1; // byte arrays are compared as strings of unsigned bytes
+    static final int BYTES_CUSTOM = 2;   // byte arrays are compared in other way
+
+    /**
+     * Order of byte array keys defined by <code>compareByteArrays</code>
+     */
+    int byteArrayOrder() { 
+        return BYTES_SIGNED;
+    }
+
     int compareByteArrays(byte[] key, byte[] item, int offs, int length) { 
         int n = key.length >= length ? length : key.length;
         for (int i = 0; i < n; i++) { 
@@ -38,6 +49,51 @@ class Btree<T extends IPersistent> extends PersistentCollection<T> implements In
         return key.length - length;
     }
 
+    /**
+     * Compare two keys of the index type (strings should be converted to char arrays by <code>checkKey</code>)
+     */
+    final int compareKeys(Key k1, Key k2) { 
+        switch (type) { 
+          case ClassDescriptor.tpBoolean:
+          case ClassDescriptor.tpByte:
+            return (byte)k1.ival - (byte)k2.ival;
+          case ClassDescriptor.tpShort:
+            return (short)k1.ival - (short)k2.ival;
+          case ClassDescriptor.tpChar:
+            return (char)k1.ival - (char)k2.ival;
+          case ClassDescriptor.tpObject:
+          case ClassDescriptor.tpInt:
+          case ClassDescriptor.tpEnum:
+            return k1.ival < k2.ival ? -1 : k1.ival == k2.ival ? 0 : 1;
+          case ClassDescriptor.tpLong:
+          case ClassDescriptor.tpDate:
+            return k1.lval < k2.lval ? -1 : k1.lval == k2.lval ? 0 : 1;
+          case ClassDescriptor.tpFloat:
+          case ClassDescriptor.tpDouble:
+            return k1.dval < k2.dval ? -1 : k1.dval == k2.dval ? 0 : 1;
+          case ClassDescriptor.tpString:
+          { 
+            char[] s1 = (char[])k1.oval;
+            char[] s2 = (char[])k2.oval;
+            int n = s1.length < s2.length ? s1.length : s2.length;
+            for (int i = 0; i < n; i++) { 
+                int diff = s1[i] - s2[i];
+                if (diff != 0) { 
+                    return diff;
+                }
+            }
+            return s1.length - s2.length;
+          }
+          case ClassDescriptor.tpArrayOfByte:
+          { 
+            byte[] b2 = (byte[])k2.oval;
+            return compareByteArrays((byte[])k1.oval, b2, 0, b2.length);
+          }
+        }
+        Assert.failed("Invalid type");
+        return 0;
+    }
+
     Btree(Class cls, boolean unique) {
         this.unique = unique;
         type = checkType(cls);
@@ -60,6 +116,13 @@ class Btree<T extends IPersistent> extends PersistentCollection<T> implements In
         unique = obj[offs] != 0;
     }
 
+    /**
+     * Whether string and byte array keys are stored in pages with prefix compression (see <code>PrefixBtreePage</code>)
+     */
+    boolean isPrefixCompressed() { 
+        return false;
+    }
+
     static final int op_done      = 0;
     static final int op_overflow  = 1;
     static final int op_underflow = 2;
@@ -178,6 +241,47 @@ class Btree<T extends IPersistent> extends PersistentCollection<T> implements In
         return (T)((oid != 0) ? ((StorageImpl)getStorage()).lookupObject(oid, null) :  null);
     }
 
+    public int bulkLoad(Iterator<Map.Entry<Key,T>> entries) { 
+        StorageImpl db = (StorageImpl)getStorage();
+        if (db == null) { 
+            throw new StorageError(StorageError.DELETED_OBJECT);
+        }
+        BtreeBuilder builder = new BtreeBuilder(db, this);
+        while (entries.hasNext()) { 
+            Map.Entry<Key,T> e = entries.next();
+            T obj = e.getValue();
+            if (!obj.isPersistent()) { 
+                db.makePersistent(obj);
+            }
+            builder.add(checkKey(e.getKey()), obj.getOid());
+        }
+        return builder.build();
+    }
+
+    Key[] checkKeys(Key[] keys) { 
+        Key[] checked = new Key[keys.length];
+        for (int i = 0; i < keys.length; i++) { 
+            checked[i] = checkKey(keys[i]);
+        }
+        return checked;
+    }
+
+    public int getAll(Key[] keys, T[] result) { 
+        StorageImpl db = (StorageImpl)getStorage();
+        if (db == null) { 
+            throw new StorageError(StorageError.DELETED_OBJECT);
+        }
+        return new BtreeBatch(db, this).getAll(checkKeys(keys), result);
+    }
+
+    public int putAll(Key[] keys, T[] objs) { 
+        StorageImpl db = (StorageImpl)getStorage();
+        if (db == null) { 
+            throw new StorageError(StorageError.DELETED_OBJECT);
+        }
+        return new BtreeBatch(db, this).putAll(checkKeys(keys), objs);
+    }
+
     final int insert(Key key, T obj, boolean overwrite) {
         StorageImpl db = (StorageImpl)getStorage();
         if (db == null) {             
@@ -189,12 +293,12 @@ class Btree<T extends IPersistent> extends PersistentCollection<T> implements In
         }
         BtreeKey ins = new BtreeKey(key, obj.getOid());
         if (root == 0) { 
-            root = BtreePage.allocate(db, 0, type, ins);
+            root = BtreePage.allocate(db, 0, this, ins);
             height = 1;
         } else { 
             int result = BtreePage.insert(db, root, this, ins, height, unique, overwrite);
             if (result == op_overflow) { 
-                root = BtreePage.allocate(db, root, type, ins);
+                root = BtreePage.allocate(db, root, this, ins);
                 height += 1;
             } else if (result == op_duplicate) { 
                 return -1;
@@ -233,7 +337,7 @@ class Btree<T extends IPersistent> extends PersistentCollection<T> implements In
                 if (height != 1) { 
                     newRoot = (type == ClassDescriptor.tpString || type == ClassDescriptor.tpArrayOfByte) 
                         ? BtreePage.getKeyStrOid(pg, 0)
-                        : BtreePage.getReference(pg, BtreePage.maxItems-1);
+                        : BtreePage.getReference(pg, BtreePage.maxItems(pg)-1);
                 }
                 db.freePage(root);
                 root = newRoot;
@@ -241,7 +345,7 @@ class Btree<T extends IPersistent> extends PersistentCollection<T> implements In
             }
             db.pool.unfix(pg);
         } else if (result == op_overflow) { 
-            root = BtreePage.allocate(db, root, type, rem);
+            root = BtreePage.allocate(db, root, this, rem);
             height += 1;
         }
         updateCounter += 1;
@@ -467,23 +571,11 @@ class Btree<T extends IPersistent> extends PersistentCollection<T> implements In
     }
     
     static String unpackStrKey(Page pg, int pos) {
-        int len = BtreePage.getKeyStrSize(pg, pos);
-        int offs = BtreePage.firstKeyOffs + BtreePage.getKeyStrOffs(pg, pos);
-        byte[] data = pg.data;
-        char[] sval = new char[len];
-        for (int j = 0; j < len; j++) { 
-            sval[j] = (char)Bytes.unpack2(data, offs);
-            offs += 2;
-        }
-        return new String(sval);
+        return new String(BtreePage.getKeyChars(pg, pos));
     }
             
     Object unpackByteArrayKey(Page pg, int pos) {
-        int len = BtreePage.getKeyStrSize(pg, pos);
-        int offs = BtreePage.firstKeyOffs + BtreePage.getKeyStrOffs(pg, pos);
-        byte[] val = new byte[len];
-        System.arraycopy(pg.data, offs, val, 0, len);
-        return val;
+        return BtreePage.getKeyBytes(pg, pos);
     }
             
               
@@ -513,7 +605,7 @@ class Btree<T extends IPersistent> extends PersistentCollection<T> implements In
         protected int getReference(Page pg, int pos) { 
             return (type == ClassDescriptor.tpString || type == ClassDescriptor.tpArrayOfByte)
                 ? BtreePage.getKeyStrOid(pg, pos)
-                : BtreePage.getReference(pg, BtreePage.maxItems-1-pos);
+                : BtreePage.getReference(pg, BtreePage.maxItems(pg)-1-pos);
         }
 
         public boolean hasNext() {
@@ -584,22 +676,38 @@ class Btree<T extends IPersistent> extends PersistentCollection<T> implements In
               case ClassDescriptor.tpArrayOfByte:
                 return new BtreeEntry<T>(db, unpackByteArrayKey(pg, pos), BtreePage.getKeyStrOid(pg, pos));
               default:
-                return new BtreeEntry<T>(db, unpackKey(db, pg, pos), BtreePage.getReference(pg, BtreePage.maxItems-1-pos));
+                return new BtreeEntry<T>(db, unpackKey(db, pg, pos), BtreePage.getReference(pg, BtreePage.maxItems(pg)-1-pos));
             }
         }
     }
 
 
     public Iterator<T> iterator() { 
-        return new BtreeIterator<T>();
+        return isConcurrentIterator()
+            ? (Iterator<T>)new BtreeSelectionIterator<T>(null, null, ASCENT_ORDER)
+            : (Iterator<T>)new BtreeIterator<T>();
     }
 
     public IterableIterator<Map.Entry<Object,T>> entryIterator() { 
-        return new BtreeEntryIterator();
+        return isConcurrentIterator()
+            ? (IterableIterator<Map.Entry<Object,T>>)new BtreeSelectionEntryIterator(null, null, ASCENT_ORDER)
+            : (IterableIterator<Map.Entry<Object,T>>)new BtreeEntryIterator();
+    }
+
+    /**
+     * Check if iterators should restore their position after modification of the tree
+     * instead of throwing <code>ConcurrentModificationException</code>
+     */
+    final boolean isConcurrentIterator() { 
+        StorageImpl db = (StorageImpl)getStorage();
+        return db != null && db.concurrentIterator;
     }
 
 
     final int compareByteArrays(Key key, Page pg, int i) { 
+        if (BtreePage.isCompressed(pg)) { 
+            return BtreePage.compareCompressedBytes((byte[])key.oval, pg, i);
+        }
         return compareByteArrays((byte[])key.oval, 
                                  pg.data, 
                                  BtreePage.getKeyStrOffs(pg, i) + BtreePage.firstKeyOffs, 
@@ -609,6 +717,17 @@ class Btree<T extends IPersistent> extends PersistentCollection<T> implements In
 
     class BtreeSelectionIterator<E> extends IterableIterator<E> { 
         BtreeSelectionIterator(Key from, Key till, int order) { 
+            this.from = from;
+            this.till = till;
+            this.order = order;
+            concurrent = isConcurrentIterator();
+            locate();
+        }
+
+        /**
+         * Position iterator at the first item of the range
+         */
+        private void locate() { 
             int i, l, r;
             
             sp = 0;
@@ -622,9 +741,6 @@ class Btree<T extends IPersistent> extends PersistentCollection<T> implements In
                 throw new StorageError(StorageError.DELETED_OBJECT);
             }
             int h = height;
-            this.from = from;
-            this.till = till;
-            this.order = order;
             
             pageStack = new int[h];
             posStack =  new int[h];
@@ -882,7 +998,7 @@ class Btree<T extends IPersistent> extends PersistentCollection<T> implements In
                             posStack[sp] = 0;
                             pageStack[sp] = pageId;
                             Page pg = db.getPage(pageId);
-                            pageId = BtreePage.getReference(pg, BtreePage.maxItems-1);
+                            pageId = BtreePage.getReference(pg, BtreePage.maxItems(pg)-1);
                             end = BtreePage.getnItems(pg);
                             db.pool.unfix(pg);
                             sp += 1;
@@ -903,7 +1019,7 @@ class Btree<T extends IPersistent> extends PersistentCollection<T> implements In
                             }
                             Assert.that(r == l); 
                             posStack[sp] = r;
-                            pageId = BtreePage.getReference(pg, BtreePage.maxItems-1-r);
+                            pageId = BtreePage.getReference(pg, BtreePage.maxItems(pg)-1-r);
                             db.pool.unfix(pg);
                             sp += 1;
                         }
@@ -941,7 +1057,7 @@ class Btree<T extends IPersistent> extends PersistentCollection<T> implements In
                             pageStack[sp] = pageId;
                             Page pg = db.getPage(pageId);
                             posStack[sp] = BtreePage.getnItems(pg);
-                            pageId = BtreePage.getReference(pg, BtreePage.maxItems-1-posStack[sp]);
+                            pageId = BtreePage.getReference(pg, BtreePage.maxItems(pg)-1-posStack[sp]);
                             db.pool.unfix(pg);
                             sp += 1;
                         }
@@ -965,7 +1081,7 @@ class Btree<T extends IPersistent> extends PersistentCollection<T> implements In
                             }
                             Assert.that(r == l); 
                             posStack[sp] = r;
-                            pageId = BtreePage.getReference(pg, BtreePage.maxItems-1-r);
+                            pageId = BtreePage.getReference(pg, BtreePage.maxItems(pg)-1-r);
                             db.pool.unfix(pg);
                             sp += 1;
                         }
@@ -1004,7 +1120,10 @@ class Btree<T extends IPersistent> extends PersistentCollection<T> implements In
 
         public boolean hasNext() {
             if (counter != updateCounter) { 
-                throw new ConcurrentModificationException();
+                if (!concurrent) { 
+                    throw new ConcurrentModificationException();
+                }
+                restorePosition();
             }
             return sp != 0;
         }
@@ -1017,15 +1136,100 @@ class Btree<T extends IPersistent> extends PersistentCollection<T> implements In
             int pos = posStack[sp-1];   
             Page pg = db.getPage(pageStack[sp-1]);
             E curr = (E)getCurrent(pg, pos);
+            if (concurrent) { 
+                rememberItem(pg, pos);
+            }
             gotoNextItem(pg, pos);
             return curr;
         }
 
+        /**
+         * Remember key of the returned item and OIDs of all returned objects with this key
+         */
+        private void rememberItem(Page pg, int pos) { 
+            if (lastKey == null || compare(lastKey, pg, pos) != 0) { 
+                lastKey = getKey(pg, pos);
+                nLastOids = 0;
+            }
+            if (lastOids == null || nLastOids == lastOids.length) { 
+                int[] newOids = new int[nLastOids == 0 ? 4 : nLastOids*2];
+                if (nLastOids != 0) { 
+                    System.arraycopy(lastOids, 0, newOids, 0, nLastOids);
+                }
+                lastOids = newOids;
+            }
+            lastOids[nLastOids++] = getReference(pg, pos);
+        }
+
+        /**
+         * Locate the item following the last returned key after modification of the tree.
+         * Objects with the last key are skipped if they were already returned.
+         */
+        private void restorePosition() { 
+            if (lastKey == null) { 
+                locate();
+                return;
+            }
+            if (order == ASCENT_ORDER) { 
+                from = lastKey;
+            } else { 
+                till = lastKey;
+            }
+            locate();
+            Arrays.sort(lastOids, 0, nLastOids);
+            StorageImpl db = (StorageImpl)getStorage();
+            while (sp != 0) { 
+                int pos = posStack[sp-1];
+                Page pg = db.getPage(pageStack[sp-1]);
+                if (compare(lastKey, pg, pos) != 0 || !isReturned(getReference(pg, pos))) { 
+                    db.pool.unfix(pg);
+                    break;
+                }
+                gotoNextItem(pg, pos);
+            }
+        }
+
+        private boolean isReturned(int oid) { 
+            return Arrays.binarySearch(lastOids, 0, nLastOids, oid) >= 0;
+        }
+
+        private int compare(Key key, Page pg, int pos) { 
+            switch (type) { 
+              case ClassDescriptor.tpString:
+                return BtreePage.compareStr(key, pg, pos);
+              case ClassDescriptor.tpArrayOfByte:
+                return compareByteArrays(key, pg, pos);
+              default:
+                return BtreePage.compare(key, pg, pos);
+            }
+        }
+
+        private Key getKey(Page pg, int pos) { 
+            switch (type) { 
+              case ClassDescriptor.tpString:
+                return new Key(BtreePage.getKeyChars(pg, pos));
+              case ClassDescriptor.tpArrayOfByte:
+                return new Key(BtreePage.getKeyBytes(pg, pos));
+              default:
+              { 
+                  BtreeKey key = new BtreeKey(null, 0);
+                  key.extract(pg, BtreePage.firstKeyOffs + pos*ClassDescriptor.sizeof[type], type);
+                  return key.key;
+              }
+            }
+        }
+
+        private int getReference(Page pg, int pos) { 
+            return (type == ClassDescriptor.tpString || type == ClassDescriptor.tpArrayOfByte)
+                ? BtreePage.getKeyStrOid(pg, pos)
+                : BtreePage.getReference(pg, BtreePage.maxItems(pg)-1-pos);
+        }
+
         protected Object getCurrent(Page pg, int pos) { 
             StorageImpl db = (StorageImpl)getStorage();
             return db.lookupObject((type == ClassDescriptor.tpString || type == ClassDescriptor.tpArrayOfByte)
                                    ? BtreePage.getKeyStrOid(pg, pos)
-                                   : BtreePage.getReference(pg, BtreePage.maxItems-1-pos), 
+                                   : BtreePage.getReference(pg, BtreePage.maxItems(pg)-1-pos),
                                    null);
         }
 
@@ -1146,7 +1350,7 @@ class Btree<T extends IPersistent> extends PersistentCollection<T> implements In
                             if (++pos <= BtreePage.getnItems(pg)) {
                                 posStack[sp-1] = pos;
                                 do { 
-                                    int pageId = BtreePage.getReference(pg, BtreePage.maxItems-1-pos);
+                                    int pageId = BtreePage.getReference(pg, BtreePage.maxItems(pg)-1-pos);
                                     db.pool.unfix(pg);
                                     pg = db.getPage(pageId);
                                     end = BtreePage.getnItems(pg);
@@ -1171,7 +1375,7 @@ class Btree<T extends IPersistent> extends PersistentCollection<T> implements In
                             if (--pos >= 0) {
                                 posStack[sp-1] = pos;
                                 do { 
-                                    int pageId = BtreePage.getReference(pg, BtreePage.maxItems-1-pos);
+                                    int pageId = BtreePage.getReference(pg, BtreePage.maxItems(pg)-1-pos);
                                     db.pool.unfix(pg);
                                     pg = db.getPage(pageId);
                                     pageStack[sp] = pageId;
@@ -1204,6 +1408,10 @@ class Btree<T extends IPersistent> extends PersistentCollection<T> implements In
         Key         till;
         int         order;
         int         counter;
+        boolean     concurrent; // restore position after modification of the tree
+        Key         lastKey;    // key of the last returned item
+        int[]       lastOids;   // returned objects with the last key
+        int         nLastOids;
     }
 
     class BtreeSelectionEntryIterator extends BtreeSelectionIterator<Map.Entry<Object,T>> { 
@@ -1219,7 +1427,7 @@ class Btree<T extends IPersistent> extends PersistentCollection<T> implements In
               case ClassDescriptor.tpArrayOfByte:
                 return new BtreeEntry<T>(db, unpackByteArrayKey(pg, pos), BtreePage.getKeyStrOid(pg, pos));
               default:
-                return new BtreeEntry<T>(db, unpackKey(db, pg, pos), BtreePage.getReference(pg, BtreePage.maxItems-1-pos));
+                return new BtreeEntry<T>(db, unpackKey(db, pg, pos), BtreePage.getReference(pg, BtreePage.maxItems(pg)-1-pos));
             }
         }
     }
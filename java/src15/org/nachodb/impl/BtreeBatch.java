@@ -0,0 +1,302 @@
+package org.nachodb.impl;
+import  org.nachodb.*;
+import  java.util.ArrayList;
+
+/**
+ * Batched lookup and insertion of keys in B-Tree.
+ * Keys of the batch are processed in ascending order. Path from the root to the leaf page
+ * located for the previous key is kept (internal pages of the path are pinned in page pool),
+ * and the next key is searched starting from the lowest page of the path which range contains this key
+ * instead of the root page. So neighbouring keys share traversal of the upper levels of the tree.<br>
+ * Insertion uses this path only if the key can be inserted in the leaf page without splitting it,
+ * otherwise key is inserted from the root and path is reset.
+ */
+class BtreeBatch
+{
+    BtreeBatch(StorageImpl db, Btree tree) { 
+        this.db = db;
+        this.tree = tree;
+        type = tree.type;
+    }
+
+    /**
+     * Find objects with the specified keys
+     * @param keys keys converted by <code>Btree.checkKey</code>
+     * @param result array receiving the objects: <code>result[i]</code> is set to the object with key
+     * <code>keys[i]</code> or <code>null</code> if there is no such object
+     * @return number of found objects
+     */
+    int getAll(Key[] keys, IPersistent[] result) { 
+        int n = keys.length;
+        int nFound = 0;
+        if (tree.root == 0) { 
+            for (int i = 0; i < n; i++) { 
+                result[i] = null;
+            }
+            return 0;
+        }
+        int[] order = sort(keys);
+        pinLeaf = true;
+        int leafId = 0;
+        int leafPos = 0;
+        try { 
+            for (int j = 0; j < n; j++) { 
+                int i = order == null ? j : order[j];
+                Key key = keys[i];
+                locate(key);
+                Page pg = pages[height-1];
+                if (pageIds[height-1] != leafId) { 
+                    leafId = pageIds[height-1];
+                    leafPos = 0;
+                }
+                int nItems = BtreePage.getnItems(pg);
+                // keys are ascending, so search in the same leaf page continues from position of the previous key
+                int r = search(key, pg, leafPos);
+                leafPos = r;
+                IPersistent obj = null;
+                if (r < nItems && compare(key, pg, r) == 0) { 
+                    if (tree.unique || (r + 1 < nItems && compare(key, pg, r + 1) != 0)) { 
+                        obj = db.lookupObject(getReference(pg, r), null);
+                    } else if (r + 1 < nItems) { 
+                        throw new StorageError(StorageError.KEY_NOT_UNIQUE);
+                    } else { 
+                        // objects with the same key can be also stored in the next leaf page
+                        obj = find(key);
+                    }
+                } else if (r == nItems && !tree.unique) { 
+                    obj = find(key);
+                }
+                result[i] = obj;
+                if (obj != null) { 
+                    nFound += 1;
+                }
+            }
+        } finally { 
+            release(0);
+        }
+        return nFound;
+    }
+
+    /**
+     * Insert objects in the index
+     * @param keys keys converted by <code>Btree.checkKey</code>
+     * @param objs objects associated with the keys
+     * @return number of inserted objects
+     */
+    int putAll(Key[] keys, IPersistent[] objs) { 
+        int n = keys.length;
+        int nInserted = 0;
+        int[] order = sort(keys);
+        pinLeaf = false;
+        try { 
+            for (int j = 0; j < n; j++) { 
+                int i = order == null ? j : order[j];
+                Key key = keys[i];
+                IPersistent obj = objs[i];
+                if (!obj.isPersistent()) { 
+                    db.makePersistent(obj);
+                }
+                if (tree.root != 0) { 
+                    locate(key);
+                    int leafId = pageIds[height-1];
+                    if (fitsInPage(leafId, key)) { 
+                        int result = BtreePage.insert(db, leafId, tree, new BtreeKey(key, obj.getOid()), 1,
+                                                      tree.unique, false);
+                        if (result == Btree.op_done || result == Btree.op_underflow) { 
+                            tree.nElems += 1;
+                            tree.updateCounter += 1;
+                            nInserted += 1;
+                        } else { 
+                            Assert.that(result == Btree.op_duplicate);
+                        }
+                        continue;
+                    }
+                    release(0);
+                }
+                if (tree.insert(key, obj, false) >= 0) { 
+                    nInserted += 1;
+                }
+            }
+        } finally { 
+            release(0);
+        }
+        if (nInserted != 0) { 
+            tree.modify();
+        }
+        return nInserted;
+    }
+
+    /**
+     * Check if key can be inserted in the leaf page without splitting it
+     */
+    private boolean fitsInPage(int pageId, Key key) { 
+        Page pg = db.getPage(pageId);
+        try { 
+            if (BtreePage.isCompressed(pg)) { 
+                return PrefixBtreePage.fitsInPage(pg, key, type);
+            }
+            int nItems = BtreePage.getnItems(pg);
+            switch (type) { 
+              case ClassDescriptor.tpString:
+                return BtreePage.getSize(pg) + ((char[])key.oval).length*2 + (nItems+1)*BtreePage.strKeySize
+                    <= BtreePage.keySpace(pg);
+              case ClassDescriptor.tpArrayOfByte:
+                return BtreePage.getSize(pg) + ((byte[])key.oval).length + (nItems+1)*BtreePage.strKeySize
+                    <= BtreePage.keySpace(pg);
+              default:
+                return nItems < BtreePage.keySpace(pg) / (4 + ClassDescriptor.sizeof[type]);
+            }
+        } finally { 
+            db.pool.unfix(pg);
+        }
+    }
+
+    /**
+     * Make path to contain leaf page which range contains the key. Keys should be located in ascending order.
+     */
+    private void locate(Key key) { 
+        if (depth == 0) { 
+            height = tree.height;
+            if (pages == null || pages.length < height) { 
+                pages = new Page[height];
+                pageIds = new int[height];
+                pos = new int[height];
+            }
+            pageIds[0] = tree.root;
+            pages[0] = (height > 1 || pinLeaf) ? db.getPage(tree.root) : null;
+            depth = 1;
+        }
+        // Key is not smaller than the previous key, so it belongs to the subtree of the path page if it is
+        // not greater than the key of this page in the parent page (largest key of the subtree).
+        // If the page is the last child of its parent, then its range is bounded by the range of the parent.
+        int level = 0;
+        for (int k = depth - 2; k >= 0; k--) { 
+            if (pos[k] < BtreePage.getnItems(pages[k]) && compare(key, pages[k], pos[k]) <= 0) { 
+                level = k + 1;
+                break;
+            }
+        }
+        for (int k = level; k < height - 1; k++) { 
+            int r = search(key, pages[k], 0);
+            if (k + 1 < depth && pos[k] == r) { 
+                continue;
+            }
+            release(k + 1);
+            int childId = getReference(pages[k], r);
+            pos[k] = r;
+            pageIds[k + 1] = childId;
+            pages[k + 1] = (k + 2 < height || pinLeaf) ? db.getPage(childId) : null;
+            depth = k + 2;
+        }
+    }
+
+    /**
+     * Unpin pages of the path starting from the specified level
+     */
+    private void release(int level) { 
+        while (depth > level) { 
+            depth -= 1;
+            if (pages[depth] != null) { 
+                db.pool.unfix(pages[depth]);
+                pages[depth] = null;
+            }
+        }
+    }
+
+    /**
+     * Locate the first item of the page which is greater than or equal to the key
+     * @param from position of the page items starting from which the key is searched
+     */
+    private int search(Key key, Page pg, int from) { 
+        int l = from, r = BtreePage.getnItems(pg);
+        while (l < r)  { 
+            int i = (l+r) >> 1;
+            if (compare(key, pg, i) > 0) { 
+                l = i+1;
+            } else { 
+                r = i;
+            }
+        }
+        return r;
+    }
+
+    private int compare(Key key, Page pg, int i) { 
+        switch (type) { 
+          case ClassDescriptor.tpString:
+            return BtreePage.compareStr(key, pg, i);
+          case ClassDescriptor.tpArrayOfByte:
+            return tree.compareByteArrays(key, pg, i);
+          default:
+            return BtreePage.compare(key, pg, i);
+        }
+    }
+
+    private int getReference(Page pg, int i) { 
+        return (type == ClassDescriptor.tpString || type == ClassDescriptor.tpArrayOfByte)
+            ? BtreePage.getKeyStrOid(pg, i)
+            : BtreePage.getReference(pg, BtreePage.maxItems(pg)-1-i);
+    }
+
+    /**
+     * Lookup key from the root page, used when objects with this key can belong to several leaf pages
+     */
+    private IPersistent find(Key key) { 
+        ArrayList list = new ArrayList();
+        BtreePage.find(db, tree.root, key, key, tree, tree.height, list);
+        if (list.size() > 1) { 
+            throw new StorageError(StorageError.KEY_NOT_UNIQUE);
+        }
+        return list.size() == 0 ? null : (IPersistent)list.get(0);
+    }
+
+    /**
+     * Get order of the keys
+     * @return permutation of key indices sorting keys in ascending order or <code>null</code> if keys are already sorted
+     */
+    private int[] sort(Key[] keys) { 
+        int n = keys.length;
+        int i = 1;
+        while (i < n && tree.compareKeys(keys[i-1], keys[i]) <= 0) { 
+            i += 1;
+        }
+        if (i >= n) { 
+            return null;
+        }
+        int[] order = new int[n];
+        for (i = 0; i < n; i++) { 
+            order[i] = i;
+        }
+        mergeSort(keys, order, new int[n], 0, n);
+        return order;
+    }
+
+    private void mergeSort(Key[] keys, int[] order, int[] tmp, int from, int till) { 
+        if (till - from <= 1) { 
+            return;
+        }
+        int middle = (from + till) >>> 1;
+        mergeSort(keys, order, tmp, from, middle);
+        mergeSort(keys, order, tmp, middle, till);
+        int i = from, j = middle, k = from;
+        while (i < middle && j < till) { 
+            tmp[k++] = tree.compareKeys(keys[order[j]], keys[order[i]]) < 0 ? order[j++] : order[i++];
+        }
+        while (i < middle) { 
+            tmp[k++] = order[i++];
+        }
+        while (j < till) { 
+            tmp[k++] = order[j++];
+        }
+        System.arraycopy(tmp, from, order, from, till - from);
+    }
+
+    private StorageImpl db;
+    private Btree       tree;
+    private int         type;
+    private int         height;
+    private boolean     pinLeaf;  // leaf page of the path is pinned
+    private int         depth;    // number of pages in the path
+    private int[]       pageIds;  // pages of the path starting from the root
+    private Page[]      pages;
+    private int[]       pos;      // position of the child page in the path page
+}
@@ -0,0 +1,823 @@
+package org.nachodb.impl;
+import  org.nachodb.*;
+import  java.util.*;
+import  java.io.*;
+
+/**
+ * Bottom-up construction of B-Tree used by bulk load.
+ * Until input is found to be unordered, entries are directly packed in B-Tree pages by batches of
+ * <code>STREAM_BATCH</code> elements. Otherwise entries are collected in memory until their estimated size
+ * exceeds the limit specified by "perst.bulk.load.memory" property (by default a quarter of available heap):
+ * input which fits in this memory is sorted in memory, otherwise each run is sorted and saved in
+ * temporary file, and at the end all runs are merged. Pages built from the ordered
+ * prefix of the input and leaf pages of the B-Tree which was not empty before bulk load are also
+ * treated as runs: their items are read in merge and pages are deallocated.<br>
+ * Leaf pages are filled sequentially till the fill factor specified by "perst.bulk.load.fill.factor"
+ * property, and pages of the upper level are built from the largest keys of the pages of the level below.
+ * Last two pages of each level are balanced, so that the last page is not almost empty.
+ * For tree with prefix compression of keys space used by common prefix of the page is taken in account
+ * and keys of pages of the second level are truncated separators of the leaf pages.
+ */
+class BtreeBuilder implements Comparator<BtreeKey>
+{
+    static final int STREAM_BATCH = 64*1024;
+    static final int INIT_BUFFER_SIZE = 1024;
+    static final int ENTRY_SIZE = 80; // estimated size of BtreeKey and Key objects and reference to them
+
+    BtreeBuilder(StorageImpl db, Btree tree) { 
+        this.db = db;
+        this.tree = tree;
+        type = tree.type;
+        unique = tree.unique;
+        compressed = tree.isPrefixCompressed();
+        keySpace = db.pageSize - BtreePage.firstKeyOffs;
+        limit = keySpace*db.bulkLoadFillFactor/100;
+        // number of children of internal page with scalar keys should not exceed number of leaf page items
+        refSize = (type == ClassDescriptor.tpString || type == ClassDescriptor.tpArrayOfByte)
+            ? BtreePage.strKeySize : ClassDescriptor.sizeof[type] + 4;
+        buf = new BtreeKey[INIT_BUFFER_SIZE];
+        maxRunSize = db.bulkLoadMemory;
+        if (maxRunSize == 0) { 
+            Runtime rt = Runtime.getRuntime();
+            maxRunSize = (rt.maxMemory() - rt.totalMemory() + rt.freeMemory())/4;
+        }
+        runs = new ArrayList<Run>();
+        levels = new ArrayList<Level>();
+        leafPages = new IntArray();
+        innerPages = new IntArray();
+        // entries of not empty tree have to be merged with new ones
+        sorted = tree.root == 0;
+    }
+
+    /**
+     * Add new entry
+     * @param key key converted by <code>Btree.checkKey</code>
+     * @param oid OID of the object
+     */
+    void add(Key key, int oid) { 
+        BtreeKey item = new BtreeKey(key, oid);
+        if (sorted && lastAdded != null && compare(lastAdded, item) > 0) { 
+            sorted = false;
+            if (streaming) { 
+                restart();
+            }
+        }
+        lastAdded = item;
+        if (nBuffered == buf.length) { 
+            BtreeKey[] newBuf = new BtreeKey[nBuffered*2];
+            System.arraycopy(buf, 0, newBuf, 0, nBuffered);
+            buf = newBuf;
+        }
+        buf[nBuffered++] = item;
+        bufferedSize += ENTRY_SIZE + keySize(item);
+        if (sorted) { 
+            if (nBuffered == STREAM_BATCH) { 
+                streaming = true;
+                for (int i = 0; i < nBuffered; i++) { 
+                    append(buf[i]);
+                    buf[i] = null;
+                }
+                nBuffered = 0;
+                bufferedSize = 0;
+            }
+        } else if (bufferedSize >= maxRunSize) { 
+            // spill run only when input doesn't fit in memory
+            sortBuffer();
+            runs.add(new FileRun(buf, nBuffered));
+            Arrays.fill(buf, 0, nBuffered, null);
+            nBuffered = 0;
+            bufferedSize = 0;
+        }
+    }
+
+    /**
+     * Size of key data referenced from Key object
+     */
+    private int keySize(BtreeKey item) { 
+        switch (type) { 
+          case ClassDescriptor.tpString:
+            return 16 + ((char[])item.key.oval).length*2;
+          case ClassDescriptor.tpArrayOfByte:
+            return 16 + ((byte[])item.key.oval).length;
+          default:
+            return 0;
+        }
+    }
+
+    /**
+     * Build B-Tree from the added entries and assign it to the tree
+     * @return number of entries inserted in the tree
+     */
+    int build() { 
+        int oldElems = tree.nElems;
+        if (tree.root != 0) { 
+            IntArray pages = new IntArray();
+            collectLeaves(tree.root, tree.height, pages);
+            runs.add(0, new PageRun(pages));
+        }
+        if (!sorted) { 
+            sortBuffer();
+        }
+        if (runs.size() == 0) { 
+            for (int i = 0; i < nBuffered; i++) { 
+                append(buf[i]);
+            }
+        } else { 
+            runs.add(new ArrayRun(buf, nBuffered));
+            merge();
+        }
+        buf = null;
+        finish();
+        tree.updateCounter += 1;
+        tree.modify();
+        return nLoaded - oldElems;
+    }
+
+    public int compare(BtreeKey item1, BtreeKey item2) { 
+        return tree.compareKeys(item1.key, item2.key);
+    }
+
+    /**
+     * Sort buffered entries preserving order of entries with equal keys.
+     * Entries are sorted by long values stored in array together with positions of the entries in the buffer,
+     * so that most of comparisons don't access key objects scattered in memory. For scalar keys these values are
+     * order preserving representation of the keys, for strings and byte arrays - eight bytes following the common
+     * prefix of all keys, and the keys are compared only if these bytes are equal.
+     * Byte arrays which are not compared byte by byte (as in multi-field index created by previous versions)
+     * are sorted by comparator.
+     */
+    private void sortBuffer() { 
+        int n = nBuffered;
+        if (type == ClassDescriptor.tpArrayOfByte && tree.byteArrayOrder() == Btree.BYTES_CUSTOM) { 
+            Arrays.sort(buf, 0, n, this);
+            return;
+        }
+        long[] keys = new long[n];
+        int[] pos = new int[n];
+        if (type == ClassDescriptor.tpString) { 
+            char[] first = n == 0 ? null : (char[])buf[0].key.oval;
+            int prefixLength = n == 0 ? 0 : first.length;
+            for (int i = 1; i < n && prefixLength != 0; i++) { 
+                char[] chars = (char[])buf[i].key.oval;
+                int j = 0;
+                while (j < prefixLength && j < chars.length && chars[j] == first[j]) { 
+                    j += 1;
+                }
+                prefixLength = j;
+            }
+            for (int i = 0; i < n; i++) { 
+                char[] chars = (char[])buf[i].key.oval;
+                long key = 0;
+                for (int j = prefixLength; j < prefixLength + 4; j++) { 
+                    key = (key << 16) | (j < chars.length ? chars[j] : 0);
+                }
+                keys[i] = key ^ Long.MIN_VALUE; // unsigned comparison
+                pos[i] = i;
+            }
+            exactKeys = false;
+        } else if (type == ClassDescriptor.tpArrayOfByte) { 
+            // signed bytes are converted to unsigned by inverting the sign bit
+            int signMask = tree.byteArrayOrder() == Btree.BYTES_SIGNED ? 0x80 : 0;
+            byte[] first = n == 0 ? null : (byte[])buf[0].key.oval;
+            int prefixLength = n == 0 ? 0 : first.length;
+            for (int i = 1; i < n && prefixLength != 0; i++) { 
+                byte[] bytes = (byte[])buf[i].key.oval;
+                int j = 0;
+                while (j < prefixLength && j < bytes.length && bytes[j] == first[j]) { 
+                    j += 1;
+                }
+                prefixLength = j;
+            }
+            for (int i = 0; i < n; i++) { 
+                byte[] bytes = (byte[])buf[i].key.oval;
+                long key = 0;
+                for (int j = prefixLength; j < prefixLength + 8; j++) { 
+                    key = (key << 8) | (j < bytes.length ? (bytes[j] ^ signMask) & 0xFF : 0);
+                }
+                keys[i] = key ^ Long.MIN_VALUE;
+                pos[i] = i;
+            }
+            exactKeys = false;
+        } else { 
+            for (int i = 0; i < n; i++) { 
+                keys[i] = scalarKey(buf[i].key);
+                pos[i] = i;
+            }
+            exactKeys = true;
+        }
+        mergeSort(keys, pos, new long[n], new int[n], 0, n);
+        BtreeKey[] sortedBuf = new BtreeKey[buf.length];
+        for (int i = 0; i < n; i++) { 
+            sortedBuf[i] = buf[pos[i]];
+        }
+        buf = sortedBuf;
+    }
+
+    /**
+     * Value of scalar key which signed comparison gives the same result as <code>Btree.compareKeys</code>
+     */
+    private long scalarKey(Key key) { 
+        switch (type) { 
+          case ClassDescriptor.tpBoolean:
+          case ClassDescriptor.tpByte:
+            return (byte)key.ival;
+          case ClassDescriptor.tpShort:
+            return (short)key.ival;
+          case ClassDescriptor.tpChar:
+            return (char)key.ival;
+          case ClassDescriptor.tpLong:
+          case ClassDescriptor.tpDate:
+            return key.lval;
+          case ClassDescriptor.tpFloat:
+          case ClassDescriptor.tpDouble:
+          { 
+            // -0.0 is converted to 0.0 to make them equal
+            long bits = Double.doubleToLongBits(key.dval + 0.0);
+            return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+          }
+          default:
+            return key.ival;
+        }
+    }
+
+    /**
+     * Check if the first entry precedes the second one
+     */
+    private boolean less(long key1, int pos1, long key2, int pos2) { 
+        return key1 < key2 || (key1 == key2 && !exactKeys && compare(buf[pos1], buf[pos2]) < 0);
+    }
+
+    /**
+     * Stable sort of keys together with positions of the entries
+     */
+    private void mergeSort(long[] keys, int[] pos, long[] tmpKeys, int[] tmpPos, int from, int till) { 
+        if (till - from <= 16) { 
+            for (int i = from + 1; i < till; i++) { 
+                long key = keys[i];
+                int p = pos[i];
+                int j = i;
+                while (j > from && less(key, p, keys[j-1], pos[j-1])) { 
+                    keys[j] = keys[j-1];
+                    pos[j] = pos[j-1];
+                    j -= 1;
+                }
+                keys[j] = key;
+                pos[j] = p;
+            }
+            return;
+        }
+        int middle = (from + till) >>> 1;
+        mergeSort(keys, pos, tmpKeys, tmpPos, from, middle);
+        mergeSort(keys, pos, tmpKeys, tmpPos, middle, till);
+        if (!less(keys[middle], pos[middle], keys[middle-1], pos[middle-1])) { 
+            return;
+        }
+        int i = from, j = middle, k = from;
+        while (i < middle && j < till) { 
+            if (less(keys[j], pos[j], keys[i], pos[i])) { 
+                tmpKeys[k] = keys[j];
+                tmpPos[k++] = pos[j++];
+            } else { 
+                tmpKeys[k] = keys[i];
+                tmpPos[k++] = pos[i++];
+            }
+        }
+        while (i < middle) { 
+            tmpKeys[k] = keys[i];
+            tmpPos[k++] = pos[i++];
+        }
+        System.arraycopy(tmpKeys, from, keys, from, k - from);
+        System.arraycopy(tmpPos, from, pos, from, k - from);
+    }
+
+    /**
+     * Space used by the item in the page
+     */
+    private int cost(BtreeKey item) { 
+        switch (type) { 
+          case ClassDescriptor.tpString:
+            return BtreePage.strKeySize + ((char[])item.key.oval).length*2;
+          case ClassDescriptor.tpArrayOfByte:
+            return BtreePage.strKeySize + ((byte[])item.key.oval).length;
+          default:
+            return ClassDescriptor.sizeof[type] + 4;
+        }
+    }
+
+    /**
+     * Space used by items with the specified total cost in the page with prefix compression:
+     * common prefix of the first and the last item is stored only once.
+     * It is not less than the real size of the page for both leaf and internal pages.
+     */
+    private int compressedSize(BtreeKey first, BtreeKey last, int nItems, int cost) { 
+        return cost + BtreePage.strKeySize - (nItems - 1)*PrefixBtreePage.prefixLength(first.key, last.key, type);
+    }
+
+    /**
+     * Append next item of the ordered sequence to the leaf level
+     */
+    private void append(BtreeKey item) { 
+        if (unique && lastAppended != null && compare(lastAppended, item) == 0) { 
+            return;
+        }
+        lastAppended = item;
+        nLoaded += 1;
+        add(0, item);
+    }
+
+    static class Level { 
+        ArrayList<BtreeKey> prev;
+        ArrayList<BtreeKey> curr = new ArrayList<BtreeKey>();
+        int                 prevSize;
+        int                 currSize;
+    }
+
+    /**
+     * Add item to the level. Items of leaf level are object references, items of upper levels are
+     * references to the pages of the level below with the largest key of the page.
+     * Two last pages of the level are kept in memory, so that they can be balanced at the end.
+     */
+    private void add(int h, BtreeKey item) { 
+        if (h == levels.size()) { 
+            levels.add(new Level());
+        }
+        Level level = levels.get(h);
+        int c = cost(item);
+        int size = level.currSize + (h == 0 ? c : refSize);
+        if (compressed && level.curr.size() != 0) { 
+            size = compressedSize(level.curr.get(0), item, level.curr.size() + 1, level.currSize + c);
+        }
+        // in internal page with n children only n-1 keys are stored
+        if (level.curr.size() >= (h == 0 ? 1 : 2) && size > limit) { 
+            if (level.prev != null) { 
+                flush(h, level.prev, level.curr.get(0));
+            }
+            level.prev = level.curr;
+            level.prevSize = level.currSize;
+            level.curr = new ArrayList<BtreeKey>();
+            level.currSize = 0;
+        }
+        level.curr.add(item);
+        level.currSize += c;
+    }
+
+    /**
+     * Write page and add reference to it to the upper level
+     * @param next first item of the next page of the level or <code>null</code> if it is the last page
+     */
+    private void flush(int h, ArrayList<BtreeKey> items, BtreeKey next) { 
+        int pageId = writePage(h, items);
+        Key key = items.get(items.size()-1).key;
+        if (compressed && h == 0 && next != null) { 
+            key = PrefixBtreePage.separator(key, next.key, type);
+        }
+        add(h + 1, new BtreeKey(key, pageId));
+    }
+
+    private int writePage(int h, ArrayList<BtreeKey> items) { 
+        int pageId = db.allocatePage();
+        Page pg = db.putPage(pageId);
+        int n = items.size();
+        int nItems = h == 0 ? n : n - 1;
+        if (compressed) { 
+            PrefixBtreePage.store(pg, items, h == 0, type);
+        } else if (type == ClassDescriptor.tpString || type == ClassDescriptor.tpArrayOfByte) { 
+            int size = 0;
+            for (int i = 0; i < nItems; i++) { 
+                BtreeKey item = items.get(i);
+                int len;
+                if (type == ClassDescriptor.tpString) { 
+                    char[] sval = (char[])item.key.oval;
+                    len = sval.length;
+                    size += len*2;
+                    Assert.that("String fits in the B-Tree page", size + n*BtreePage.strKeySize <= keySpace);
+                    BtreePage.setKeyStrChars(pg, keySpace - size, sval);
+                } else { 
+                    byte[] bval = (byte[])item.key.oval;
+                    len = bval.length;
+                    size += len;
+                    Assert.that("Array fits in the B-Tree page", size + n*BtreePage.strKeySize <= keySpace);
+                    BtreePage.setKeyBytes(pg, keySpace - size, bval);
+                }
+                BtreePage.setKeyStrOffs(pg, i, keySpace - size);
+                BtreePage.setKeyStrSize(pg, i, len);
+                BtreePage.setKeyStrOid(pg, i, item.oid);
+            }
+            if (h != 0) { 
+                BtreePage.setKeyStrOid(pg, nItems, items.get(nItems).oid);
+            }
+            BtreePage.setSize(pg, size);
+        } else { 
+            for (int i = 0; i < nItems; i++) { 
+                items.get(i).pack(pg, i);
+            }
+            if (h != 0) { 
+                BtreePage.setReference(pg, BtreePage.maxItems(pg) - nItems - 1, items.get(nItems).oid);
+            }
+        }
+        BtreePage.setnItems(pg, nItems);
+        db.pool.unfix(pg);
+        if (h == 0) { 
+            leafPages.add(pageId);
+        } else { 
+            innerPages.add(pageId);
+        }
+        return pageId;
+    }
+
+    /**
+     * Move items from the end of the previous page to the last page of the level while it makes them more balanced
+     */
+    private void balance(int h, Level level) { 
+        ArrayList<BtreeKey> prev = level.prev;
+        ArrayList<BtreeKey> curr = level.curr;
+        int min = h == 0 ? 1 : 2;
+        while (prev.size() > min) { 
+            BtreeKey item = prev.get(prev.size()-1);
+            int c = cost(item);
+            int currSize = level.currSize + c;
+            int prevSize = level.prevSize - c;
+            if (compressed) { 
+                currSize = compressedSize(item, curr.get(curr.size()-1), curr.size() + 1, currSize);
+                prevSize = compressedSize(prev.get(0), prev.get(prev.size()-2), prev.size() - 1, prevSize);
+            }
+            if (curr.size() >= min && currSize > prevSize) { 
+                break;
+            }
+            prev.remove(prev.size()-1);
+            curr.add(0, item);
+            level.prevSize -= c;
+            level.currSize += c;
+        }
+        if (curr.size() < min) { 
+            // internal page should contain at least two children
+            prev.addAll(curr);
+            level.prevSize += level.currSize;
+            level.curr = prev;
+            level.currSize = level.prevSize;
+            level.prev = null;
+        }
+    }
+
+    /**
+     * Flush pages of all levels and assign root of the constructed tree
+     */
+    private void finish() { 
+        int h = 0;
+        while (true) { 
+            if (h == levels.size()) { 
+                tree.root = 0;
+                tree.height = 0;
+                break;
+            }
+            Level level = levels.get(h);
+            if (level.prev != null) { 
+                balance(h, level);
+            }
+            if (level.prev == null && h + 1 == levels.size()) { 
+                tree.root = writePage(h, level.curr);
+                tree.height = h + 1;
+                break;
+            }
+            if (level.prev != null) { 
+                flush(h, level.prev, level.curr.get(0));
+            }
+            flush(h, level.curr, null);
+            h += 1;
+        }
+        tree.nElems = nLoaded;
+    }
+
+    /**
+     * Input is not ordered: pages constructed from its ordered prefix are used as first run
+     */
+    private void restart() { 
+        Level leaves = levels.get(0);
+        if (leaves.prev != null) { 
+            writePage(0, leaves.prev);
+        }
+        writePage(0, leaves.curr);
+        for (int i = 0; i < innerPages.size(); i++) { 
+            db.freePage(innerPages.get(i));
+        }
+        runs.add(new PageRun(leafPages));
+        leafPages = new IntArray();
+        innerPages = new IntArray();
+        levels.clear();
+        lastAppended = null;
+        nLoaded = 0;
+        streaming = false;
+    }
+
+    /**
+     * Collect leaf pages of the tree in key order, internal pages are deallocated
+     */
+    private void collectLeaves(int pageId, int height, IntArray pages) { 
+        if (height == 1) { 
+            pages.add(pageId);
+        } else { 
+            Page pg = db.getPage(pageId);
+            try { 
+                int n = BtreePage.getnItems(pg);
+                for (int i = 0; i <= n; i++) { 
+                    int childId = (type == ClassDescriptor.tpString || type == ClassDescriptor.tpArrayOfByte)
+                        ? BtreePage.getKeyStrOid(pg, i)
+                        : BtreePage.getReference(pg, BtreePage.maxItems(pg) - i - 1);
+                    collectLeaves(childId, height - 1, pages);
+                }
+            } finally { 
+                db.pool.unfix(pg);
+            }
+            db.freePage(pageId);
+        }
+    }
+
+    private void merge() { 
+        PriorityQueue<Run> queue = new PriorityQueue<Run>(runs.size(), new Comparator<Run>() { 
+            public int compare(Run r1, Run r2) { 
+                int diff = BtreeBuilder.this.compare(r1.curr, r2.curr);
+                // for equal keys preserve order of the input, so first of duplicates is kept in unique index
+                return diff != 0 ? diff : r1.seq - r2.seq;
+            }
+        });
+        for (int i = 0; i < runs.size(); i++) { 
+            Run run = runs.get(i);
+            run.seq = i;
+            if ((run.curr = run.next()) != null) { 
+                queue.add(run);
+            }
+        }
+        Run run;
+        while ((run = queue.poll()) != null) { 
+            append(run.curr);
+            if ((run.curr = run.next()) != null) { 
+                queue.add(run);
+            }
+        }
+        runs.clear();
+    }
+
+    static abstract class Run { 
+        BtreeKey curr;
+        int      seq;
+
+        /**
+         * Get next item of the run
+         * @return next item or <code>null</code> if there are no more items
+         */
+        abstract BtreeKey next();
+    }
+
+    static class ArrayRun extends Run { 
+        BtreeKey[] items;
+        int        n;
+        int        pos;
+
+        BtreeKey next() { 
+            return pos < n ? items[pos++] : null;
+        }
+
+        ArrayRun(BtreeKey[] items, int n) { 
+            this.items = items;
+            this.n = n;
+        }
+    }
+
+    /**
+     * Items of leaf pages, which are deallocated after their items are read
+     */
+    class PageRun extends Run { 
+        IntArray   pages;
+        int        page;
+        BtreeKey[] items;
+        int        n;
+        int        pos;
+
+        BtreeKey next() { 
+            while (pos == n) { 
+                if (page == pages.size()) { 
+                    return null;
+                }
+                readPage(pages.get(page++));
+            }
+            return items[pos++];
+        }
+
+        private void readPage(int pageId) { 
+            Page pg = db.getPage(pageId);
+            n = BtreePage.getnItems(pg);
+            pos = 0;
+            if (items == null || items.length < n) { 
+                items = new BtreeKey[n];
+            }
+            for (int i = 0; i < n; i++) { 
+                BtreeKey item;
+                if (type == ClassDescriptor.tpString) { 
+                    item = new BtreeKey(null, BtreePage.getKeyStrOid(pg, i));
+                    item.getStr(pg, i);
+                } else if (type == ClassDescriptor.tpArrayOfByte) { 
+                    item = new BtreeKey(null, BtreePage.getKeyStrOid(pg, i));
+                    item.getByteArray(pg, i);
+                } else { 
+                    item = new BtreeKey(null, BtreePage.getReference(pg, BtreePage.maxItems(pg) - i - 1));
+                    item.extract(pg, BtreePage.firstKeyOffs + i*ClassDescriptor.sizeof[type], type);
+                }
+                items[i] = item;
+            }
+            db.pool.unfix(pg);
+            db.freePage(pageId);
+        }
+
+        PageRun(IntArray pages) { 
+            this.pages = pages;
+        }
+    }
+
+    /**
+     * Sorted run saved in temporary file
+     */
+    class FileRun extends Run { 
+        File            file;
+        DataInputStream in;
+        byte[]          data;
+        int             n;
+
+        BtreeKey next() { 
+            if (n == 0) { 
+                close();
+                return null;
+            }
+            n -= 1;
+            try { 
+                int oid = in.readInt();
+                Key key;
+                switch (type) { 
+                  case ClassDescriptor.tpBoolean:
+                    key = new Key(in.readInt() != 0);
+                    break;
+                  case ClassDescriptor.tpByte:
+                    key = new Key((byte)in.readInt());
+                    break;
+                  case ClassDescriptor.tpShort:
+                    key = new Key((short)in.readInt());
+                    break;
+                  case ClassDescriptor.tpChar:
+                    key = new Key((char)in.readInt());
+                    break;
+                  case ClassDescriptor.tpObject:
+                  case ClassDescriptor.tpInt:
+                  case ClassDescriptor.tpEnum:
+                    key = new Key(in.readInt());
+                    break;
+                  case ClassDescriptor.tpLong:
+                  case ClassDescriptor.tpDate:
+                    key = new Key(in.readLong());
+                    break;
+                  case ClassDescriptor.tpFloat:
+                    key = new Key((float)in.readDouble());
+                    break;
+                  case ClassDescriptor.tpDouble:
+                    key = new Key(in.readDouble());
+                    break;
+                  case ClassDescriptor.tpString:
+                  { 
+                    char[] sval = new char[in.readInt()];
+                    byte[] bval = getBuffer(sval.length*2);
+                    in.readFully(bval, 0, sval.length*2);
+                    for (int i = 0; i < sval.length; i++) { 
+                        sval[i] = (char)Bytes.unpack2(bval, i*2);
+                    }
+                    key = new Key(sval);
+                    break;
+                  }
+                  case ClassDescriptor.tpArrayOfByte:
+                  { 
+                    byte[] bval = new byte[in.readInt()];
+                    in.readFully(bval);
+                    key = new Key(bval);
+                    break;
+                  }
+                  default:
+                    Assert.failed("Invalid type");
+                    return null;
+                }
+                return new BtreeKey(key, oid);
+            } catch (IOException x) { 
+                close();
+                throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+            }
+        }
+
+        private byte[] getBuffer(int size) { 
+            if (data == null || data.length < size) { 
+                data = new byte[size];
+            }
+            return data;
+        }
+
+        void close() { 
+            try { 
+                if (in != null) { 
+                    in.close();
+                    in = null;
+                }
+            } catch (IOException x) {}
+            file.delete();
+        }
+
+        FileRun(BtreeKey[] items, int n) { 
+            this.n = n;
+            try { 
+                file = File.createTempFile("perst", ".run");
+                file.deleteOnExit();
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+                for (int i = 0; i < n; i++) { 
+                    Key key = items[i].key;
+                    out.writeInt(items[i].oid);
+                    switch (type) { 
+                      case ClassDescriptor.tpLong:
+                      case ClassDescriptor.tpDate:
+                        out.writeLong(key.lval);
+                        break;
+                      case ClassDescriptor.tpFloat:
+                      case ClassDescriptor.tpDouble:
+                        out.writeDouble(key.dval);
+                        break;
+                      case ClassDescriptor.tpString:
+                      { 
+                        char[] sval = (char[])key.oval;
+                        byte[] bval = getBuffer(sval.length*2);
+                        for (int j = 0; j < sval.length; j++) { 
+                            Bytes.pack2(bval, j*2, (short)sval[j]);
+                        }
+                        out.writeInt(sval.length);
+                        out.write(bval, 0, sval.length*2);
+                        break;
+                      }
+                      case ClassDescriptor.tpArrayOfByte:
+                      { 
+                        byte[] bval = (byte[])key.oval;
+                        out.writeInt(bval.length);
+                        out.write(bval);
+                        break;
+                      }
+                      default:
+                        out.writeInt(key.ival);
+                    }
+                }
+                out.close();
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            } catch (IOException x) { 
+                throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+            }
+        }
+    }
+
+    /**
+     * Growable array of page identifiers
+     */
+    static class IntArray { 
+        int[] arr = new int[16];
+        int   used;
+
+        void add(int val) { 
+            if (used == arr.length) { 
+                int[] newArr = new int[used*2];
+                System.arraycopy(arr, 0, newArr, 0, used);
+                arr = newArr;
+            }
+            arr[used++] = val;
+        }
+
+        int get(int i) { 
+            return arr[i];
+        }
+
+        int size() { 
+            return used;
+        }
+    }
+
+    private StorageImpl         db;
+    private Btree               tree;
+    private int                 type;
+    private boolean             unique;
+    private boolean             compressed; // tree with prefix compression of keys
+    private int                 keySpace;
+    private int                 limit;    // space in the page which is filled before starting new page
+    private int                 refSize;  // space reserved for the rightmost child of internal page
+    private BtreeKey[]          buf;      // current run
+    private int                 nBuffered;
+    private long                bufferedSize; // estimated size of memory used by entries of current run
+    private long                maxRunSize;
+    private ArrayList<Run>      runs;
+    private ArrayList<Level>    levels;   // pages under construction, levels[0] is leaf level
+    private IntArray            leafPages;
+    private IntArray            innerPages;
+    private BtreeKey            lastAdded;
+    private BtreeKey            lastAppended;
+    private boolean             sorted;   // input was ordered so far
+    private boolean             streaming;// entries are directly packed in pages
+    private boolean             exactKeys;// sorted long values are equal only for equal keys
+    private int                 nLoaded;
+}
@@ -126,6 +126,21 @@ class BtreeFieldIndex<T extends IPersistent> extends Btree<T> implements FieldIn
          return super.set(extractKey(obj), obj);
     }
 
+    public int bulkLoad(Iterable<T> objects) { 
+        StorageImpl db = (StorageImpl)getStorage();
+        if (db == null) { 
+            throw new StorageError(StorageError.DELETED_OBJECT);
+        }
+        BtreeBuilder builder = new BtreeBuilder(db, this);
+        for (T obj : objects) { 
+            if (!obj.isPersistent()) { 
+                db.makePersistent(obj);
+            }
+            builder.add(checkKey(extractKey(obj)), obj.getOid());
+        }
+        return builder.build();
+    }
+
     public void remove(T obj) {
         super.remove(new BtreeKey(extractKey(obj), obj.getOid()));
     }
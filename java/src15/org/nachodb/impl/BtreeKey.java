@@ -12,22 +12,11 @@ class BtreeKey {
     }
 
     final void getStr(Page pg, int i) { 
-        int len = BtreePage.getKeyStrSize(pg, i);
-        int offs = BtreePage.firstKeyOffs + BtreePage.getKeyStrOffs(pg, i);
-        char[] sval = new char[len];
-        for (int j = 0; j < len; j++) { 
-            sval[j] = (char)Bytes.unpack2(pg.data, offs);
-            offs += 2;
-        }
-        key = new Key(sval);
+        key = new Key(BtreePage.getKeyChars(pg, i));
     }
 
     final void getByteArray(Page pg, int i) { 
-        int len = BtreePage.getKeyStrSize(pg, i);
-        int offs = BtreePage.firstKeyOffs + BtreePage.getKeyStrOffs(pg, i);
-        byte[] bval = new byte[len];
-        System.arraycopy(pg.data, offs, bval, 0, len);
-        key = new Key(bval);
+        key = new Key(BtreePage.getKeyBytes(pg, i));
     }
 
 
@@ -96,6 +85,6 @@ class BtreeKey {
           default:
             Assert.failed("Invalid type");
         }
-        Bytes.pack4(dst, BtreePage.firstKeyOffs + (BtreePage.maxItems - i - 1)*4, oid);
+        Bytes.pack4(dst, BtreePage.firstKeyOffs + (BtreePage.maxItems(pg) - i - 1)*4, oid);
     }
 }
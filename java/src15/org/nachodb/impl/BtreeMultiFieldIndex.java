@@ -9,6 +9,7 @@ class BtreeMultiFieldIndex<T extends IPersistent> extends Btree<T> implements Fi
     String   className;
     String[] fieldName;
     int[]    types;
+    boolean  normalized; // keys are encoded by NormalizedKey (indices created by previous versions use native encoding)
 
     transient Class   cls;
     transient Field[] fld;
@@ -22,6 +23,7 @@ class BtreeMultiFieldIndex<T extends IPersistent> extends Btree<T> implements Fi
         this.className = cls.getName();
         locateFields();
         type = ClassDescriptor.tpArrayOfByte;        
+        normalized = true;
         types = new int[fieldName.length];
         for (int i = 0; i < types.length; i++) {
             types[i] = checkType(fld[i].getType());
@@ -66,7 +68,14 @@ class BtreeMultiFieldIndex<T extends IPersistent> extends Btree<T> implements Fi
         locateFields();
     }
 
+    int byteArrayOrder() { 
+        return normalized ? BYTES_UNSIGNED : BYTES_CUSTOM;
+    }
+
     int compareByteArrays(byte[] key, byte[] item, int offs, int lengtn) { 
+        if (normalized) { 
+            return NormalizedKey.compare(key, item, offs, lengtn);
+        }
         int o1 = 0;
         int o2 = offs;
         byte[] a1 = key;
@@ -174,6 +183,29 @@ class BtreeMultiFieldIndex<T extends IPersistent> extends Btree<T> implements Fi
     Object unpackByteArrayKey(Page pg, int pos) {
         int offs = BtreePage.firstKeyOffs + BtreePage.getKeyStrOffs(pg, pos);
         byte[] data = pg.data;
+        if (normalized) { 
+            Object[] values = NormalizedKey.unpack(types, data, offs);
+            for (int i = 0; i < fld.length; i++) { 
+                switch (types[i]) { 
+                  case ClassDescriptor.tpObject:
+                  { 
+                      int oid = ((Integer)values[i]).intValue();
+                      values[i] = oid == 0 ? null : ((StorageImpl)getStorage()).lookupObject(oid, null);
+                      break;
+                  }
+                  case ClassDescriptor.tpEnum:
+                    values[i] = fld[i].getType().getEnumConstants()[((Integer)values[i]).intValue()];
+                    break;
+                  case ClassDescriptor.tpDate:
+                  { 
+                      long msec = ((Long)values[i]).longValue();
+                      values[i] = msec == -1 ? null : new Date(msec);
+                      break;
+                  }
+                }
+            }
+            return values;
+        }
         Object values[] = new Object[fld.length];
 
         for (int i = 0; i < fld.length; i++) {
@@ -246,6 +278,7 @@ class BtreeMultiFieldIndex<T extends IPersistent> extends Btree<T> implements Fi
                   byte[] bval = new byte[len];
                   System.arraycopy(data, offs, bval, 0, len);
                   offs += len;
+                  v = bval;
                   break;
               }
               default:
@@ -259,6 +292,13 @@ class BtreeMultiFieldIndex<T extends IPersistent> extends Btree<T> implements Fi
 
     private Key extractKey(IPersistent obj) { 
         try { 
+            if (normalized) { 
+                Object[] values = new Object[fld.length];
+                for (int i = 0; i < fld.length; i++) { 
+                    values[i] = fld[i].get(obj);
+                }
+                return new Key(NormalizedKey.pack(types, values));
+            }
             ByteBuffer buf = new ByteBuffer();
             int dst = 0;
             for (int i = 0; i < fld.length; i++) { 
@@ -379,6 +419,9 @@ class BtreeMultiFieldIndex<T extends IPersistent> extends Btree<T> implements Fi
             throw new StorageError(StorageError.INCOMPATIBLE_KEY_TYPE);
         }
         Object[] values = (Object[])key.oval;
+        if (normalized) { 
+            return new Key(NormalizedKey.pack(types, values), key.inclusion != 0);
+        }
         ByteBuffer buf = new ByteBuffer();
         int dst = 0;
         for (int i = 0; i < values.length; i++) { 
@@ -489,6 +532,21 @@ class BtreeMultiFieldIndex<T extends IPersistent> extends Btree<T> implements Fi
          return super.set(extractKey(obj), obj);
     }
 
+    public int bulkLoad(Iterable<T> objects) { 
+        StorageImpl db = (StorageImpl)getStorage();
+        if (db == null) { 
+            throw new StorageError(StorageError.DELETED_OBJECT);
+        }
+        BtreeBuilder builder = new BtreeBuilder(db, this);
+        for (T obj : objects) { 
+            if (!obj.isPersistent()) { 
+                db.makePersistent(obj);
+            }
+            builder.add(checkKey(extractKey(obj)), obj.getOid());
+        }
+        return builder.build();
+    }
+
     public void remove(T obj) {
         super.remove(new BtreeKey(extractKey(obj), obj.getOid()));
     }
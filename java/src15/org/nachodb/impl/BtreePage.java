@@ -4,15 +4,26 @@ import  java.util.ArrayList;
 
 class BtreePage { 
     static final int firstKeyOffs = 4;
-    static final int keySpace = Page.pageSize - firstKeyOffs;
     static final int strKeySize = 8;    
-    static final int maxItems = keySpace / 4;    
+    // bit of the size field marking page of B-Tree with prefix compression of keys (see PrefixBtreePage)
+    static final int compressedPageFlag = 0x8000;
+
+    // number of items in the page depends on the page size of the database
+    static int keySpace(Page pg) { 
+        return pg.data.length - firstKeyOffs;
+    }
+    static int maxItems(Page pg) { 
+        return (pg.data.length - firstKeyOffs) >> 2;
+    }
 
     static int getnItems(Page pg) { 
         return Bytes.unpack2(pg.data, 0);
     }
     static int getSize(Page pg) { 
-        return Bytes.unpack2(pg.data, 2);
+        return Bytes.unpack2(pg.data, 2) & (compressedPageFlag-1);
+    }
+    static boolean isCompressed(Page pg) { 
+        return (Bytes.unpack2(pg.data, 2) & compressedPageFlag) != 0;
     }
     static int getKeyStrOid(Page pg, int index) {
                 return Bytes.unpack4(pg.data, firstKeyOffs + index*8);
@@ -34,6 +45,9 @@ class BtreePage {
     static void setSize(Page pg, int size) { 
         Bytes.pack2(pg.data, 2, (short)size);
     }
+    static void setCompressedSize(Page pg, int size) { 
+        Bytes.pack2(pg.data, 2, (short)(size | compressedPageFlag));
+    }
     static void setKeyStrOid(Page pg, int index, int oid) { 
         Bytes.pack4(pg.data, firstKeyOffs + index*8, oid);
     }
@@ -94,6 +108,9 @@ class BtreePage {
 
 
     final static int compareStr(Key key, Page pg, int i) { 
+        if (isCompressed(pg)) { 
+            return compareCompressedStr((char[])key.oval, pg, i, false);
+        }
         char[] chars = (char[])key.oval;
         int alen = chars.length;
         int blen = BtreePage.getKeyStrSize(pg, i);
@@ -111,6 +128,9 @@ class BtreePage {
     }
 
     final static int comparePrefix(char[] key, Page pg, int i) { 
+        if (isCompressed(pg)) { 
+            return compareCompressedStr(key, pg, i, true);
+        }
         int alen = key.length;
         int blen = BtreePage.getKeyStrSize(pg, i);
         int minlen = alen < blen ? alen : blen;
@@ -126,6 +146,109 @@ class BtreePage {
         return minlen - blen;
     }
 
+    /**
+     * Compare string with the key of compressed page: first with common prefix of the page
+     * and then with the suffix of the key
+     * @param prefix compare only first <code>key.length</code> characters of the key of the page
+     * (as <code>comparePrefix</code>)
+     */
+    static int compareCompressedStr(char[] key, Page pg, int i, boolean prefix) { 
+        int alen = key.length;
+        int nItems = getnItems(pg);
+        int plen = getKeyStrSize(pg, nItems);
+        int blen = plen + getKeyStrSize(pg, i);
+        int minlen = alen < blen ? alen : blen;
+        int n = minlen < plen ? minlen : plen;
+        int offs = getKeyStrOffs(pg, nItems) + firstKeyOffs;
+        byte[] b = pg.data;
+        int j = 0;
+        for (; j < n; j++) { 
+            int diff = key[j] - (char)Bytes.unpack2(b, offs);
+            if (diff != 0) { 
+                return diff;
+            }
+            offs += 2;
+        }
+        offs = getKeyStrOffs(pg, i) + firstKeyOffs;
+        for (; j < minlen; j++) { 
+            int diff = key[j] - (char)Bytes.unpack2(b, offs);
+            if (diff != 0) { 
+                return diff;
+            }
+            offs += 2;
+        }
+        return (prefix ? minlen : alen) - blen;
+    }
+
+    /**
+     * Compare byte array with the key of compressed page
+     */
+    static int compareCompressedBytes(byte[] key, Page pg, int i) { 
+        int alen = key.length;
+        int nItems = getnItems(pg);
+        int plen = getKeyStrSize(pg, nItems);
+        int blen = plen + getKeyStrSize(pg, i);
+        int minlen = alen < blen ? alen : blen;
+        int n = minlen < plen ? minlen : plen;
+        int offs = getKeyStrOffs(pg, nItems) + firstKeyOffs;
+        byte[] b = pg.data;
+        int j = 0;
+        for (; j < n; j++) { 
+            int diff = key[j] - b[offs++];
+            if (diff != 0) { 
+                return diff;
+            }
+        }
+        offs = getKeyStrOffs(pg, i) + firstKeyOffs;
+        for (; j < minlen; j++) { 
+            int diff = key[j] - b[offs++];
+            if (diff != 0) { 
+                return diff;
+            }
+        }
+        return alen - blen;
+    }
+
+    /**
+     * Get characters of the string key (key of compressed page is concatenation of common prefix and suffix)
+     */
+    static char[] getKeyChars(Page pg, int i) { 
+        int len = getKeyStrSize(pg, i);
+        int offs = firstKeyOffs + getKeyStrOffs(pg, i);
+        int plen = 0;
+        char[] sval;
+        if (isCompressed(pg)) { 
+            int nItems = getnItems(pg);
+            plen = getKeyStrSize(pg, nItems);
+            sval = new char[plen + len];
+            int poffs = firstKeyOffs + getKeyStrOffs(pg, nItems);
+            for (int j = 0; j < plen; j++) { 
+                sval[j] = (char)Bytes.unpack2(pg.data, poffs);
+                poffs += 2;
+            }
+        } else { 
+            sval = new char[len];
+        }
+        for (int j = 0; j < len; j++) { 
+            sval[plen + j] = (char)Bytes.unpack2(pg.data, offs);
+            offs += 2;
+        }
+        return sval;
+    }
+
+    /**
+     * Get byte array key (key of compressed page is concatenation of common prefix and suffix)
+     */
+    static byte[] getKeyBytes(Page pg, int i) { 
+        if (isCompressed(pg)) { 
+            return PrefixBtreePage.getKeyData(pg, i, 1);
+        }
+        int len = getKeyStrSize(pg, i);
+        byte[] bval = new byte[len];
+        System.arraycopy(pg.data, firstKeyOffs + getKeyStrOffs(pg, i), bval, 0, len);
+        return bval;
+    }
+
 
     static boolean find(StorageImpl db, int pageId, Key firstKey, Key lastKey, 
                         Btree tree, int height, ArrayList result)
@@ -249,14 +372,14 @@ class BtreePage {
                             if (-compare(lastKey, pg, l) >= lastKey.inclusion) {
                                 return false;
                             }
-                            oid = getReference(pg, maxItems-1-l);
+                            oid = getReference(pg, maxItems(pg)-1-l);
                             result.add(db.lookupObject(oid, null));
                             l += 1;
                         }
                         return true;
                     } else {
                         do {
-                            if (!find(db, getReference(pg, maxItems-1-l), firstKey, lastKey, tree, height, result)) {
+                            if (!find(db, getReference(pg, maxItems(pg)-1-l), firstKey, lastKey, tree, height, result)) { 
                                 return false;
                             }
                             if (l == n) {
@@ -268,13 +391,13 @@ class BtreePage {
                 } 
                 if (height == 0) { 
                     while (l < n) { 
-                        oid = getReference(pg, maxItems-1-l);
+                        oid = getReference(pg, maxItems(pg)-1-l);
                         result.add(db.lookupObject(oid, null));
                         l += 1;
                     }
                 } else { 
                     do {
-                        if (!find(db, getReference(pg, maxItems-1-l), firstKey, lastKey, tree, height, result)) {
+                        if (!find(db, getReference(pg, maxItems(pg)-1-l), firstKey, lastKey, tree, height, result)) { 
                             return false;
                         }
                     } while (++l <= n);
@@ -331,8 +454,12 @@ class BtreePage {
     }    
 
 
-    static int allocate(StorageImpl db, int root, int type, BtreeKey ins) 
+    static int allocate(StorageImpl db, int root, Btree tree, BtreeKey ins)
     {
+        int type = tree.type;
+        if (tree.isPrefixCompressed()) { 
+            return PrefixBtreePage.allocate(db, root, type, ins);
+        }
         int pageId = db.allocatePage();
         Page pg = db.putPage(pageId);
         setnItems(pg, 1);
@@ -340,23 +467,23 @@ class BtreePage {
             char[] sval = (char[])ins.key.oval;
             int len = sval.length;
             setSize(pg, len*2);
-            setKeyStrOffs(pg, 0, keySpace - len*2);
+            setKeyStrOffs(pg, 0, keySpace(pg) - len*2);
             setKeyStrSize(pg, 0, len);
             setKeyStrOid(pg, 0, ins.oid);
             setKeyStrOid(pg, 1, root); 
-            setKeyStrChars(pg, keySpace - len*2, sval);
+            setKeyStrChars(pg, keySpace(pg) - len*2, sval);
         } else if (type == ClassDescriptor.tpArrayOfByte) { 
             byte[] bval =  (byte[])ins.key.oval;
             int len = bval.length;
             setSize(pg, len);
-            setKeyStrOffs(pg, 0, keySpace - len);
+            setKeyStrOffs(pg, 0, keySpace(pg) - len);
             setKeyStrSize(pg, 0, len);
             setKeyStrOid(pg, 0, ins.oid);
             setKeyStrOid(pg, 1, root); 
-            setKeyBytes(pg, keySpace - len, bval);
+            setKeyBytes(pg, keySpace(pg) - len, bval);
         } else { 
             ins.pack(pg, 0);
-            setReference(pg, maxItems-2, root);
+            setReference(pg, maxItems(pg)-2, root);
         }
         db.pool.unfix(pg);
         return pageId;
@@ -408,7 +535,9 @@ class BtreePage {
                 db.pool.unfix(pg);
                 pg = null;
                 pg = db.putPage(pageId);
-                return insertStrKey(db, pg, r, ins, height);
+                return tree.isPrefixCompressed()
+                    ? PrefixBtreePage.insert(db, pg, r, ins, height, tree.type)
+                    : insertStrKey(db, pg, r, ins, height);
             } else if (tree.type == ClassDescriptor.tpArrayOfByte) {         
                 while (l < r)  {
                     int i = (l+r) >> 1;
@@ -440,7 +569,9 @@ class BtreePage {
                 db.pool.unfix(pg);
                 pg = null;
                 pg = db.putPage(pageId);
-                return insertByteArrayKey(db, pg, r, ins, height);
+                return tree.isPrefixCompressed()
+                    ? PrefixBtreePage.insert(db, pg, r, ins, height, tree.type)
+                    : insertByteArrayKey(db, pg, r, ins, height);
             } else { 
                 while (l < r)  {
                     int i = (l+r) >> 1;
@@ -449,7 +580,7 @@ class BtreePage {
                 Assert.that(l == r);
                 /* insert before e[r] */
                 if (--height != 0) {
-                    result = insert(db, getReference(pg, maxItems-r-1), tree, ins, height, unique, overwrite);
+                    result = insert(db, getReference(pg, maxItems(pg)-r-1), tree, ins, height, unique, overwrite);
                     Assert.that(result != Btree.op_not_found);
                     if (result != Btree.op_overflow) {
                         return result;
@@ -460,8 +591,8 @@ class BtreePage {
                         db.pool.unfix(pg);
                         pg = null;
                         pg = db.putPage(pageId);
-                        ins.oldOid = getReference(pg, maxItems-r-1);
-                        setReference(pg, maxItems-r-1, ins.oid);
+                        ins.oldOid = getReference(pg, maxItems(pg)-r-1);
+                        setReference(pg, maxItems(pg)-r-1, ins.oid);
                         return Btree.op_overwrite;
                     } else if (unique) { 
                         return Btree.op_duplicate;
@@ -471,10 +602,10 @@ class BtreePage {
                 pg = null;
                 pg = db.putPage(pageId);
                 int itemSize = ClassDescriptor.sizeof[tree.type];
-                int max = keySpace / (4 + itemSize);
+                int max = keySpace(pg) / (4 + itemSize);
                 if (n < max) {
                     memcpy(pg, r+1, pg, r, n - r, itemSize);
-                    memcpy(pg, maxItems-n-1, pg, maxItems-n, n-r, 4);
+                    memcpy(pg, maxItems(pg)-n-1, pg, maxItems(pg)-n, n-r, 4);
                     ins.pack(pg, r);
                     setnItems(pg, getnItems(pg)+1);
                     return Btree.op_done;
@@ -487,18 +618,18 @@ class BtreePage {
                         memcpy(b, 0, pg, 0, r, itemSize);
                         memcpy(b, r+1, pg, r, m-r-1, itemSize);
                         memcpy(pg, 0, pg, m-1, max-m+1, itemSize);
-                        memcpy(b, maxItems-r, pg, maxItems-r, r, 4);
+                        memcpy(b, maxItems(pg)-r, pg, maxItems(pg)-r, r, 4);
                         ins.pack(b, r);
-                        memcpy(b, maxItems-m, pg, maxItems-m+1, m-r-1, 4);
-                        memcpy(pg, maxItems-max+m-1, pg, maxItems-max, max-m+1, 4);
+                        memcpy(b, maxItems(pg)-m, pg, maxItems(pg)-m+1, m-r-1, 4);
+                        memcpy(pg, maxItems(pg)-max+m-1, pg, maxItems(pg)-max, max-m+1, 4);
                     } else {
                         memcpy(b, 0, pg, 0, m, itemSize);
                         memcpy(pg, 0, pg, m, r-m, itemSize);
                         memcpy(pg, r-m+1, pg, r, max-r, itemSize);
-                        memcpy(b, maxItems-m, pg, maxItems-m, m, 4);
-                        memcpy(pg, maxItems-r+m, pg, maxItems-r, r-m, 4);
+                        memcpy(b, maxItems(pg)-m, pg, maxItems(pg)-m, m, 4);
+                        memcpy(pg, maxItems(pg)-r+m, pg, maxItems(pg)-r, r-m, 4);
                         ins.pack(pg, r-m);
-                        memcpy(pg, maxItems-max+m-1, pg, maxItems-max, max-r, 4);
+                        memcpy(pg, maxItems(pg)-max+m-1, pg, maxItems(pg)-max, max-r, 4);
                     }
                     ins.oid = pageId;
                     ins.extract(b, firstKeyOffs + (m-1)*itemSize, tree.type);
@@ -528,17 +659,18 @@ class BtreePage {
         // insert before e[r]
         char[] sval = (char[])ins.key.oval;        
         int len = sval.length;
-        if (size + len*2 + (n+1)*strKeySize <= keySpace) { 
+        if (size + len*2 + (n+1)*strKeySize <= keySpace(pg)) { 
             memcpy(pg, r+1, pg, r, n-r, strKeySize);
             size += len*2;
-            setKeyStrOffs(pg, r, keySpace - size);
+            setKeyStrOffs(pg, r, keySpace(pg) - size);
             setKeyStrSize(pg, r, len);
             setKeyStrOid(pg, r, ins.oid);
-            setKeyStrChars(pg, keySpace - size, sval);
+            setKeyStrChars(pg, keySpace(pg) - size, sval);
             nItems += 1;
         } else { // page is full then divide page
             int  pageId = db.allocatePage();
             Page b = db.putPage(pageId);
+            setSize(b, 0); // new page may contain compressed page flag
             int  moved = 0;
             int  inserted = len*2 + strKeySize;
             int  prevDelta = (1 << 31) + 1;
@@ -575,7 +707,7 @@ class BtreePage {
                         ins.getStr(b, bn-1);
                     } else {
                         Assert.that("String fits in the B-Tree page", 
-                                    moved + (bn+1)*strKeySize <= keySpace);
+                                    moved + (bn+1)*strKeySize <= keySpace(pg));
                         if (bn != r) { 
                             ins.getStr(pg, i);
                             setKeyStrOid(b, bn, getKeyStrOid(pg, i));
@@ -591,11 +723,11 @@ class BtreePage {
                         size += len*2;
                         nItems += 1;
                         Assert.that("String fits in the B-Tree page", 
-                                    size + (n-i+1)*strKeySize <= keySpace);
-                        setKeyStrOffs(pg, r-i, keySpace - size);
+                                    size + (n-i+1)*strKeySize <= keySpace(pg));
+                        setKeyStrOffs(pg, r-i, keySpace(pg) - size);
                         setKeyStrSize(pg, r-i, len);
                         setKeyStrOid(pg, r-i, ins.oid);
-                        setKeyStrChars(pg, keySpace - size, sval);
+                        setKeyStrChars(pg, keySpace(pg) - size, sval);
                     }
                     setnItems(b, bn);
                     setSize(b, moved);
@@ -608,15 +740,15 @@ class BtreePage {
                 moved += keyLen*2;
                 prevDelta = delta;
                 Assert.that("String fits in the B-Tree page", 
-                            moved + (bn+1)*strKeySize <= keySpace);
+                            moved + (bn+1)*strKeySize <= keySpace(pg));
                 setKeyStrSize(b, bn, keyLen);
-                setKeyStrOffs(b, bn, keySpace - moved);
+                setKeyStrOffs(b, bn, keySpace(pg) - moved);
                 if (bn == r) { 
                     setKeyStrOid(b, bn, ins.oid);
-                    setKeyStrChars(b, keySpace - moved, sval);
+                    setKeyStrChars(b, keySpace(pg) - moved, sval);
                 } else { 
                     setKeyStrOid(b, bn, getKeyStrOid(pg, i));
-                    memcpy(b, keySpace - moved, pg, getKeyStrOffs(pg, i), keyLen*2, 1);
+                    memcpy(b, keySpace(pg) - moved, pg, getKeyStrOffs(pg, i), keyLen*2, 1);
                     size -= keyLen*2;
                     i += 1;
                 }
@@ -624,7 +756,7 @@ class BtreePage {
         }
         setnItems(pg, nItems);
         setSize(pg, size);
-        return size + strKeySize*(nItems+1) < keySpace/2 
+        return size + strKeySize*(nItems+1) < keySpace(pg)/2
             ? Btree.op_underflow : Btree.op_done;
     }
 
@@ -636,17 +768,18 @@ class BtreePage {
         byte[] bval = (byte[])ins.key.oval;
         // insert before e[r]
         int len = bval.length;
-        if (size + len + (n+1)*strKeySize <= keySpace) { 
+        if (size + len + (n+1)*strKeySize <= keySpace(pg)) { 
             memcpy(pg, r+1, pg, r, n-r, strKeySize);
             size += len;
-            setKeyStrOffs(pg, r, keySpace - size);
+            setKeyStrOffs(pg, r, keySpace(pg) - size);
             setKeyStrSize(pg, r, len);
             setKeyStrOid(pg, r, ins.oid);
-            setKeyBytes(pg, keySpace - size, bval);
+            setKeyBytes(pg, keySpace(pg) - size, bval);
             nItems += 1;
         } else { // page is full then divide page
             int  pageId = db.allocatePage();
             Page b = db.putPage(pageId);
+            setSize(b, 0); // new page may contain compressed page flag
             int  moved = 0;
             int  inserted = len + strKeySize;
             int  prevDelta = (1 << 31) + 1;
@@ -683,7 +816,7 @@ class BtreePage {
                         ins.getByteArray(b, bn-1);
                     } else {
                         Assert.that("String fits in the B-Tree page", 
-                                    moved + (bn+1)*strKeySize <= keySpace);
+                                    moved + (bn+1)*strKeySize <= keySpace(pg));
                         if (bn != r) { 
                             ins.getByteArray(pg, i);
                             setKeyStrOid(b, bn, getKeyStrOid(pg, i));
@@ -699,11 +832,11 @@ class BtreePage {
                         size += len;
                         nItems += 1;
                         Assert.that("String fits in the B-Tree page", 
-                                    size + (n-i+1)*strKeySize <= keySpace);
-                        setKeyStrOffs(pg, r-i, keySpace - size);
+                                    size + (n-i+1)*strKeySize <= keySpace(pg));
+                        setKeyStrOffs(pg, r-i, keySpace(pg) - size);
                         setKeyStrSize(pg, r-i, len);
                         setKeyStrOid(pg, r-i, ins.oid);
-                        setKeyBytes(pg, keySpace - size, bval);
+                        setKeyBytes(pg, keySpace(pg) - size, bval);
                     }
                     setnItems(b, bn);
                     setSize(b, moved);
@@ -716,15 +849,15 @@ class BtreePage {
                 moved += keyLen;
                 prevDelta = delta;
                 Assert.that("String fits in the B-Tree page", 
-                            moved + (bn+1)*strKeySize <= keySpace);
+                            moved + (bn+1)*strKeySize <= keySpace(pg));
                 setKeyStrSize(b, bn, keyLen);
-                setKeyStrOffs(b, bn, keySpace - moved);
+                setKeyStrOffs(b, bn, keySpace(pg) - moved);
                 if (bn == r) { 
                     setKeyStrOid(b, bn, ins.oid);
-                    setKeyBytes(b, keySpace - moved, bval);
+                    setKeyBytes(b, keySpace(pg) - moved, bval);
                 } else { 
                     setKeyStrOid(b, bn, getKeyStrOid(pg, i));
-                    memcpy(b, keySpace - moved, pg, getKeyStrOffs(pg, i), keyLen, 1);
+                    memcpy(b, keySpace(pg) - moved, pg, getKeyStrOffs(pg, i), keyLen, 1);
                     size -= keyLen;
                     i += 1;
                 }
@@ -732,7 +865,7 @@ class BtreePage {
         }
         setnItems(pg, nItems);
         setSize(pg, size);
-        return size + strKeySize*(nItems+1) < keySpace/2 
+        return size + strKeySize*(nItems+1) < keySpace(pg)/2
             ? Btree.op_underflow : Btree.op_done;
     }
 
@@ -740,8 +873,8 @@ class BtreePage {
     static int compactifyStrings(Page pg, int m) 
     {
         int i, j, offs, len, n = getnItems(pg);
-        int[] size  = new int[keySpace/2+1];
-        int[] index = new int[keySpace/2+1];
+        int[] size  = new int[keySpace(pg)/2+1];
+        int[] index = new int[keySpace(pg)/2+1];
         if (m == 0) { 
             return n;
         }
@@ -791,7 +924,7 @@ class BtreePage {
         }
         int nItems = n -= m;
         n -= nZeroLengthStrings;
-        for (offs = keySpace/2, i = offs; n != 0; i -= len) { 
+        for (offs = keySpace(pg)/2, i = offs; n != 0; i -= len) { 
             len = size[i];
             j = index[i];
             if (j >= 0) {
@@ -809,8 +942,8 @@ class BtreePage {
     static int compactifyByteArrays(Page pg, int m) 
     {
         int i, j, offs, len, n = getnItems(pg);
-        int[] size  = new int[keySpace+1];
-        int[] index = new int[keySpace+1];
+        int[] size  = new int[keySpace(pg)+1];
+        int[] index = new int[keySpace(pg)+1];
         if (m == 0) { 
             return n;
         }
@@ -860,7 +993,7 @@ class BtreePage {
         }
         int nItems = n -= m;
         n -= nZeroLengthArrays;
-        for (offs = keySpace, i = offs; n != 0; i -= len) { 
+        for (offs = keySpace(pg), i = offs; n != 0; i -= len) { 
             len = size[i];
             j = index[i];
             if (j >= 0) {
@@ -881,13 +1014,13 @@ class BtreePage {
         int offs = getKeyStrOffs(pg, r);
         int size = getSize(pg);
         int nItems = getnItems(pg);
-        if ((nItems+1)*strKeySize >= keySpace) { 
+        if ((nItems+1)*strKeySize >= keySpace(pg)) { 
             memcpy(pg, r, pg, r+1, nItems-r-1, strKeySize);
         } else { 
             memcpy(pg, r, pg, r+1, nItems-r, strKeySize);
         } 
         if (len != 0) { 
-            memcpy(pg, keySpace - size + len, pg, keySpace - size, size - keySpace + offs, 1);
+            memcpy(pg, keySpace(pg) - size + len, pg, keySpace(pg) - size, size - keySpace(pg) + offs, 1);
             for (int i = nItems; --i >= 0; ) { 
                 if (getKeyStrOffs(pg, i) < offs) { 
                     setKeyStrOffs(pg, i, getKeyStrOffs(pg, i) + len);
@@ -896,7 +1029,7 @@ class BtreePage {
             setSize(pg, size -= len);
         }
         setnItems(pg, nItems - 1);
-        return size + strKeySize*nItems < keySpace/2 
+        return size + strKeySize*nItems < keySpace(pg)/2
             ? Btree.op_underflow : Btree.op_done;
     }
 
@@ -906,13 +1039,13 @@ class BtreePage {
         int offs = getKeyStrOffs(pg, r);
         int size = getSize(pg);
         int nItems = getnItems(pg);
-        if ((nItems+1)*strKeySize >= keySpace) { 
+        if ((nItems+1)*strKeySize >= keySpace(pg)) { 
             memcpy(pg, r, pg, r+1, nItems-r-1, strKeySize);
         } else { 
             memcpy(pg, r, pg, r+1, nItems-r, strKeySize);
         } 
         if (len != 0) { 
-            memcpy(pg, keySpace - size + len, pg, keySpace - size, size - keySpace + offs, 1);
+            memcpy(pg, keySpace(pg) - size + len, pg, keySpace(pg) - size, size - keySpace(pg) + offs, 1);
             for (int i = nItems; --i >= 0; ) { 
                 if (getKeyStrOffs(pg, i) < offs) { 
                     setKeyStrOffs(pg, i, getKeyStrOffs(pg, i) + len);
@@ -921,7 +1054,7 @@ class BtreePage {
             setSize(pg, size -= len);
         }
         setnItems(pg, nItems - 1);
-        return size + strKeySize*nItems < keySpace/2 
+        return size + strKeySize*nItems < keySpace(pg)/2
             ? Btree.op_underflow : Btree.op_done;
     }
     
@@ -953,7 +1086,7 @@ class BtreePage {
                 if (height != 1) { 
                     merged_size += getKeyStrSize(pg, r)*2 + strKeySize*2;
                 }
-                if (merged_size > keySpace) {
+                if (merged_size > keySpace(pg)) { 
                     // reallocation of nodes between pages a and b
                     int i, j, k;
                     db.pool.unfix(b);
@@ -995,7 +1128,7 @@ class BtreePage {
                         if (height != 1) { 
                             int len = getKeyStrSize(pg, r);
                             setSize(a, getSize(a) + len*2);
-                            setKeyStrOffs(a, an, keySpace - getSize(a));
+                            setKeyStrOffs(a, an, keySpace(pg) - getSize(a));
                             setKeyStrSize(a, an, len);
                             memcpy(a, getKeyStrOffs(a, an),
                                    pg, getKeyStrOffs(pg, r), len*2, 1);
@@ -1008,7 +1141,7 @@ class BtreePage {
                             int len = getKeyStrSize(b, j);
                             setSize(a, getSize(a) + len*2);
                             setSize(b, getSize(b) - len*2);
-                            setKeyStrOffs(a, an, keySpace - getSize(a));
+                            setKeyStrOffs(a, an, keySpace(pg) - getSize(a));
                             setKeyStrSize(a, an, len);
                             setKeyStrOid(a, an, getKeyStrOid(b, j));
                             memcpy(a, getKeyStrOffs(a, an),
@@ -1028,7 +1161,7 @@ class BtreePage {
                         int r_len = getKeyStrSize(pg, r);
                         setKeyStrSize(a, an, r_len);
                         setSize(a, getSize(a) + r_len*2);
-                        setKeyStrOffs(a, an, keySpace - getSize(a));
+                        setKeyStrOffs(a, an, keySpace(pg) - getSize(a));
                         memcpy(a, getKeyStrOffs(a, an), 
                                pg, getKeyStrOffs(pg, r), r_len*2, 1);
                         an += 1;
@@ -1041,7 +1174,7 @@ class BtreePage {
                     }
                     setSize(a, getSize(a) + getSize(b));
                     setnItems(a, an);
-                    memcpy(a, keySpace - getSize(a), b, keySpace - getSize(b), getSize(b), 1);
+                    memcpy(a, keySpace(pg) - getSize(a), b, keySpace(pg) - getSize(b), getSize(b), 1);
                     db.pool.unfix(a);
                     db.pool.unfix(b);
                     db.freePage(getKeyStrOid(pg, r+1));
@@ -1055,7 +1188,7 @@ class BtreePage {
                 if (height != 1) { 
                     merged_size += getKeyStrSize(pg, r-1)*2 + strKeySize*2;
                 }
-                if (merged_size > keySpace) {
+                if (merged_size > keySpace(pg)) { 
                     // reallocation of nodes between pages a and b
                     int i, j, k, len;
                     db.pool.unfix(b);
@@ -1103,7 +1236,7 @@ class BtreePage {
                             len = getKeyStrSize(pg, r-1);
                             setKeyStrSize(a, k, len);
                             setSize(a, getSize(a) + len*2);
-                            setKeyStrOffs(a, k, keySpace - getSize(a));
+                            setKeyStrOffs(a, k, keySpace(pg) - getSize(a));
                             memcpy(a, getKeyStrOffs(a, k), 
                                    pg, getKeyStrOffs(pg, r-1), len*2, 1);
                         } else { 
@@ -1113,7 +1246,7 @@ class BtreePage {
                             len = getKeyStrSize(b, bn-k+j);
                             setSize(a, getSize(a) + len*2);
                             setSize(b, getSize(b) - len*2);
-                            setKeyStrOffs(a, j, keySpace - getSize(a));
+                            setKeyStrOffs(a, j, keySpace(pg) - getSize(a));
                             setKeyStrSize(a, j, len);
                             setKeyStrOid(a, j, getKeyStrOid(b, bn-k+j));
                             memcpy(a, getKeyStrOffs(a, j),
@@ -1134,7 +1267,7 @@ class BtreePage {
                         int len = getKeyStrSize(pg, r-1);
                         setKeyStrSize(a, bn, len);
                         setSize(a, getSize(a) + len*2);
-                        setKeyStrOffs(a, bn, keySpace - getSize(a));
+                        setKeyStrOffs(a, bn, keySpace(pg) - getSize(a));
                         setKeyStrOid(a, bn, getKeyStrOid(b, bn));
                         memcpy(a, getKeyStrOffs(a, bn), 
                                pg, getKeyStrOffs(pg, r-1), len*2, 1);
@@ -1150,7 +1283,7 @@ class BtreePage {
                     an += bn;
                     setnItems(a, an);
                     setSize(a, getSize(a) + getSize(b));
-                    memcpy(a, keySpace - getSize(a), b, keySpace - getSize(b), getSize(b), 1);
+                    memcpy(a, keySpace(pg) - getSize(a), b, keySpace(pg) - getSize(b), getSize(b), 1);
                     db.pool.unfix(a);
                     db.pool.unfix(b);
                     db.freePage(getKeyStrOid(pg, r-1));
@@ -1167,7 +1300,7 @@ class BtreePage {
                 if (height != 1) { 
                     merged_size += getKeyStrSize(pg, r) + strKeySize*2;
                 }
-                if (merged_size > keySpace) {
+                if (merged_size > keySpace(pg)) { 
                     // reallocation of nodes between pages a and b
                     int i, j, k;
                     db.pool.unfix(b);
@@ -1209,7 +1342,7 @@ class BtreePage {
                         if (height != 1) { 
                             int len = getKeyStrSize(pg, r);
                             setSize(a, getSize(a) + len);
-                            setKeyStrOffs(a, an, keySpace - getSize(a));
+                            setKeyStrOffs(a, an, keySpace(pg) - getSize(a));
                             setKeyStrSize(a, an, len);
                             memcpy(a, getKeyStrOffs(a, an),
                                    pg, getKeyStrOffs(pg, r), len, 1);
@@ -1222,7 +1355,7 @@ class BtreePage {
                             int len = getKeyStrSize(b, j);
                             setSize(a, getSize(a) + len);
                             setSize(b, getSize(b) - len);
-                            setKeyStrOffs(a, an, keySpace - getSize(a));
+                            setKeyStrOffs(a, an, keySpace(pg) - getSize(a));
                             setKeyStrSize(a, an, len);
                             setKeyStrOid(a, an, getKeyStrOid(b, j));
                             memcpy(a, getKeyStrOffs(a, an),
@@ -1242,7 +1375,7 @@ class BtreePage {
                         int r_len = getKeyStrSize(pg, r);
                         setKeyStrSize(a, an, r_len);
                         setSize(a, getSize(a) + r_len);
-                        setKeyStrOffs(a, an, keySpace - getSize(a));
+                        setKeyStrOffs(a, an, keySpace(pg) - getSize(a));
                         memcpy(a, getKeyStrOffs(a, an), 
                                pg, getKeyStrOffs(pg, r), r_len, 1);
                         an += 1;
@@ -1255,7 +1388,7 @@ class BtreePage {
                     }
                     setSize(a, getSize(a) + getSize(b));
                     setnItems(a, an);
-                    memcpy(a, keySpace - getSize(a), b, keySpace - getSize(b), getSize(b), 1);
+                    memcpy(a, keySpace(pg) - getSize(a), b, keySpace(pg) - getSize(b), getSize(b), 1);
                     db.pool.unfix(a);
                     db.pool.unfix(b);
                     db.freePage(getKeyStrOid(pg, r+1));
@@ -1269,7 +1402,7 @@ class BtreePage {
                 if (height != 1) { 
                     merged_size += getKeyStrSize(pg, r-1) + strKeySize*2;
                 }
-                if (merged_size > keySpace) {
+                if (merged_size > keySpace(pg)) { 
                     // reallocation of nodes between pages a and b
                     int i, j, k, len;
                     db.pool.unfix(b);
@@ -1317,7 +1450,7 @@ class BtreePage {
                             len = getKeyStrSize(pg, r-1);
                             setKeyStrSize(a, k, len);
                             setSize(a, getSize(a) + len);
-                            setKeyStrOffs(a, k, keySpace - getSize(a));
+                            setKeyStrOffs(a, k, keySpace(pg) - getSize(a));
                             memcpy(a, getKeyStrOffs(a, k), 
                                    pg, getKeyStrOffs(pg, r-1), len, 1);
                         } else { 
@@ -1327,7 +1460,7 @@ class BtreePage {
                             len = getKeyStrSize(b, bn-k+j);
                             setSize(a, getSize(a) + len);
                             setSize(b, getSize(b) - len);
-                            setKeyStrOffs(a, j, keySpace - getSize(a));
+                            setKeyStrOffs(a, j, keySpace(pg) - getSize(a));
                             setKeyStrSize(a, j, len);
                             setKeyStrOid(a, j, getKeyStrOid(b, bn-k+j));
                             memcpy(a, getKeyStrOffs(a, j),
@@ -1348,7 +1481,7 @@ class BtreePage {
                         int len = getKeyStrSize(pg, r-1);
                         setKeyStrSize(a, bn, len);
                         setSize(a, getSize(a) + len);
-                        setKeyStrOffs(a, bn, keySpace - getSize(a));
+                        setKeyStrOffs(a, bn, keySpace(pg) - getSize(a));
                         setKeyStrOid(a, bn, getKeyStrOid(b, bn));
                         memcpy(a, getKeyStrOffs(a, bn), 
                                pg, getKeyStrOffs(pg, r-1), len, 1);
@@ -1364,7 +1497,7 @@ class BtreePage {
                     an += bn;
                     setnItems(a, an);
                     setSize(a, getSize(a) + getSize(b));
-                    memcpy(a, keySpace - getSize(a), b, keySpace - getSize(b), getSize(b), 1);
+                    memcpy(a, keySpace(pg) - getSize(a), b, keySpace(pg) - getSize(b), getSize(b), 1);
                     db.pool.unfix(a);
                     db.pool.unfix(b);
                     db.freePage(getKeyStrOid(pg, r-1));
@@ -1372,11 +1505,11 @@ class BtreePage {
                 }
             }
         } else { // scalar types
-            Page a = db.putPage(getReference(pg, maxItems-r-1));
+            Page a = db.putPage(getReference(pg, maxItems(pg)-r-1));
             int an = getnItems(a);
             int itemSize = ClassDescriptor.sizeof[type];
             if (r < nItems) { // exists greater page
-                Page b = db.getPage(getReference(pg, maxItems-r-2));
+                Page b = db.getPage(getReference(pg, maxItems(pg)-r-2));
                 int bn = getnItems(b); 
                 Assert.that(bn >= an);
                 if (height != 1) { 
@@ -1385,15 +1518,15 @@ class BtreePage {
                     bn += 1;
                 }
                 int merged_size = (an+bn)*(4 + itemSize);
-                if (merged_size > keySpace) { 
+                if (merged_size > keySpace(pg)) { 
                     // reallocation of nodes between pages a and b
                     int i = bn - ((an + bn) >> 1);
                     db.pool.unfix(b);
-                    b = db.putPage(getReference(pg, maxItems-r-2));
+                    b = db.putPage(getReference(pg, maxItems(pg)-r-2));
                     memcpy(a, an, b, 0, i, itemSize);
                     memcpy(b, 0, b, i, bn-i, itemSize);
-                    memcpy(a, maxItems-an-i, b, maxItems-i, i, 4);
-                    memcpy(b, maxItems-bn+i, b, maxItems-bn, bn-i, 4);
+                    memcpy(a, maxItems(pg)-an-i, b, maxItems(pg)-i, i, 4);
+                    memcpy(b, maxItems(pg)-bn+i, b, maxItems(pg)-bn, bn-i, 4);
                     memcpy(pg, r, a, an+i-1, 1, itemSize);
                     setnItems(b, getnItems(b) - i);
                     setnItems(a, getnItems(a) + i);
@@ -1402,20 +1535,20 @@ class BtreePage {
                     return Btree.op_done;
                 } else { // merge page b to a  
                     memcpy(a, an, b, 0, bn, itemSize);
-                    memcpy(a, maxItems-an-bn, b, maxItems-bn, bn, 4);
-                    db.freePage(getReference(pg, maxItems-r-2));
-                    memcpy(pg, maxItems-nItems, pg, maxItems-nItems-1, 
+                    memcpy(a, maxItems(pg)-an-bn, b, maxItems(pg)-bn, bn, 4);
+                    db.freePage(getReference(pg, maxItems(pg)-r-2));
+                    memcpy(pg, maxItems(pg)-nItems, pg, maxItems(pg)-nItems-1,
                            nItems - r - 1, 4);
                     memcpy(pg, r, pg, r+1, nItems - r - 1, itemSize);
                     setnItems(a, getnItems(a) + bn);
                     setnItems(pg, nItems - 1);
                     db.pool.unfix(a);
                     db.pool.unfix(b);
-                    return nItems*(itemSize + 4) < keySpace/2
+                    return nItems*(itemSize + 4) < keySpace(pg)/2
                         ? Btree.op_underflow : Btree.op_done;
                 }
             } else { // page b is before a
-                Page b = db.getPage(getReference(pg, maxItems-r));
+                Page b = db.getPage(getReference(pg, maxItems(pg)-r));
                 int bn = getnItems(b); 
                 Assert.that(bn >= an);
                 if (height != 1) { 
@@ -1423,15 +1556,15 @@ class BtreePage {
                     bn += 1;
                 }
                 int merged_size = (an+bn)*(4 + itemSize);
-                if (merged_size > keySpace) { 
+                if (merged_size > keySpace(pg)) { 
                     // reallocation of nodes between pages a and b
                     int i = bn - ((an + bn) >> 1);
                     db.pool.unfix(b);
-                    b = db.putPage(getReference(pg, maxItems-r));
+                    b = db.putPage(getReference(pg, maxItems(pg)-r));
                     memcpy(a, i, a, 0, an, itemSize);
                     memcpy(a, 0, b, bn-i, i, itemSize);
-                    memcpy(a, maxItems-an-i, a, maxItems-an, an, 4);
-                    memcpy(a, maxItems-i, b, maxItems-bn, i, 4);
+                    memcpy(a, maxItems(pg)-an-i, a, maxItems(pg)-an, an, 4);
+                    memcpy(a, maxItems(pg)-i, b, maxItems(pg)-bn, i, 4);
                     if (height != 1) { 
                         memcpy(a, i-1, pg, r-1, 1, itemSize);
                     }
@@ -1444,18 +1577,18 @@ class BtreePage {
                 } else { // merge page b to a
                     memcpy(a, bn, a, 0, an, itemSize);
                     memcpy(a, 0, b, 0, bn, itemSize);
-                    memcpy(a, maxItems-an-bn, a, maxItems-an, an, 4);
-                    memcpy(a, maxItems-bn, b, maxItems-bn, bn, 4);
+                    memcpy(a, maxItems(pg)-an-bn, a, maxItems(pg)-an, an, 4);
+                    memcpy(a, maxItems(pg)-bn, b, maxItems(pg)-bn, bn, 4);
                     if (height != 1) { 
                         memcpy(a, bn-1, pg, r-1, 1, itemSize);
                     }
-                    db.freePage(getReference(pg, maxItems-r));
-                    setReference(pg, maxItems-r, getReference(pg, maxItems-r-1));
+                    db.freePage(getReference(pg, maxItems(pg)-r));
+                    setReference(pg, maxItems(pg)-r, getReference(pg, maxItems(pg)-r-1));
                     setnItems(a, getnItems(a) + bn);
                     setnItems(pg, nItems - 1);
                     db.pool.unfix(a);
                     db.pool.unfix(b);
-                    return nItems*(itemSize + 4) < keySpace/2
+                    return nItems*(itemSize + 4) < keySpace(pg)/2
                         ? Btree.op_underflow : Btree.op_done;
                 }
             }
@@ -1484,14 +1617,18 @@ class BtreePage {
                             db.pool.unfix(pg);
                             pg = null;
                             pg = db.putPage(pageId);
-                            return handlePageUnderflow(db, pg, r, tree.type, rem, height);
+                            return tree.isPrefixCompressed()
+                                ? PrefixBtreePage.handlePageUnderflow(db, pg, r, tree.type, rem, height)
+                                : handlePageUnderflow(db, pg, r, tree.type, rem, height);
                           case Btree.op_done:
                             return Btree.op_done;
                           case Btree.op_overflow:
                             db.pool.unfix(pg);
                             pg = null;
                             pg = db.putPage(pageId);
-                            return insertStrKey(db, pg, r, rem, height);
+                            return tree.isPrefixCompressed()
+                                ? PrefixBtreePage.insert(db, pg, r, rem, height, tree.type)
+                                : insertStrKey(db, pg, r, rem, height);
                         }
                     } while (++r <= n);
                 } else { 
@@ -1503,7 +1640,9 @@ class BtreePage {
                                 db.pool.unfix(pg);
                                 pg = null;
                                 pg = db.putPage(pageId);
-                                return removeStrKey(pg, r);
+                                return tree.isPrefixCompressed()
+                                    ? PrefixBtreePage.remove(db, pg, r, tree.type)
+                                    : removeStrKey(pg, r);
                             }
                         } else { 
                             break;
@@ -1527,14 +1666,18 @@ class BtreePage {
                             db.pool.unfix(pg);
                             pg = null;
                             pg = db.putPage(pageId);
-                            return handlePageUnderflow(db, pg, r, tree.type, rem, height);
+                            return tree.isPrefixCompressed()
+                                ? PrefixBtreePage.handlePageUnderflow(db, pg, r, tree.type, rem, height)
+                                : handlePageUnderflow(db, pg, r, tree.type, rem, height);
                           case Btree.op_done:
                             return Btree.op_done;
                           case Btree.op_overflow:
                             db.pool.unfix(pg);
                             pg = null;
                             pg = db.putPage(pageId);
-                            return insertByteArrayKey(db, pg, r, rem, height);
+                            return tree.isPrefixCompressed()
+                                ? PrefixBtreePage.insert(db, pg, r, rem, height, tree.type)
+                                : insertByteArrayKey(db, pg, r, rem, height);
                         }
                     } while (++r <= n);
                 } else { 
@@ -1546,7 +1689,9 @@ class BtreePage {
                                 db.pool.unfix(pg);
                                 pg = null;
                                 pg = db.putPage(pageId);
-                                return removeByteArrayKey(pg, r);
+                                return tree.isPrefixCompressed()
+                                    ? PrefixBtreePage.remove(db, pg, r, tree.type)
+                                    : removeByteArrayKey(pg, r);
                             }
                         } else { 
                             break;
@@ -1568,15 +1713,15 @@ class BtreePage {
                     int oid = rem.oid;
                     while (r < n) {
                         if (compare(rem.key, pg, r) == 0) {
-                            if (getReference(pg, maxItems-r-1) == oid || oid == 0) {
-                                rem.oldOid = getReference(pg, maxItems-r-1);
+                            if (getReference(pg, maxItems(pg)-r-1) == oid || oid == 0) { 
+                                rem.oldOid = getReference(pg, maxItems(pg)-r-1);
                                 db.pool.unfix(pg);
                                 pg = null;
                                 pg = db.putPage(pageId);
                                 memcpy(pg, r, pg, r+1, n - r - 1, itemSize);
-                                memcpy(pg, maxItems-n+1, pg, maxItems-n, n - r - 1, 4);
+                                memcpy(pg, maxItems(pg)-n+1, pg, maxItems(pg)-n, n - r - 1, 4);
                                 setnItems(pg, --n);
-                                return n*(itemSize + 4) < keySpace/2
+                                return n*(itemSize + 4) < keySpace(pg)/2
                                     ? Btree.op_underflow : Btree.op_done;
                             }
                         } else {
@@ -1587,7 +1732,7 @@ class BtreePage {
                     return Btree.op_not_found;
                 }
                 do { 
-                    switch (remove(db, getReference(pg, maxItems-r-1), tree, rem, height)) {
+                    switch (remove(db, getReference(pg, maxItems(pg)-r-1), tree, rem, height)) { 
                       case Btree.op_underflow: 
                         db.pool.unfix(pg);
                         pg = null;
@@ -1617,7 +1762,7 @@ class BtreePage {
                 }
             } else { 
                 while (--n >= 0) { 
-                    purge(db, getReference(pg, maxItems-n-1), type, height);
+                    purge(db, getReference(pg, maxItems(pg)-n-1), type, height);
                 }
             }
             db.pool.unfix(pg);
@@ -1639,7 +1784,7 @@ class BtreePage {
                     }
                 } else { 
                     for (i = 0; i <= n; i++) { 
-                        pos = traverseForward(db, getReference(pg, maxItems-i-1), type, height, result, pos);
+                        pos = traverseForward(db, getReference(pg, maxItems(pg)-i-1), type, height, result, pos);
                     }
                 }
             } else { 
@@ -1650,7 +1795,7 @@ class BtreePage {
                     }
                 } else { // page of scalars
                     for (i = 0; i < n; i++) { 
-                        oid = getReference(pg, maxItems-1-i);
+                        oid = getReference(pg, maxItems(pg)-1-i);
                         result[pos++] = db.lookupObject(oid, null);
                     }
                 }
@@ -1674,7 +1819,7 @@ class BtreePage {
                     }
                 } else { 
                     for (i = 0; i <= n; i++) { 
-                        nPages += markPage(db, getReference(pg, maxItems-i-1), type, height);
+                        nPages += markPage(db, getReference(pg, maxItems(pg)-i-1), type, height);
                     }
                 }
             } else { 
@@ -1684,7 +1829,7 @@ class BtreePage {
                     }
                 } else { // page of scalars
                     for (i = 0; i < n; i++) { 
-                        db.markOid(getReference(pg, maxItems-1-i));
+                        db.markOid(getReference(pg, maxItems(pg)-1-i));
                     }
                 }
             }
@@ -1707,21 +1852,27 @@ class BtreePage {
                     }
                 } else { 
                     for (i = 0; i <= n; i++) { 
-                        exportPage(db, exporter, getReference(pg, maxItems-i-1), type, height);
+                        exportPage(db, exporter, getReference(pg, maxItems(pg)-i-1), type, height);
                     }
                 }
             } else { 
                 if (type == ClassDescriptor.tpString || type == ClassDescriptor.tpArrayOfByte) { // page of strings
+                    int unit = type == ClassDescriptor.tpString ? 2 : 1;
                     for (i = 0; i < n; i++) {
-                        exporter.exportAssoc(getKeyStrOid(pg, i), 
-                                             pg.data, 
-                                             BtreePage.firstKeyOffs + BtreePage.getKeyStrOffs(pg, i),
-                                             BtreePage.getKeyStrSize(pg, i),
-                                             type);
+                        if (isCompressed(pg)) { 
+                            byte[] key = PrefixBtreePage.getKeyData(pg, i, unit);
+                            exporter.exportAssoc(getKeyStrOid(pg, i), key, 0, key.length/unit, type);
+                        } else { 
+                            exporter.exportAssoc(getKeyStrOid(pg, i),
+                                                 pg.data,
+                                                 BtreePage.firstKeyOffs + BtreePage.getKeyStrOffs(pg, i),
+                                                 BtreePage.getKeyStrSize(pg, i),
+                                                 type);
+                        }
                     }
                 } else { 
                     for (i = 0; i < n; i++) { 
-                        exporter.exportAssoc(getReference(pg, maxItems-1-i), 
+                        exporter.exportAssoc(getReference(pg, maxItems(pg)-1-i),
                                              pg.data, 
                                              BtreePage.firstKeyOffs + i*ClassDescriptor.sizeof[type], 
                                              ClassDescriptor.sizeof[type],
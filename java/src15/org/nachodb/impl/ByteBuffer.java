@@ -51,6 +51,73 @@ public class ByteBuffer {
         return dst;
     }
 
+    /**
+     * Pack string in compact representation: Latin-1 if all characters fit in one byte, UTF-8 otherwise
+     * (see Bytes.STR_LATIN1, Bytes.STR_UTF8)
+     */
+    int packCompactString(int dst, String value) { 
+        if (value == null) { 
+            extend(dst + 1);
+            arr[dst] = (byte)Bytes.STR_NULL;
+            return dst + 1;
+        }
+        int length = value.length();
+        int start = dst + 1 + Bytes.sizeofVarint(length);
+        extend(start + length);
+        byte[] arr = this.arr;
+        int i;
+        for (i = 0; i < length; i++) { 
+            char ch = value.charAt(i);
+            if (ch > 0xFF) { 
+                break;
+            }
+            arr[start + i] = (byte)ch;
+        }
+        if (i == length) { 
+            arr[dst] = (byte)Bytes.STR_LATIN1;
+            Bytes.packVarint(arr, dst + 1, length);
+            return start + length;
+        }
+        int size = 0;
+        for (i = 0; i < length; i++) { 
+            char ch = value.charAt(i);
+            size += ch < 0x80 ? 1 : ch < 0x800 ? 2 : 3;
+        }
+        int pos = dst + 1 + Bytes.sizeofVarint(size);
+        extend(pos + size);
+        arr = this.arr;
+        arr[dst] = (byte)Bytes.STR_UTF8;
+        Bytes.packVarint(arr, dst + 1, size);
+        for (i = 0; i < length; i++) { 
+            char ch = value.charAt(i);
+            if (ch < 0x80) { 
+                arr[pos++] = (byte)ch;
+            } else if (ch < 0x800) { 
+                arr[pos++] = (byte)(0xC0 | (ch >> 6));
+                arr[pos++] = (byte)(0x80 | (ch & 0x3F));
+            } else { 
+                arr[pos++] = (byte)(0xE0 | (ch >> 12));
+                arr[pos++] = (byte)(0x80 | ((ch >> 6) & 0x3F));
+                arr[pos++] = (byte)(0x80 | (ch & 0x3F));
+            }
+        }
+        return pos;
+    }
+
+    int packVarint(int dst, int value) { 
+        extend(dst + 5);
+        dst = Bytes.packVarint(arr, dst, value);
+        used = dst;
+        return dst;
+    }
+
+    int packVarlong(int dst, long value) { 
+        extend(dst + 10);
+        dst = Bytes.packVarlong(arr, dst, value);
+        used = dst;
+        return dst;
+    }
+
     ByteBuffer() { 
         arr = new byte[64];
     }
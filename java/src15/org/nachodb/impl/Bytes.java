@@ -24,7 +24,127 @@ public class Bytes {
     public static double unpackF8(byte[] arr, int offs) { 
         return Double.longBitsToDouble(Bytes.unpack8(arr, offs));
     }
+    //
+    // Compact string representation: coder byte followed by varint length and payload.
+    // Coder values can not be first byte of legacy representation (4 bytes length, -1 for null,
+    // number of chars or -2-number of bytes in specified encoding) unless length of legacy encoded string
+    // exceeds 16Mb, so both representations can be present in the same database.
+    //
+    public static final int STR_NULL   = 0xFC; // null string, no length and payload
+    public static final int STR_UTF8   = 0xFD; // length in bytes, UTF-8 encoding of UTF-16 chars
+    public static final int STR_LATIN1 = 0xFE; // length in bytes, one byte per char
+
+    public static boolean isCompactStr(byte[] arr, int offs) { 
+        int coder = arr[offs] & 0xFF;
+        return coder >= STR_NULL && coder <= STR_LATIN1;
+    }
+
+    public static int packVarint(byte[] arr, int offs, int val) { 
+        while ((val & ~0x7F) != 0) { 
+            arr[offs++] = (byte)(val | 0x80);
+            val >>>= 7;
+        }
+        arr[offs++] = (byte)val;
+        return offs;
+    }
+    public static int unpackVarint(byte[] arr, int offs) { 
+        int val = 0;
+        int shift = 0;
+        int b;
+        do { 
+            b = arr[offs++];
+            val |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return val;
+    }
+    public static int sizeofVarint(int val) { 
+        int n = 1;
+        while ((val & ~0x7F) != 0) { 
+            val >>>= 7;
+            n += 1;
+        }
+        return n;
+    }
+    public static int skipVarint(byte[] arr, int offs) { 
+        while (arr[offs++] < 0);
+        return offs;
+    }
+    public static int packVarlong(byte[] arr, int offs, long val) { 
+        while ((val & ~0x7FL) != 0) { 
+            arr[offs++] = (byte)(val | 0x80);
+            val >>>= 7;
+        }
+        arr[offs++] = (byte)val;
+        return offs;
+    }
+    public static long unpackVarlong(byte[] arr, int offs) { 
+        long val = 0;
+        int shift = 0;
+        int b;
+        do { 
+            b = arr[offs++];
+            val |= (long)(b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return val;
+    }
+    public static int sizeofVarlong(long val) { 
+        int n = 1;
+        while ((val & ~0x7FL) != 0) { 
+            val >>>= 7;
+            n += 1;
+        }
+        return n;
+    }
+    //
+    // Zig-zag encoding of signed values used by compact record format: values with small
+    // absolute value (including negative) are mapped to small unsigned values
+    //
+    public static int zigzag(int val) { 
+        return (val << 1) ^ (val >> 31);
+    }
+    public static long zigzag(long val) { 
+        return (val << 1) ^ (val >> 63);
+    }
+    public static int unzigzag(int val) { 
+        return (val >>> 1) ^ -(val & 1);
+    }
+    public static long unzigzag(long val) { 
+        return (val >>> 1) ^ -(val & 1);
+    }
+
+    @SuppressWarnings("deprecation")
+    static String unpackCompactStr(byte[] arr, int offs) { 
+        int coder = arr[offs++] & 0xFF;
+        if (coder == STR_NULL) { 
+            return null;
+        }
+        int len = unpackVarint(arr, offs);
+        offs += sizeofVarint(len);
+        if (coder == STR_LATIN1) { 
+            return new String(arr, 0, offs, len);
+        }
+        char[] chars = new char[len];
+        int n = 0;
+        for (int end = offs + len; offs < end; n++) { 
+            int b = arr[offs++];
+            if (b >= 0) { 
+                chars[n] = (char)b;
+            } else if ((b & 0xE0) == 0xC0) { 
+                chars[n] = (char)(((b & 0x1F) << 6) | (arr[offs++] & 0x3F));
+            } else { 
+                chars[n] = (char)(((b & 0x0F) << 12) | ((arr[offs] & 0x3F) << 6) | (arr[offs+1] & 0x3F));
+                offs += 2;
+            }
+        }
+        return new String(chars, 0, n);
+    }
+
     public static String unpackStr(byte[] arr, int offs, String encoding) { 
+        if (isCompactStr(arr, offs)) { 
+            return unpackCompactStr(arr, offs);
+        }
         int len = unpack4(arr, offs);        
         if (len >= 0) { 
             char[] chars = new char[len];
@@ -37,12 +157,12 @@ public class Bytes {
         } else if (len < -1) { 
             if (encoding != null) { 
                 try { 
-                    return new String(arr, offs, -len-2, encoding);
+                    return new String(arr, offs + 4, -len-2, encoding);
                 } catch (UnsupportedEncodingException x) { 
                     throw new StorageError(StorageError.UNSUPPORTED_ENCODING);
                 }
             } else { 
-                return new String(arr, offs, -len-2);
+                return new String(arr, offs + 4, -len-2);
             }
         }
         return null;
@@ -101,6 +221,13 @@ public class Bytes {
         }
     }
     public static int sizeof(byte[] arr, int offs) { 
+        if (isCompactStr(arr, offs)) { 
+            if ((arr[offs] & 0xFF) == STR_NULL) { 
+                return 1;
+            }
+            int len = unpackVarint(arr, offs + 1);
+            return 1 + sizeofVarint(len) + len;
+        }
         int len = unpack4(arr, offs);        
         if (len >= 0) { 
             return 4 + len*2;
@@ -0,0 +1,113 @@
+package org.nachodb.impl;
+import  org.nachodb.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * File implementation based on positional read and write methods of <code>java.nio.channels.FileChannel</code>.
+ * Unlike OSFile it doesn't need to set file position before each operation, so pages can be
+ * concurrently read and written by several threads without synchronization.
+ * Also it allows page pool to write adjacent dirty pages using one gathering write.
+ * Please notice that channel is closed if thread performing I/O operation is interrupted.
+ */
+public class ChannelFile implements IFile { 
+    public void write(long pos, byte[] buf)
+    { 
+        try { 
+            ByteBuffer bb = ByteBuffer.wrap(buf);
+            do { 
+                pos += chan.write(bb, pos);
+            } while (bb.hasRemaining());
+        } catch(IOException x) { 
+            throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+        }
+    }
+
+    /**
+     * Write several buffers to the file starting from the specified position
+     * @param pos offset in the file
+     * @param bufs buffers with data to be written
+     */
+    public void write(long pos, ByteBuffer[] bufs)
+    { 
+        try { 
+            // gathering write uses current position of the channel
+            synchronized (this) { 
+                chan.position(pos);
+                do { 
+                    chan.write(bufs);
+                } while (bufs[bufs.length-1].hasRemaining());
+            }
+        } catch(IOException x) { 
+            throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+        }
+    }
+
+    public int read(long pos, byte[] buf)
+    { 
+        try { 
+            ByteBuffer bb = ByteBuffer.wrap(buf);
+            do { 
+                if (chan.read(bb, pos + bb.position()) <= 0) { 
+                    break;
+                }
+            } while (bb.hasRemaining());
+            return bb.position();
+        } catch(IOException x) { 
+            throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+        }
+    }
+
+    public void sync()
+    { 
+        if (!noFlush) { 
+            try { 
+                chan.force(true);
+            } catch(IOException x) { 
+                throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+            }
+        }
+    }
+
+    public void close()
+    { 
+        try { 
+            file.close();
+        } catch(IOException x) { 
+            throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+        }
+    }
+
+    public boolean lock()
+    { 
+        try { 
+            return chan.tryLock(OSFile.MAX_FILE_SIZE, 1, false) != null;
+        } catch (Exception x) { 
+            return true;
+        }
+    }
+
+    public long length() { 
+        try { 
+            return chan.size();
+        } catch (IOException x) { 
+            return -1;
+        }
+    }
+
+    public ChannelFile(String filePath, boolean readOnly, boolean noFlush) { 
+        this.noFlush = noFlush;
+        try { 
+            file = new RandomAccessFile(filePath, readOnly ? "r" : "rw");
+        } catch(IOException x) { 
+            throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+        }
+        chan = file.getChannel();
+    }
+
+    protected RandomAccessFile file;
+    protected FileChannel      chan;
+    protected boolean          noFlush;
+}
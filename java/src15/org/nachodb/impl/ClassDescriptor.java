@@ -8,6 +8,7 @@ public final class ClassDescriptor extends Persistent {
     String            name;
     boolean           hasReferences;
     FieldDescriptor[] allFields;
+    boolean           compact; // objects of the class are stored in compact record format (see CompactRecord)
 
     static class FieldDescriptor extends Persistent { 
         String          fieldName;
@@ -15,6 +16,7 @@ public final class ClassDescriptor extends Persistent {
         int             type;
         ClassDescriptor valueDesc;
         transient Field field;
+        transient FieldAccessor accessor;
 
         public boolean equals(FieldDescriptor fd) { 
             return fieldName.equals(fd.fieldName) 
@@ -32,6 +34,8 @@ public final class ClassDescriptor extends Persistent {
     transient boolean     resolved;
     
     static ReflectionProvider reflectionProvider; 
+    static Constructor        fieldAccessorConstructor;
+    static boolean            useUnsafeFieldAccessors = true;
 
     public static final int tpBoolean          = 0;
     public static final int tpByte             = 1;
@@ -136,11 +140,41 @@ public final class ClassDescriptor extends Persistent {
             }
         }
         return reflectionProvider;
+    }
+
+    /**
+     * Create accessor for the field. Accessor based on sun.misc.Unsafe is used if it is available
+     * and not disabled by <code>perst.unsafe.field.access</code> property, otherwise field is accessed using reflection.
+     */
+    static FieldAccessor createFieldAccessor(Field f) { 
+        if (useUnsafeFieldAccessors) { 
+            try { 
+                if (fieldAccessorConstructor == null) { 
+                    Class.forName("sun.misc.Unsafe");
+                    String cls = "org.nachodb.impl.sun14.UnsafeFieldAccessor";
+                    fieldAccessorConstructor = Class.forName(cls).getConstructor(new Class[]{Field.class});
+                }
+                return (FieldAccessor)fieldAccessorConstructor.newInstance(new Object[]{f});
+            } catch (Throwable x) { 
+                // Unsafe is not available at all or can not be used for this field
+                if (fieldAccessorConstructor == null) { 
+                    useUnsafeFieldAccessors = false;
+                }
+            }
+        }
+        return new FieldAccessor.ReflectionAccessor(f);
+    }
+
+    private void createFieldAccessors() { 
+        for (int i = 0; i < allFields.length; i++) { 
+            FieldDescriptor fd = allFields[i];
+            fd.accessor = fd.field != null ? createFieldAccessor(fd.field) : null;
+        }
     } 
            
 
     public boolean equals(ClassDescriptor cd) { 
-        if (cd == null || allFields.length != cd.allFields.length) { 
+        if (cd == null || allFields.length != cd.allFields.length || compact != cd.compact) { 
             return false;
         }
         for (int i = 0; i < allFields.length; i++) { 
@@ -151,6 +185,12 @@ public final class ClassDescriptor extends Persistent {
         return true;
     }
         
+    /**
+     * Format of records of objects of this class
+     */
+    final RecordFormat getRecordFormat() { 
+        return compact ? RecordFormat.COMPACT : RecordFormat.LEGACY;
+    }
 
     Object newInstance() {
         if (factory != null) { 
@@ -278,9 +318,11 @@ public final class ClassDescriptor extends Persistent {
     ClassDescriptor(StorageImpl storage, Class cls) { 
         this.cls = cls;
         name = cls.getName();
+        compact = CompactRecord.class.isAssignableFrom(cls);
         ArrayList list = new ArrayList();
         buildFieldList(storage, cls, list);
         allFields = (FieldDescriptor[])list.toArray(new FieldDescriptor[list.size()]);
+        createFieldAccessors();
         locateConstructor();
         resolved = true;
     }
@@ -347,6 +389,7 @@ public final class ClassDescriptor extends Persistent {
                 }
             }
         }
+        createFieldAccessors();
         locateConstructor();
         StorageImpl s = (StorageImpl)getStorage();
         if (s.classDescMap.get(cls) == null) { 
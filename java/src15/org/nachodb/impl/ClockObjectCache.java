@@ -0,0 +1,350 @@
+package org.nachodb.impl;
+import  org.nachodb.*;
+import  java.lang.ref.*;
+import  java.util.concurrent.atomic.*;
+
+/**
+ * Object cache based on open addressing hash table with primitive integer keys.
+ * Lookup of cached object doesn't require locking: table is replaced as a whole when it is rehashed,
+ * keys and entries are stored in atomic arrays and entry is always set before its key, so reader either
+ * finds consistent entry or repeats lookup holding the lock. All updates are performed with the lock held.
+ * Most recently used objects are pinned in memory using CLOCK algorithm instead of LRU list:
+ * access to pinned object just sets reference bit of the entry, so it is not necessary to
+ * relink the list on each cache hit.
+ * Only loaded objects are pinned and returned without locking: raw stub is pinned when it is put in the cache
+ * once again after loading, so volatile write of the pin publishes fields of the object to other threads.
+ */
+public class ClockObjectCache implements OidHashTable { 
+    static final class Table { 
+        final AtomicIntegerArray          keys;
+        final AtomicReferenceArray<Entry> entries;
+
+        Table(int capacity) { 
+            keys = new AtomicIntegerArray(capacity);
+            entries = new AtomicReferenceArray<Entry>(capacity);
+        }
+    }
+
+    static final class Entry { 
+        final int          oid;
+        volatile Reference ref;
+        volatile boolean   referenced;
+        volatile IPersistent pin;
+        int                dirty;
+        int                clockIndex;
+
+        Entry(int oid, Reference ref) { 
+            this.oid = oid;
+            this.ref = ref;
+        }
+    }
+
+    static final int   FREE = 0;
+    static final int   DELETED = -1;
+    static final float loadFactor = 0.5f;
+    static final int   defaultInitSize = 1319;
+
+    volatile Table table;
+    int     count; // number of entries
+    int     used;  // number of entries and deleted keys
+    int     threshold;
+    Entry[] clock;
+    int     hand;
+    int     nPinned;
+
+    public ClockObjectCache(int size) { 
+        int initialCapacity = size == 0 ? defaultInitSize : size;
+        int capacity = 16;
+        while (capacity*loadFactor < initialCapacity) { 
+            capacity <<= 1;
+        }
+        table = new Table(capacity);
+        threshold = (int)(capacity*loadFactor);
+        clock = new Entry[size];
+    }
+
+    private static int hash(int oid, int mask) { 
+        int h = oid * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Find entry for the specified OID. This method can be called without lock.
+     * @return index in the table or -1 if there is no such key
+     */
+    private static int find(Table t, int oid) { 
+        AtomicIntegerArray keys = t.keys;
+        int mask = keys.length() - 1;
+        int i = hash(oid, mask);
+        int key;
+        while ((key = keys.get(i)) != FREE) { 
+            if (key == oid) { 
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    public IPersistent get(int oid) { 
+        // fast path: pinned object is found without locking
+        Table t = table;
+        int i = find(t, oid);
+        if (i >= 0) { 
+            Entry e = t.entries.get(i);
+            if (e != null && e.oid == oid) { 
+                IPersistent obj = e.pin;
+                if (obj != null && !obj.isDeleted()) { 
+                    e.referenced = true;
+                    return obj;
+                }
+            }
+        }
+        while (true) { 
+            cs:synchronized(this) { 
+                t = table;
+                i = find(t, oid);
+                if (i < 0) { 
+                    return null;
+                }
+                Entry e = t.entries.get(i);
+                IPersistent obj = (IPersistent)e.ref.get();
+                if (obj == null) { 
+                    if (e.dirty != 0) { 
+                        break cs;
+                    }
+                } else  { 
+                    if (obj.isDeleted()) { 
+                        e.ref.clear();
+                        unpinObject(e);
+                        return null;
+                    }
+                    if (!obj.isRaw()) { 
+                        pinObject(e, obj);
+                    }
+                }
+                return obj;
+            }
+            System.runFinalization();
+        }
+    }
+
+    protected Reference createReference(Object obj) { 
+        return new WeakReference(obj);
+    }
+
+    private final void unpinObject(Entry e)
+    { 
+        if (e.pin != null) { 
+            clock[e.clockIndex] = null;
+            e.pin = null;
+            nPinned -= 1;
+        }
+    }
+
+    /**
+     * Pin object in memory. Free slot of the clock is used if any, otherwise hand of the clock
+     * is moved until entry with cleared reference bit is found and this entry is replaced.
+     */
+    private final void pinObject(Entry e, IPersistent obj)
+    { 
+        if (e.pin != null) { 
+            e.pin = obj;
+            e.referenced = true;
+        } else if (clock.length != 0) { 
+            Entry[] c = clock;
+            while (true) { 
+                Entry victim = c[hand];
+                if (victim == null) { 
+                    nPinned += 1;
+                    break;
+                }
+                if (!victim.referenced) { 
+                    victim.pin = null;
+                    break;
+                }
+                victim.referenced = false;
+                hand = (hand + 1) % c.length;
+            }
+            c[hand] = e;
+            e.clockIndex = hand;
+            e.pin = obj;
+            e.referenced = false;
+            hand = (hand + 1) % c.length;
+        }
+    }
+
+    public synchronized void put(int oid, IPersistent obj) { 
+        Table t = table;
+        int i = find(t, oid);
+        if (i >= 0) { 
+            Entry e = t.entries.get(i);
+            if (e.ref.get() != obj) { 
+                e.ref = createReference(obj);
+            }
+            if (!obj.isRaw()) { 
+                pinObject(e, obj);
+            }
+            return;
+        }
+        Reference ref = createReference(obj);
+        if (used >= threshold) { 
+            rehash();
+            t = table;
+        }
+        Entry e = new Entry(oid, ref);
+        int mask = t.keys.length() - 1;
+        i = hash(oid, mask);
+        int key;
+        while ((key = t.keys.get(i)) != FREE && key != DELETED) { 
+            i = (i + 1) & mask;
+        }
+        if (key == FREE) { 
+            used += 1;
+        }
+        // entry should be visible before the key
+        t.entries.set(i, e);
+        t.keys.set(i, oid);
+        count += 1;
+        if (!obj.isRaw()) { 
+            pinObject(e, obj);
+        }
+    }
+
+    public synchronized boolean remove(int oid) { 
+        Table t = table;
+        int i = find(t, oid);
+        if (i >= 0) { 
+            Entry e = t.entries.get(i);
+            t.keys.set(i, DELETED);
+            t.entries.set(i, null);
+            e.ref.clear();
+            e.dirty = 0;
+            unpinObject(e);
+            count -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Remove entries for objects collected by GC and rebuild the table, doubling its size if necessary.
+     * New table is published only after it is completely filled.
+     */
+    private final void rehash() { 
+        Table t = table;
+        int capacity = t.keys.length();
+        count = 0;
+        for (int i = 0; i < capacity; i++) { 
+            Entry e = t.entries.get(i);
+            if (e != null) { 
+                if (e.ref.get() == null && e.dirty == 0) { 
+                    Assert.that(e.pin == null);
+                    t.entries.set(i, null);
+                } else { 
+                    count += 1;
+                }
+            }
+        }
+        if (count >= (threshold >>> 1)) { 
+            capacity <<= 1;
+            threshold = (int)(capacity*loadFactor);
+        }
+        Table newTable = new Table(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < t.keys.length(); i++) { 
+            Entry e = t.entries.get(i);
+            if (e != null) { 
+                int j = hash(e.oid, mask);
+                while (newTable.keys.get(j) != FREE) { 
+                    j = (j + 1) & mask;
+                }
+                // new table is not visible to readers yet
+                newTable.entries.lazySet(j, e);
+                newTable.keys.lazySet(j, e.oid);
+            }
+        }
+        used = count;
+        table = newTable;
+    }
+
+    public void flush() { 
+        while (true) { 
+            cs:synchronized(this) { 
+                AtomicReferenceArray<Entry> entries = table.entries;
+                for (int i = 0; i < entries.length(); i++) { 
+                    Entry e = entries.get(i);
+                    if (e != null) { 
+                        IPersistent obj = (IPersistent)e.ref.get();
+                        if (obj != null) { 
+                            if (obj.isModified()) { 
+                                obj.store();
+                            }
+                        } else if (e.dirty != 0) { 
+                            break cs;
+                        }
+                    }
+                }
+                return;
+            }
+            System.runFinalization();
+        }
+    }
+
+    public void invalidate() { 
+        while (true) { 
+            cs:synchronized(this) { 
+                AtomicReferenceArray<Entry> entries = table.entries;
+                for (int i = 0; i < entries.length(); i++) { 
+                    Entry e = entries.get(i);
+                    if (e != null) { 
+                        IPersistent obj = (IPersistent)e.ref.get();
+                        if (obj != null) { 
+                            if (obj.isModified()) { 
+                                e.dirty = 0;
+                                unpinObject(e);
+                                obj.invalidate();
+                            }
+                        } else if (e.dirty != 0) { 
+                            break cs;
+                        }
+                    }
+                }
+                table = new Table(table.keys.length());
+                for (int i = 0; i < clock.length; i++) { 
+                    if (clock[i] != null) { 
+                        clock[i].pin = null;
+                        clock[i] = null;
+                    }
+                }
+                nPinned = 0;
+                count = used = 0;
+                return;
+            }
+            System.runFinalization();
+        }
+    }
+
+    public synchronized void setDirty(int oid) { 
+        Table t = table;
+        int i = find(t, oid);
+        if (i >= 0) { 
+            t.entries.get(i).dirty += 1;
+        }
+    }
+
+    public synchronized void clearDirty(int oid) { 
+        Table t = table;
+        int i = find(t, oid);
+        if (i >= 0) { 
+            Entry e = t.entries.get(i);
+            if (e.dirty > 0) { 
+                e.dirty -= 1;
+            }
+        }
+    }
+
+    public int size() { 
+        return count;
+    }
+}
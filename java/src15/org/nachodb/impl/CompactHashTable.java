@@ -0,0 +1,183 @@
+package org.nachodb.impl;
+import  org.nachodb.*;
+
+/**
+ * Object cache with strong references which doesn't create object per entry:
+ * OIDs and objects are stored in parallel arrays and collisions are resolved by linear probing.
+ * Modified objects are marked in bitmap indexed by OID, so flush and invalidate
+ * visit only modified objects instead of scanning the whole table.
+ * This cache is used for in-memory databases (infinite page pool), where all objects are kept in memory.
+ */
+public class CompactHashTable implements OidHashTable { 
+    int[]    oids;
+    Object[] objects;
+    long[]   dirtyMap;
+    int      count;
+    int      threshold;
+    static final float loadFactor = 0.7f;
+    static final int   defaultInitSize = 1319;
+
+    public CompactHashTable(int initialCapacity) { 
+        if (initialCapacity == 0) { 
+            initialCapacity = defaultInitSize;
+        }
+        int capacity = 16;
+        while (capacity*loadFactor < initialCapacity) { 
+            capacity <<= 1;
+        }
+        oids = new int[capacity];
+        objects = new Object[capacity];
+        threshold = (int)(capacity*loadFactor);
+        dirtyMap = new long[(initialCapacity + 63) >>> 6];
+    }
+
+    private static int hash(int oid, int mask) { 
+        int h = oid * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private final int find(int oid) { 
+        int[] keys = oids;
+        int mask = keys.length - 1;
+        int i = hash(oid, mask);
+        int key;
+        while ((key = keys[i]) != 0) { 
+            if (key == oid) { 
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    public synchronized boolean remove(int oid) { 
+        int i = find(oid);
+        if (i < 0) { 
+            return false;
+        }
+        clearDirty(oid);
+        count -= 1;
+        // shift following entries of the cluster to keep probe sequences unbroken
+        int[] keys = oids;
+        int mask = keys.length - 1;
+        int j = i;
+        while (true) { 
+            j = (j + 1) & mask;
+            int key = keys[j];
+            if (key == 0) { 
+                break;
+            }
+            int h = hash(key, mask);
+            if (i <= j ? (h <= i || h > j) : (h <= i && h > j)) { 
+                keys[i] = key;
+                objects[i] = objects[j];
+                i = j;
+            }
+        }
+        keys[i] = 0;
+        objects[i] = null;
+        return true;
+    }
+
+    public synchronized void put(int oid, IPersistent obj) { 
+        int i = find(oid);
+        if (i >= 0) { 
+            objects[i] = obj;
+            return;
+        }
+        if (count >= threshold) { 
+            rehash();
+        }
+        int mask = oids.length - 1;
+        i = hash(oid, mask);
+        while (oids[i] != 0) { 
+            i = (i + 1) & mask;
+        }
+        oids[i] = oid;
+        objects[i] = obj;
+        count += 1;
+    }
+
+    public synchronized IPersistent get(int oid) { 
+        int i = find(oid);
+        return i >= 0 ? (IPersistent)objects[i] : null;
+    }
+
+    void rehash() { 
+        int[] oldOids = oids;
+        Object[] oldObjects = objects;
+        int newCapacity = oldOids.length*2;
+        int mask = newCapacity - 1;
+        oids = new int[newCapacity];
+        objects = new Object[newCapacity];
+        threshold = (int)(newCapacity*loadFactor);
+        for (int i = 0; i < oldOids.length; i++) { 
+            int oid = oldOids[i];
+            if (oid != 0) { 
+                int j = hash(oid, mask);
+                while (oids[j] != 0) { 
+                    j = (j + 1) & mask;
+                }
+                oids[j] = oid;
+                objects[j] = oldObjects[i];
+            }
+        }
+    }
+
+    public synchronized void flush() { 
+        // storing of object can mark other objects as modified and extend the map, so it is not cached
+        for (int i = 0; i < dirtyMap.length; i++) { 
+            long word = dirtyMap[i];
+            while (word != 0) { 
+                int bit = Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+                IPersistent obj = get((i << 6) + bit);
+                if (obj != null && obj.isModified()) { 
+                    obj.store();
+                }
+            }
+        }
+    }
+
+    public synchronized void invalidate() { 
+        long[] map = dirtyMap;
+        for (int i = 0; i < map.length; i++) { 
+            long word = map[i];
+            while (word != 0) { 
+                int bit = Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+                IPersistent obj = get((i << 6) + bit);
+                if (obj != null && obj.isModified()) { 
+                    obj.invalidate();
+                }
+            }
+            map[i] = 0;
+        }
+        for (int i = 0; i < oids.length; i++) { 
+            oids[i] = 0;
+            objects[i] = null;
+        }
+        count = 0;
+    }
+
+    public synchronized void setDirty(int oid) { 
+        int i = oid >>> 6;
+        if (i >= dirtyMap.length) { 
+            long[] newMap = new long[Math.max(i + 1, dirtyMap.length*2)];
+            System.arraycopy(dirtyMap, 0, newMap, 0, dirtyMap.length);
+            dirtyMap = newMap;
+        }
+        dirtyMap[i] |= 1L << (oid & 63);
+    }
+
+    public synchronized void clearDirty(int oid) { 
+        int i = oid >>> 6;
+        if (i < dirtyMap.length) { 
+            dirtyMap[i] &= ~(1L << (oid & 63));
+        }
+    }
+
+    public int size() { 
+        return count;
+    }
+}
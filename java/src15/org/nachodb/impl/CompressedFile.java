@@ -0,0 +1,509 @@
+package org.nachodb.impl;
+import  org.nachodb.*;
+
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * File decorator storing each 4Kb page of the database compressed in variable size slot of the underlying file.
+ * Slots are allocated with 256 bytes granularity. Position of the slot of each logical page is stored
+ * in the page map: two level tree of map nodes (each node is 4Kb page of 512 entries) which roots
+ * are stored in the file header. Slots and map nodes are never updated in place: modified page
+ * is written to the new slot and old slot is released only after new version of the map is saved.
+ * Map is saved by <code>sync()</code>: dirty map nodes are written to the new locations, then
+ * header is written to one of two alternative header locations. So the file is switched to the new state
+ * atomically at each synchronization point: it is the same as the shadow root commit protocol of the
+ * storage, which synchronizes the file before and after writing of the database header.<br>
+ * Bitmap of used slots is not stored in the file: it is reconstructed when file is opened by traversing
+ * page map (about 1/512 of the database size has to be read).
+ */
+public class CompressedFile implements IFile
+{
+    public synchronized void write(long pos, byte[] buf)
+    { 
+        int len = buf.length;
+        int offs = 0;
+        while (offs < len) { 
+            long pageNo = (pos + offs) >>> PAGE_BITS;
+            int pageOffs = (int)(pos + offs) & (PAGE_SIZE-1);
+            int size = Math.min(PAGE_SIZE - pageOffs, len - offs);
+            if (size == PAGE_SIZE) { 
+                writePage(pageNo, buf, offs);
+            } else { 
+                readPage(pageNo, pageBuf, 0);
+                System.arraycopy(buf, offs, pageBuf, pageOffs, size);
+                writePage(pageNo, pageBuf, 0);
+            }
+            offs += size;
+        }
+        if (pos + len > length) { 
+            length = pos + len;
+        }
+        modified = true;
+    }
+
+    public synchronized int read(long pos, byte[] buf)
+    { 
+        if (pos >= length) { 
+            return 0;
+        }
+        int len = (int)Math.min(buf.length, length - pos);
+        int offs = 0;
+        while (offs < len) { 
+            long pageNo = (pos + offs) >>> PAGE_BITS;
+            int pageOffs = (int)(pos + offs) & (PAGE_SIZE-1);
+            int size = Math.min(PAGE_SIZE - pageOffs, len - offs);
+            if (size == PAGE_SIZE) { 
+                readPage(pageNo, buf, offs);
+            } else { 
+                readPage(pageNo, pageBuf, 0);
+                System.arraycopy(pageBuf, pageOffs, buf, offs, size);
+            }
+            offs += size;
+        }
+        return len;
+    }
+
+    public synchronized void sync()
+    { 
+        if (modified) { 
+            saveMap();
+        } else { 
+            file.sync();
+        }
+    }
+
+    public synchronized void close()
+    { 
+        if (modified) { 
+            saveMap();
+        }
+        file.close();
+    }
+
+    public boolean lock()
+    { 
+        return file.lock();
+    }
+
+    public synchronized long length()
+    { 
+        return length;
+    }
+
+    public CompressedFile(String filePath, boolean readOnly, boolean noFlush)
+    { 
+        this(new OSFile(filePath, readOnly, noFlush));
+    }
+
+    public CompressedFile(IFile file)
+    { 
+        this.file = file;
+        compressor = new PageCompressor();
+        pageBuf = new byte[PAGE_SIZE];
+        packBuf = new byte[PageCompressor.maxCompressedLength(PAGE_SIZE)];
+        headerBuf = new byte[HEADER_SIZE];
+        slotBuf = new byte[PAGE_UNITS+1][];
+        roots = new long[MAX_ROOTS];
+        dirs = new MapNode[MAX_ROOTS];
+        dirtyLeaves = new HashMap<Long,MapNode>();
+        leafCache = new LinkedHashMap<Long,MapNode>(LEAF_CACHE_SIZE, 0.75f, true) { 
+            protected boolean removeEldestEntry(Map.Entry<Long,MapNode> eldest) { 
+                return size() > LEAF_CACHE_SIZE;
+            }
+        };
+        fresh = new HashSet<Long>();
+        pending = new ArrayList<Long>();
+        bitmap = new long[1024];
+        markUsed(0, HEADER_UNITS*2);
+        if (file.length() != 0) { 
+            loadHeader();
+            loadMap();
+        }
+    }
+
+    static class MapNode { 
+        long[]  entries = new long[NODE_SIZE];
+        long    unit;  // position of the node in the file (in allocation units), 0 if node was not yet saved
+        boolean dirty; // used only for directory nodes: dirty leaf nodes are kept in separate map
+    }
+
+    private void loadHeader()
+    { 
+        long  currGeneration = -1;
+        boolean empty = true;
+        for (int i = 0; i < 2; i++) { 
+            byte[] hdr = headerBuf;
+            int rc = file.read((long)i*HEADER_SIZE, hdr);
+            for (int j = 0; j < rc; j++) { 
+                if (hdr[j] != 0) { 
+                    empty = false;
+                    break;
+                }
+            }
+            if (rc < HEADER_SIZE || Bytes.unpack4(hdr, 0) != MAGIC) { 
+                continue;
+            }
+            int nRoots = Bytes.unpack4(hdr, 20);
+            if (nRoots < 0 || nRoots > MAX_ROOTS) { 
+                continue;
+            }
+            int crcOffs = 24 + nRoots*8;
+            CRC32 crc = new CRC32();
+            crc.update(hdr, 0, crcOffs);
+            long generation = Bytes.unpack8(hdr, 4);
+            if (Bytes.unpack4(hdr, crcOffs) != (int)crc.getValue() || generation <= currGeneration) { 
+                continue;
+            }
+            currGeneration = generation;
+            this.generation = generation;
+            this.length = Bytes.unpack8(hdr, 12);
+            this.nRoots = nRoots;
+            for (int j = 0; j < MAX_ROOTS; j++) { 
+                roots[j] = j < nRoots ? Bytes.unpack8(hdr, 24 + j*8) : 0;
+            }
+        }
+        if (currGeneration < 0 && !empty) { 
+            throw new StorageError(StorageError.DATABASE_CORRUPTED);
+        }
+    }
+
+    private void saveHeader()
+    { 
+        byte[] hdr = headerBuf;
+        Arrays.fill(hdr, (byte)0);
+        Bytes.pack4(hdr, 0, MAGIC);
+        Bytes.pack8(hdr, 4, generation);
+        Bytes.pack8(hdr, 12, length);
+        Bytes.pack4(hdr, 20, nRoots);
+        for (int i = 0; i < nRoots; i++) { 
+            Bytes.pack8(hdr, 24 + i*8, roots[i]);
+        }
+        int crcOffs = 24 + nRoots*8;
+        CRC32 crc = new CRC32();
+        crc.update(hdr, 0, crcOffs);
+        Bytes.pack4(hdr, crcOffs, (int)crc.getValue());
+        file.write((generation & 1)*HEADER_SIZE, hdr);
+    }
+
+    /**
+     * Traverse page map and mark all slots referenced from it as used
+     */
+    private void loadMap()
+    { 
+        for (int i = 0; i < nRoots; i++) { 
+            if (roots[i] != 0) { 
+                MapNode dir = loadNode(roots[i]);
+                dirs[i] = dir;
+                for (int j = 0; j < NODE_SIZE; j++) { 
+                    long unit = dir.entries[j];
+                    if (unit != 0) { 
+                        MapNode leaf = loadNode(unit);
+                        for (int k = 0; k < NODE_SIZE; k++) { 
+                            long entry = leaf.entries[k];
+                            if (entry != 0) { 
+                                markUsed(entry >>> SIZE_BITS, units((int)entry & SIZE_MASK));
+                            }
+                        }
+                        leafCache.put((long)i*NODE_SIZE + j, leaf);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Save page map and switch the file to the new state
+     */
+    private void saveMap()
+    { 
+        for (Map.Entry<Long,MapNode> e : dirtyLeaves.entrySet()) { 
+            long leafNo = e.getKey();
+            MapNode leaf = e.getValue();
+            saveNode(leaf);
+            MapNode dir = getDirectory((int)(leafNo >>> NODE_BITS), true);
+            dir.entries[(int)leafNo & (NODE_SIZE-1)] = leaf.unit;
+            dir.dirty = true;
+            leafCache.put(leafNo, leaf);
+        }
+        dirtyLeaves.clear();
+        for (int i = 0; i < MAX_ROOTS; i++) { 
+            MapNode dir = dirs[i];
+            if (dir != null && dir.dirty) { 
+                saveNode(dir);
+                dir.dirty = false;
+                roots[i] = dir.unit;
+                if (i >= nRoots) { 
+                    nRoots = i + 1;
+                }
+            }
+        }
+        file.sync();
+        generation += 1;
+        saveHeader();
+        file.sync();
+        // slots referenced only by the previous state of the file can be reused now
+        for (long slot : pending) { 
+            release(slot >>> SIZE_BITS, (int)slot & SIZE_MASK);
+        }
+        pending.clear();
+        fresh.clear();
+        modified = false;
+    }
+
+    private MapNode loadNode(long unit)
+    { 
+        byte[] buf = getSlotBuffer(PAGE_UNITS);
+        if (file.read(unit << UNIT_BITS, buf) != PAGE_SIZE) { 
+            throw new StorageError(StorageError.DATABASE_CORRUPTED);
+        }
+        markUsed(unit, PAGE_UNITS);
+        MapNode node = new MapNode();
+        node.unit = unit;
+        for (int i = 0; i < NODE_SIZE; i++) { 
+            node.entries[i] = Bytes.unpack8(buf, i*8);
+        }
+        return node;
+    }
+
+    private void saveNode(MapNode node)
+    { 
+        byte[] buf = getSlotBuffer(PAGE_UNITS);
+        for (int i = 0; i < NODE_SIZE; i++) { 
+            Bytes.pack8(buf, i*8, node.entries[i]);
+        }
+        if (node.unit != 0) { 
+            free(node.unit, PAGE_UNITS);
+        }
+        node.unit = allocate(PAGE_UNITS);
+        file.write(node.unit << UNIT_BITS, buf);
+    }
+
+    private MapNode getDirectory(int i, boolean forUpdate)
+    { 
+        if (i >= MAX_ROOTS) { 
+            if (forUpdate) { 
+                throw new StorageError(StorageError.NOT_ENOUGH_SPACE);
+            }
+            return null;
+        }
+        MapNode dir = dirs[i];
+        if (dir == null) { 
+            if (roots[i] != 0) { 
+                dir = loadNode(roots[i]);
+            } else if (forUpdate) { 
+                dir = new MapNode();
+            } else { 
+                return null;
+            }
+            dirs[i] = dir;
+        }
+        return dir;
+    }
+
+    private MapNode getLeaf(long leafNo, boolean forUpdate)
+    { 
+        MapNode leaf = dirtyLeaves.get(leafNo);
+        if (leaf != null) { 
+            return leaf;
+        }
+        leaf = forUpdate ? leafCache.remove(leafNo) : leafCache.get(leafNo);
+        if (leaf == null) { 
+            MapNode dir = getDirectory((int)(leafNo >>> NODE_BITS), forUpdate);
+            if (dir == null) { 
+                return null;
+            }
+            long unit = dir.entries[(int)leafNo & (NODE_SIZE-1)];
+            if (unit != 0) { 
+                leaf = loadNode(unit);
+            } else if (forUpdate) { 
+                leaf = new MapNode();
+            } else { 
+                return null;
+            }
+            if (!forUpdate) { 
+                leafCache.put(leafNo, leaf);
+            }
+        }
+        if (forUpdate) { 
+            dirtyLeaves.put(leafNo, leaf);
+        }
+        return leaf;
+    }
+
+    private void readPage(long pageNo, byte[] dst, int offs)
+    { 
+        MapNode leaf = getLeaf(pageNo >>> NODE_BITS, false);
+        long entry = leaf != null ? leaf.entries[(int)pageNo & (NODE_SIZE-1)] : 0;
+        if (entry == 0) { 
+            Arrays.fill(dst, offs, offs + PAGE_SIZE, (byte)0);
+            return;
+        }
+        int size = (int)entry & SIZE_MASK;
+        byte[] slot = getSlotBuffer(units(size));
+        if (file.read((entry >>> SIZE_BITS) << UNIT_BITS, slot) < size) { 
+            throw new StorageError(StorageError.DATABASE_CORRUPTED);
+        }
+        if (size == PAGE_SIZE) { 
+            System.arraycopy(slot, 0, dst, offs, PAGE_SIZE);
+        } else { 
+            PageCompressor.decompress(slot, size, dst, offs, PAGE_SIZE);
+        }
+    }
+
+    private void writePage(long pageNo, byte[] src, int offs)
+    { 
+        int size = compressor.compress(src, offs, PAGE_SIZE, packBuf);
+        byte[] data = packBuf;
+        int dataOffs = 0;
+        if (units(size) >= PAGE_UNITS) { 
+            // page is not compressible: store it as is
+            size = PAGE_SIZE;
+            data = src;
+            dataOffs = offs;
+        }
+        int n = units(size);
+        byte[] slot = getSlotBuffer(n);
+        System.arraycopy(data, dataOffs, slot, 0, size);
+        Arrays.fill(slot, size, slot.length, (byte)0);
+
+        MapNode leaf = getLeaf(pageNo >>> NODE_BITS, true);
+        int i = (int)pageNo & (NODE_SIZE-1);
+        long old = leaf.entries[i];
+        long unit;
+        if (old != 0 && units((int)old & SIZE_MASK) == n && fresh.contains(old >>> SIZE_BITS)) { 
+            // slot was allocated after last synchronization, so it can be overwritten in place
+            unit = old >>> SIZE_BITS;
+        } else { 
+            if (old != 0) { 
+                free(old >>> SIZE_BITS, units((int)old & SIZE_MASK));
+            }
+            unit = allocate(n);
+        }
+        file.write(unit << UNIT_BITS, slot);
+        leaf.entries[i] = (unit << SIZE_BITS) | size;
+    }
+
+    private byte[] getSlotBuffer(int n)
+    { 
+        byte[] buf = slotBuf[n];
+        if (buf == null) { 
+            slotBuf[n] = buf = new byte[n << UNIT_BITS];
+        }
+        return buf;
+    }
+
+    private static int units(int size)
+    { 
+        return (size + UNIT_SIZE - 1) >>> UNIT_BITS;
+    }
+
+    private long allocate(int n)
+    { 
+        long unit = findFree(n);
+        if (unit < 0) { 
+            unit = nUnits;
+        }
+        markUsed(unit, n);
+        rover = unit + n;
+        fresh.add(unit);
+        return unit;
+    }
+
+    private void free(long unit, int n)
+    { 
+        if (fresh.remove(unit)) { 
+            release(unit, n);
+        } else { 
+            // slot is referenced by the saved state of the file
+            pending.add((unit << SIZE_BITS) | n);
+        }
+    }
+
+    private void release(long unit, int n)
+    { 
+        for (long end = unit + n; unit < end; unit++) { 
+            bitmap[(int)(unit >>> 6)] &= ~(1L << (unit & 63));
+        }
+        if (unit - n < rover) { 
+            rover = unit - n;
+        }
+    }
+
+    private void markUsed(long unit, int n)
+    { 
+        long end = unit + n;
+        int nWords = (int)((end + 63) >>> 6);
+        if (nWords > bitmap.length) { 
+            long[] newBitmap = new long[Math.max(nWords, bitmap.length*2)];
+            System.arraycopy(bitmap, 0, newBitmap, 0, bitmap.length);
+            bitmap = newBitmap;
+        }
+        while (unit < end) { 
+            bitmap[(int)(unit >>> 6)] |= 1L << (unit & 63);
+            unit += 1;
+        }
+        if (end > nUnits) { 
+            nUnits = end;
+        }
+    }
+
+    /**
+     * Find hole of the specified size starting from the rover position
+     * @return position of the hole or -1 if there is no hole of such size
+     */
+    private long findFree(int n)
+    { 
+        long unit = rover;
+        while (unit + n <= nUnits) { 
+            if (bitmap[(int)(unit >>> 6)] == -1L) { 
+                unit = (unit | 63) + 1;
+                continue;
+            }
+            int i = 0;
+            while (i < n && (bitmap[(int)((unit + i) >>> 6)] & (1L << ((unit + i) & 63))) == 0) { 
+                i += 1;
+            }
+            if (i == n) { 
+                return unit;
+            }
+            unit += i + 1;
+        }
+        return -1;
+    }
+
+    static final int PAGE_BITS   = Page.minPageBits;
+    static final int PAGE_SIZE   = 1 << PAGE_BITS;
+    static final int UNIT_BITS   = 8; // allocation quantum of slots in the underlying file
+    static final int UNIT_SIZE   = 1 << UNIT_BITS;
+    static final int PAGE_UNITS  = PAGE_SIZE >> UNIT_BITS;
+    static final int NODE_BITS   = PAGE_BITS - 3; // map node is page of 8-byte entries
+    static final int NODE_SIZE   = 1 << NODE_BITS;
+    static final int SIZE_BITS   = 16; // entry of leaf node contains slot position and size of compressed page
+    static final int SIZE_MASK   = (1 << SIZE_BITS) - 1;
+    static final int HEADER_SIZE = 8*1024;
+    static final int HEADER_UNITS = HEADER_SIZE >> UNIT_BITS;
+    static final int MAX_ROOTS   = (HEADER_SIZE - 28) / 8; // each root addresses 1Gb of logical pages
+    static final int MAGIC       = 0x5043465A;
+    static final int LEAF_CACHE_SIZE = 1024;
+
+    private IFile          file;
+    private long           length;
+    private long           generation;
+    private int            nRoots;
+    private long[]         roots;
+    private MapNode[]      dirs;
+    private HashMap<Long,MapNode>       dirtyLeaves;
+    private LinkedHashMap<Long,MapNode> leafCache;
+    private long[]         bitmap;
+    private long           nUnits;
+    private long           rover;
+    private HashSet<Long>  fresh;   // slots allocated after last synchronization
+    private ArrayList<Long> pending; // slots released after last synchronization
+    private boolean        modified;
+    private PageCompressor compressor;
+    private byte[]         pageBuf;
+    private byte[]         packBuf;
+    private byte[]         headerBuf;
+    private byte[][]       slotBuf;
+}
@@ -0,0 +1,128 @@
+package org.nachodb.impl;
+import  java.lang.reflect.*;
+
+/**
+ * Accessor of persistent field used by packObject/unpackObject. Accessors are created once
+ * when class descriptor is resolved, so implementation can precompute everything needed
+ * to access the field (for example its offset in the object) instead of doing it for each access.
+ */
+public abstract class FieldAccessor { 
+    protected final Field field;
+
+    protected FieldAccessor(Field field) { 
+        this.field = field;
+    }
+
+    public final Field getField() { 
+        return field;
+    }
+
+    public final Class getType() { 
+        return field.getType();
+    }
+
+    public abstract boolean getBoolean(Object obj) throws Exception;
+    public abstract byte    getByte(Object obj) throws Exception;
+    public abstract char    getChar(Object obj) throws Exception;
+    public abstract short   getShort(Object obj) throws Exception;
+    public abstract int     getInt(Object obj) throws Exception;
+    public abstract long    getLong(Object obj) throws Exception;
+    public abstract float   getFloat(Object obj) throws Exception;
+    public abstract double  getDouble(Object obj) throws Exception;
+    public abstract Object  get(Object obj) throws Exception;
+
+    public abstract void setBoolean(Object obj, boolean value) throws Exception;
+    public abstract void setByte(Object obj, byte value) throws Exception;
+    public abstract void setChar(Object obj, char value) throws Exception;
+    public abstract void setShort(Object obj, short value) throws Exception;
+    public abstract void setInt(Object obj, int value) throws Exception;
+    public abstract void setLong(Object obj, long value) throws Exception;
+    public abstract void setFloat(Object obj, float value) throws Exception;
+    public abstract void setDouble(Object obj, double value) throws Exception;
+    public abstract void set(Object obj, Object value) throws Exception;
+
+    /**
+     * Accessor using java.lang.reflect.Field to get values of the field and
+     * reflection provider to assign them
+     */
+    static final class ReflectionAccessor extends FieldAccessor { 
+        final ReflectionProvider provider;
+
+        ReflectionAccessor(Field field) { 
+            super(field);
+            provider = ClassDescriptor.getReflectionProvider();
+        }
+
+        public boolean getBoolean(Object obj) throws Exception { 
+            return field.getBoolean(obj);
+        }
+
+        public byte getByte(Object obj) throws Exception { 
+            return field.getByte(obj);
+        }
+
+        public char getChar(Object obj) throws Exception { 
+            return field.getChar(obj);
+        }
+
+        public short getShort(Object obj) throws Exception { 
+            return field.getShort(obj);
+        }
+
+        public int getInt(Object obj) throws Exception { 
+            return field.getInt(obj);
+        }
+
+        public long getLong(Object obj) throws Exception { 
+            return field.getLong(obj);
+        }
+
+        public float getFloat(Object obj) throws Exception { 
+            return field.getFloat(obj);
+        }
+
+        public double getDouble(Object obj) throws Exception { 
+            return field.getDouble(obj);
+        }
+
+        public Object get(Object obj) throws Exception { 
+            return field.get(obj);
+        }
+
+        public void setBoolean(Object obj, boolean value) throws Exception { 
+            provider.setBoolean(field, obj, value);
+        }
+
+        public void setByte(Object obj, byte value) throws Exception { 
+            provider.setByte(field, obj, value);
+        }
+
+        public void setChar(Object obj, char value) throws Exception { 
+            provider.setChar(field, obj, value);
+        }
+
+        public void setShort(Object obj, short value) throws Exception { 
+            provider.setShort(field, obj, value);
+        }
+
+        public void setInt(Object obj, int value) throws Exception { 
+            provider.setInt(field, obj, value);
+        }
+
+        public void setLong(Object obj, long value) throws Exception { 
+            provider.setLong(field, obj, value);
+        }
+
+        public void setFloat(Object obj, float value) throws Exception { 
+            provider.setFloat(field, obj, value);
+        }
+
+        public void setDouble(Object obj, double value) throws Exception { 
+            provider.setDouble(field, obj, value);
+        }
+
+        public void set(Object obj, Object value) throws Exception { 
+            provider.set(field, obj, value);
+        }
+    }
+}
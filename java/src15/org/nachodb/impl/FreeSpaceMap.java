@@ -0,0 +1,160 @@
+package org.nachodb.impl;
+
+import java.util.BitSet;
+
+/**
+ * Summary of free space in the pages of allocation bitmap, used by allocator to locate page containing
+ * hole of the requested size without scanning of bitmap pages.
+ * For each bitmap page it keeps the size (in allocation quanta) of the largest hole within this page
+ * and for each size class (power of two) it keeps set of pages having hole of this class or larger.
+ * Summary is not stored in the database: when database is opened, all pages are assumed to be free,
+ * and size of the largest hole in the page is recalculated when allocator inspects this page.
+ * So the value stored for the page is always upper bound of the size of its largest hole: it is
+ * exact after page inspection and increased when space is deallocated, but not decreased when space
+ * is allocated (in this case value is corrected when allocator fails to find hole in the page).
+ */
+class FreeSpaceMap
+{
+    /**
+     * Find first page in the specified range which may contain hole of the specified size
+     * @param from first page in the range
+     * @param till page following the last page in the range
+     * @param size size of the hole (in allocation quanta)
+     * @return index of the page or <code>till</code> if there is no such page
+     */
+    final int findPage(int from, int till, int size) { 
+        BitSet pages = sizeClass[sizeClassOf(size)];
+        for (int i = pages.nextSetBit(from); i >= 0 && i < till; i = pages.nextSetBit(i + 1)) { 
+            if (maxHole[i] >= size) { 
+                return i;
+            }
+        }
+        return till;
+    }
+
+    final int getMaxHole(int page) { 
+        return maxHole[page];
+    }
+
+    final void setMaxHole(int page, int size) { 
+        int oldSize = maxHole[page];
+        if (size != oldSize) { 
+            maxHole[page] = size;
+            if (size > oldSize) { 
+                for (int c = oldSize == 0 ? 0 : sizeClassOf(oldSize) + 1; c < sizeClass.length && (1 << c) <= size; c++) { 
+                    sizeClass[c].set(page);
+                }
+            } else { 
+                for (int c = size == 0 ? 0 : sizeClassOf(size) + 1; c < sizeClass.length && (1 << c) <= oldSize; c++) { 
+                    sizeClass[c].clear(page);
+                }
+            }
+        }
+    }
+
+    /**
+     * Update summary after deallocation of space in the page
+     * @param page index of bitmap page
+     * @param holeSize size of the hole containing deallocated space
+     */
+    final void holeFreed(int page, int holeSize) { 
+        if (holeSize > maxHole[page]) { 
+            setMaxHole(page, holeSize);
+        }
+    }
+
+    /**
+     * Mark all pages as free: used when content of bitmap pages is changed by rollback
+     */
+    final void reset() { 
+        for (int i = 0; i < maxHole.length; i++) { 
+            setMaxHole(i, bitsPerPage);
+        }
+    }
+
+    /**
+     * Increase number of bitmap pages, new pages are assumed to be free
+     */
+    final void extend(int nPages) { 
+        int oldPages = maxHole.length;
+        if (nPages <= oldPages) { 
+            return;
+        }
+        int[] newMaxHole = new int[nPages];
+        System.arraycopy(maxHole, 0, newMaxHole, 0, oldPages);
+        maxHole = newMaxHole;
+        for (int i = oldPages; i < nPages; i++) { 
+            setMaxHole(i, bitsPerPage);
+        }
+    }
+
+    /**
+     * Calculate size of the largest hole in bitmap page
+     */
+    static int getMaxHole(byte[] bitmap) { 
+        int max = 0;
+        int hole = 0;
+        for (int i = 0; i < bitmap.length; i++) { 
+            int mask = bitmap[i] & 0xFF;
+            if (mask == 0) { 
+                hole += 8;
+            } else { 
+                hole += StorageImpl.firstHoleSize[mask];
+                if (hole > max) { 
+                    max = hole;
+                }
+                if (StorageImpl.maxHoleSize[mask] > max) { 
+                    max = StorageImpl.maxHoleSize[mask];
+                }
+                hole = StorageImpl.lastHoleSize[mask];
+            }
+        }
+        return hole > max ? hole : max;
+    }
+
+    /**
+     * Calculate size of the hole in bitmap page containing specified free bit
+     */
+    static int getHoleSize(byte[] bitmap, int bit) { 
+        int nBits = bitmap.length*8;
+        int start = bit;
+        int end = bit + 1;
+        while (start > 0) { 
+            if ((start & 7) == 0 && bitmap[(start >> 3) - 1] == 0) { 
+                start -= 8;
+            } else if ((bitmap[(start - 1) >> 3] & (1 << ((start - 1) & 7))) == 0) { 
+                start -= 1;
+            } else { 
+                break;
+            }
+        }
+        while (end < nBits) { 
+            if ((end & 7) == 0 && bitmap[end >> 3] == 0) { 
+                end += 8;
+            } else if ((bitmap[end >> 3] & (1 << (end & 7))) == 0) { 
+                end += 1;
+            } else { 
+                break;
+            }
+        }
+        return end - start;
+    }
+
+    private static int sizeClassOf(int size) { 
+        return 31 - Integer.numberOfLeadingZeros(size);
+    }
+
+    FreeSpaceMap(int nPages, int bitsPerPage) { 
+        this.bitsPerPage = bitsPerPage;
+        maxHole = new int[0];
+        sizeClass = new BitSet[sizeClassOf(bitsPerPage) + 1];
+        for (int i = 0; i < sizeClass.length; i++) { 
+            sizeClass[i] = new BitSet();
+        }
+        extend(nPages);
+    }
+
+    private int      bitsPerPage;
+    private int[]    maxHole;   // upper bound of the largest hole size in each bitmap page
+    private BitSet[] sizeClass; // sizeClass[c] is set of pages which may contain hole of size >= 2^c
+}
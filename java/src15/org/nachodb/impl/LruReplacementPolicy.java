@@ -0,0 +1,26 @@
+package org.nachodb.impl;
+
+class LruReplacementPolicy extends PageReplacementPolicy { 
+    LRU lru = new LRU();
+
+    void unpin(Page pg) { 
+        lru.link(pg);
+    }
+
+    void requeue(Page pg) { 
+        lru.prev.link(pg);
+    }
+
+    Page victim() { 
+        if (lru.prev == lru) { 
+            return null;
+        }
+        Page pg = (Page)lru.prev;
+        pg.unlink();
+        return pg;
+    }
+
+    String getName() { 
+        return "lru";
+    }
+}
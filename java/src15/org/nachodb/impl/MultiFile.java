@@ -26,7 +26,7 @@ public class MultiFile implements IFile
     }
 
 
-    public void write(long pos, byte[] b) 
+    public synchronized void write(long pos, byte[] b)
     {
         try { 
             seek(pos);
@@ -52,7 +52,7 @@ public class MultiFile implements IFile
         }
     }
 
-    public int read(long pos, byte[] b) 
+    public synchronized int read(long pos, byte[] b)
     { 
         try { 
             seek(pos);
@@ -0,0 +1,289 @@
+package org.nachodb.impl;
+import  org.nachodb.*;
+import  java.util.Date;
+
+/**
+ * Order preserving encoding of compound keys.
+ * Components of the key are packed in such way that comparison of encoded keys as strings of
+ * unsigned bytes gives the same result as comparison of the components one by one, so compound
+ * keys can be compared without decoding them:
+ * <ul>
+ * <li>integer types are stored in big-endian order with inverted sign bit</li>
+ * <li>floating point values are stored as IEEE bits with inverted sign bit for positive values
+ * and all bits inverted for negative values (so <code>-0.0</code> and <code>0.0</code> are equal)</li>
+ * <li>characters of strings are stored as UTF-8 sequences of <code>ch+1</code> followed by zero terminator</li>
+ * <li>zero bytes of byte arrays are escaped as <code>0x00 0xFF</code> and array is terminated by <code>0x00 0x00</code></li>
+ * </ul>
+ * String and byte array components are terminated, so key containing values of the first
+ * components of the compound key is prefix of the keys with the same values of these components.
+ * String and byte array components start with <code>0x01</code> marker, <code>null</code> value of such
+ * component is stored as single <code>0x00</code> byte, so it is distinct from empty string or array
+ * and precedes all other values.
+ */
+class NormalizedKey { 
+    static final byte NULL = 0;
+    static final byte NOT_NULL = 1;
+
+    /**
+     * Encode compound key
+     * @param types types of the key components
+     * @param values values of the key components (may contain less values than <code>types</code>).
+     * References can be specified by persistent object or OID, enums - by value or ordinal
+     * and dates - by value or number of milliseconds
+     * @return normalized key
+     */
+    static byte[] pack(int[] types, Object[] values) { 
+        ByteBuffer buf = new ByteBuffer();
+        int dst = 0;
+        for (int i = 0; i < values.length; i++) { 
+            Object v = values[i];
+            switch (types[i]) { 
+              case ClassDescriptor.tpBoolean:
+                buf.extend(dst+1);
+                buf.arr[dst++] = (byte)(((Boolean)v).booleanValue() ? 1 : 0);
+                break;
+              case ClassDescriptor.tpByte:
+                buf.extend(dst+1);
+                buf.arr[dst++] = (byte)(((Number)v).byteValue() ^ 0x80);
+                break;
+              case ClassDescriptor.tpShort:
+                buf.extend(dst+2);
+                Bytes.pack2(buf.arr, dst, (short)(((Number)v).shortValue() ^ 0x8000));
+                dst += 2;
+                break;
+              case ClassDescriptor.tpChar:
+                buf.extend(dst+2);
+                Bytes.pack2(buf.arr, dst, (v instanceof Number) ? ((Number)v).shortValue() : (short)((Character)v).charValue());
+                dst += 2;
+                break;
+              case ClassDescriptor.tpInt:
+                dst = packInt(buf, dst, ((Number)v).intValue());
+                break;
+              case ClassDescriptor.tpObject:
+                dst = packInt(buf, dst, v == null ? 0 : (v instanceof Number) ? ((Number)v).intValue() : ((IPersistent)v).getOid());
+                break;
+              case ClassDescriptor.tpEnum:
+                dst = packInt(buf, dst, (v instanceof Number) ? ((Number)v).intValue() : ((Enum)v).ordinal());
+                break;
+              case ClassDescriptor.tpLong:
+                dst = packLong(buf, dst, ((Number)v).longValue());
+                break;
+              case ClassDescriptor.tpDate:
+                dst = packLong(buf, dst, v == null ? -1 : (v instanceof Number) ? ((Number)v).longValue() : ((Date)v).getTime());
+                break;
+              case ClassDescriptor.tpFloat:
+              { 
+                  // -0.0 is converted to 0.0 to make them equal
+                  int bits = Float.floatToIntBits(((Number)v).floatValue() + 0.0f);
+                  dst = packInt(buf, dst, bits ^ ((bits >> 31) & 0x7FFFFFFF));
+                  break;
+              }
+              case ClassDescriptor.tpDouble:
+              { 
+                  long bits = Double.doubleToLongBits(((Number)v).doubleValue() + 0.0);
+                  dst = packLong(buf, dst, bits ^ ((bits >> 63) & Long.MAX_VALUE));
+                  break;
+              }
+              case ClassDescriptor.tpString:
+              { 
+                  if (v == null) { 
+                      dst = packNull(buf, dst);
+                      break;
+                  }
+                  String str = (String)v;
+                  int len = str.length();
+                  buf.extend(dst + len*3 + 2);
+                  byte[] arr = buf.arr;
+                  arr[dst++] = NOT_NULL;
+                  for (int j = 0; j < len; j++) { 
+                      int ch = str.charAt(j) + 1;
+                      if (ch < 0x80) { 
+                          arr[dst++] = (byte)ch;
+                      } else if (ch < 0x800) { 
+                          arr[dst++] = (byte)(0xC0 | (ch >>> 6));
+                          arr[dst++] = (byte)(0x80 | (ch & 0x3F));
+                      } else if (ch < 0x10000) { 
+                          arr[dst++] = (byte)(0xE0 | (ch >>> 12));
+                          arr[dst++] = (byte)(0x80 | ((ch >>> 6) & 0x3F));
+                          arr[dst++] = (byte)(0x80 | (ch & 0x3F));
+                      } else { 
+                          buf.extend(dst + (len - j)*3 + 2);
+                          arr = buf.arr;
+                          arr[dst++] = (byte)0xF0;
+                          arr[dst++] = (byte)0x90;
+                          arr[dst++] = (byte)0x80;
+                          arr[dst++] = (byte)0x80;
+                      }
+                  }
+                  arr[dst++] = 0;
+                  break;
+              }
+              case ClassDescriptor.tpArrayOfByte:
+              { 
+                  if (v == null) { 
+                      dst = packNull(buf, dst);
+                      break;
+                  }
+                  byte[] bval = (byte[])v;
+                  int len = bval.length;
+                  buf.extend(dst + len*2 + 3);
+                  byte[] arr = buf.arr;
+                  arr[dst++] = NOT_NULL;
+                  for (int j = 0; j < len; j++) { 
+                      // keep signed order of bytes used by B-Tree
+                      byte b = (byte)(bval[j] ^ 0x80);
+                      arr[dst++] = b;
+                      if (b == 0) { 
+                          arr[dst++] = (byte)0xFF;
+                      }
+                  }
+                  arr[dst++] = 0;
+                  arr[dst++] = 0;
+                  break;
+              }
+              default:
+                Assert.failed("Invalid type");
+            }
+        }
+        buf.used = dst;
+        return buf.toArray();
+    }
+
+    private static int packNull(ByteBuffer buf, int dst) { 
+        buf.extend(dst+1);
+        buf.arr[dst] = NULL;
+        return dst + 1;
+    }
+
+    private static int packInt(ByteBuffer buf, int dst, int val) { 
+        buf.extend(dst+4);
+        Bytes.pack4(buf.arr, dst, val ^ 0x80000000);
+        return dst + 4;
+    }
+
+    private static int packLong(ByteBuffer buf, int dst, long val) { 
+        buf.extend(dst+8);
+        Bytes.pack8(buf.arr, dst, val ^ Long.MIN_VALUE);
+        return dst + 8;
+    }
+
+    /**
+     * Compare normalized keys. If search key contains less components than key in the page,
+     * then only these components are compared.
+     * @param key search key
+     * @param item buffer containing key in the page
+     * @param offs offset of the key in the buffer
+     * @param length length of the key in the page
+     */
+    static int compare(byte[] key, byte[] item, int offs, int length) { 
+        int n = key.length < length ? key.length : length;
+        for (int i = 0; i < n; i++) { 
+            int diff = (key[i] & 0xFF) - (item[offs + i] & 0xFF);
+            if (diff != 0) { 
+                return diff;
+            }
+        }
+        return key.length <= length ? 0 : 1;
+    }
+
+    /**
+     * Decode compound key
+     * @return values of the key components, references are returned as OIDs (<code>Integer</code>),
+     * enums - as ordinals (<code>Integer</code>) and dates - as number of milliseconds (<code>Long</code>,
+     * -1 for <code>null</code>), <code>null</code> strings and byte arrays - as <code>null</code>
+     */
+    static Object[] unpack(int[] types, byte[] data, int offs) { 
+        Object[] values = new Object[types.length];
+        for (int i = 0; i < types.length; i++) { 
+            Object v = null;
+            switch (types[i]) { 
+              case ClassDescriptor.tpBoolean:
+                v = Boolean.valueOf(data[offs++] != 0);
+                break;
+              case ClassDescriptor.tpByte:
+                v = new Byte((byte)(data[offs++] ^ 0x80));
+                break;
+              case ClassDescriptor.tpShort:
+                v = new Short((short)(Bytes.unpack2(data, offs) ^ 0x8000));
+                offs += 2;
+                break;
+              case ClassDescriptor.tpChar:
+                v = new Character((char)Bytes.unpack2(data, offs));
+                offs += 2;
+                break;
+              case ClassDescriptor.tpInt:
+              case ClassDescriptor.tpObject:
+              case ClassDescriptor.tpEnum:
+                v = new Integer(Bytes.unpack4(data, offs) ^ 0x80000000);
+                offs += 4;
+                break;
+              case ClassDescriptor.tpLong:
+              case ClassDescriptor.tpDate:
+                v = new Long(Bytes.unpack8(data, offs) ^ Long.MIN_VALUE);
+                offs += 8;
+                break;
+              case ClassDescriptor.tpFloat:
+              { 
+                  int bits = Bytes.unpack4(data, offs) ^ 0x80000000;
+                  v = new Float(Float.intBitsToFloat(bits ^ ((bits >> 31) & 0x7FFFFFFF)));
+                  offs += 4;
+                  break;
+              }
+              case ClassDescriptor.tpDouble:
+              { 
+                  long bits = Bytes.unpack8(data, offs) ^ Long.MIN_VALUE;
+                  v = new Double(Double.longBitsToDouble(bits ^ ((bits >> 63) & Long.MAX_VALUE)));
+                  offs += 8;
+                  break;
+              }
+              case ClassDescriptor.tpString:
+              { 
+                  if (data[offs++] == NULL) { 
+                      break;
+                  }
+                  StringBuffer sb = new StringBuffer();
+                  int b;
+                  while ((b = data[offs++] & 0xFF) != 0) { 
+                      int ch;
+                      if (b < 0x80) { 
+                          ch = b;
+                      } else if (b < 0xE0) { 
+                          ch = ((b & 0x1F) << 6) | (data[offs++] & 0x3F);
+                      } else if (b < 0xF0) { 
+                          ch = ((b & 0x0F) << 12) | ((data[offs] & 0x3F) << 6) | (data[offs+1] & 0x3F);
+                          offs += 2;
+                      } else { 
+                          ch = 0x10000;
+                          offs += 3;
+                      }
+                      sb.append((char)(ch - 1));
+                  }
+                  v = sb.toString();
+                  break;
+              }
+              case ClassDescriptor.tpArrayOfByte:
+              { 
+                  if (data[offs++] == NULL) { 
+                      break;
+                  }
+                  ByteBuffer buf = new ByteBuffer();
+                  int len = 0;
+                  while (true) { 
+                      byte b = data[offs++];
+                      if (b == 0 && data[offs++] == 0) { 
+                          break;
+                      }
+                      buf.extend(len + 1);
+                      buf.arr[len++] = (byte)(b ^ 0x80);
+                  }
+                  v = buf.toArray();
+                  break;
+              }
+              default:
+                Assert.failed("Invalid type");
+            }
+            values[i] = v;
+        }
+        return values;
+    }
+}
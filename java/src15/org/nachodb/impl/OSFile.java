@@ -4,22 +4,34 @@ import  org.nachodb.*;
 import java.lang.reflect.*;
 import java.io.*;
 
+/**
+ * File implementation based on <code>java.io.RandomAccessFile</code>.
+ * Position of the file has to be set before each operation, so operations with the same descriptor
+ * are serialized. To let several threads read the file concurrently, file can be opened with
+ * several descriptors: writes are performed through the main descriptor and reads are distributed
+ * between all descriptors by page address.
+ */
 public class OSFile implements IFile { 
-    public void write(long pos, byte[] buf) 
+    public void write(long pos, byte[] buf)
     {
         try { 
-            file.seek(pos);
-            file.write(buf, 0, buf.length);
+            synchronized (file) { 
+                file.seek(pos);
+                file.write(buf, 0, buf.length);
+            }
         } catch(IOException x) { 
             throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
         }
     }
 
-    public int read(long pos, byte[] buf) 
+    public int read(long pos, byte[] buf)
     { 
+        RandomAccessFile f = readers[(int)((pos >>> Page.minPageBits) % readers.length)];
         try { 
-            file.seek(pos);
-            return file.read(buf, 0, buf.length);
+            synchronized (f) { 
+                f.seek(pos);
+                return f.read(buf, 0, buf.length);
+            }
         } catch(IOException x) { 
             throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
         }
@@ -39,6 +51,9 @@ public class OSFile implements IFile {
     public void close() 
     { 
         try { 
+            for (int i = 1; i < readers.length; i++) { 
+                readers[i].close();
+            }
             file.close();
         } catch(IOException x) { 
             throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
@@ -81,10 +96,32 @@ public class OSFile implements IFile {
     }
 
     public OSFile(String filePath, boolean readOnly, boolean noFlush) { 
+        this(filePath, readOnly, noFlush, 1);
+    }
+
+    /**
+     * Open file with several descriptors used for concurrent reads
+     * @param filePath path to the file
+     * @param readOnly open file in read-only mode
+     * @param noFlush ignore sync requests
+     * @param nDescriptors number of descriptors used to read the file
+     */
+    public OSFile(String filePath, boolean readOnly, boolean noFlush, int nDescriptors) { 
         this.noFlush = noFlush;
+        readers = new RandomAccessFile[nDescriptors > 1 ? nDescriptors : 1];
+        int n = 0;
         try { 
             file = new RandomAccessFile(filePath, readOnly ? "r" : "rw");
+            readers[n++] = file;
+            while (n < readers.length) { 
+                readers[n++] = new RandomAccessFile(filePath, "r");
+            }
         } catch(IOException x) { 
+            while (--n >= 0) { 
+                try { 
+                    readers[n].close();
+                } catch(IOException x2) {}
+            }
             throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
         }
     }
@@ -99,5 +136,6 @@ public class OSFile implements IFile {
 
 
     protected RandomAccessFile file;
+    protected RandomAccessFile readers[];
     protected boolean          noFlush;
 }
@@ -7,13 +7,16 @@ class Page extends LRU implements Comparable {
     int  state;
     long offs;
     byte data[];
+    boolean hot; // page is in the main queue of 2Q replacement policy
 
     static final int psDirty = 0x01;// page has been modified
     static final int psRaw   = 0x02;// page is loaded from the disk
     static final int psWait  = 0x04;// other thread(s) wait load operation completion
+    static final int psWrite = 0x08;// page is written to the disk by write-behind thread
 
-    static final int pageBits = 12;
-    static final int pageSize = 1 << pageBits;
+    static final int minPageBits = 12; // default page size
+    static final int maxPageBits = 15; // offsets inside B-Tree page are stored as signed 16-bit integers
+    static final int minPageSize = 1 << minPageBits;
 
     public int compareTo(Object o) 
     { 
@@ -21,7 +24,7 @@ class Page extends LRU implements Comparable {
         return offs < po ? -1 : offs == po ? 0 : 1;
     }
 
-    Page() 
+    Page(int pageSize)
     { 
         data = new byte[pageSize];
     }
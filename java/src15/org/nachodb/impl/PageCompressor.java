@@ -0,0 +1,159 @@
+package org.nachodb.impl;
+import  org.nachodb.*;
+
+/**
+ * Fast LZ77 compressor of database pages using LZ4 block format: sequence of tokens,
+ * each containing length of literals and length of match, followed by literals and
+ * 16-bit offset of the match. Compressor uses single probe hash table, so it is
+ * very fast but provides less compression ratio than deflate.
+ * Instances are not thread safe.
+ */
+public class PageCompressor
+{
+    static final int HASH_BITS     = 12;
+    static final int MIN_MATCH     = 4;
+    static final int MAX_OFFSET    = 0xFFFF;
+    static final int LAST_LITERALS = 5;  // last bytes of the block are always stored as literals
+    static final int MF_LIMIT      = 12; // last match should start at least 12 bytes before end of block
+
+    /**
+     * Maximal size of compressed data for the source of specified size
+     */
+    public static int maxCompressedLength(int srcLen) { 
+        return srcLen + srcLen/255 + 16;
+    }
+
+    /**
+     * Compress data
+     * @param src source buffer
+     * @param srcOffs offset of data in source buffer
+     * @param srcLen size of data
+     * @param dst destination buffer, it should be at least <code>maxCompressedLength(srcLen)</code> bytes
+     * @return size of compressed data
+     */
+    public int compress(byte[] src, int srcOffs, int srcLen, byte[] dst) { 
+        int[] table = hashTable;
+        for (int i = 0; i < table.length; i++) { 
+            table[i] = 0;
+        }
+        int srcEnd = srcOffs + srcLen;
+        int matchLimit = srcEnd - LAST_LITERALS;
+        int mfLimit = srcEnd - MF_LIMIT;
+        int anchor = srcOffs;
+        int ip = srcOffs;
+        int op = 0;
+        while (ip < mfLimit) { 
+            int seq = Bytes.unpack4(src, ip);
+            int h = (seq * -1640531535) >>> (32 - HASH_BITS);
+            int ref = table[h] - 1 + srcOffs;
+            table[h] = ip - srcOffs + 1;
+            if (ref < srcOffs || ip - ref > MAX_OFFSET || Bytes.unpack4(src, ref) != seq) { 
+                // skip faster through incompressible data
+                ip += 1 + ((ip - anchor) >>> 6);
+                continue;
+            }
+            while (ip > anchor && ref > srcOffs && src[ip-1] == src[ref-1]) { 
+                ip -= 1;
+                ref -= 1;
+            }
+            int len = MIN_MATCH;
+            while (ip + len < matchLimit && src[ip + len] == src[ref + len]) { 
+                len += 1;
+            }
+            op = putSequence(dst, op, src, anchor, ip - anchor, ip - ref, len);
+            ip += len;
+            anchor = ip;
+        }
+        return putSequence(dst, op, src, anchor, srcEnd - anchor, 0, 0);
+    }
+
+    private static int putLength(byte[] dst, int op, int len) { 
+        while (len >= 255) { 
+            dst[op++] = (byte)255;
+            len -= 255;
+        }
+        dst[op++] = (byte)len;
+        return op;
+    }
+
+    private static int putSequence(byte[] dst, int op, byte[] src, int literals, int nLiterals, int offset, int matchLen) { 
+        int token = op++;
+        int litCode = nLiterals < 15 ? nLiterals : 15;
+        if (litCode == 15) { 
+            op = putLength(dst, op, nLiterals - 15);
+        }
+        System.arraycopy(src, literals, dst, op, nLiterals);
+        op += nLiterals;
+        int matchCode = 0;
+        if (matchLen != 0) { 
+            dst[op++] = (byte)offset;
+            dst[op++] = (byte)(offset >>> 8);
+            matchCode = matchLen - MIN_MATCH < 15 ? matchLen - MIN_MATCH : 15;
+            if (matchCode == 15) { 
+                op = putLength(dst, op, matchLen - MIN_MATCH - 15);
+            }
+        }
+        dst[token] = (byte)((litCode << 4) | matchCode);
+        return op;
+    }
+
+    /**
+     * Decompress data
+     * @param src buffer with compressed data
+     * @param srcLen size of compressed data
+     * @param dst destination buffer
+     * @param dstOffs offset in destination buffer
+     * @param dstLen expected size of decompressed data
+     * @exception StorageError(StorageError.DATABASE_CORRUPTED) if compressed data is not valid
+     */
+    public static void decompress(byte[] src, int srcLen, byte[] dst, int dstOffs, int dstLen) { 
+        int ip = 0;
+        int op = dstOffs;
+        int dstEnd = dstOffs + dstLen;
+        try { 
+            while (true) { 
+                int token = src[ip++] & 0xFF;
+                int len = token >>> 4;
+                if (len == 15) { 
+                    int b;
+                    do { 
+                        len += b = src[ip++] & 0xFF;
+                    } while (b == 255);
+                }
+                if (op + len > dstEnd || ip + len > srcLen) { 
+                    break;
+                }
+                System.arraycopy(src, ip, dst, op, len);
+                ip += len;
+                op += len;
+                if (ip == srcLen) { 
+                    if (op == dstEnd) { 
+                        return;
+                    }
+                    break;
+                }
+                int offset = (src[ip] & 0xFF) | ((src[ip+1] & 0xFF) << 8);
+                ip += 2;
+                len = token & 15;
+                if (len == 15) { 
+                    int b;
+                    do { 
+                        len += b = src[ip++] & 0xFF;
+                    } while (b == 255);
+                }
+                len += MIN_MATCH;
+                int ref = op - offset;
+                if (offset == 0 || ref < dstOffs || op + len > dstEnd) { 
+                    break;
+                }
+                // regions may overlap, so copy byte by byte
+                while (--len >= 0) { 
+                    dst[op++] = dst[ref++];
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException x) {}
+        throw new StorageError(StorageError.DATABASE_CORRUPTED);
+    }
+
+    private int[] hashTable = new int[1 << HASH_BITS];
+}
@@ -2,142 +2,533 @@ package org.nachodb.impl;
 import  org.nachodb.*;
 
 class PagePool { 
-    LRU     lru;
-    Page    freePages;
-    Page    hashTable[];
+    /**
+     * Independently locked part of the pool. Page with number N belongs to the
+     * segment N % nSegments, so concurrent fixes of different pages usually do not
+     * contend for the same monitor. Disk I/O is never performed while holding
+     * segment lock: page is loaded with <code>psRaw</code> state set and threads
+     * requesting the same page wait on segment monitor until loading is completed.
+     */
+    static final class Segment { 
+        PageReplacementPolicy policy;
+        Page    freePages;
+        Page    hashTable[];
+        int     poolSize;
+        int     nEvicted; // number of dirty pages which are now written to the disk by eviction
+        long    nWrites;
+    }
+
+    Segment segments[];
+    int     segmentBits;
+    int     segmentMask;
     int     poolSize;
+    int     pageBits;
+    int     pageSize;
+    String  policyName;
     boolean autoExtended;
+    boolean direct; // objects are copied directly from mapped file if their pages are not in the pool
     IFile   file;
+    RedoLog log; // if not null, page images are appended to the log before they are written to the file
+    int     nLoggedWrites; // number of pages which are appended to the log and written to the file outside flush
+    boolean checkpointing;
 
     int     nDirtyPages;
     Page    dirtyPages[];
     
     boolean flushing;
+    int     nWriting; // number of dirty pages written outside flush which completion flush has to wait for
+
+    int     dirtyRatio;
+    int     dirtyPagesThreshold;
+    int     dirtyPagesStuck; // number of dirty pages when write-behind thread could not find pages to be written
+    boolean writerWaiting;
+    boolean closing;
+    StorageError writeError; // failure of write-behind thread which has to be reported by the next flush
+    volatile java.util.concurrent.Future<Void> writeBarrier; // asynchronous commit which has to complete before pages are written
+    WriteBehindThread writer;
 
     static final int INFINITE_POOL_INITIAL_SIZE = 8;
+    static final int MIN_SEGMENT_SIZE = 64;
+    static final int WRITE_BEHIND_BATCH = 64;
+    static final int MAX_GATHERED_PAGES = 64;
 
     PagePool(int poolSize) { 
+        this(poolSize, Page.minPageBits, 1, "lru", 0, false);
+    }
+
+    PagePool(int poolSize, int pageBits, int nSegments, String policyName, int dirtyRatio, boolean direct) { 
+        PageReplacementPolicy.checkName(policyName);
+        this.pageBits = pageBits;
+        pageSize = 1 << pageBits;
         if (poolSize == 0) { 
             autoExtended = true;
             poolSize = INFINITE_POOL_INITIAL_SIZE;
         }            
         this.poolSize = poolSize;
+        this.policyName = policyName;
+        this.dirtyRatio = dirtyRatio;
+        this.direct = direct;
+        segmentBits = 0;
+        while ((2 << segmentBits) <= nSegments
+               && (autoExtended || (poolSize >> (segmentBits+1)) >= MIN_SEGMENT_SIZE))
+        { 
+            segmentBits += 1;
+        }
+        segmentMask = (1 << segmentBits) - 1;
+    }
+
+    final Segment getSegment(Page pg) { 
+        return segments[(int)(pg.offs >>> pageBits) & segmentMask];
     }
 
     final Page find(long addr, int state) {     
-        //Assert.that((addr & (Page.pageSize-1)) == 0);
+        //Assert.that((addr & (pageSize-1)) == 0);
+        int pageNo = (int)(addr >>> pageBits);
+        int key = pageNo >>> segmentBits;
+        Segment seg = segments[pageNo & segmentMask];
         Page pg;
-        int pageNo = (int)(addr >>> Page.pageBits);
-        int hashCode = pageNo % poolSize;
-
-        synchronized (this) {           
-            for (pg = hashTable[hashCode]; pg != null; pg = pg.collisionChain) 
-            { 
-                if (pg.offs == addr) {
-                    if (pg.accessCount++ == 0) { 
-                        pg.unlink();
+
+        while (true) { 
+            Page victim = null;
+            synchronized (seg) { 
+                int hashCode = key % seg.poolSize;
+                for (pg = seg.hashTable[hashCode]; pg != null; pg = pg.collisionChain)
+                { 
+                    if (pg.offs == addr) { 
+                        if (pg.accessCount++ == 0) { 
+                            seg.policy.pin(pg);
+                        }
+                        seg.policy.nHits += 1;
+                        break;
                     }
-                    break;
                 }
-            }
-            if (pg == null) { 
-                pg = freePages;
                 if (pg != null) { 
-                    freePages = (Page)pg.next;
+                    while ((pg.state & Page.psRaw) != 0) { 
+                        pg.state |= Page.psWait;
+                        try { 
+                            seg.wait();
+                        } catch (InterruptedException x) {}
+                    }
+                    if (pg.offs != addr) { 
+                        // loading of the page is failed
+                        if (--pg.accessCount == 0) { 
+                            pg.next = seg.freePages;
+                            seg.freePages = pg;
+                        }
+                        continue;
+                    }
+                    if ((pg.state & Page.psDirty) == 0 && (state & Page.psDirty) != 0) { 
+                        addDirtyPage(pg);
+                    }
+                    return pg;
+                }
+                pg = seg.freePages;
+                if (pg != null) { 
+                    seg.freePages = (Page)pg.next;
                 } else if (autoExtended) { 
-                    if (pageNo >= poolSize) {
-                        int newPoolSize = pageNo >= poolSize*2 ? pageNo+1 : poolSize*2;
+                    if (key >= seg.poolSize) { 
+                        int newPoolSize = key >= seg.poolSize*2 ? key+1 : seg.poolSize*2;
                         Page[] newHashTable = new Page[newPoolSize];
-                        System.arraycopy(hashTable, 0, newHashTable, 0, hashTable.length);
-                        hashTable = newHashTable;
-                        poolSize = newPoolSize;
+                        System.arraycopy(seg.hashTable, 0, newHashTable, 0, seg.hashTable.length);
+                        seg.hashTable = newHashTable;
+                        seg.poolSize = newPoolSize;
                     }
-                    pg = new Page();
-                    hashCode = pageNo;
+                    pg = new Page(pageSize);
+                    hashCode = key;
                 } else { 
-                    Assert.that("unfixed page available", lru.prev != lru);
-                    pg = (Page)lru.prev;
-                    pg.unlink();
-                    synchronized (pg) { 
+                    pg = seg.policy.victim();
+                    if (pg == null) { 
+                        Assert.that("unfixed page available", seg.nEvicted != 0);
+                        // all unfixed pages are now written to the disk by other threads
+                        try { 
+                            seg.wait();
+                        } catch (InterruptedException x) {}
+                        continue;
+                    }
+                    if ((pg.state & (Page.psDirty|Page.psWrite)) != 0) { 
+                        // page will be written outside segment lock
+                        // (or write-behind thread has to complete writing of this page)
+                        pg.accessCount = 1;
+                        seg.nEvicted += 1;
+                        victim = pg;
+                    } else { 
+                        seg.policy.removed(pg);
+                        seg.policy.nEvictions += 1;
+                        removeFromHash(seg, pg);
+                    }
+                }
+                if (victim == null) { 
+                    seg.policy.nMisses += 1;
+                    pg.accessCount = 1;
+                    pg.offs = addr;
+                    pg.state = Page.psRaw;
+                    pg.collisionChain = seg.hashTable[hashCode];
+                    seg.hashTable[hashCode] = pg;
+                    seg.policy.loaded(pg);
+                    if ((state & Page.psDirty) != 0) { 
+                        addDirtyPage(pg);
+                    }
+                }
+            }
+            if (victim != null) { 
+                evict(seg, victim);
+                continue;
+            }
+            boolean loaded = false;
+            try { 
+                if (file.read(pg.offs, pg.data) < pageSize) { 
+                    for (int i = 0; i < pageSize; i++) { 
+                        pg.data[i] = 0;
+                    }
+                }
+                loaded = true;
+            } finally { 
+                synchronized (seg) { 
+                    if ((pg.state & Page.psWait) != 0) { 
+                        seg.notifyAll();
+                    }
+                    if (loaded) { 
+                        pg.state &= ~(Page.psRaw|Page.psWait);
+                    } else { 
+                        removeFromHash(seg, pg);
                         if ((pg.state & Page.psDirty) != 0) { 
-                            pg.state = 0;
-                            file.write(pg.offs, pg.data);
-                            if (!flushing) { 
-                                dirtyPages[pg.writeQueueIndex] = dirtyPages[--nDirtyPages];
-                                dirtyPages[pg.writeQueueIndex].writeQueueIndex = pg.writeQueueIndex;
-                            }
+                            removeDirtyPage(pg);
+                        }
+                        pg.state = 0;
+                        pg.offs = -1;
+                        if (--pg.accessCount == 0) { 
+                            pg.next = seg.freePages;
+                            seg.freePages = pg;
                         }
                     }
-                    int h = (int)(pg.offs >> Page.pageBits) % poolSize;
-                    Page curr = hashTable[h], prev = null;
-                    while (curr != pg) { 
-                        prev = curr;
-                        curr = curr.collisionChain;
+                }
+            }
+            return pg;
+        }
+    }
+
+    private final void removeFromHash(Segment seg, Page pg) { 
+        int h = (int)(pg.offs >>> (pageBits + segmentBits)) % seg.poolSize;
+        Page curr = seg.hashTable[h], prev = null;
+        while (curr != pg) { 
+            prev = curr;
+            curr = curr.collisionChain;
+        }
+        if (prev == null) { 
+            seg.hashTable[h] = pg.collisionChain;
+        } else { 
+            prev.collisionChain = pg.collisionChain;
+        }
+    }
+
+    /**
+     * Write dirty page selected as victim. Page is pinned by the caller,
+     * so it can not be reused by other threads, but it is still present in the hash table
+     * and can be accessed while it is written.
+     */
+    private final void evict(Segment seg, Page pg) { 
+        try { 
+            synchronized (pg) { 
+                boolean dirty;
+                synchronized (seg) { 
+                    dirty = (pg.state & Page.psDirty) != 0;
+                    if (dirty) { 
+                        beginWrite(pg);
+                        seg.nWrites += 1;
                     }
-                    if (prev == null) { 
-                        hashTable[h] = pg.collisionChain;
-                    } else { 
-                        prev.collisionChain = pg.collisionChain;
+                }
+                if (dirty) { 
+                    boolean written = false;
+                    try { 
+                        writePage(pg.offs, pg.data);
+                        written = true;
+                    } finally { 
+                        if (!written) { 
+                            synchronized (seg) { 
+                                writeFailed(pg);
+                            }
+                        }
+                        endWrite();
                     }
                 }
-                pg.accessCount = 1;
-                pg.offs = addr;
-                pg.state = Page.psRaw;
-                pg.collisionChain = hashTable[hashCode];
-                hashTable[hashCode] = pg;
-            }
-            if ((pg.state & Page.psDirty) == 0 && (state & Page.psDirty) != 0)
-            {
-                Assert.that(!flushing);
-                if (nDirtyPages >= dirtyPages.length) {                     
+            }
+        } finally { 
+            synchronized (seg) { 
+                seg.nEvicted -= 1;
+                if (--pg.accessCount == 0) { 
+                    // make it the first candidate for replacement
+                    seg.policy.requeue(pg);
+                }
+                seg.notifyAll();
+            }           
+        }
+    }
+
+    private final void addDirtyPage(Page pg) { 
+        synchronized (this) { 
+            Assert.that(!flushing);
+            if (nDirtyPages >= dirtyPages.length) { 
+                Page[] newDirtyPages = new Page[nDirtyPages*2];
+                System.arraycopy(dirtyPages, 0, newDirtyPages, 0, dirtyPages.length);
+                dirtyPages = newDirtyPages;
+            }
+            dirtyPages[nDirtyPages] = pg;
+            pg.writeQueueIndex = nDirtyPages++;
+            pg.state |= Page.psDirty;
+            if (writerWaiting && nDirtyPages > dirtyPagesThreshold && nDirtyPages > dirtyPagesStuck) { 
+                writerWaiting = false;
+                notifyAll();
+            }
+        }
+    }
+
+    private final void removeDirtyPage(Page pg) { 
+        synchronized (this) { 
+            if (!flushing) { 
+                dirtyPages[pg.writeQueueIndex] = dirtyPages[--nDirtyPages];
+                dirtyPages[pg.writeQueueIndex].writeQueueIndex = pg.writeQueueIndex;
+            }
+        }
+    }
+
+    /**
+     * Start writing of dirty page outside flush. This method should be called with segment lock held.
+     * Page is marked as clean and removed from the list of dirty pages (if flush is in progress,
+     * page is left in the list and flush will skip it). Flush waits until <code>endWrite</code> is called
+     * before synchronizing the file.
+     */
+    private final void beginWrite(Page pg) { 
+        synchronized (this) { 
+            pg.state &= ~Page.psDirty;
+            removeDirtyPage(pg);
+            nWriting += 1;
+        }
+    }
+
+    private final void endWrite() { 
+        synchronized (this) { 
+            if (--nWriting == 0 && flushing) { 
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Write started by <code>beginWrite</code> is failed: page is marked as dirty once again, so it will be
+     * written by the next flush. If flush is in progress, page is appended to the list of dirty pages
+     * after the pages being written by flush and is left in the list when flush completes.
+     * This method should be called with segment lock held.
+     */
+    private final void writeFailed(Page pg) { 
+        synchronized (this) { 
+            pg.state |= Page.psDirty;
+            if (pg.writeQueueIndex >= nDirtyPages || dirtyPages[pg.writeQueueIndex] != pg) { 
+                if (nDirtyPages >= dirtyPages.length) { 
                     Page[] newDirtyPages = new Page[nDirtyPages*2];
                     System.arraycopy(dirtyPages, 0, newDirtyPages, 0, dirtyPages.length);
                     dirtyPages = newDirtyPages;
                 }
                 dirtyPages[nDirtyPages] = pg;
                 pg.writeQueueIndex = nDirtyPages++;
-                pg.state |= Page.psDirty;
             }
-            if ((pg.state & Page.psRaw) != 0) {
-                if (file.read(pg.offs, pg.data) < Page.pageSize) {
-                    for (int i = 0; i < Page.pageSize; i++) { 
-                        pg.data[i] = 0;
+        }
+    }
+
+    /**
+     * Thread writing dirty pages to the disk in background when their number exceeds the threshold
+     * specified by <code>perst.page.pool.dirty.ratio</code> property, so that commit has to write
+     * only recently modified pages. Only unfixed pages are written. Header page is never written by this
+     * thread: it is always updated by commit. If write fails, the page remains dirty, the error is rethrown
+     * by the next flush and the thread is suspended until it happens.
+     */
+    class WriteBehindThread extends Thread { 
+        WriteBehindThread() { 
+            setDaemon(true);
+            start();
+        }
+
+        public void run() { 
+            Page[] batch = new Page[WRITE_BEHIND_BATCH];
+            int cursor = 0;
+            while (true) { 
+                int n = 0;
+                synchronized (PagePool.this) { 
+                    while (!closing && (flushing || writeError != null || nDirtyPages <= dirtyPagesThreshold || nDirtyPages <= dirtyPagesStuck)) { 
+                        writerWaiting = true;
+                        try { 
+                            PagePool.this.wait();
+                        } catch (InterruptedException x) {}
                     }
+                    writerWaiting = false;
+                    if (closing) { 
+                        return;
+                    }
+                    int lowWater = dirtyPagesThreshold/2;
+                    for (int i = nDirtyPages; --i >= 0 && n < batch.length && nDirtyPages - n > lowWater;) { 
+                        if (cursor >= nDirtyPages) { 
+                            cursor = 0;
+                        }
+                        Page pg = dirtyPages[cursor++];
+                        if (pg.offs != 0 && pg.accessCount == 0) { 
+                            batch[n++] = pg;
+                        }
+                    }
+                    dirtyPagesStuck = (n == 0) ? nDirtyPages : 0;
                 }
-                pg.state &= ~Page.psRaw;
-            }           
+                for (int i = 0; i < n; i++) { 
+                    writeBehind(batch[i]);
+                    batch[i] = null;
+                }
+            }
+        }
+    }
+
+    private final void writeBehind(Page pg) { 
+        synchronized (pg) { 
+            long offs = pg.offs;
+            Segment seg = segments[(int)(offs >>> pageBits) & segmentMask];
+            synchronized (seg) { 
+                if (pg.offs != offs || pg.accessCount != 0 || (pg.state & Page.psDirty) == 0) { 
+                    return;
+                }
+                beginWrite(pg);
+                seg.nWrites += 1;
+                // page remains candidate for replacement, but it can not be reused until write is completed
+                pg.state |= Page.psWrite;
+            }
+            boolean written = false;
+            try { 
+                writePage(offs, pg.data);
+                written = true;
+            } catch (StorageError x) { 
+                synchronized (this) { 
+                    if (writeError == null) { 
+                        writeError = x;
+                    }
+                }
+            } finally { 
+                synchronized (seg) { 
+                    pg.state &= ~Page.psWrite;
+                    if (!written) { 
+                        writeFailed(pg);
+                    }
+                }
+                endWrite();
+            }
         }
-        return pg;
     }
 
+    /**
+     * Write page outside flush. If redo log is used, page image is appended to the log before it is written
+     * to the file. Checkpoint can not be performed between these two operations: otherwise the log can be
+     * truncated before the page is written and the page would be lost if the system crashes before
+     * the file is synchronized once again.
+     */
+    private final void writePage(long offs, byte[] data) { 
+        waitWriteBarrier();
+        if (log == null) { 
+            file.write(offs, data);
+            return;
+        }
+        synchronized (this) { 
+            while (checkpointing) { 
+                try { 
+                    wait();
+                } catch (InterruptedException x) {}
+            }
+            nLoggedWrites += 1;
+        }
+        try { 
+            log.append(offs, data);
+            file.write(offs, data);
+        } finally { 
+            synchronized (this) { 
+                if (--nLoggedWrites == 0 && checkpointing) { 
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait until asynchronous commit completes writing of the database header.
+     * Until that moment the previous header is the committed one, so pages written to the file
+     * (including pages located in space released by the last commit) could corrupt the committed state.
+     */
+    private final void waitWriteBarrier() { 
+        java.util.concurrent.Future<Void> barrier = writeBarrier;
+        if (barrier != null) { 
+            while (true) { 
+                try { 
+                    barrier.get();
+                    break;
+                } catch (InterruptedException x) { 
+                } catch (java.util.concurrent.ExecutionException x) { 
+                    Throwable cause = x.getCause();
+                    if (cause instanceof StorageError) { 
+                        throw (StorageError)cause;
+                    } else if (cause instanceof Error) { 
+                        throw (Error)cause;
+                    }
+                    throw new StorageError(StorageError.FILE_ACCESS_ERROR, (Exception)cause);
+                }
+            }
+        }
+    }
+
+    /**
+     * Make pages written to the file durable and truncate redo log. Pages are not written by
+     * eviction and write-behind thread while the file is synchronized, and checkpoint waits
+     * until such writes which are already started are completed.
+     * This method should be called with storage lock held (so flush can not be performed concurrently).
+     */
+    final void checkpoint() { 
+        synchronized (this) { 
+            checkpointing = true;
+            while (nLoggedWrites != 0) { 
+                try { 
+                    wait();
+                } catch (InterruptedException x) {}
+            }
+        }
+        try { 
+            file.sync();
+            log.truncate(pageSize);
+        } finally { 
+            synchronized (this) { 
+                checkpointing = false;
+                notifyAll();
+            }
+        }
+    }
 
     final void copy(long dst, long src, long size) 
     {
-        int dstOffs = (int)dst & (Page.pageSize-1);
-        int srcOffs = (int)src & (Page.pageSize-1);
+        int dstOffs = (int)dst & (pageSize-1);
+        int srcOffs = (int)src & (pageSize-1);
         dst -= dstOffs;
         src -= srcOffs;
         Page dstPage = find(dst, Page.psDirty);
         Page srcPage = find(src, 0);
         do { 
-            if (dstOffs == Page.pageSize) { 
+            if (dstOffs == pageSize) { 
                 unfix(dstPage);
-                dst += Page.pageSize;
+                dst += pageSize;
                 dstPage = find(dst, Page.psDirty);
                 dstOffs = 0;
             }
-            if (srcOffs == Page.pageSize) { 
+            if (srcOffs == pageSize) { 
                 unfix(srcPage);
-                src += Page.pageSize;
+                src += pageSize;
                 srcPage = find(src, 0);
                 srcOffs = 0;
             }
             long len = size;
-            if (len > Page.pageSize - srcOffs) { 
-                len = Page.pageSize - srcOffs; 
+            if (len > pageSize - srcOffs) { 
+                len = pageSize - srcOffs;
             }
-            if (len > Page.pageSize - dstOffs) { 
-                len = Page.pageSize - dstOffs; 
+            if (len > pageSize - dstOffs) { 
+                len = pageSize - dstOffs;
             }
             System.arraycopy(srcPage.data, srcOffs, dstPage.data, dstOffs, (int)len);
             srcOffs += len;
@@ -150,64 +541,100 @@ class PagePool {
 
     final void write(long dstPos, byte[] src) 
     {
-        Assert.that((dstPos & (Page.pageSize-1)) == 0);
-        Assert.that((src.length & (Page.pageSize-1)) == 0);
+        Assert.that((dstPos & (pageSize-1)) == 0);
+        Assert.that((src.length & (pageSize-1)) == 0);
         for (int i = 0; i < src.length;) { 
             Page pg = find(dstPos, Page.psDirty);
             byte[] dst = pg.data;
-            for (int j = 0; j < Page.pageSize; j++) { 
+            for (int j = 0; j < pageSize; j++) { 
                 dst[j] = src[i++];
             }
             unfix(pg);
-            dstPos += Page.pageSize;
+            dstPos += pageSize;
         }
     }
 
     final void open(IFile f) 
     {
         file = f;
-        hashTable = new Page[poolSize];
+        direct &= !autoExtended && f instanceof MappedFile;
+        int nSegments = 1 << segmentBits;
+        int segmentSize = poolSize >> segmentBits;
+        segments = new Segment[nSegments];
         dirtyPages = new Page[poolSize];
         nDirtyPages = 0;
-        lru = new LRU();
-        freePages = null;
-        if (!autoExtended) { 
-            for (int i = poolSize; --i >= 0; ) { 
-                Page pg = new Page();
-                pg.next = freePages;
-                freePages = pg;
+        for (int i = 0; i < nSegments; i++) { 
+            Segment seg = new Segment();
+            seg.poolSize = autoExtended ? poolSize : segmentSize;
+            seg.hashTable = new Page[seg.poolSize];
+            seg.policy = PageReplacementPolicy.create(policyName, seg.poolSize);
+            seg.freePages = null;
+            if (!autoExtended) { 
+                for (int j = (i == 0) ? poolSize - segmentSize*(nSegments-1) : segmentSize; --j >= 0; ) { 
+                    Page pg = new Page(pageSize);
+                    pg.next = seg.freePages;
+                    seg.freePages = pg;
+                }
             }
+            segments[i] = seg;
+        }
+        if (dirtyRatio > 0 && !autoExtended) { 
+            dirtyPagesThreshold = (int)((long)poolSize*dirtyRatio/100);
+            closing = false;
+            writer = new WriteBehindThread();
         }
     }
 
-    final synchronized void close() {
-        file.close();
-        hashTable = null;
-        dirtyPages = null;
-        lru = null;
-        freePages = null;
+    final void close() { 
+        if (writer != null) { 
+            synchronized (this) { 
+                closing = true;
+                notifyAll();
+            }
+            try { 
+                writer.join();
+            } catch (InterruptedException x) {}
+            writer = null;
+        }
+        synchronized (this) { 
+            file.close();
+            segments = null;
+            dirtyPages = null;
+        }
     }
 
-    final synchronized void unfix(Page pg) { 
-        Assert.that(pg.accessCount > 0);
-        if (--pg.accessCount == 0) { 
-            lru.link(pg);
+    final void unfix(Page pg) { 
+        Segment seg = getSegment(pg);
+        synchronized (seg) { 
+            Assert.that(pg.accessCount > 0);
+            if (--pg.accessCount == 0) { 
+                seg.policy.unpin(pg);
+            }
         }
     }
 
-    final synchronized void modify(Page pg) { 
-        Assert.that(pg.accessCount > 0);
-        if ((pg.state & Page.psDirty) == 0) { 
-            Assert.that(!flushing);
-            pg.state |= Page.psDirty;
-            if (nDirtyPages >= dirtyPages.length) {                     
-                Page[] newDirtyPages = new Page[nDirtyPages*2];
-                System.arraycopy(dirtyPages, 0, newDirtyPages, 0, dirtyPages.length);
-                dirtyPages = newDirtyPages;
+    final void modify(Page pg) { 
+        Segment seg = getSegment(pg);
+        synchronized (seg) { 
+            Assert.that(pg.accessCount > 0);
+            if ((pg.state & Page.psDirty) == 0) { 
+                addDirtyPage(pg);
+            }
+        }
+    }
+
+    final PagePoolStatistics getStatistics() { 
+        PagePoolStatistics stat = new PagePoolStatistics(segments[0].policy.getName());
+        for (int i = 0; i < segments.length; i++) { 
+            Segment seg = segments[i];
+            synchronized (seg) { 
+                stat.nHits += seg.policy.nHits;
+                stat.nMisses += seg.policy.nMisses;
+                stat.nEvictions += seg.policy.nEvictions;
+                stat.nWrites += seg.nWrites;
             }
-            dirtyPages[nDirtyPages] = pg;
-            pg.writeQueueIndex = nDirtyPages++;
         }
+        return stat;
     }
     
     final Page getPage(long addr) { 
@@ -218,20 +645,65 @@ class PagePool {
         return find(addr, Page.psDirty);
     }
     
+    /**
+     * Check if page is present in the pool
+     */
+    private final boolean contains(long addr) { 
+        int pageNo = (int)(addr >>> pageBits);
+        Segment seg = segments[pageNo & segmentMask];
+        synchronized (seg) { 
+            for (Page pg = seg.hashTable[(pageNo >>> segmentBits) % seg.poolSize]; pg != null; pg = pg.collisionChain) { 
+                if (pg.offs == addr) { 
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Copy object directly from the mapped file without loading its page in the pool.
+     * It is possible only if the page is not present in the pool: otherwise it can be modified.
+     * Content of the page absent in the pool is not changed until it is loaded in the pool.
+     * @return object or <code>null</code> if object page is present in the pool or object doesn't fit in one page
+     */
+    private final byte[] getDirect(long pos) { 
+        int offs = (int)pos & (pageSize-1);
+        if (contains(pos - offs)) { 
+            return null;
+        }
+        byte[] hdr = new byte[ObjectHeader.sizeof];
+        file.read(pos, hdr);
+        int size = ObjectHeader.getSize(hdr, 0);
+        Assert.that(size >= ObjectHeader.sizeof);
+        if (offs + size > pageSize) { 
+            return null;
+        }
+        byte[] obj = new byte[size];
+        file.read(pos, obj);
+        return obj;
+    }
+
     final byte[] get(long pos) { 
         Assert.that(pos != 0);
-        int offs = (int)pos & (Page.pageSize-1);
+        if (direct) { 
+            byte[] obj = getDirect(pos);
+            if (obj != null) { 
+                return obj;
+            }
+        }
+        int offs = (int)pos & (pageSize-1);
         Page pg = find(pos - offs, 0);
         int size = ObjectHeader.getSize(pg.data, offs);
         Assert.that(size >= ObjectHeader.sizeof);
         byte[] obj = new byte[size];
         int dst = 0;
-        while (size > Page.pageSize - offs) { 
-            System.arraycopy(pg.data, offs, obj, dst, Page.pageSize - offs);
+        while (size > pageSize - offs) { 
+            System.arraycopy(pg.data, offs, obj, dst, pageSize - offs);
             unfix(pg);
-            size -= Page.pageSize - offs;
-            pos += Page.pageSize - offs;
-            dst += Page.pageSize - offs;
+            size -= pageSize - offs;
+            pos += pageSize - offs;
+            dst += pageSize - offs;
             pg = find(pos, 0);
             offs = 0;
         }
@@ -245,15 +717,15 @@ class PagePool {
     }
 
     final void put(long pos, byte[] obj, int size) { 
-        int offs = (int)pos & (Page.pageSize-1);
+        int offs = (int)pos & (pageSize-1);
         Page pg = find(pos - offs, Page.psDirty);
         int src = 0;
-        while (size > Page.pageSize - offs) { 
-            System.arraycopy(obj, src, pg.data, offs, Page.pageSize - offs);
+        while (size > pageSize - offs) { 
+            System.arraycopy(obj, src, pg.data, offs, pageSize - offs);
             unfix(pg);
-            size -= Page.pageSize - offs;
-            pos += Page.pageSize - offs;
-            src += Page.pageSize - offs;
+            size -= pageSize - offs;
+            pos += pageSize - offs;
+            src += pageSize - offs;
             pg = find(pos, Page.psDirty);
             offs = 0;
         }
@@ -261,29 +733,153 @@ class PagePool {
         unfix(pg);
     }
 
+    /**
+     * Fix dirty page to be written by flush. Fixed page can not be chosen as victim and reused
+     * while it is written.
+     * @return <code>false</code> if page is not dirty any more (it was written by eviction)
+     */
+    private final boolean fixDirtyPage(Page pg) { 
+        Segment seg = getSegment(pg);
+        synchronized (seg) { 
+            if ((pg.state & Page.psDirty) == 0) { 
+                return false;
+            }
+            if (pg.accessCount++ == 0) { 
+                seg.policy.pin(pg);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Write run of fixed adjacent dirty pages
+     */
+    private final void writePages(Page[] run, int n) { 
+        boolean written = false;
+        try { 
+            if (n == 1) { 
+                file.write(run[0].offs, run[0].data);
+            } else { 
+                java.nio.ByteBuffer[] bufs = new java.nio.ByteBuffer[n];
+                for (int i = 0; i < n; i++) { 
+                    bufs[i] = java.nio.ByteBuffer.wrap(run[i].data);
+                }
+                ((ChannelFile)file).write(run[0].offs, bufs);
+            }
+            written = true;
+        } finally { 
+            for (int i = 0; i < n; i++) { 
+                Page pg = run[i];
+                Segment seg = getSegment(pg);
+                synchronized (seg) { 
+                    if (written) { 
+                        pg.state &= ~Page.psDirty;
+                        seg.nWrites += 1;
+                    }
+                    if (--pg.accessCount == 0) { 
+                        seg.policy.unpin(pg);
+                    }
+                }
+                run[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Wait completion of pages written by eviction or write-behind thread
+     */
+    private final synchronized void waitWrites() { 
+        while (nWriting != 0) { 
+            try { 
+                wait();
+            } catch (InterruptedException x) {}
+        }
+    }
+
     void flush() { 
+        flush(true);
+    }
+
+    /**
+     * Write all dirty pages to the file and synchronize it. If redo log is used,
+     * images of dirty pages are appended to the log followed by commit record and the log is synchronized
+     * instead of the file: pages are written to the file after that and made durable by checkpoint.
+     * Failure of the page write performed by write-behind thread since the previous flush is rethrown by this method.
+     * Pages which were not written remain dirty. Pages are written only after completion of the previous
+     * asynchronous commit (see <code>writeBarrier</code>).
+     * @param sync whether file should be synchronized (<code>false</code> if it is done later by asynchronous commit)
+     */
+    void flush(boolean sync) { 
+        Page[] pages;
+        int nPages;
         synchronized (this) { 
             flushing = true;
-            java.util.Arrays.sort(dirtyPages, 0, nDirtyPages); 
+            java.util.Arrays.sort(dirtyPages, 0, nDirtyPages);
+            // pages which writes are failed can be appended to the list while it is traversed
+            pages = dirtyPages;
+            nPages = nDirtyPages;
         }
-        for (int i = 0; i < nDirtyPages; i++) { 
-            Page pg = dirtyPages[i];
-            synchronized (pg) { 
-                if ((pg.state & Page.psDirty) != 0) { 
-                    file.write(pg.offs, pg.data);
-                    pg.state &= ~Page.psDirty;
+        try { 
+            waitWriteBarrier();
+            if (log != null) { 
+                for (int i = 0; i < nPages; i++) { 
+                    Page pg = pages[i];
+                    // page is fixed, so it is not written by eviction while it is appended to the log
+                    if (fixDirtyPage(pg)) { 
+                        try { 
+                            log.append(pg.offs, pg.data);
+                        } finally { 
+                            unfix(pg);
+                        }
+                    }
                 }
+                // pages which are concurrently written by eviction are appended to the log by evicting thread
+                waitWrites();
+                log.commit();
             }
-        }           
-        file.sync();
-        nDirtyPages = 0;
-        flushing = false;
+            // adjacent pages are written by one system call if file supports gathering write
+            Page[] run = new Page[file instanceof ChannelFile ? MAX_GATHERED_PAGES : 1];
+            int n = 0;
+            for (int i = 0; i < nPages; i++) { 
+                Page pg = pages[i];
+                if (fixDirtyPage(pg)) { 
+                    if (n == run.length || (n != 0 && pg.offs != run[n-1].offs + pageSize)) { 
+                        writePages(run, n);
+                        n = 0;
+                    }
+                    run[n++] = pg;
+                }
+            }
+            if (n != 0) { 
+                writePages(run, n);
+            }
+            waitWrites();
+            StorageError error;
+            synchronized (this) { 
+                error = writeError;
+                writeError = null;
+            }
+            if (error != null) { 
+                throw error;
+            }
+            if (sync && log == null) { 
+                file.sync();
+            }
+        } finally { 
+            synchronized (this) { 
+                // normally all pages are clean now: keep in the list only pages which writes are failed
+                int nDirty = 0;
+                for (int i = 0; i < nDirtyPages; i++) { 
+                    Page pg = dirtyPages[i];
+                    if ((pg.state & Page.psDirty) != 0) { 
+                        dirtyPages[nDirty] = pg;
+                        pg.writeQueueIndex = nDirty++;
+                    }
+                }
+                nDirtyPages = nDirty;
+                dirtyPagesStuck = 0;
+                flushing = false;
+            }
+        }
     }
 }
-
-
-
-
-
-
-
@@ -0,0 +1,72 @@
+package org.nachodb.impl;
+import  org.nachodb.*;
+
+/**
+ * Policy used by page pool segment to select page to be replaced.
+ * Only unfixed pages are candidates for replacement: page is excluded from the policy lists
+ * when it is fixed and returned back when it is unfixed. All methods are invoked
+ * while holding segment lock.
+ */
+abstract class PageReplacementPolicy { 
+    long nHits;
+    long nMisses;
+    long nEvictions;
+
+    /**
+     * Page was fixed by find: exclude it from the list of replacement candidates
+     */
+    void pin(Page pg) { 
+        pg.unlink();
+    }
+
+    /**
+     * Page is unfixed: it becomes candidate for replacement
+     */
+    abstract void unpin(Page pg);
+
+    /**
+     * Page was selected as victim but could not be replaced now (it was written to the disk):
+     * make it the first candidate for replacement
+     */
+    abstract void requeue(Page pg);
+
+    /**
+     * Select page to be replaced and exclude it from the list of candidates
+     * @return victim page or <code>null</code> if there are no unfixed pages
+     */
+    abstract Page victim();
+
+    /**
+     * New page was placed in the pool (it is fixed at this moment)
+     */
+    void loaded(Page pg) {}
+
+    /**
+     * Page previously returned by <code>victim()</code> is removed from the pool
+     */
+    void removed(Page pg) {}
+
+    /**
+     * Name of the policy (value of <code>perst.page.pool.policy</code> property)
+     */
+    abstract String getName();
+
+    /**
+     * Check that policy with the specified name is supported
+     * @param name value of <code>perst.page.pool.policy</code> property
+     * @exception StorageError(StorageError.BAD_PROPERTY_VALUE) if there is no such policy
+     */
+    static void checkName(String name) { 
+        if (!"lru".equals(name) && !"2q".equals(name)) { 
+            throw new StorageError(StorageError.BAD_PROPERTY_VALUE, "perst.page.pool.policy=" + name);
+        }
+    }
+
+    static PageReplacementPolicy create(String name, int poolSize) { 
+        checkName(name);
+        if ("2q".equals(name)) { 
+            return new TwoQueueReplacementPolicy(poolSize);
+        }
+        return new LruReplacementPolicy();
+    }
+}
@@ -0,0 +1,28 @@
+package org.nachodb.impl;
+import  org.nachodb.*;
+
+/**
+ * B-Tree with prefix compression of string or byte array keys: common prefix of the keys of the page
+ * is stored only once and keys of internal pages are truncated to the length needed to separate
+ * keys of the child pages (see <code>PrefixBtreePage</code>). It is useful for keys with long common
+ * prefixes (URLs, file paths, hierarchical identifiers), which otherwise significantly reduce
+ * number of keys in the page.
+ */
+class PrefixBtree<T extends IPersistent> extends Btree<T> { 
+    PrefixBtree() {}
+
+    PrefixBtree(Class cls, boolean unique) { 
+        super(cls, unique);
+        if (type != ClassDescriptor.tpString && type != ClassDescriptor.tpArrayOfByte) { 
+            throw new StorageError(StorageError.UNSUPPORTED_INDEX_TYPE, cls);
+        }
+    }
+
+    PrefixBtree(int type, boolean unique) { 
+        super(type, unique);
+    }
+
+    boolean isPrefixCompressed() { 
+        return true;
+    }
+}
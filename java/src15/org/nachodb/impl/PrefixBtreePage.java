@@ -0,0 +1,423 @@
+package org.nachodb.impl;
+import  org.nachodb.*;
+import  java.util.ArrayList;
+
+/**
+ * Pages of B-Tree with prefix compression of string and byte array keys (see {@link PrefixBtree}).
+ * Layout of the page is the same as layout of string pages of {@link BtreePage}: number of items and
+ * size of key data, array of 8-byte entries (reference, length and offset of the key) and key data
+ * stored from the end of the page. But entries refer only to the suffixes of the keys: common prefix
+ * of all keys of the page is stored once and is described by length and offset of the entry following
+ * the last item (in internal page reference of this entry is the last child page). Such page is marked
+ * by <code>BtreePage.compressedPageFlag</code> in the size field, so functions reading keys from the page
+ * do not need to know type of the tree.<br>
+ * Separator keys in internal pages are truncated: when leaf page is divided, shortest prefix of the first key
+ * of the right page which is greater than the last key of the left page is inserted in the parent page.<br>
+ * Page is updated by unpacking its keys, changing the list of keys and packing them back
+ * in the same page or dividing them between two pages.
+ */
+class PrefixBtreePage
+{
+    /**
+     * Allocate new root page with one key
+     */
+    static int allocate(StorageImpl db, int root, int type, BtreeKey ins)
+    { 
+        int pageId = db.allocatePage();
+        Page pg = db.putPage(pageId);
+        PrefixBtreePage items = new PrefixBtreePage(type, 1);
+        items.keys[0] = items.getKeyData(ins.key);
+        items.oids[0] = ins.oid;
+        items.oids[1] = root;
+        items.nItems = 1;
+        items.pack(pg, 0, 1, root == 0);
+        db.pool.unfix(pg);
+        return pageId;
+    }
+
+    /**
+     * Insert key in the page before item <code>r</code>
+     * @param height 0 for leaf page
+     * @return <code>Btree.op_overflow</code> if page was divided (reference to the new page and separator
+     * key are returned in <code>ins</code>), <code>Btree.op_underflow</code> if page is less than half full,
+     * <code>Btree.op_done</code> otherwise
+     */
+    static int insert(StorageImpl db, Page pg, int r, BtreeKey ins, int height, int type)
+    { 
+        boolean leaf = height == 0;
+        PrefixBtreePage items = new PrefixBtreePage(type, BtreePage.getnItems(pg) + 1);
+        items.load(pg, leaf);
+        items.insert(r, items.getKeyData(ins.key), ins.oid);
+        return items.store(db, pg, leaf, ins);
+    }
+
+    /**
+     * Remove item <code>r</code> from the leaf page
+     */
+    static int remove(StorageImpl db, Page pg, int r, int type)
+    { 
+        PrefixBtreePage items = new PrefixBtreePage(type, BtreePage.getnItems(pg));
+        items.load(pg, true);
+        items.remove(r, r);
+        return items.store(db, pg, true, null);
+    }
+
+    /**
+     * Merge child page <code>r</code> with its neighbour or redistribute items between them
+     * @param height height of the child pages (1 for leaf pages)
+     * @param rem key used to return separator key and reference to the new page if parent page was divided
+     */
+    static int handlePageUnderflow(StorageImpl db, Page pg, int r, int type, BtreeKey rem, int height)
+    { 
+        boolean leaf = height == 1;
+        int nItems = BtreePage.getnItems(pg);
+        PrefixBtreePage parent = new PrefixBtreePage(type, nItems + 1);
+        parent.load(pg, false);
+        int l = r < nItems ? r : r - 1; // merge pages l and l+1
+        int leftId = parent.oids[l];
+        int rightId = parent.oids[l+1];
+        Page a = db.putPage(leftId);
+        Page b = db.putPage(rightId);
+        try { 
+            PrefixBtreePage items = new PrefixBtreePage(type, BtreePage.getnItems(a) + BtreePage.getnItems(b) + 1);
+            items.load(a, leaf);
+            if (!leaf) { 
+                items.keys[items.nItems++] = parent.keys[l];
+            }
+            items.load(b, leaf);
+            int keySpace = BtreePage.keySpace(pg);
+            int[] sum = items.sumLengths();
+            if (items.size(0, items.nItems, sum) <= keySpace) { 
+                items.pack(a, 0, items.nItems, leaf);
+                db.pool.unfix(b);
+                b = null;
+                db.freePage(rightId);
+                parent.remove(l, l+1);
+            } else { 
+                int m = items.split(leaf, keySpace, sum);
+                if (leaf) { 
+                    items.pack(a, 0, m, true);
+                    items.pack(b, m, items.nItems, true);
+                    parent.keys[l] = items.separator(items.keys[m-1], items.keys[m]);
+                } else { 
+                    items.pack(a, 0, m-1, false);
+                    items.pack(b, m, items.nItems, false);
+                    parent.keys[l] = items.keys[m-1];
+                }
+            }
+        } finally { 
+            db.pool.unfix(a);
+            if (b != null) { 
+                db.pool.unfix(b);
+            }
+        }
+        return parent.store(db, pg, false, rem);
+    }
+
+    /**
+     * Check if key can be inserted in the leaf page without dividing it
+     */
+    static boolean fitsInPage(Page pg, Key key, int type)
+    { 
+        PrefixBtreePage items = new PrefixBtreePage(type, 0);
+        byte[] data = items.getKeyData(key);
+        int nItems = BtreePage.getnItems(pg);
+        int plen = BtreePage.getKeyStrSize(pg, nItems)*items.unit;
+        int poffs = BtreePage.firstKeyOffs + BtreePage.getKeyStrOffs(pg, nItems);
+        int newPlen = 0;
+        if (nItems != 0) { 
+            int n = plen < data.length ? plen : data.length;
+            while (newPlen < n && data[newPlen] == pg.data[poffs + newPlen]) { 
+                newPlen += 1;
+            }
+            newPlen -= newPlen % items.unit;
+        }
+        int size = BtreePage.getSize(pg) + (plen - newPlen)*(nItems - 1) + data.length - newPlen;
+        return size + (nItems + 2)*BtreePage.strKeySize <= BtreePage.keySpace(pg);
+    }
+
+    /**
+     * Store ordered keys in the page constructed by bulk load, in internal page key of the last item is not stored
+     */
+    static void store(Page pg, ArrayList<BtreeKey> items, boolean leaf, int type)
+    { 
+        int n = items.size();
+        PrefixBtreePage page = new PrefixBtreePage(type, n);
+        for (int i = 0; i < n; i++) { 
+            BtreeKey item = items.get(i);
+            page.keys[i] = page.getKeyData(item.key);
+            page.oids[i] = item.oid;
+        }
+        page.nItems = leaf ? n : n - 1;
+        page.pack(pg, 0, page.nItems, leaf);
+    }
+
+    /**
+     * Length (in bytes) of the common prefix which would be stored for these keys in the page
+     */
+    static int prefixLength(Key k1, Key k2, int type)
+    { 
+        if (type == ClassDescriptor.tpString) { 
+            char[] s1 = (char[])k1.oval;
+            char[] s2 = (char[])k2.oval;
+            int n = s1.length < s2.length ? s1.length : s2.length;
+            int i = 0;
+            while (i < n && s1[i] == s2[i]) { 
+                i += 1;
+            }
+            return i*2;
+        } else { 
+            byte[] b1 = (byte[])k1.oval;
+            byte[] b2 = (byte[])k2.oval;
+            int n = b1.length < b2.length ? b1.length : b2.length;
+            int i = 0;
+            while (i < n && b1[i] == b2[i]) { 
+                i += 1;
+            }
+            return i;
+        }
+    }
+
+    /**
+     * Separator of the last key of the leaf page and the first key of the next leaf page
+     */
+    static Key separator(Key prev, Key next, int type)
+    { 
+        PrefixBtreePage page = new PrefixBtreePage(type, 0);
+        return page.getKey(page.separator(page.getKeyData(prev), page.getKeyData(next)));
+    }
+
+    /**
+     * Get key stored in the page (common prefix of the page followed by the suffix of the key)
+     * in the format of the page: characters of string occupy two bytes
+     * @param unit size of key element: 2 for strings and 1 for byte arrays
+     */
+    static byte[] getKeyData(Page pg, int i, int unit)
+    { 
+        int nItems = BtreePage.getnItems(pg);
+        int plen = BtreePage.getKeyStrSize(pg, nItems)*unit;
+        int len = BtreePage.getKeyStrSize(pg, i)*unit;
+        byte[] data = new byte[plen + len];
+        System.arraycopy(pg.data, BtreePage.firstKeyOffs + BtreePage.getKeyStrOffs(pg, nItems), data, 0, plen);
+        System.arraycopy(pg.data, BtreePage.firstKeyOffs + BtreePage.getKeyStrOffs(pg, i), data, plen, len);
+        return data;
+    }
+
+    private PrefixBtreePage(int type, int capacity) { 
+        this.type = type;
+        unit = type == ClassDescriptor.tpString ? 2 : 1;
+        keys = new byte[capacity+1][];
+        oids = new int[capacity+2];
+    }
+
+    /**
+     * Append keys of the page, for internal page reference to its last child is stored
+     * after reference of the last key
+     */
+    private void load(Page pg, boolean leaf) { 
+        int n = BtreePage.getnItems(pg);
+        if (BtreePage.isCompressed(pg)) { 
+            for (int i = 0; i < n; i++) { 
+                keys[nItems] = getKeyData(pg, i, unit);
+                oids[nItems++] = BtreePage.getKeyStrOid(pg, i);
+            }
+        } else { 
+            for (int i = 0; i < n; i++) { 
+                int len = BtreePage.getKeyStrSize(pg, i)*unit;
+                byte[] data = new byte[len];
+                System.arraycopy(pg.data, BtreePage.firstKeyOffs + BtreePage.getKeyStrOffs(pg, i), data, 0, len);
+                keys[nItems] = data;
+                oids[nItems++] = BtreePage.getKeyStrOid(pg, i);
+            }
+        }
+        if (!leaf) { 
+            oids[nItems] = BtreePage.getKeyStrOid(pg, n);
+        }
+    }
+
+    private void insert(int r, byte[] key, int oid) { 
+        System.arraycopy(keys, r, keys, r+1, nItems - r);
+        System.arraycopy(oids, r, oids, r+1, nItems - r + 1);
+        keys[r] = key;
+        oids[r] = oid;
+        nItems += 1;
+    }
+
+    /**
+     * Remove key <code>r</code> and reference <code>ref</code> (the same item in leaf page,
+     * reference to the page following the key in internal page)
+     */
+    private void remove(int r, int ref) { 
+        System.arraycopy(keys, r+1, keys, r, nItems - r - 1);
+        System.arraycopy(oids, ref+1, oids, ref, nItems - ref);
+        nItems -= 1;
+    }
+
+    /**
+     * Store keys in the page, dividing them between this page and new page if they do not fit in one page.
+     * In the last case the smaller keys are stored in the new page.
+     */
+    private int store(StorageImpl db, Page pg, boolean leaf, BtreeKey ins) { 
+        int keySpace = BtreePage.keySpace(pg);
+        int[] sum = sumLengths();
+        int size = size(0, nItems, sum);
+        if (size <= keySpace) { 
+            pack(pg, 0, nItems, leaf);
+            return size < keySpace/2 ? Btree.op_underflow : Btree.op_done;
+        }
+        int m = split(leaf, keySpace, sum);
+        int pageId = db.allocatePage();
+        Page b = db.putPage(pageId);
+        if (leaf) { 
+            pack(b, 0, m, true);
+            pack(pg, m, nItems, true);
+            ins.key = getKey(separator(keys[m-1], keys[m]));
+        } else { 
+            pack(b, 0, m-1, false);
+            pack(pg, m, nItems, false);
+            ins.key = getKey(keys[m-1]);
+        }
+        ins.oid = pageId;
+        db.pool.unfix(b);
+        return Btree.op_overflow;
+    }
+
+    /**
+     * Choose position dividing keys between two pages: in leaf pages keys <code>[0,m)</code> are stored
+     * in the left page and keys <code>[m,nItems)</code> in the right page, in internal pages key
+     * <code>m-1</code> is moved to the parent page. Position minimizing size of the largest page is chosen.
+     */
+    private int split(boolean leaf, int keySpace, int[] sum) { 
+        int best = 0;
+        int bestSize = Integer.MAX_VALUE;
+        for (int m = 1, till = leaf ? nItems : nItems + 1; m < till; m++) { 
+            int left = size(0, leaf ? m : m - 1, sum);
+            int right = size(m, nItems, sum);
+            int size = left > right ? left : right;
+            if (size < bestSize) { 
+                bestSize = size;
+                best = m;
+            }
+        }
+        Assert.that("String fits in the B-Tree page", bestSize <= keySpace);
+        return best;
+    }
+
+    /**
+     * Store keys <code>[from,till)</code> in the page, for internal page reference <code>till</code>
+     * is stored as reference to the last child
+     */
+    private void pack(Page pg, int from, int till, boolean leaf) { 
+        int n = till - from;
+        int keySpace = BtreePage.keySpace(pg);
+        int plen = prefixLength(from, till);
+        int size = plen;
+        if (plen != 0) { 
+            System.arraycopy(keys[from], 0, pg.data, BtreePage.firstKeyOffs + keySpace - plen, plen);
+        }
+        BtreePage.setKeyStrOffs(pg, n, keySpace - plen);
+        BtreePage.setKeyStrSize(pg, n, plen/unit);
+        BtreePage.setKeyStrOid(pg, n, leaf ? 0 : oids[till]);
+        for (int i = 0; i < n; i++) { 
+            byte[] key = keys[from + i];
+            int len = key.length - plen;
+            size += len;
+            System.arraycopy(key, plen, pg.data, BtreePage.firstKeyOffs + keySpace - size, len);
+            BtreePage.setKeyStrOffs(pg, i, keySpace - size);
+            BtreePage.setKeyStrSize(pg, i, len/unit);
+            BtreePage.setKeyStrOid(pg, i, oids[from + i]);
+        }
+        Assert.that("String fits in the B-Tree page", size + (n+1)*BtreePage.strKeySize <= keySpace);
+        BtreePage.setnItems(pg, n);
+        BtreePage.setCompressedSize(pg, size);
+    }
+
+    /**
+     * Length of common prefix (in bytes) of keys <code>[from,till)</code>, it is enough to compare
+     * the first and the last key because keys are ordered
+     */
+    private int prefixLength(int from, int till) { 
+        if (till - from < 1) { 
+            return 0;
+        }
+        byte[] first = keys[from];
+        byte[] last = keys[till-1];
+        int n = first.length < last.length ? first.length : last.length;
+        int i = 0;
+        while (i < n && first[i] == last[i]) { 
+            i += 1;
+        }
+        return i - i % unit;
+    }
+
+    /**
+     * Space used in the page by keys <code>[from,till)</code>
+     * @param sum <code>sum[i]</code> is total length of the first <code>i</code> keys
+     */
+    private int size(int from, int till, int[] sum) { 
+        int n = till - from;
+        int size = (n+1)*BtreePage.strKeySize + sum[till] - sum[from];
+        if (n > 1) { 
+            size -= (n-1)*prefixLength(from, till);
+        }
+        return size;
+    }
+
+    private int[] sumLengths() { 
+        int[] sum = new int[nItems + 1];
+        for (int i = 0; i < nItems; i++) { 
+            sum[i+1] = sum[i] + keys[i].length;
+        }
+        return sum;
+    }
+
+    /**
+     * Separator of the last key of the left page <code>prev</code> and the first key of the right page
+     * <code>next</code>: shortest prefix of <code>next</code> which is greater than <code>prev</code>.
+     * Keys equal to the separator are searched in the left page, so if there is no such prefix except
+     * <code>next</code> itself, <code>prev</code> is used.
+     */
+    private byte[] separator(byte[] prev, byte[] next) { 
+        int n = prev.length < next.length ? prev.length : next.length;
+        int i = 0;
+        while (i < n && prev[i] == next[i]) { 
+            i += 1;
+        }
+        i -= i % unit;
+        if (i == prev.length || i + unit == next.length) { 
+            return prev;
+        }
+        byte[] sep = new byte[i + unit];
+        System.arraycopy(next, 0, sep, 0, sep.length);
+        return sep;
+    }
+
+    private byte[] getKeyData(Key key) { 
+        if (type == ClassDescriptor.tpString) { 
+            char[] chars = (char[])key.oval;
+            byte[] data = new byte[chars.length*2];
+            for (int i = 0; i < chars.length; i++) { 
+                Bytes.pack2(data, i*2, (short)chars[i]);
+            }
+            return data;
+        }
+        return (byte[])key.oval;
+    }
+
+    private Key getKey(byte[] data) { 
+        if (type == ClassDescriptor.tpString) { 
+            char[] chars = new char[data.length/2];
+            for (int i = 0; i < chars.length; i++) { 
+                chars[i] = (char)Bytes.unpack2(data, i*2);
+            }
+            return new Key(chars);
+        }
+        return new Key(data);
+    }
+
+    private int      type;
+    private int      unit;   // size of key element: characters of string keys are stored as two bytes
+    private int      nItems; // number of keys
+    private byte[][] keys;
+    private int[]    oids;   // references of keys, internal page has one more reference to the last child
+}
@@ -3,25 +3,30 @@ import  org.nachodb.*;
 
 public class Rc4File implements IFile 
 { 
-    public void write(long pos, byte[] buf) 
+    public synchronized void write(long pos, byte[] buf)
     {
+        if (cipherBuf.length != buf.length) { 
+            // buffer size is equal to the database page size
+            cipherBuf = new byte[buf.length];
+            zeroPage = null;
+        }
         if (pos > length) { 
             if (zeroPage == null) { 
-                zeroPage = new byte[Page.pageSize];
-                encrypt(zeroPage, 0, zeroPage, 0, Page.pageSize);
+                zeroPage = new byte[buf.length];
+                encrypt(zeroPage, 0, zeroPage, 0, buf.length);
             }
             do { 
                 file.write(length, zeroPage);
-            } while ((length += Page.pageSize) < pos);
+            } while ((length += buf.length) < pos);
         } 
         if (pos == length) { 
-            length += Page.pageSize;
+            length += buf.length;
         }        
         encrypt(buf, 0, cipherBuf, 0, buf.length);
         file.write(pos, cipherBuf);
     }
 
-    public int read(long pos, byte[] buf) 
+    public synchronized int read(long pos, byte[] buf)
     { 
         if (pos < length) { 
             int rc = file.read(pos, buf);
@@ -34,14 +39,14 @@ public class Rc4File implements IFile
     public Rc4File(String filePath, boolean readOnly, boolean noFlush, String key) 
     { 
         file = new OSFile(filePath, readOnly, noFlush);
-        length = file.length() & ~(Page.pageSize-1);
+        length = file.length() & ~(Page.minPageSize-1);
         setKey(key.getBytes());
     }
 
     public Rc4File(IFile file, String key) 
     { 
         this.file = file;
-        length = file.length() & ~(Page.pageSize-1);
+        length = file.length() & ~(Page.minPageSize-1);
         setKey(key.getBytes());
     }
 
@@ -108,7 +113,7 @@ public class Rc4File implements IFile
     }
 
     private IFile  file;
-    private byte[] cipherBuf = new byte[Page.pageSize];
+    private byte[] cipherBuf = new byte[Page.minPageSize];
     private byte[] initState = new byte[256];
     private byte[] state = new byte[256];
     private int    x, y;
@@ -0,0 +1,361 @@
+package org.nachodb.impl;
+
+/**
+ * Encoding of fields in the record of persistent object. Records in both formats are packed, unpacked
+ * and traversed by the same code of StorageImpl which dispatches on the type of the field and uses
+ * record format to store integers, enums, references and lengths of arrays.
+ * Bytes, floating point numbers, strings and raw values are stored in the same way in all formats.
+ */
+abstract class RecordFormat { 
+    /**
+     * Fixed size integers and references, array length is -1 for null array
+     */
+    static final RecordFormat LEGACY = new LegacyFormat();
+
+    /**
+     * Format of classes implementing CompactRecord: integers are stored as variable length integers
+     * (signed values are zig-zag encoded), enums as ordinal+1 and lengths of arrays as length+1
+     * (so null is represented by 0), references as object identifiers and elements of arrays
+     * of references and links as zig-zag encoded difference with the previous element.
+     */
+    static final RecordFormat COMPACT = new CompactFormat();
+
+    abstract int packChar(ByteBuffer buf, int offs, char val);
+    abstract int packShort(ByteBuffer buf, int offs, short val);
+    abstract int packInt(ByteBuffer buf, int offs, int val);
+    abstract int packLong(ByteBuffer buf, int offs, long val);
+
+    /**
+     * Pack ordinal of enum constant (-1 for null)
+     */
+    abstract int packEnum(ByteBuffer buf, int offs, int ordinal);
+
+    abstract int packOid(ByteBuffer buf, int offs, int oid);
+
+    /**
+     * Pack element of array of references or link following element with <code>prevOid</code>
+     */
+    abstract int packOidElement(ByteBuffer buf, int offs, int oid, int prevOid);
+
+    /**
+     * Pack length of array (-1 for null)
+     */
+    abstract int packLength(ByteBuffer buf, int offs, int len);
+
+    abstract char  unpackChar(byte[] body, int offs);
+    abstract short unpackShort(byte[] body, int offs);
+    abstract int   unpackInt(byte[] body, int offs);
+    abstract long  unpackLong(byte[] body, int offs);
+    abstract int   unpackEnum(byte[] body, int offs);
+    abstract int   unpackOid(byte[] body, int offs);
+    abstract int   unpackOidElement(byte[] body, int offs, int prevOid);
+    abstract int   unpackLength(byte[] body, int offs);
+
+    /**
+     * Get offset following the scalar value of specified type (also used for elements of arrays)
+     */
+    abstract int skipScalar(int type, byte[] body, int offs);
+
+    /**
+     * Get offset following the length of array
+     */
+    abstract int skipLength(byte[] body, int offs);
+
+    /**
+     * Get offset following <code>len</code> elements of array of scalars of specified type
+     */
+    int skipElements(int type, byte[] body, int offs, int len) { 
+        while (--len >= 0) { 
+            offs = skipScalar(type, body, offs);
+        }
+        return offs;
+    }
+
+    final int skipField(ClassDescriptor.FieldDescriptor fd, byte[] body, int offs) { 
+        int type = fd.type;
+        if (type == ClassDescriptor.tpValue) { 
+            return skipValue(fd.valueDesc, body, offs);
+        } else if (type < ClassDescriptor.tpArrayOfBoolean && type != ClassDescriptor.tpLink) { 
+            return skipScalar(type, body, offs);
+        }
+        int len = unpackLength(body, offs);
+        offs = skipLength(body, offs);
+        if (type == ClassDescriptor.tpArrayOfValue) { 
+            while (--len >= 0) { 
+                offs = skipValue(fd.valueDesc, body, offs);
+            }
+            return offs;
+        }
+        return skipElements(elementType(type), body, offs, len);
+    }
+
+    final int skipValue(ClassDescriptor desc, byte[] body, int offs) { 
+        ClassDescriptor.FieldDescriptor[] all = desc.allFields;
+        for (int i = 0, n = all.length; i < n; i++) { 
+            offs = skipField(all[i], body, offs);
+        }
+        return offs;
+    }
+
+    /**
+     * Type of elements of array or link
+     */
+    static int elementType(int type) { 
+        return type == ClassDescriptor.tpLink ? ClassDescriptor.tpObject : type - ClassDescriptor.tpArrayOfBoolean;
+    }
+
+    /**
+     * Convert fields of the record from one format to another.
+     * Converted fields are appended to the buffer, method returns offset of the next field in the source record.
+     * XML exporter uses it to parse records of all classes in legacy format and XML importer
+     * to store objects of classes using compact format.
+     */
+    static int convert(RecordFormat from, RecordFormat to, ClassDescriptor desc, byte[] src, int offs, ByteBuffer buf)
+    { 
+        ClassDescriptor.FieldDescriptor[] all = desc.allFields;
+        for (int i = 0, n = all.length; i < n; i++) { 
+            ClassDescriptor.FieldDescriptor fd = all[i];
+            int type = fd.type;
+            if (type == ClassDescriptor.tpValue) { 
+                offs = convert(from, to, fd.valueDesc, src, offs, buf);
+            } else if (type < ClassDescriptor.tpArrayOfBoolean && type != ClassDescriptor.tpLink) { 
+                offs = convertScalar(from, to, type, src, offs, buf);
+            } else { 
+                int len = from.unpackLength(src, offs);
+                offs = from.skipLength(src, offs);
+                to.packLength(buf, buf.used, len);
+                int elemType = elementType(type);
+                int oid = 0;
+                for (int j = 0; j < len; j++) { 
+                    if (elemType == ClassDescriptor.tpValue) { 
+                        offs = convert(from, to, fd.valueDesc, src, offs, buf);
+                    } else if (elemType == ClassDescriptor.tpObject) { 
+                        int prevOid = oid;
+                        oid = from.unpackOidElement(src, offs, prevOid);
+                        offs = from.skipScalar(ClassDescriptor.tpObject, src, offs);
+                        to.packOidElement(buf, buf.used, oid, prevOid);
+                    } else { 
+                        offs = convertScalar(from, to, elemType, src, offs, buf);
+                    }
+                }
+            }
+        }
+        return offs;
+    }
+
+    private static int convertScalar(RecordFormat from, RecordFormat to, int type, byte[] src, int offs, ByteBuffer buf)
+    { 
+        int dst = buf.used;
+        int next = from.skipScalar(type, src, offs);
+        switch (type) { 
+        case ClassDescriptor.tpChar:
+            to.packChar(buf, dst, from.unpackChar(src, offs));
+            break;
+        case ClassDescriptor.tpShort:
+            to.packShort(buf, dst, from.unpackShort(src, offs));
+            break;
+        case ClassDescriptor.tpInt:
+            to.packInt(buf, dst, from.unpackInt(src, offs));
+            break;
+        case ClassDescriptor.tpEnum:
+            to.packEnum(buf, dst, from.unpackEnum(src, offs));
+            break;
+        case ClassDescriptor.tpObject:
+            to.packOid(buf, dst, from.unpackOid(src, offs));
+            break;
+        case ClassDescriptor.tpLong:
+        case ClassDescriptor.tpDate:
+            to.packLong(buf, dst, from.unpackLong(src, offs));
+            break;
+        default: // same representation in all formats
+            buf.extend(dst + next - offs);
+            System.arraycopy(src, offs, buf.arr, dst, next - offs);
+        }
+        return next;
+    }
+
+    static final class LegacyFormat extends RecordFormat { 
+        int packChar(ByteBuffer buf, int offs, char val) { 
+            buf.extend(offs + 2);
+            Bytes.pack2(buf.arr, offs, (short)val);
+            return offs + 2;
+        }
+
+        int packShort(ByteBuffer buf, int offs, short val) { 
+            buf.extend(offs + 2);
+            Bytes.pack2(buf.arr, offs, val);
+            return offs + 2;
+        }
+
+        int packInt(ByteBuffer buf, int offs, int val) { 
+            buf.extend(offs + 4);
+            Bytes.pack4(buf.arr, offs, val);
+            return offs + 4;
+        }
+
+        int packLong(ByteBuffer buf, int offs, long val) { 
+            buf.extend(offs + 8);
+            Bytes.pack8(buf.arr, offs, val);
+            return offs + 8;
+        }
+
+        int packEnum(ByteBuffer buf, int offs, int ordinal) { 
+            return packInt(buf, offs, ordinal);
+        }
+
+        int packOid(ByteBuffer buf, int offs, int oid) { 
+            return packInt(buf, offs, oid);
+        }
+
+        int packOidElement(ByteBuffer buf, int offs, int oid, int prevOid) { 
+            return packInt(buf, offs, oid);
+        }
+
+        int packLength(ByteBuffer buf, int offs, int len) { 
+            return packInt(buf, offs, len);
+        }
+
+        char unpackChar(byte[] body, int offs) { 
+            return (char)Bytes.unpack2(body, offs);
+        }
+
+        short unpackShort(byte[] body, int offs) { 
+            return Bytes.unpack2(body, offs);
+        }
+
+        int unpackInt(byte[] body, int offs) { 
+            return Bytes.unpack4(body, offs);
+        }
+
+        long unpackLong(byte[] body, int offs) { 
+            return Bytes.unpack8(body, offs);
+        }
+
+        int unpackEnum(byte[] body, int offs) { 
+            return Bytes.unpack4(body, offs);
+        }
+
+        int unpackOid(byte[] body, int offs) { 
+            return Bytes.unpack4(body, offs);
+        }
+
+        int unpackOidElement(byte[] body, int offs, int prevOid) { 
+            return Bytes.unpack4(body, offs);
+        }
+
+        int unpackLength(byte[] body, int offs) { 
+            return Bytes.unpack4(body, offs);
+        }
+
+        int skipScalar(int type, byte[] body, int offs) { 
+            switch (type) { 
+            case ClassDescriptor.tpString:
+                return offs + Bytes.sizeof(body, offs);
+            case ClassDescriptor.tpRaw:
+                return StorageImpl.skipRawValue(body, offs);
+            default:
+                return offs + ClassDescriptor.sizeof[type];
+            }
+        }
+
+        int skipLength(byte[] body, int offs) { 
+            return offs + 4;
+        }
+
+        int skipElements(int type, byte[] body, int offs, int len) { 
+            int size = ClassDescriptor.sizeof[type];
+            if (size == 0) { // variable size elements
+                return super.skipElements(type, body, offs, len);
+            }
+            return len > 0 ? offs + len*size : offs;
+        }
+    }
+
+    static final class CompactFormat extends RecordFormat { 
+        int packChar(ByteBuffer buf, int offs, char val) { 
+            return buf.packVarint(offs, val);
+        }
+
+        int packShort(ByteBuffer buf, int offs, short val) { 
+            return buf.packVarint(offs, Bytes.zigzag((int)val));
+        }
+
+        int packInt(ByteBuffer buf, int offs, int val) { 
+            return buf.packVarint(offs, Bytes.zigzag(val));
+        }
+
+        int packLong(ByteBuffer buf, int offs, long val) { 
+            return buf.packVarlong(offs, Bytes.zigzag(val));
+        }
+
+        int packEnum(ByteBuffer buf, int offs, int ordinal) { 
+            return buf.packVarint(offs, ordinal + 1);
+        }
+
+        int packOid(ByteBuffer buf, int offs, int oid) { 
+            return buf.packVarint(offs, oid);
+        }
+
+        int packOidElement(ByteBuffer buf, int offs, int oid, int prevOid) { 
+            return buf.packVarint(offs, Bytes.zigzag(oid - prevOid));
+        }
+
+        int packLength(ByteBuffer buf, int offs, int len) { 
+            return buf.packVarint(offs, len + 1);
+        }
+
+        char unpackChar(byte[] body, int offs) { 
+            return (char)Bytes.unpackVarint(body, offs);
+        }
+
+        short unpackShort(byte[] body, int offs) { 
+            return (short)Bytes.unzigzag(Bytes.unpackVarint(body, offs));
+        }
+
+        int unpackInt(byte[] body, int offs) { 
+            return Bytes.unzigzag(Bytes.unpackVarint(body, offs));
+        }
+
+        long unpackLong(byte[] body, int offs) { 
+            return Bytes.unzigzag(Bytes.unpackVarlong(body, offs));
+        }
+
+        int unpackEnum(byte[] body, int offs) { 
+            return Bytes.unpackVarint(body, offs) - 1;
+        }
+
+        int unpackOid(byte[] body, int offs) { 
+            return Bytes.unpackVarint(body, offs);
+        }
+
+        int unpackOidElement(byte[] body, int offs, int prevOid) { 
+            return prevOid + Bytes.unzigzag(Bytes.unpackVarint(body, offs));
+        }
+
+        int unpackLength(byte[] body, int offs) { 
+            return Bytes.unpackVarint(body, offs) - 1;
+        }
+
+        int skipScalar(int type, byte[] body, int offs) { 
+            switch (type) { 
+            case ClassDescriptor.tpBoolean:
+            case ClassDescriptor.tpByte:
+                return offs + 1;
+            case ClassDescriptor.tpFloat:
+                return offs + 4;
+            case ClassDescriptor.tpDouble:
+                return offs + 8;
+            case ClassDescriptor.tpString:
+                return offs + Bytes.sizeof(body, offs);
+            case ClassDescriptor.tpRaw:
+                return StorageImpl.skipRawValue(body, offs);
+            default: // variable length integer
+                return Bytes.skipVarint(body, offs);
+            }
+        }
+
+        int skipLength(byte[] body, int offs) { 
+            return Bytes.skipVarint(body, offs);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package org.nachodb.impl;
+import  org.nachodb.*;
+
+import java.io.*;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead redo log. Images of all pages written to the database file are appended to the log
+ * and commit record is appended at the end of each transaction, so commit needs to synchronize
+ * only this sequentially written file. Pages are written to the database file without synchronization:
+ * they are made durable by checkpoint, after which the log is truncated. When database is opened,
+ * page images of all transactions completely written to the log are applied to the database file.
+ * Log consists of header (magic, page size and generation) followed by page records (page address and page image)
+ * and commit records (-1, generation and CRC of page records of the transaction).
+ * Truncation doesn't shrink the file: it increments generation and new records overwrite the old ones,
+ * so synchronization of the log doesn't have to update size of the file. Records left from the previous
+ * generations are not replayed because generation in their commit records doesn't match the header.
+ */
+class RedoLog { 
+    /**
+     * Append image of the page to the log
+     * @param addr address of the page in the database file
+     * @param data page image
+     */
+    synchronized void append(long addr, byte[] data)
+    { 
+        if (used + 8 + data.length > buf.length) { 
+            writeBuffer();
+        }
+        Bytes.pack8(buf, used, addr);
+        crc.update(buf, used, 8);
+        used += 8;
+        System.arraycopy(data, 0, buf, used, data.length);
+        crc.update(data, 0, data.length);
+        used += data.length;
+    }
+
+    /**
+     * Append commit record and synchronize the log
+     */
+    synchronized void commit()
+    { 
+        if (used + COMMIT_RECORD_SIZE > buf.length) { 
+            writeBuffer();
+        }
+        Bytes.pack8(buf, used, -1);
+        Bytes.pack8(buf, used + 8, generation);
+        Bytes.pack8(buf, used + 16, crc.getValue());
+        used += COMMIT_RECORD_SIZE;
+        crc.reset();
+        writeBuffer();
+        try { 
+            file.getChannel().force(false);
+        } catch (IOException x) { 
+            throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+        }
+    }
+
+    /**
+     * Remove all records from the log. This method should be called when all pages
+     * written to the database file are synchronized.
+     * @param pageSize size of database page
+     */
+    synchronized void truncate(int pageSize)
+    { 
+        try { 
+            file.seek(0);
+            if (buf == null || buf.length < pageSize*MIN_BUFFERED_PAGES) { 
+                buf = new byte[(pageSize + 8)*MIN_BUFFERED_PAGES];
+            }
+            generation += 1;
+            Bytes.pack4(buf, 0, MAGIC);
+            Bytes.pack4(buf, 4, pageSize);
+            Bytes.pack8(buf, 8, generation);
+            used = HEADER_SIZE;
+            written = 0;
+            crc.reset();
+            writeBuffer();
+            file.getFD().sync();
+        } catch (IOException x) { 
+            throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+        }
+    }
+
+    /**
+     * Size of records written to the log since the last truncation
+     */
+    synchronized long size() { 
+        return written + used;
+    }
+
+    /**
+     * Apply page images of all completely written transactions to the database file
+     * @param db database file
+     * @return number of applied transactions
+     */
+    synchronized int replay(IFile db)
+    { 
+        try { 
+            if (file.length() < HEADER_SIZE) { 
+                return 0;
+            }
+            // first pass: locate end of the last complete transaction
+            file.seek(0);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file.getFD())));
+            if (in.readInt() != MAGIC) { 
+                throw new StorageError(StorageError.DATABASE_CORRUPTED);
+            }
+            int pageSize = in.readInt();
+            if (pageSize < Page.minPageSize || pageSize > (1 << Page.maxPageBits)) { 
+                throw new StorageError(StorageError.DATABASE_CORRUPTED);
+            }
+            generation = in.readLong();
+            byte[] page = new byte[pageSize];
+            byte[] addr = new byte[8];
+            long pos = HEADER_SIZE;
+            long end = pos;
+            int nTransactions = 0;
+            crc.reset();
+            try { 
+                while (true) { 
+                    in.readFully(addr);
+                    if (Bytes.unpack8(addr, 0) == -1) { 
+                        if (in.readLong() != generation || in.readLong() != crc.getValue()) { 
+                            break;
+                        }
+                        crc.reset();
+                        pos += COMMIT_RECORD_SIZE;
+                        end = pos;
+                        nTransactions += 1;
+                    } else { 
+                        in.readFully(page);
+                        crc.update(addr, 0, 8);
+                        crc.update(page, 0, pageSize);
+                        pos += 8 + pageSize;
+                    }
+                }
+            } catch (EOFException x) {}
+            crc.reset();
+
+            // second pass: write page images to the database file
+            file.seek(HEADER_SIZE);
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file.getFD())));
+            for (pos = HEADER_SIZE; pos < end;) { 
+                long pageAddr = in.readLong();
+                if (pageAddr == -1) { 
+                    in.readLong();
+                    in.readLong();
+                    pos += COMMIT_RECORD_SIZE;
+                } else { 
+                    in.readFully(page);
+                    db.write(pageAddr, page);
+                    pos += 8 + pageSize;
+                }
+            }
+            if (nTransactions != 0) { 
+                db.sync();
+            }
+            return nTransactions;
+        } catch (IOException x) { 
+            throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+        }
+    }
+
+    synchronized void close()
+    { 
+        try { 
+            file.close();
+        } catch (IOException x) { 
+            throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+        }
+    }
+
+    private final void writeBuffer()
+    { 
+        try { 
+            file.write(buf, 0, used);
+        } catch (IOException x) { 
+            throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+        }
+        written += used;
+        used = 0;
+    }
+
+    RedoLog(String path)
+    { 
+        try { 
+            file = new RandomAccessFile(path, "rw");
+        } catch (IOException x) { 
+            throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+        }
+        crc = new CRC32();
+    }
+
+    static final int MAGIC = 0x50524c47; // "PRLG"
+    static final int MIN_BUFFERED_PAGES = 16;
+    static final int HEADER_SIZE = 16;
+    static final int COMMIT_RECORD_SIZE = 24;
+
+    RandomAccessFile file;
+    byte[]           buf;
+    int              used;
+    long             written;
+    long             generation;
+    CRC32            crc;
+}
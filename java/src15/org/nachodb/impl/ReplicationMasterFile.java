@@ -37,7 +37,7 @@ public class ReplicationMasterFile implements IFile
             in = new InputStream[hosts.length];
             rcBuf = new byte[1];
         }
-        txBuf = new byte[8 + Page.pageSize];
+        txBuf = new byte[8 + Page.minPageSize];
         nHosts = 0;
         for (int i = 0; i < hosts.length; i++) { 
             connect(i);
@@ -103,7 +103,10 @@ public class ReplicationMasterFile implements IFile
     }
 
 
-    public void write(long pos, byte[] buf) {
+    public synchronized void write(long pos, byte[] buf) { 
+        if (txBuf.length != 8 + buf.length) { 
+            txBuf = new byte[8 + buf.length];
+        }
         for (int i = 0; i < out.length; i++) { 
             while (out[i] != null) {                 
                 try { 
@@ -18,9 +18,12 @@ public class ReplicationSlaveStorageImpl extends StorageImpl implements Replicat
         } catch (IOException x) {
             return;
         }
-        byte[] rootPage = new byte[Page.pageSize];
+        // page size of the database is not known until it is received from the master,
+        // so the slave should be configured with the same perst.page.size property as the master
+        setPageBits(initPageBits);
+        byte[] rootPage = new byte[pageSize];
         int rc = file.read(0, rootPage);
-        if (rc == Page.pageSize) { 
+        if (rc == pageSize) { 
             prevIndex =  rootPage[DB_HDR_CURR_INDEX_OFFSET];
             initialized = rootPage[DB_HDR_INITIALIZED_OFFSET] != 0;
         } else { 
@@ -34,7 +37,7 @@ public class ReplicationSlaveStorageImpl extends StorageImpl implements Replicat
         commit = new Object();
         listening = true;
         connect();
-        pool = new PagePool(pagePoolSize/Page.pageSize);
+        pool = createPagePool(pagePoolSize);
         pool.open(file);
         thread = new Thread(this);
         thread.start();
@@ -64,6 +67,8 @@ public class ReplicationSlaveStorageImpl extends StorageImpl implements Replicat
         currIndexSize = header.root[1-currIndex].indexUsed;
         committedIndexSize = currIndexSize;
         usedSize = header.root[currIndex].size;
+        // object index was updated by master
+        resetIndexChunks();
     }
      
     public void endThreadTransaction(int maxDelay)
@@ -136,8 +141,8 @@ public class ReplicationSlaveStorageImpl extends StorageImpl implements Replicat
     }
 
     public void run() { 
-        byte[] buf = new byte[Page.pageSize+PAGE_DATA_OFFSET];
-        byte[] page = new byte[Page.pageSize];
+        byte[] buf = new byte[pageSize+PAGE_DATA_OFFSET];
+        byte[] page = new byte[pageSize];
 
         while (listening) { 
             int offs = 0;
@@ -188,7 +193,7 @@ public class ReplicationSlaveStorageImpl extends StorageImpl implements Replicat
             }
             
             Page pg = pool.putPage(pos);
-            System.arraycopy(buf, PAGE_DATA_OFFSET, pg.data, 0, Page.pageSize);
+            System.arraycopy(buf, PAGE_DATA_OFFSET, pg.data, 0, pageSize);
             pool.unfix(pg);
             
             if (pos == 0) { 
@@ -4,14 +4,20 @@ import org.nachodb.*;
 import java.util.ArrayList;
 
 public class RtreePage extends Persistent { 
-    static final int card = (Page.pageSize-ObjectHeader.sizeof-4*3)/(4*4+4);
-    static final int minFill = card/2;
+    /**
+     * Number of branches of the new page: it depends on the page size of the database.
+     * Existing page contains <code>b.length</code> branches.
+     */
+    static int cardinality(Storage storage) { 
+        return (((StorageImpl)storage).pageSize-ObjectHeader.sizeof-4*3)/(4*4+4);
+    }
 
     int           n;
     Rectangle[] b;
     Link          branch;
 
     RtreePage(Storage storage, IPersistent obj, Rectangle r) {
+        int card = cardinality(storage);
         branch = storage.createLink(card);
         branch.setSize(card);
         b = new Rectangle[card]; 
@@ -23,6 +29,7 @@ public class RtreePage extends Persistent {
     }
     
     RtreePage(Storage storage, RtreePage root, RtreePage p) { 
+        int card = cardinality(storage);
         branch = storage.createLink(card);
         branch.setSize(card);
         b = new Rectangle[card]; 
@@ -78,7 +85,7 @@ public class RtreePage extends Persistent {
                     RtreePage pg = (RtreePage)branch.get(i);
                     int reinsertLevel = pg.remove(r, obj, level, reinsertList);
                     if (reinsertLevel >= 0) { 
-                        if (pg.n >= minFill) { 
+                        if (pg.n >= pg.b.length/2) { 
                             setBranch(i, pg.cover(), pg);
                             modify();
                         } else { 
@@ -137,12 +144,12 @@ public class RtreePage extends Persistent {
         n -= 1;
         System.arraycopy(b, i+1, b, i, n-i);
         branch.remove(i);
-        branch.setSize(card);
+        branch.setSize(b.length);
         modify();
     }
 
     final RtreePage addBranch(Storage storage, Rectangle r, IPersistent obj) { 
-        if (n < card) { 
+        if (n < b.length) { 
             setBranch(n++, r, obj);
             return null;
         } else { 
@@ -152,6 +159,8 @@ public class RtreePage extends Persistent {
 
     final RtreePage splitPage(Storage storage, Rectangle r, IPersistent obj) { 
         int i, j, seed0 = 0, seed1 = 0;
+        int card = b.length;
+        int minFill = card/2;
         long[] rectArea = new long[card+1];
         long   waste;
         long   worstWaste = Long.MIN_VALUE;
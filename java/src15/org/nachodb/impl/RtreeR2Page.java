@@ -4,14 +4,20 @@ import org.nachodb.*;
 import java.util.ArrayList;
 
 public class RtreeR2Page extends Persistent { 
-    static final int card = (Page.pageSize-ObjectHeader.sizeof-4*3)/(8*4+4);
-    static final int minFill = card/2;
+    /**
+     * Number of branches of the new page: it depends on the page size of the database.
+     * Existing page contains <code>b.length</code> branches.
+     */
+    static int cardinality(Storage storage) { 
+        return (((StorageImpl)storage).pageSize-ObjectHeader.sizeof-4*3)/(8*4+4);
+    }
 
     int           n;
     RectangleR2[] b;
     Link          branch;
 
     RtreeR2Page(Storage storage, IPersistent obj, RectangleR2 r) {
+        int card = cardinality(storage);
         branch = storage.createLink(card);
         branch.setSize(card);
         b = new RectangleR2[card]; 
@@ -23,6 +29,7 @@ public class RtreeR2Page extends Persistent {
     }
     
     RtreeR2Page(Storage storage, RtreeR2Page root, RtreeR2Page p) { 
+        int card = cardinality(storage);
         branch = storage.createLink(card);
         branch.setSize(card);
         b = new RectangleR2[card]; 
@@ -78,7 +85,7 @@ public class RtreeR2Page extends Persistent {
                     RtreeR2Page pg = (RtreeR2Page)branch.get(i);
                     int reinsertLevel = pg.remove(r, obj, level, reinsertList);
                     if (reinsertLevel >= 0) { 
-                        if (pg.n >= minFill) { 
+                        if (pg.n >= pg.b.length/2) { 
                             setBranch(i, pg.cover(), pg);
                             modify();
                         } else { 
@@ -137,12 +144,12 @@ public class RtreeR2Page extends Persistent {
         n -= 1;
         System.arraycopy(b, i+1, b, i, n-i);
         branch.remove(i);
-        branch.setSize(card);
+        branch.setSize(b.length);
         modify();
     }
 
     final RtreeR2Page addBranch(Storage storage, RectangleR2 r, IPersistent obj) { 
-        if (n < card) { 
+        if (n < b.length) { 
             setBranch(n++, r, obj);
             return null;
         } else { 
@@ -152,6 +159,8 @@ public class RtreeR2Page extends Persistent {
 
     final RtreeR2Page splitPage(Storage storage, RectangleR2 r, IPersistent obj) { 
         int i, j, seed0 = 0, seed1 = 0;
+        int card = b.length;
+        int minFill = card/2;
         double[] rectArea = new double[card+1];
         double   waste;
         double   worstWaste = Double.MIN_VALUE;
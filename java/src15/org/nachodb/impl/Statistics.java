@@ -0,0 +1,140 @@
+package org.nachodb.impl;
+import  org.nachodb.*;
+import  java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Storage statistic counters. This object exists only if collection of statistic is enabled,
+ * so the only cost of disabled statistic is check of the reference for null.
+ * Counters updated with storage lock held are plain fields, counters updated by
+ * concurrent threads without locking are striped.
+ */
+public class Statistics implements StatisticsMBean { 
+    /**
+     * Counter split into several cells placed in different cache lines, so concurrent
+     * threads usually increment different cells
+     */
+    static final class Counter { 
+        static final int nStripes = 16;
+        static final int padding = 8;
+
+        final AtomicLongArray cells = new AtomicLongArray(nStripes*padding);
+
+        final void increment() { 
+            int i = (int)Thread.currentThread().getId() & (nStripes-1);
+            cells.incrementAndGet(i*padding);
+        }
+
+        final long get() { 
+            long sum = 0;
+            for (int i = 0; i < nStripes; i++) { 
+                sum += cells.get(i*padding);
+            }
+            return sum;
+        }
+    }
+
+    final Counter objectCacheHits = new Counter();
+    final Counter objectCacheMisses = new Counter();
+
+    // protected by storage lock
+    long nAllocations;
+    long nAllocationBitmapPages;
+    long nCommits;
+    long commitTime;
+    long maxCommitTime;
+    long nGcRuns;
+    long gcMarkTime;
+    long gcSweepTime;
+    long nDeallocatedObjects;
+
+    PagePool pool;
+
+    Statistics(PagePool pool) { 
+        this.pool = pool;
+    }
+
+    final void commitCompleted(long elapsed) { 
+        nCommits += 1;
+        commitTime += elapsed;
+        if (elapsed > maxCommitTime) { 
+            maxCommitTime = elapsed;
+        }
+    }
+
+    final StorageStatistics getSnapshot() { 
+        StorageStatistics stat = new StorageStatistics();
+        stat.pagePool = pool.getStatistics();
+        stat.nObjectCacheHits = objectCacheHits.get();
+        stat.nObjectCacheMisses = objectCacheMisses.get();
+        stat.nAllocations = nAllocations;
+        stat.nAllocationBitmapPages = nAllocationBitmapPages;
+        stat.nCommits = nCommits;
+        stat.commitTime = commitTime;
+        stat.maxCommitTime = maxCommitTime;
+        stat.nGcRuns = nGcRuns;
+        stat.gcMarkTime = gcMarkTime;
+        stat.gcSweepTime = gcSweepTime;
+        stat.nDeallocatedObjects = nDeallocatedObjects;
+        return stat;
+    }
+
+    public long getObjectCacheHits() { 
+        return objectCacheHits.get();
+    }
+
+    public long getObjectCacheMisses() { 
+        return objectCacheMisses.get();
+    }
+
+    public long getPageHits() { 
+        return pool.getStatistics().nHits;
+    }
+
+    public long getPageMisses() { 
+        return pool.getStatistics().nMisses;
+    }
+
+    public long getPageEvictions() { 
+        return pool.getStatistics().nEvictions;
+    }
+
+    public long getPageWrites() { 
+        return pool.getStatistics().nWrites;
+    }
+
+    public long getAllocations() { 
+        return nAllocations;
+    }
+
+    public long getAllocationBitmapPages() { 
+        return nAllocationBitmapPages;
+    }
+
+    public long getCommits() { 
+        return nCommits;
+    }
+
+    public long getCommitTime() { 
+        return commitTime;
+    }
+
+    public long getMaxCommitTime() { 
+        return maxCommitTime;
+    }
+
+    public long getGcRuns() { 
+        return nGcRuns;
+    }
+
+    public long getGcMarkTime() { 
+        return gcMarkTime;
+    }
+
+    public long getGcSweepTime() { 
+        return gcSweepTime;
+    }
+
+    public long getDeallocatedObjects() { 
+        return nDeallocatedObjects;
+    }
+}
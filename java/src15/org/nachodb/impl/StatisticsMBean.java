@@ -0,0 +1,23 @@
+package org.nachodb.impl;
+
+/**
+ * Management interface of storage statistic, registered in platform MBean server
+ * when <code>perst.statistics.mbean</code> property is set
+ */
+public interface StatisticsMBean { 
+    long getObjectCacheHits();
+    long getObjectCacheMisses();
+    long getPageHits();
+    long getPageMisses();
+    long getPageEvictions();
+    long getPageWrites();
+    long getAllocations();
+    long getAllocationBitmapPages();
+    long getCommits();
+    long getCommitTime();
+    long getMaxCommitTime();
+    long getGcRuns();
+    long getGcMarkTime();
+    long getGcSweepTime();
+    long getDeallocatedObjects();
+}
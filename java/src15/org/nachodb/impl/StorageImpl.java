@@ -4,6 +4,11 @@ import org.nachodb.*;
 import java.lang.reflect.*;
 import java.util.*;
 import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 public class StorageImpl implements Storage { 
     /**
@@ -24,22 +29,52 @@ public class StorageImpl implements Storage {
      */
     private static final long dbDefaultExtensionQuantum = 1024*1024;
 
+    /**
+     * Size of redo log after which checkpoint is performed
+     */
+    private static final long dbDefaultRedoLogLimit = 64*1024*1024;
+
     private static final int  dbDatabaseOffsetBits = 32;       // up to 4 gigabyte
     private static final int  dbLargeDatabaseOffsetBits = 40;  // up to 1 terabyte
 
     private static final int  dbAllocationQuantumBits = 5;
     private static final int  dbAllocationQuantum = 1 << dbAllocationQuantumBits;
-    private static final int  dbBitmapSegmentBits = Page.pageBits + 3 + dbAllocationQuantumBits;
-    private static final int  dbBitmapSegmentSize = 1 << dbBitmapSegmentBits;
-    private static final int  dbBitmapPages = 1 << (dbDatabaseOffsetBits-dbBitmapSegmentBits);
-    private static final int  dbLargeBitmapPages = 1 << (dbLargeDatabaseOffsetBits-dbBitmapSegmentBits);
-    private static final int  dbHandlesPerPageBits = Page.pageBits - 3;
-    private static final int  dbHandlesPerPage = 1 << dbHandlesPerPageBits;
-    private static final int  dbDirtyPageBitmapSize = 1 << (32-dbHandlesPerPageBits-3);
 
     private static final int  dbInvalidId   = 0;
     private static final int  dbBitmapId    = 1;
-    private static final int  dbFirstUserId = dbBitmapId + dbBitmapPages;
+
+    /**
+     * Geometry of the database file depending on the page size. Page size is chosen when database
+     * is created (<code>perst.page.size</code> property) and is stored in the database header,
+     * so these values are assigned by <code>setPageBits</code> when database is opened.
+     */
+    int  pageBits;
+    int  pageSize;
+    private int  dbBitmapSegmentBits;
+    private int  dbBitmapSegmentSize;
+    private int  dbBitmapPages;
+    private int  dbLargeBitmapPages;
+    private int  dbHandlesPerPageBits;
+    private int  dbHandlesPerPage;
+    private int  dbDirtyPageBitmapSize;
+    private int  dbFirstUserId;
+    private int  bitsPerPage;
+    private int  inc;
+
+    final void setPageBits(int bits) { 
+        pageBits = bits;
+        pageSize = 1 << bits;
+        dbBitmapSegmentBits = pageBits + 3 + dbAllocationQuantumBits;
+        dbBitmapSegmentSize = 1 << dbBitmapSegmentBits;
+        dbBitmapPages = 1 << (dbDatabaseOffsetBits-dbBitmapSegmentBits);
+        dbLargeBitmapPages = 1 << (dbLargeDatabaseOffsetBits-dbBitmapSegmentBits);
+        dbHandlesPerPageBits = pageBits - 3;
+        dbHandlesPerPage = 1 << dbHandlesPerPageBits;
+        dbDirtyPageBitmapSize = 1 << (32-dbHandlesPerPageBits-3);
+        dbFirstUserId = dbBitmapId + dbBitmapPages;
+        bitsPerPage = pageSize*8;
+        inc = pageSize/dbAllocationQuantum/8;
+    }
     
     static final int  dbPageObjectFlag = 1;
     static final int  dbModifiedFlag   = 2;
@@ -52,16 +87,24 @@ public class StorageImpl implements Storage {
         return i < dbBitmapPages ? dbBitmapId + i : header.root[1-currIndex].bitmapExtent + i;
     }
 
+    /**
+     * Get position of the object. Pages of current object index are mirrored in memory,
+     * so if the page was already accessed, position is obtained without locking.
+     */
     final long getPos(int oid) { 
-        synchronized (objectCache) {
-            if (oid == 0 || oid >= currIndexSize) { 
-                throw new StorageError(StorageError.INVALID_OID);
+        if (oid == 0 || oid >= currIndexSize) { 
+            throw new StorageError(StorageError.INVALID_OID);
+        }
+        int i = oid >>> dbHandlesPerPageBits;
+        AtomicLongArray[] chunks = indexChunks;
+        if (i < chunks.length) { 
+            AtomicLongArray chunk = chunks[i];
+            if (chunk != null) { 
+                return chunk.get(oid & (dbHandlesPerPage-1));
             }
-            Page pg = pool.getPage(header.root[1-currIndex].index 
-                                   + ((long)(oid >>> dbHandlesPerPageBits) << Page.pageBits));
-            long pos = Bytes.unpack8(pg.data, (oid & (dbHandlesPerPage-1)) << 3);
-            pool.unfix(pg);
-            return pos;
+        }
+        synchronized (objectCache) {
+            return loadIndexChunk(i).get(oid & (dbHandlesPerPage-1));
         }
     }
     
@@ -70,9 +113,86 @@ public class StorageImpl implements Storage {
             dirtyPagesMap[oid >>> (dbHandlesPerPageBits+5)] 
                 |= 1 << ((oid >>> dbHandlesPerPageBits) & 31);
             Page pg = pool.putPage(header.root[1-currIndex].index 
-                                   + ((long)(oid >>> dbHandlesPerPageBits) << Page.pageBits));
+                                   + ((long)(oid >>> dbHandlesPerPageBits) << pageBits));
             Bytes.pack8(pg.data, (oid & (dbHandlesPerPage-1)) << 3, pos);
             pool.unfix(pg);
+            AtomicLongArray chunk = getIndexChunk(oid >>> dbHandlesPerPageBits);
+            if (chunk != null) { 
+                chunk.set(oid & (dbHandlesPerPage-1), pos);
+            }
+        }
+    }
+
+    /**
+     * Copy page of current object index to the memory. Array of chunks is published after
+     * the chunk is assigned, so it can be accessed by readers without locking.
+     * If number of loaded chunks exceeds size of page pool, all chunks are discarded.
+     * This method should be called with <code>objectCache</code> lock held.
+     * @param i number of index page
+     */
+    private final AtomicLongArray loadIndexChunk(int i) { 
+        AtomicLongArray[] chunks = indexChunks;
+        if (i >= chunks.length || (chunks[i] == null && nIndexChunks >= maxIndexChunks && maxIndexChunks != 0)) { 
+            AtomicLongArray[] newChunks = new AtomicLongArray[i >= chunks.length ? Math.max(i+1, chunks.length*2) : chunks.length];
+            if (nIndexChunks < maxIndexChunks || maxIndexChunks == 0) { 
+                System.arraycopy(chunks, 0, newChunks, 0, chunks.length);
+            } else { 
+                nIndexChunks = 0;
+            }
+            chunks = newChunks;
+        }
+        AtomicLongArray chunk = chunks[i];
+        if (chunk == null) { 
+            Page pg = pool.getPage(header.root[1-currIndex].index + ((long)i << pageBits));
+            long[] handles = new long[dbHandlesPerPage];
+            for (int j = 0; j < handles.length; j++) { 
+                handles[j] = Bytes.unpack8(pg.data, j << 3);
+            }
+            pool.unfix(pg);
+            chunk = new AtomicLongArray(handles);
+            chunks[i] = chunk;
+            nIndexChunks += 1;
+        }
+        indexChunks = chunks;
+        return chunk;
+    }
+
+    /**
+     * Get loaded chunk of object index
+     * @return chunk or <code>null</code> if page of object index was not mirrored in memory
+     */
+    private final AtomicLongArray getIndexChunk(int i) { 
+        AtomicLongArray[] chunks = indexChunks;
+        return i < chunks.length ? chunks[i] : null;
+    }
+
+    /**
+     * Discard all mirrored pages of object index. This method should be called when content of current
+     * object index is changed not through <code>setPos</code>.
+     */
+    final void resetIndexChunks() { 
+        synchronized (objectCache) { 
+            indexChunks = new AtomicLongArray[0];
+            nIndexChunks = 0;
+        }
+    }
+
+    /**
+     * Clear modified flags of all handles in the page of current object index
+     */
+    private final void clearModifiedFlags(int i) { 
+        synchronized (objectCache) { 
+            Page pg = pool.putPage(header.root[1-currIndex].index + ((long)i << pageBits));
+            for (int j = 0; j < pageSize; j += 8) { 
+                Bytes.pack8(pg.data, j, Bytes.unpack8(pg.data, j) & ~dbModifiedFlag);
+            }
+            pool.unfix(pg);
+            AtomicLongArray chunk = getIndexChunk(i);
+            if (chunk != null) { 
+                for (int j = 0; j < dbHandlesPerPage; j++) { 
+                    chunk.set(j, chunk.get(j) & ~dbModifiedFlag);
+                }
+            }
         }
     }
 
@@ -101,8 +221,8 @@ public class StorageImpl implements Storage {
             if ((pos & dbModifiedFlag) == 0) { 
                 dirtyPagesMap[oid >>> (dbHandlesPerPageBits+5)] 
                     |= 1 << ((oid >>> dbHandlesPerPageBits) & 31);
-                allocate(Page.pageSize, oid);
-                cloneBitmap(pos & ~dbFlagsMask, Page.pageSize);
+                allocate(pageSize, oid);
+                cloneBitmap(pos & ~dbFlagsMask, pageSize);
                 pos = getPos(oid);
             }
             modified = true;
@@ -113,7 +233,7 @@ public class StorageImpl implements Storage {
 
     int allocatePage() { 
         int oid = allocateId();
-        setPos(oid, allocate(Page.pageSize, 0) | dbPageObjectFlag | dbModifiedFlag);
+        setPos(oid, allocate(pageSize, 0) | dbPageObjectFlag | dbModifiedFlag);
         return oid;
     }
 
@@ -126,7 +246,7 @@ public class StorageImpl implements Storage {
             }
             long pos = getPos(oid);
             objectCache.remove(oid);
-            int offs = (int)pos & (Page.pageSize-1);
+            int offs = (int)pos & (pageSize-1);
             if ((offs & (dbFreeHandleFlag|dbPageObjectFlag)) != 0) { 
                 throw new StorageError(StorageError.DELETED_OBJECT);
             }
@@ -149,9 +269,9 @@ public class StorageImpl implements Storage {
         long pos = getPos(oid);
         Assert.that((pos & (dbFreeHandleFlag|dbPageObjectFlag)) == dbPageObjectFlag);
         if ((pos & dbModifiedFlag) != 0) { 
-            free(pos & ~dbFlagsMask, Page.pageSize);
+            free(pos & ~dbFlagsMask, pageSize);
         } else { 
-            cloneBitmap(pos & ~dbFlagsMask, Page.pageSize);
+            cloneBitmap(pos & ~dbFlagsMask, pageSize);
         } 
         freeId(oid);
     }
@@ -246,9 +366,6 @@ public class StorageImpl implements Storage {
         0,1,2,2,0,3,3,3,0,1,0,2,0,1,0,4,0,1,2,2,0,1,0,3,0,1,0,2,0,1,0,0
     };
 
-    static final int pageBits = Page.pageSize*8;
-    static final int inc = Page.pageSize/dbAllocationQuantum/8;
-
     static final void memset(Page pg, int offs, int pattern, int len) { 
         byte[] arr = pg.data;
         byte pat = (byte)pattern;
@@ -272,6 +389,26 @@ public class StorageImpl implements Storage {
         return header.root[1-currIndex].size;
     }
 
+    public PagePoolStatistics getPagePoolStatistics() { 
+        if (!opened) { 
+            throw new StorageError(StorageError.STORAGE_NOT_OPENED);
+        }
+        return pool.getStatistics();
+    }
+
+    public StorageStatistics getStatistics() { 
+        if (!opened) { 
+            throw new StorageError(StorageError.STORAGE_NOT_OPENED);
+        }
+        Statistics stat = statistics;
+        if (stat == null) { 
+            StorageStatistics snapshot = new StorageStatistics();
+            snapshot.pagePool = pool.getStatistics();
+            return snapshot;
+        }
+        return stat.getSnapshot();
+    }
+
     static class Location { 
         long     pos;
         long     size;
@@ -340,11 +477,14 @@ public class StorageImpl implements Storage {
             if (allocatedDelta > gcThreshold) {
                 gc0();
             }
+            if (statistics != null) { 
+                statistics.nAllocations += 1;
+            }
             int  objBitSize = (int)(size >> dbAllocationQuantumBits);
             Assert.that(objBitSize == (size >> dbAllocationQuantumBits));
             long pos;    
             int  holeBitSize = 0;
-            int  alignment = (int)size & (Page.pageSize-1);
+            int  alignment = (int)size & (pageSize-1);
             int  offs, firstPage, lastPage, i, j;
             int  holeBeforeFreePage  = 0;
             int  freeBitmapPage = 0;
@@ -367,21 +507,33 @@ public class StorageImpl implements Storage {
                 if (alignment == 0) { 
                     // allocate page object 
                     for (i = firstPage; i < lastPage; i++){
-                        int spaceNeeded = objBitSize - holeBitSize < pageBits 
-                            ? objBitSize - holeBitSize : pageBits;
-                        if (bitmapPageAvailableSpace[i] <= spaceNeeded) {
+                        int spaceNeeded = objBitSize - holeBitSize < bitsPerPage
+                            ? objBitSize - holeBitSize : bitsPerPage;
+                        if (holeBitSize == 0) { 
+                            // skip pages which have no hole of requested size
+                            int nextPage = freeSpaceMap.findPage(i, lastPage, spaceNeeded);
+                            if (nextPage != i) { 
+                                offs = 0;
+                                if ((i = nextPage) == lastPage) { 
+                                    break;
+                                }
+                            }
+                        } else if (freeSpaceMap.getMaxHole(i) < spaceNeeded) {
                             holeBitSize = 0;
                             offs = 0;
                             continue;
                         }
                         pg = getBitmapPage(i);
+                        if (statistics != null) { 
+                            statistics.nAllocationBitmapPages += 1;
+                        }
                         int startOffs = offs;   
-                        while (offs < Page.pageSize) { 
+                        while (offs < pageSize) { 
                             if (pg.data[offs++] != 0) { 
                                 offs = (offs + inc - 1) & ~(inc-1);
                                 holeBitSize = 0;
                             } else if ((holeBitSize += 8) == objBitSize) { 
-                                pos = (((long)i*Page.pageSize + offs)*8 - holeBitSize) 
+                                pos = (((long)i*pageSize + offs)*8 - holeBitSize)
                                     << dbAllocationQuantumBits;
                                 if (wasReserved(pos, size)) { 
                                     offs += objBitSize >> 3;
@@ -407,12 +559,12 @@ public class StorageImpl implements Storage {
                                     holeBytes -= offs;
                                     pool.unfix(pg);
                                     pg = putBitmapPage(--i);
-                                    offs = Page.pageSize;
+                                    offs = pageSize;
                                 }
-                                while (holeBytes > Page.pageSize) { 
-                                    memset(pg, 0, 0xFF, Page.pageSize);
-                                    holeBytes -= Page.pageSize;
-                                    bitmapPageAvailableSpace[i] = 0;
+                                while (holeBytes > pageSize) { 
+                                    memset(pg, 0, 0xFF, pageSize);
+                                    holeBytes -= pageSize;
+                                    freeSpaceMap.setMaxHole(i, 0);
                                     pool.unfix(pg);
                                     pg = putBitmapPage(--i);
                                 }
@@ -422,29 +574,37 @@ public class StorageImpl implements Storage {
                                 return pos;
                             }
                         }
-                        if (startOffs == 0 && holeBitSize == 0
-                            && spaceNeeded < bitmapPageAvailableSpace[i]) 
-                        { 
-                            bitmapPageAvailableSpace[i] = spaceNeeded;
-                        }
+                        freeSpaceMap.setMaxHole(i, FreeSpaceMap.getMaxHole(pg.data));
                         offs = 0;
                         pool.unfix(pg);
                     }
                 } else { 
                     for (i = firstPage; i < lastPage; i++){
-                        int spaceNeeded = objBitSize - holeBitSize < pageBits 
-                            ? objBitSize - holeBitSize : pageBits;
-                        if (bitmapPageAvailableSpace[i] <= spaceNeeded) {
+                        int spaceNeeded = objBitSize - holeBitSize < bitsPerPage
+                            ? objBitSize - holeBitSize : bitsPerPage;
+                        if (holeBitSize == 0) { 
+                            // skip pages which have no hole of requested size
+                            int nextPage = freeSpaceMap.findPage(i, lastPage, spaceNeeded);
+                            if (nextPage != i) { 
+                                offs = 0;
+                                if ((i = nextPage) == lastPage) { 
+                                    break;
+                                }
+                            }
+                        } else if (freeSpaceMap.getMaxHole(i) < spaceNeeded) {
                             holeBitSize = 0;
                             offs = 0;
                             continue;
                         }
                         pg = getBitmapPage(i);
+                        if (statistics != null) { 
+                            statistics.nAllocationBitmapPages += 1;
+                        }
                         int startOffs = offs;
-                        while (offs < Page.pageSize) { 
+                        while (offs < pageSize) { 
                             int mask = pg.data[offs] & 0xFF; 
                             if (holeBitSize + firstHoleSize[mask] >= objBitSize) { 
-                                pos = (((long)i*Page.pageSize + offs)*8 
+                                pos = (((long)i*pageSize + offs)*8
                                        - holeBitSize) << dbAllocationQuantumBits;
                                 if (wasReserved(pos, size)) {                       
                                     startOffs = offs += (objBitSize + 7) >> 3;
@@ -470,12 +630,12 @@ public class StorageImpl implements Storage {
                                         holeBitSize -= offs*8;
                                         pool.unfix(pg);
                                         pg = putBitmapPage(--i);
-                                        offs = Page.pageSize;
+                                        offs = pageSize;
                                     }
-                                    while (holeBitSize > pageBits) { 
-                                        memset(pg, 0, 0xFF, Page.pageSize);
-                                        holeBitSize -= pageBits;
-                                        bitmapPageAvailableSpace[i] = 0;
+                                    while (holeBitSize > bitsPerPage) { 
+                                        memset(pg, 0, 0xFF, pageSize);
+                                        holeBitSize -= bitsPerPage;
+                                        freeSpaceMap.setMaxHole(i, 0);
                                         pool.unfix(pg);
                                         pg = putBitmapPage(--i);
                                     }
@@ -489,7 +649,7 @@ public class StorageImpl implements Storage {
                                 return pos;
                             } else if (maxHoleSize[mask] >= objBitSize) { 
                                 int holeBitOffset = maxHoleOffset[mask];
-                                pos = (((long)i*Page.pageSize + offs)*8 + holeBitOffset) << dbAllocationQuantumBits;
+                                pos = (((long)i*pageSize + offs)*8 + holeBitOffset) << dbAllocationQuantumBits;
                                 if (wasReserved(pos, size)) { 
                                     startOffs = offs += (objBitSize + 7) >> 3;
                                     holeBitSize = 0;
@@ -519,11 +679,7 @@ public class StorageImpl implements Storage {
                                 holeBitSize = lastHoleSize[mask];
                             }
                         }
-                        if (startOffs == 0 && holeBitSize == 0
-                            && spaceNeeded < bitmapPageAvailableSpace[i]) 
-                        {
-                            bitmapPageAvailableSpace[i] = spaceNeeded;
-                        }
+                        freeSpaceMap.setMaxHole(i, FreeSpaceMap.getMaxHole(pg.data));
                         offs = 0;
                         pool.unfix(pg);
                     }
@@ -535,16 +691,16 @@ public class StorageImpl implements Storage {
                     }
                     objBitSize -= holeBitSize;
                     // number of bits reserved for the object and aligned on page boundary
-                    int skip = (objBitSize + Page.pageSize/dbAllocationQuantum - 1) 
-                        & ~(Page.pageSize/dbAllocationQuantum - 1);
+                    int skip = (objBitSize + pageSize/dbAllocationQuantum - 1)
+                        & ~(pageSize/dbAllocationQuantum - 1);
                     // page aligned position after allocated object
                     pos = ((long)i << dbBitmapSegmentBits) + ((long)skip << dbAllocationQuantumBits);
 
                     long extension = (size > extensionQuantum) ? size : extensionQuantum;
                     int oldIndexSize = 0;
                     long oldIndex = 0;
-                    int morePages = (int)((extension + Page.pageSize*(dbAllocationQuantum*8-1) - 1)
-                                          / (Page.pageSize*(dbAllocationQuantum*8-1)));
+                    int morePages = (int)((extension + pageSize*(dbAllocationQuantum*8-1) - 1)
+                                          / (pageSize*(dbAllocationQuantum*8-1)));
                     if (i + morePages > dbLargeBitmapPages) { 
                         throw new StorageError(StorageError.NOT_ENOUGH_SPACE);
                     }
@@ -567,23 +723,18 @@ public class StorageImpl implements Storage {
 
                             if (size + newIndexSize*8L > extensionQuantum) { 
                                 extension = size + newIndexSize*8L;
-                                morePages = (int)((extension + Page.pageSize*(dbAllocationQuantum*8-1) - 1)
-                                                  / (Page.pageSize*(dbAllocationQuantum*8-1)));
+                                morePages = (int)((extension + pageSize*(dbAllocationQuantum*8-1) - 1)
+                                                  / (pageSize*(dbAllocationQuantum*8-1)));
                             }
-                            extend(pos + (long)morePages*Page.pageSize + newIndexSize*8L);
-                            long newIndex = pos + (long)morePages*Page.pageSize;                        
-                            fillBitmap(pos + (skip>>3) + (long)morePages * (Page.pageSize/dbAllocationQuantum/8),
+                            extend(pos + (long)morePages*pageSize + newIndexSize*8L);
+                            long newIndex = pos + (long)morePages*pageSize;
+                            fillBitmap(pos + (skip>>3) + (long)morePages * (pageSize/dbAllocationQuantum/8),
                                        newIndexSize >>> dbAllocationQuantumBits);
                             pool.copy(newIndex, oldIndex, oldIndexSize*8L);
                             header.root[curr].index = newIndex;
                             header.root[curr].indexSize = newIndexSize;
                         }
-                        int[] newBitmapPageAvailableSpace = new int[dbLargeBitmapPages];
-                        System.arraycopy(bitmapPageAvailableSpace, 0, newBitmapPageAvailableSpace, 0, dbBitmapPages);
-                        for (j = dbBitmapPages; j < dbLargeBitmapPages; j++) { 
-                            newBitmapPageAvailableSpace[j] = Integer.MAX_VALUE;
-                        }
-                        bitmapPageAvailableSpace = newBitmapPageAvailableSpace;
+                        freeSpaceMap.extend(dbLargeBitmapPages);
                         
                         for (j = 0; j < dbLargeBitmapPages - dbBitmapPages; j++) { 
                             setPos(currIndexSize + j, dbFreeHandleFlag);
@@ -592,16 +743,16 @@ public class StorageImpl implements Storage {
                         header.root[curr].bitmapExtent = currIndexSize;
                         header.root[curr].indexUsed = currIndexSize += dbLargeBitmapPages - dbBitmapPages;
                     }
-                    extend(pos + (long)morePages*Page.pageSize);
+                    extend(pos + (long)morePages*pageSize);
                     long adr = pos;
                     int len = objBitSize >> 3;
                     // fill bitmap pages used for allocation of object space with 0xFF 
-                    while (len >= Page.pageSize) { 
+                    while (len >= pageSize) { 
                         pg = pool.putPage(adr);
-                        memset(pg, 0, 0xFF, Page.pageSize);
+                        memset(pg, 0, 0xFF, pageSize);
                         pool.unfix(pg);
-                        adr += Page.pageSize;
-                        len -= Page.pageSize;
+                        adr += pageSize;
+                        len -= pageSize;
                     }
                     // fill part of last page responsible for allocation of object space
                     pg = pool.putPage(adr);
@@ -610,15 +761,15 @@ public class StorageImpl implements Storage {
                     pool.unfix(pg);
 
                     // mark in bitmap newly allocated object
-                    fillBitmap(pos + (skip>>3), morePages * (Page.pageSize/dbAllocationQuantum/8));
+                    fillBitmap(pos + (skip>>3), morePages * (pageSize/dbAllocationQuantum/8));
                     
                     j = i;
                     while (--morePages >= 0) { 
                         setPos(getBitmapPageId(j++), pos | dbPageObjectFlag | dbModifiedFlag);
-                        pos += Page.pageSize;
+                        pos += pageSize;
                     }
                     header.root[curr].bitmapEnd = j + dbBitmapId;
-                    j = i + objBitSize / pageBits; 
+                    j = i + objBitSize / bitsPerPage;
                     if (alignment != 0) { 
                         currRBitmapPage = j;
                         currRBitmapOffs = 0;
@@ -627,10 +778,10 @@ public class StorageImpl implements Storage {
                         currPBitmapOffs = 0;
                     }
                     while (j > i) { 
-                        bitmapPageAvailableSpace[--j] = 0;
+                        freeSpaceMap.setMaxHole(--j, 0);
                     }
                 
-                    pos = ((long)i*Page.pageSize*8 - holeBitSize)  << dbAllocationQuantumBits;
+                    pos = ((long)i*pageSize*8 - holeBitSize)  << dbAllocationQuantumBits;
                     if (oid != 0) { 
                         long prev = getPos(oid);
                         int marker = (int)prev & dbFlagsMask;
@@ -640,15 +791,15 @@ public class StorageImpl implements Storage {
                 
                     if (holeBitSize != 0) { 
                         reserveLocation(pos, size);
-                        while (holeBitSize > pageBits) { 
-                            holeBitSize -= pageBits;
+                        while (holeBitSize > bitsPerPage) { 
+                            holeBitSize -= bitsPerPage;
                             pg = putBitmapPage(--i);
-                            memset(pg, 0, 0xFF, Page.pageSize);
-                            bitmapPageAvailableSpace[i] = 0;
+                            memset(pg, 0, 0xFF, pageSize);
+                            freeSpaceMap.setMaxHole(i, 0);
                             pool.unfix(pg);
                         }
                         pg = putBitmapPage(--i);
-                        offs = Page.pageSize;
+                        offs = pageSize;
                         while ((holeBitSize -= 8) > 0) { 
                             pg.data[--offs] = (byte)0xFF; 
                         }
@@ -682,17 +833,17 @@ public class StorageImpl implements Storage {
 
     final void fillBitmap(long adr, int len) { 
         while (true) { 
-            int off = (int)adr & (Page.pageSize-1);
+            int off = (int)adr & (pageSize-1);
             Page pg = pool.putPage(adr - off);
-            if (Page.pageSize - off >= len) { 
+            if (pageSize - off >= len) { 
                 memset(pg, off, 0xFF, len);
                 pool.unfix(pg);
                 break;
             } else { 
-                memset(pg, off, 0xFF, Page.pageSize - off);
+                memset(pg, off, 0xFF, pageSize - off);
                 pool.unfix(pg);
-                adr += Page.pageSize - off;
-                len -= Page.pageSize - off;
+                adr += pageSize - off;
+                len -= pageSize - off;
             }
         }
     }
@@ -703,15 +854,15 @@ public class StorageImpl implements Storage {
             Assert.that(pos != 0 && (pos & (dbAllocationQuantum-1)) == 0);
             long quantNo = pos >>> dbAllocationQuantumBits;
             int  objBitSize = (int)((size+dbAllocationQuantum-1) >>> dbAllocationQuantumBits);
-            int  pageId = (int)(quantNo >>> (Page.pageBits+3));
-            int  offs = (int)(quantNo & (Page.pageSize*8-1)) >> 3;
+            int  pageId = (int)(quantNo >>> (pageBits+3));
+            int  offs = (int)(quantNo & (pageSize*8-1)) >> 3;
             Page pg = putBitmapPage(pageId);
             int  bitOffs = (int)quantNo & 7;
 
             allocatedDelta -= (long)objBitSize << dbAllocationQuantumBits;
             usedSize -= (long)objBitSize << dbAllocationQuantumBits;
 
-            if ((pos & (Page.pageSize-1)) == 0 && size >= Page.pageSize) { 
+            if ((pos & (pageSize-1)) == 0 && size >= pageSize) { 
                 if (pageId == currPBitmapPage && offs < currPBitmapOffs) { 
                     currPBitmapOffs = offs;
                 }
@@ -719,17 +870,18 @@ public class StorageImpl implements Storage {
             if (pageId == currRBitmapPage && offs < currRBitmapOffs) { 
                 currRBitmapOffs = offs;
             }
-            bitmapPageAvailableSpace[pageId] = Integer.MAX_VALUE;
+            int  freeBit = (int)quantNo & (bitsPerPage-1); // any deallocated bit in the current page
         
             if (objBitSize > 8 - bitOffs) { 
                 objBitSize -= 8 - bitOffs;
                 pg.data[offs++] &= (1 << bitOffs) - 1;
-                while (objBitSize + offs*8 > Page.pageSize*8) { 
-                    memset(pg, offs, 0, Page.pageSize - offs);
+                while (objBitSize + offs*8 > pageSize*8) { 
+                    memset(pg, offs, 0, pageSize - offs);
+                    freeSpaceMap.holeFreed(pageId, FreeSpaceMap.getHoleSize(pg.data, freeBit));
                     pool.unfix(pg);
                     pg = putBitmapPage(++pageId);
-                    bitmapPageAvailableSpace[pageId] = Integer.MAX_VALUE;
-                    objBitSize -= (Page.pageSize - offs)*8;
+                    freeBit = 0;
+                    objBitSize -= (pageSize - offs)*8;
                     offs = 0;
                 }
                 while ((objBitSize -= 8) > 0) { 
@@ -739,6 +891,7 @@ public class StorageImpl implements Storage {
             } else { 
                 pg.data[offs] &= (byte)~(((1 << objBitSize) - 1) << bitOffs); 
             }
+            freeSpaceMap.holeFreed(pageId, FreeSpaceMap.getHoleSize(pg.data, freeBit));
             pool.unfix(pg);
         }
     }
@@ -748,31 +901,31 @@ public class StorageImpl implements Storage {
         synchronized (objectCache) {
             long quantNo = pos >>> dbAllocationQuantumBits;
             int  objBitSize = (int)((size+dbAllocationQuantum-1) >>> dbAllocationQuantumBits);
-            int  pageId = (int)(quantNo >>> (Page.pageBits + 3));
-            int  offs = (int)(quantNo & (Page.pageSize*8-1)) >> 3;
+            int  pageId = (int)(quantNo >>> (pageBits + 3));
+            int  offs = (int)(quantNo & (pageSize*8-1)) >> 3;
             int  bitOffs = (int)quantNo & 7;
             int  oid = getBitmapPageId(pageId);
             pos = getPos(oid);
             if ((pos & dbModifiedFlag) == 0) { 
                 dirtyPagesMap[oid >>> (dbHandlesPerPageBits+5)] 
                     |= 1 << ((oid >>> dbHandlesPerPageBits) & 31);
-                allocate(Page.pageSize, oid);
-                cloneBitmap(pos & ~dbFlagsMask, Page.pageSize);
+                allocate(pageSize, oid);
+                cloneBitmap(pos & ~dbFlagsMask, pageSize);
             }
         
             if (objBitSize > 8 - bitOffs) { 
                 objBitSize -= 8 - bitOffs;
                 offs += 1;
-                while (objBitSize + offs*8 > Page.pageSize*8) { 
+                while (objBitSize + offs*8 > pageSize*8) { 
                     oid = getBitmapPageId(++pageId);
                     pos = getPos(oid);
                     if ((pos & dbModifiedFlag) == 0) { 
                         dirtyPagesMap[oid >>> (dbHandlesPerPageBits+5)] 
                             |= 1 << ((oid >>> dbHandlesPerPageBits) & 31);
-                        allocate(Page.pageSize, oid);
-                        cloneBitmap(pos & ~dbFlagsMask, Page.pageSize);
+                        allocate(pageSize, oid);
+                        cloneBitmap(pos & ~dbFlagsMask, pageSize);
                     }
-                    objBitSize -= (Page.pageSize - offs)*8;
+                    objBitSize -= (pageSize - offs)*8;
                     offs = 0;
                 }
             }
@@ -790,8 +943,13 @@ public class StorageImpl implements Storage {
     public synchronized void open(String filePath, int pagePoolSize) {
         IFile file = filePath.startsWith("@") 
             ? (IFile)new MultiFile(filePath.substring(1), readOnly, noFlush)
-            : (IFile)new OSFile(filePath, readOnly, noFlush);      
+            : useChannel
+                ? (IFile)new ChannelFile(filePath, readOnly, noFlush)
+                : (IFile)new OSFile(filePath, readOnly, noFlush, pagePoolSegments);
         try {
+            if (compressFile) { 
+                file = new CompressedFile(file);
+            }
             open(file, pagePoolSize);
         } catch (StorageError ex) {
             file.close();            
@@ -800,7 +958,9 @@ public class StorageImpl implements Storage {
     }
 
     public synchronized void open(String filePath, int pagePoolSize, String cryptKey) {
-        Rc4File file = new Rc4File(filePath, readOnly, noFlush, cryptKey);      
+        IFile file = "aes".equals(encryption)
+            ? (IFile)new AesFile(filePath, readOnly, noFlush, cryptKey)
+            : (IFile)new Rc4File(filePath, readOnly, noFlush, cryptKey);      
         try {
             open(file, pagePoolSize);
         } catch (StorageError ex) {
@@ -812,18 +972,29 @@ public class StorageImpl implements Storage {
         
     protected OidHashTable createObjectCache(String kind, int pagePoolSize, int objectCacheSize) 
     { 
-        if (pagePoolSize == INFINITE_PAGE_POOL || "strong".equals(kind)) {
+        if ("strong".equals(kind)) { 
             return new StrongHashTable(objectCacheSize);
         }
+        if (pagePoolSize == INFINITE_PAGE_POOL || "compact".equals(kind)) { 
+            return new CompactHashTable(objectCacheSize);
+        }
         if ("soft".equals(kind)) { 
             return new SoftHashTable(objectCacheSize);
         }
         if ("weak".equals(kind)) { 
             return new WeakHashTable(objectCacheSize);
         }
+        if ("clock".equals(kind)) { 
+            return new ClockObjectCache(objectCacheSize);
+        }
         return new LruObjectCache(objectCacheSize);
     }
         
+    PagePool createPagePool(int pagePoolSize)
+    { 
+        return new PagePool(pagePoolSize/pageSize, pageBits, pagePoolSegments, pagePoolPolicy, pagePoolDirtyRatio, pagePoolDirect);
+    }
+
 
     public synchronized void open(IFile file, int pagePoolSize) {
         if (opened) {
@@ -836,13 +1007,6 @@ public class StorageImpl implements Storage {
         }
         Page pg;
         int i;
-        int indexSize = initIndexSize;
-        if (indexSize < dbFirstUserId) { 
-            indexSize = dbFirstUserId;
-        }
-        indexSize = (indexSize + dbHandlesPerPage - 1) & ~(dbHandlesPerPage-1);
-
-        dirtyPagesMap = new int[dbDirtyPageBitmapSize/4+1];
         gcThreshold = Long.MAX_VALUE;
         backgroundGcMonitor = new Object();
         backgroundGcStartMonitor = new Object();
@@ -865,6 +1029,15 @@ public class StorageImpl implements Storage {
         classDescMap = new HashMap();
         descList = null;
         
+        redoLog = null;
+        checkpointer = null;
+        if (redoLogPath != null) { 
+            redoLog = new RedoLog(redoLogPath);
+            if (redoLog.replay(file) != 0) { 
+                System.err.println("Transactions are restored from redo log");
+            }
+        }
+
         header = new Header();
         byte[] buf = new byte[Header.sizeof];
         int rc = file.read(0, buf);
@@ -875,13 +1048,36 @@ public class StorageImpl implements Storage {
         if (header.curr < 0 || header.curr > 1) { 
             throw new StorageError(StorageError.DATABASE_CORRUPTED);
         }
+        if (!header.initialized) { 
+            header.pageBits = initPageBits;
+        } else if (header.pageBits < Page.minPageBits || header.pageBits > Page.maxPageBits) { 
+            throw new StorageError(StorageError.DATABASE_CORRUPTED);
+        }
+        setPageBits(header.pageBits);
+
+        int indexSize = initIndexSize;
+        if (indexSize < dbFirstUserId) { 
+            indexSize = dbFirstUserId;
+        }
+        indexSize = (indexSize + dbHandlesPerPage - 1) & ~(dbHandlesPerPage-1);
+        dirtyPagesMap = new int[dbDirtyPageBitmapSize/4+1];
+
         if (pool == null) { 
-            pool = new PagePool(pagePoolSize/Page.pageSize);
+            pool = createPagePool(pagePoolSize);
             pool.open(file);
+        } else if (pool.pageBits != pageBits) { 
+            // page pool was created by replication slave before reading database header
+            throw new StorageError(StorageError.BAD_PROPERTY_VALUE, "perst.page.size");
+        }
+        if (redoLog != null) { 
+            redoLog.truncate(pageSize);
+            pool.log = redoLog;
         }
+        maxIndexChunks = pool.autoExtended ? 0 : pool.poolSize;
+        resetIndexChunks();
         if (!header.initialized) {          
             header.curr = currIndex = 0;
-            long used = Page.pageSize;
+            long used = pageSize;
             header.root[0].index = used;
             header.root[0].indexSize = indexSize;
             header.root[0].indexUsed = dbFirstUserId;
@@ -899,29 +1095,29 @@ public class StorageImpl implements Storage {
             header.root[1].shadowIndexSize = indexSize;
             
             int bitmapPages = 
-                (int)((used + Page.pageSize*(dbAllocationQuantum*8-1) - 1)
-                      / (Page.pageSize*(dbAllocationQuantum*8-1)));
-            long bitmapSize = (long)bitmapPages*Page.pageSize;
+                (int)((used + pageSize*(dbAllocationQuantum*8-1) - 1)
+                      / (pageSize*(dbAllocationQuantum*8-1)));
+            long bitmapSize = (long)bitmapPages*pageSize;
             int usedBitmapSize = (int)((used + bitmapSize) >>> (dbAllocationQuantumBits + 3));
 
             for (i = 0; i < bitmapPages; i++) { 
-                pg = pool.putPage(used + (long)i*Page.pageSize);
+                pg = pool.putPage(used + (long)i*pageSize);
                 byte[] bitmap = pg.data;
-                int n = usedBitmapSize > Page.pageSize ? Page.pageSize : usedBitmapSize;
+                int n = usedBitmapSize > pageSize ? pageSize : usedBitmapSize;
                 for (int j = 0; j < n; j++) { 
                     bitmap[j] = (byte)0xFF;
                 }
-                usedBitmapSize -= Page.pageSize;
+                usedBitmapSize -= pageSize;
                 pool.unfix(pg);
             }
             int bitmapIndexSize = 
-                ((dbBitmapId + dbBitmapPages)*8 + Page.pageSize - 1)
-                & ~(Page.pageSize - 1);
+                ((dbBitmapId + dbBitmapPages)*8 + pageSize - 1)
+                & ~(pageSize - 1);
             byte[] index = new byte[bitmapIndexSize];
             Bytes.pack8(index, dbInvalidId*8, dbFreeHandleFlag);
             for (i = 0; i < bitmapPages; i++) { 
                 Bytes.pack8(index, (dbBitmapId+i)*8, used | dbPageObjectFlag);
-                used += Page.pageSize;
+                used += pageSize;
             }
             header.root[0].bitmapEnd = dbBitmapId + i;
             header.root[1].bitmapEnd = dbBitmapId + i;
@@ -975,7 +1171,7 @@ public class StorageImpl implements Storage {
                 pool.unfix(pg);
 
                 pool.copy(header.root[1-curr].index, header.root[curr].index, 
-                          (header.root[curr].indexUsed*8L + Page.pageSize - 1) & ~(Page.pageSize-1));
+                          (header.root[curr].indexUsed*8L + pageSize - 1) & ~(pageSize-1));
                 if (listener != null) {
                     listener.recoveryCompleted();
                 }
@@ -986,14 +1182,26 @@ public class StorageImpl implements Storage {
             usedSize = header.root[curr].size;
         }
         int bitmapSize = header.root[1-currIndex].bitmapExtent == 0 ? dbBitmapPages : dbLargeBitmapPages;
-        bitmapPageAvailableSpace = new int[bitmapSize];
-        for (i = 0; i < bitmapPageAvailableSpace.length; i++) { 
-            bitmapPageAvailableSpace[i] = Integer.MAX_VALUE;
-        }        
+        freeSpaceMap = new FreeSpaceMap(bitmapSize, bitsPerPage);
         currRBitmapPage = currPBitmapPage = 0;
         currRBitmapOffs = currPBitmapOffs = 0;
 
         opened = true;
+        if (redoLog != null) { 
+            checkpointer = new CheckpointThread();
+        }
+        if (collectStatistics || statisticsMBeanName != null) { 
+            statistics = new Statistics(pool);
+            if (statisticsMBeanName != null) { 
+                try { 
+                    statisticsMBean = new ObjectName(statisticsMBeanName);
+                    ManagementFactory.getPlatformMBeanServer().registerMBean(statistics, statisticsMBean);
+                } catch (JMException x) { 
+                    statisticsMBean = null;
+                    throw new StorageError(StorageError.BAD_PROPERTY_VALUE, "perst.statistics.mbean", x);
+                }
+            }
+        }
         reloadScheme();
     }
 
@@ -1083,6 +1291,13 @@ public class StorageImpl implements Storage {
     }
  
     public void commit() {
+        if (groupCommitDelay != 0 && !Thread.holdsLock(this) && !Thread.holdsLock(backgroundGcMonitor)) { 
+            if (!opened) { 
+                throw new StorageError(StorageError.STORAGE_NOT_OPENED);
+            }
+            groupCommit(true);
+            return;
+        }
         synchronized (backgroundGcMonitor) { 
             synchronized (this) { 
                 if (!opened) {
@@ -1098,7 +1313,158 @@ public class StorageImpl implements Storage {
         }
     }
 
+    /**
+     * Commit changes of several concurrent committers using one transaction.
+     * First thread requesting commit becomes leader: it waits <code>groupCommitDelay</code> milliseconds
+     * allowing other threads to join the group and then performs commit on behalf of all of them.
+     * Other threads are blocked until commit started after their requests is completed,
+     * so each committer returns only when its changes are durable.
+     * @param flushCache whether modified objects from object cache should be stored
+     * (false for serializable transactions which store their objects themselves)
+     */
+    private final void groupCommit(boolean flushCache)
+    { 
+        long ticket;
+        synchronized (groupCommitMonitor) { 
+            ticket = nStartedCommits + 1;
+            groupCommitFlushCache |= flushCache;
+            if (groupCommitLeader) { 
+                do { 
+                    try { 
+                        groupCommitMonitor.wait();
+                    } catch (InterruptedException x) {}
+                } while (nCompletedCommits < ticket);
+                if (failedCommit == ticket) { 
+                    throw groupCommitFailure;
+                }
+                return;
+            }
+            groupCommitLeader = true;
+            long deadline = System.currentTimeMillis() + groupCommitDelay;
+            long delay = groupCommitDelay;
+            do { 
+                try { 
+                    groupCommitMonitor.wait(delay);
+                } catch (InterruptedException x) {}
+            } while ((delay = deadline - System.currentTimeMillis()) > 0);
+            nStartedCommits = ticket;
+            groupCommitLeader = false;
+            flushCache = groupCommitFlushCache;
+            groupCommitFlushCache = false;
+        }
+        RuntimeException failure = null;
+        try { 
+            synchronized (backgroundGcMonitor) { 
+                synchronized (this) { 
+                    if (!opened) { 
+                        throw new StorageError(StorageError.STORAGE_NOT_OPENED);
+                    }
+                    if (flushCache) { 
+                        objectCache.flush();
+                    }
+                    if (modified) { 
+                        commit0();
+                        modified = false;
+                    }
+                }
+            }
+        } catch (RuntimeException x) { 
+            failure = x;
+            throw x;
+        } finally { 
+            synchronized (groupCommitMonitor) { 
+                if (failure != null) { 
+                    failedCommit = ticket;
+                    groupCommitFailure = failure;
+                }
+                // commits can complete in different order, but commit started later includes all changes of earlier groups
+                if (ticket > nCompletedCommits) { 
+                    nCompletedCommits = ticket;
+                }
+                groupCommitMonitor.notifyAll();
+            }
+        }
+    }
+
+    public Future<Void> commitAsync() { 
+        synchronized (backgroundGcMonitor) { 
+            synchronized (this) { 
+                if (!opened) { 
+                    throw new StorageError(StorageError.STORAGE_NOT_OPENED);
+                }
+                objectCache.flush();
+                if (modified) { 
+                    commit0(redoLog == null);
+                    modified = false;
+                }
+                if (asyncCommit != null) { 
+                    return asyncCommit;
+                }
+                FutureTask<Void> done = new FutureTask<Void>(new Runnable() { public void run() {} }, null);
+                done.run();
+                return done;
+            }
+        }
+    }
+
+    /**
+     * Task completing asynchronous commit: dirty pages are already written to the file,
+     * so it synchronizes the file, writes new header and synchronizes it once again.
+     */
+    static class AsyncCommit implements Callable<Void> { 
+        IFile  file;
+        byte[] header;
+
+        AsyncCommit(IFile file, byte[] header) { 
+            this.file = file;
+            this.header = header;
+        }
+
+        public Void call() { 
+            file.sync();
+            file.write(0, header);
+            file.sync();
+            return null;
+        }
+    }
+
+    /**
+     * Wait completion of previous asynchronous commit and report its failure. This method should be called before
+     * any write of database header. Page pool doesn't write pages to the file until the commit is completed,
+     * so space released by the commit can be reused by the next transaction before this method is called.
+     */
+    private final void waitAsyncCommit() { 
+        Future<Void> f = asyncCommit;
+        if (f != null) { 
+            asyncCommit = null;
+            try { 
+                while (true) { 
+                    try { 
+                        f.get();
+                        break;
+                    } catch (InterruptedException x) { 
+                    } catch (ExecutionException x) { 
+                        Throwable cause = x.getCause();
+                        if (cause instanceof StorageError) { 
+                            throw (StorageError)cause;
+                        } else if (cause instanceof Error) { 
+                            throw (Error)cause;
+                        }
+                        throw new StorageError(StorageError.FILE_ACCESS_ERROR, (Exception)cause);
+                    }
+                }
+            } finally { 
+                pool.writeBarrier = null;
+            }
+        }
+    }
+
     private final void commit0() 
+    { 
+        commit0(false);
+    }
+
+    private final void commit0(boolean async)
     {
         int i, j, n;
         int curr = currIndex;
@@ -1107,6 +1473,8 @@ public class StorageImpl implements Storage {
         int newIndexSize = header.root[1-curr].indexSize;
         int nPages = committedIndexSize >>> dbHandlesPerPageBits;
         Page pg;
+        boolean timed = statistics != null || listener != null;
+        long start = timed ? System.nanoTime() : 0;
 
         if (newIndexSize > oldIndexSize) { 
             cloneBitmap(header.root[curr].index, oldIndexSize*8L);
@@ -1125,16 +1493,16 @@ public class StorageImpl implements Storage {
         }
         for (i = 0; i < nPages; i++) { 
             if ((map[i >> 5] & (1 << (i & 31))) != 0) { 
-                Page srcIndex = pool.getPage(header.root[1-curr].index + (long)i*Page.pageSize);
-                Page dstIndex = pool.getPage(header.root[curr].index + (long)i*Page.pageSize);
-                for (j = 0; j < Page.pageSize; j += 8) {
+                Page srcIndex = pool.getPage(header.root[1-curr].index + (long)i*pageSize);
+                Page dstIndex = pool.getPage(header.root[curr].index + (long)i*pageSize);
+                for (j = 0; j < pageSize; j += 8) { 
                     long pos = Bytes.unpack8(dstIndex.data, j);
                     if (Bytes.unpack8(srcIndex.data, j) != pos) { 
                         if ((pos & dbFreeHandleFlag) == 0) {
                             if ((pos & dbPageObjectFlag) != 0) {  
-                                free(pos & ~dbFlagsMask, Page.pageSize);
+                                free(pos & ~dbFlagsMask, pageSize);
                             } else if (pos != 0) { 
-                                int offs = (int)pos & (Page.pageSize-1);
+                                int offs = (int)pos & (pageSize-1);
                                 pg = pool.getPage(pos-offs);
                                 free(pos, ObjectHeader.getSize(pg.data, offs));
                                 pool.unfix(pg);
@@ -1148,17 +1516,17 @@ public class StorageImpl implements Storage {
         }
         n = committedIndexSize & (dbHandlesPerPage-1);
         if (n != 0 && (map[i >> 5] & (1 << (i & 31))) != 0) { 
-            Page srcIndex = pool.getPage(header.root[1-curr].index + (long)i*Page.pageSize);
-            Page dstIndex = pool.getPage(header.root[curr].index + (long)i*Page.pageSize);
+            Page srcIndex = pool.getPage(header.root[1-curr].index + (long)i*pageSize);
+            Page dstIndex = pool.getPage(header.root[curr].index + (long)i*pageSize);
             j = 0;
             do { 
                 long pos = Bytes.unpack8(dstIndex.data, j);
                 if (Bytes.unpack8(srcIndex.data, j) != pos) { 
                     if ((pos & dbFreeHandleFlag) == 0) {
                         if ((pos & dbPageObjectFlag) != 0) { 
-                            free(pos & ~dbFlagsMask, Page.pageSize);
+                            free(pos & ~dbFlagsMask, pageSize);
                         } else if (pos != 0) { 
-                            int offs = (int)pos & (Page.pageSize-1);
+                            int offs = (int)pos & (pageSize-1);
                             pg = pool.getPage(pos - offs);
                             free(pos, ObjectHeader.getSize(pg.data, offs));
                             pool.unfix(pg);
@@ -1172,37 +1540,59 @@ public class StorageImpl implements Storage {
         }
         for (i = 0; i <= nPages; i++) { 
             if ((map[i >> 5] & (1 << (i & 31))) != 0) { 
-                pg = pool.putPage(header.root[1-curr].index + (long)i*Page.pageSize);
-                for (j = 0; j < Page.pageSize; j += 8) {
-                    Bytes.pack8(pg.data, j, Bytes.unpack8(pg.data, j) & ~dbModifiedFlag);
-                }
-                pool.unfix(pg);
+                clearModifiedFlags(i);
             }
         }
         if (currIndexSize > committedIndexSize) { 
-            long page = (header.root[1-curr].index 
-                         + committedIndexSize*8L) & ~(Page.pageSize-1);
-            long end = (header.root[1-curr].index + Page.pageSize - 1
-                        + currIndexSize*8L) & ~(Page.pageSize-1);
+            int page = committedIndexSize >>> dbHandlesPerPageBits;
+            int end = (currIndexSize + dbHandlesPerPage - 1) >>> dbHandlesPerPageBits;
             while (page < end) { 
-                pg = pool.putPage(page);
-                for (j = 0; j < Page.pageSize; j += 8) {
-                    Bytes.pack8(pg.data, j, Bytes.unpack8(pg.data, j) & ~dbModifiedFlag);
-                }
-                pool.unfix(pg);
-                page += Page.pageSize;
+                clearModifiedFlags(page);
+                page += 1;
             }
         }
+        // changes of the object index and bitmap are prepared while previous asynchronous commit is in progress
+        waitAsyncCommit();
         header.root[1-curr].usedSize = usedSize;
         pg = pool.putPage(0);
-        header.pack(pg.data);
-        pool.flush();
-        pool.modify(pg);
-        header.curr = curr ^= 1;
-        header.dirty = true;
-        header.pack(pg.data);
-        pool.unfix(pg);
-        pool.flush();
+        if (async) { 
+            // page with new header is not placed in the pool: it is written by background thread
+            // after synchronization of data pages
+            header.pack(pg.data);
+            byte[] newHeader = (byte[])pg.data.clone();
+            pool.unfix(pg);
+            pool.flush(false);
+            header.curr = curr ^= 1;
+            header.dirty = true;
+            header.pack(newHeader);
+            if (commitExecutor == null) { 
+                commitExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() { 
+                    public Thread newThread(Runnable r) { 
+                        Thread t = new Thread(r);
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            }
+            asyncCommit = commitExecutor.submit(new AsyncCommit(pool.file, newHeader));
+            pool.writeBarrier = asyncCommit;
+        } else { 
+            if (redoLog == null) { 
+                header.pack(pg.data);
+                pool.flush();
+                pool.modify(pg);
+            }
+            // with redo log new header is written to the log together with all modified pages,
+            // so one synchronization of the log is enough
+            header.curr = curr ^= 1;
+            header.dirty = true;
+            header.pack(pg.data);
+            pool.unfix(pg);
+            pool.flush();
+            if (redoLog != null && redoLog.size() > redoLogLimit) { 
+                checkpointer.activate();
+            }
+        }
         header.root[1-curr].size = header.root[curr].size;
         header.root[1-curr].indexUsed = currIndexSize; 
         header.root[1-curr].freeList  = header.root[curr].freeList; 
@@ -1225,18 +1615,18 @@ public class StorageImpl implements Storage {
             for (i = 0; i < nPages; i++) { 
                 if ((map[i >> 5] & (1 << (i & 31))) != 0) { 
                     map[i >> 5] -= (1 << (i & 31));
-                    pool.copy(header.root[1-curr].index + (long)i*Page.pageSize,
-                              header.root[curr].index + (long)i*Page.pageSize,
-                              Page.pageSize);
+                    pool.copy(header.root[1-curr].index + (long)i*pageSize,
+                              header.root[curr].index + (long)i*pageSize,
+                              pageSize);
                 }
             }
             if (currIndexSize > i*dbHandlesPerPage &&
                 ((map[i >> 5] & (1 << (i & 31))) != 0
                  || currIndexSize != committedIndexSize))
             {
-                pool.copy(header.root[1-curr].index + (long)i*Page.pageSize,
-                          header.root[curr].index + (long)i*Page.pageSize,
-                          8L*currIndexSize - (long)i*Page.pageSize);
+                pool.copy(header.root[1-curr].index + (long)i*pageSize,
+                          header.root[curr].index + (long)i*pageSize,
+                          8L*currIndexSize - (long)i*pageSize);
                 j = i>>>5;
                 n = (currIndexSize + dbHandlesPerPage*32 - 1) >>> (dbHandlesPerPageBits+5); 
                 while (j < n) { 
@@ -1245,8 +1635,30 @@ public class StorageImpl implements Storage {
             }
         }
         gcDone = false;
-        currIndex = curr;
-        committedIndexSize = currIndexSize;
+        synchronized (objectCache) { 
+            // content of both indices is the same now, so mirrored pages remain valid
+            currIndex = curr;
+            committedIndexSize = currIndexSize;
+        }
+        if (timed) { 
+            long elapsed = System.nanoTime() - start;
+            if (statistics != null) { 
+                statistics.commitCompleted(elapsed);
+            }
+            if (listener != null) { 
+                listener.commitCompleted(elapsed);
+            }
+            checkSlowOperation("commit", elapsed);
+        }
+    }
+
+    /**
+     * Notify listener if duration of operation exceeds <code>perst.slow.operation.threshold</code>
+     */
+    private final void checkSlowOperation(String operation, long elapsed) { 
+        if (listener != null && slowOperationThreshold != 0 && elapsed >= slowOperationThreshold*1000000) { 
+            listener.slowOperation(operation, elapsed);
+        }
     }
 
     public synchronized void rollback() {
@@ -1270,9 +1682,9 @@ public class StorageImpl implements Storage {
             int nPages = (committedIndexSize + dbHandlesPerPage - 1) >>> dbHandlesPerPageBits;
             for (int i = 0; i < nPages; i++) { 
                 if ((map[i >> 5] & (1 << (i & 31))) != 0) { 
-                    pool.copy(header.root[curr].shadowIndex + (long)i*Page.pageSize,
-                              header.root[curr].index + (long)i*Page.pageSize,
-                              Page.pageSize);
+                    pool.copy(header.root[curr].shadowIndex + (long)i*pageSize,
+                              header.root[curr].index + (long)i*pageSize,
+                              pageSize);
                 }
             }
         }
@@ -1292,6 +1704,8 @@ public class StorageImpl implements Storage {
         currIndexSize = committedIndexSize;
         currRBitmapPage = currPBitmapPage = 0;
         currRBitmapOffs = currPBitmapOffs = 0;
+        freeSpaceMap.reset();
+        resetIndexChunks();
         reloadScheme();
     }
 
@@ -1318,7 +1732,7 @@ public class StorageImpl implements Storage {
             bitmapExtent = Integer.MAX_VALUE;
         }
         for (i = 0, j = 0; i < nUsedIndexPages; i++) {
-            Page pg = pool.getPage(indexOffs + (long)i*Page.pageSize);
+            Page pg = pool.getPage(indexOffs + (long)i*pageSize);
             for (k = 0; k < dbHandlesPerPage && j < nObjects; k++, j++) { 
                 long pos = Bytes.unpack8(pg.data, k*8);
                 index[j] = pos;
@@ -1327,7 +1741,7 @@ public class StorageImpl implements Storage {
                     if ((pos & dbPageObjectFlag) != 0) {
                         nPagedObjects += 1;
                     } else if (pos != 0) { 
-                        int offs = (int)pos & (Page.pageSize-1);
+                        int offs = (int)pos & (pageSize-1);
                         Page op = pool.getPage(pos - offs);
                         int size = ObjectHeader.getSize(op.data, offs & ~dbFlagsMask);
                         size = (size + dbAllocationQuantum-1) & ~(dbAllocationQuantum-1);
@@ -1343,14 +1757,15 @@ public class StorageImpl implements Storage {
         newHeader.curr = 0;
         newHeader.dirty = false;
         newHeader.initialized = true;
-        long newFileSize = (long)(nPagedObjects + nIndexPages*2 + 1)*Page.pageSize + totalRecordsSize;
-        newFileSize = (newFileSize + Page.pageSize-1) & ~(Page.pageSize-1);     
+        newHeader.pageBits = pageBits;
+        long newFileSize = (long)(nPagedObjects + nIndexPages*2 + 1)*pageSize + totalRecordsSize;
+        newFileSize = (newFileSize + pageSize-1) & ~(pageSize-1);
         newHeader.root = new RootPage[2];
         newHeader.root[0] = new RootPage();
         newHeader.root[1] = new RootPage();
         newHeader.root[0].size = newHeader.root[1].size = newFileSize;
-        newHeader.root[0].index = newHeader.root[1].shadowIndex = Page.pageSize;
-        newHeader.root[0].shadowIndex = newHeader.root[1].index = Page.pageSize + (long)nIndexPages*Page.pageSize;
+        newHeader.root[0].index = newHeader.root[1].shadowIndex = pageSize;
+        newHeader.root[0].shadowIndex = newHeader.root[1].index = pageSize + (long)nIndexPages*pageSize;
         newHeader.root[0].shadowIndexSize = newHeader.root[0].indexSize = 
             newHeader.root[1].shadowIndexSize = newHeader.root[1].indexSize = nIndexPages*dbHandlesPerPage;
         newHeader.root[0].indexUsed = newHeader.root[1].indexUsed = nObjects;
@@ -1360,12 +1775,12 @@ public class StorageImpl implements Storage {
         newHeader.root[0].rootObject = newHeader.root[1].rootObject = header.root[curr].rootObject;
         newHeader.root[0].classDescList = newHeader.root[1].classDescList = header.root[curr].classDescList;
         newHeader.root[0].bitmapExtent = newHeader.root[1].bitmapExtent = header.root[curr].bitmapExtent;
-        byte[] page = new byte[Page.pageSize];
+        byte[] page = new byte[pageSize];
         newHeader.pack(page);
         out.write(page);
         
-        long pageOffs = (long)(nIndexPages*2 + 1)*Page.pageSize;
-        long recOffs = (long)(nPagedObjects + nIndexPages*2 + 1)*Page.pageSize;
+        long pageOffs = (long)(nIndexPages*2 + 1)*pageSize;
+        long recOffs = (long)(nPagedObjects + nIndexPages*2 + 1)*pageSize;
         GenericSort.sort(new GenericSortArray() { 
                 public int size() { 
                     return nObjects;
@@ -1390,10 +1805,10 @@ public class StorageImpl implements Storage {
             if ((pos & dbFreeHandleFlag) == 0) { 
                 if ((pos & dbPageObjectFlag) != 0) {
                     Bytes.pack8(newIndex, oid*8, pageOffs | dbPageObjectFlag);
-                    pageOffs += Page.pageSize;
+                    pageOffs += pageSize;
                 } else if (pos != 0) { 
                     Bytes.pack8(newIndex, oid*8, recOffs);
-                    int offs = (int)pos & (Page.pageSize-1);
+                    int offs = (int)pos & (pageSize-1);
                     Page op = pool.getPage(pos - offs);
                     int size = ObjectHeader.getSize(op.data, offs & ~dbFlagsMask);
                     size = (size + dbAllocationQuantum-1) & ~(dbAllocationQuantum-1);
@@ -1415,16 +1830,16 @@ public class StorageImpl implements Storage {
                 { 
                     int pageId = oids[i] < dbBitmapId + dbBitmapPages 
                         ? oids[i] - dbBitmapId : oids[i] - bitmapExtent;
-                    long mappedSpace = (long)pageId*Page.pageSize*8*dbAllocationQuantum;
+                    long mappedSpace = (long)pageId*pageSize*8*dbAllocationQuantum;
                     if (mappedSpace >= newFileSize) { 
                         Arrays.fill(page, (byte)0);
-                    } else if (mappedSpace + Page.pageSize*8*dbAllocationQuantum <= newFileSize) { 
+                    } else if (mappedSpace + pageSize*8*dbAllocationQuantum <= newFileSize) { 
                         Arrays.fill(page, (byte)-1);
                     } else { 
                         int nBits = (int)((newFileSize - mappedSpace) >> dbAllocationQuantumBits);
                         Arrays.fill(page, 0, nBits >> 3, (byte)-1);
                         page[nBits >> 3] = (byte)((1 << (nBits & 7)) - 1);
-                        Arrays.fill(page, (nBits >> 3) + 1, Page.pageSize, (byte)0);
+                        Arrays.fill(page, (nBits >> 3) + 1, pageSize, (byte)0);
                     }
                     out.write(page);
                 } else {                        
@@ -1438,19 +1853,19 @@ public class StorageImpl implements Storage {
             long pos = index[i];
             if (pos != 0 && ((int)pos & (dbFreeHandleFlag|dbPageObjectFlag)) == 0) { 
                 pos &= ~dbFlagsMask;
-                int offs = (int)pos & (Page.pageSize-1);
+                int offs = (int)pos & (pageSize-1);
                 Page pg = pool.getPage(pos - offs);
                 int size = ObjectHeader.getSize(pg.data, offs);
                 size = (size + dbAllocationQuantum-1) & ~(dbAllocationQuantum-1);
 
                 while (true) { 
-                    if (Page.pageSize - offs >= size) { 
+                    if (pageSize - offs >= size) { 
                         out.write(pg.data, offs, size);
                         break;
                     }
-                    out.write(pg.data, offs, Page.pageSize - offs);
-                    size -= Page.pageSize - offs;
-                    pos += Page.pageSize - offs;
+                    out.write(pg.data, offs, pageSize - offs);
+                    size -= pageSize - offs;
+                    pos += pageSize - offs;
                     offs = 0;
                     pool.unfix(pg); 
                     pg = pool.getPage(pos);
@@ -1459,7 +1874,7 @@ public class StorageImpl implements Storage {
             }
         }
         if (recOffs != newFileSize) {       
-            Assert.that(newFileSize - recOffs < Page.pageSize);
+            Assert.that(newFileSize - recOffs < pageSize);
             int align = (int)(newFileSize - recOffs);
             Arrays.fill(page, 0, align, (byte)0);
             out.write(page, 0, align);
@@ -1509,6 +1924,21 @@ public class StorageImpl implements Storage {
         return index;
     }
 
+    public synchronized <T extends IPersistent> Index<T> createIndex(Class keyType, boolean unique, boolean prefixCompression) { 
+        if (!opened) { 
+            throw new StorageError(StorageError.STORAGE_NOT_OPENED);
+        }
+        int type = Btree.checkType(keyType);
+        if (!prefixCompression || alternativeBtree
+            || (type != ClassDescriptor.tpString && type != ClassDescriptor.tpArrayOfByte))
+        { 
+            return createIndex(keyType, unique);
+        }
+        Index<T> index = new PrefixBtree<T>(keyType, unique);
+        index.assignOid(this, 0, false);
+        return index;
+    }
+
     public synchronized <T extends IPersistent> Index<T> createThickIndex(Class keyType) {
         if (!opened) { 
             throw new StorageError(StorageError.STORAGE_NOT_OPENED);
@@ -1579,7 +2009,7 @@ public class StorageImpl implements Storage {
     }
 
     public Blob createBlob() { 
-        return new BlobImpl(this, Page.pageSize - ObjectHeader.sizeof - 3*4);
+        return new BlobImpl(this, pageSize - ObjectHeader.sizeof - 3*4);
     }
 
     public <T extends TimeSeries.Tick> TimeSeries<T> createTimeSeries(Class blockClass, long maxBlockTimeInterval) {
@@ -1592,7 +2022,7 @@ public class StorageImpl implements Storage {
 
     final long getGCPos(int oid) { 
         Page pg = pool.getPage(header.root[currIndex].index 
-                               + ((long)(oid >>> dbHandlesPerPageBits) << Page.pageBits));
+                               + ((long)(oid >>> dbHandlesPerPageBits) << pageBits));
         long pos = Bytes.unpack8(pg.data, (oid & (dbHandlesPerPage-1)) << 3);
         pool.unfix(pg);
         return pos;
@@ -1628,6 +2058,7 @@ public class StorageImpl implements Storage {
         if (listener != null) { 
             listener.gcStarted();
         }           
+        gcStartTime = System.nanoTime();
 
         greyBitmap = new int[bitmapSize];
         blackBitmap = new int[bitmapSize];
@@ -1644,7 +2075,7 @@ public class StorageImpl implements Storage {
                                 pos = (((long)i << 5) + j) << dbAllocationQuantumBits;
                                 greyBitmap[i] &= ~(1 << j);
                                 blackBitmap[i] |= 1 << j;
-                                int offs = (int)pos & (Page.pageSize-1);
+                                int offs = (int)pos & (pageSize-1);
                                 Page pg = pool.getPage(pos - offs);
                                 int typeOid = ObjectHeader.getType(pg.data, offs);
                                 if (typeOid != 0) { 
@@ -1654,7 +2085,7 @@ public class StorageImpl implements Storage {
                                         btree.assignOid(this, 0, false);
                                         btree.markTree();
                                     } else if (desc.hasReferences) { 
-                                        markObject(pool.get(pos), ObjectHeader.sizeof, desc);
+                                        markObject(pool.get(pos), ObjectHeader.sizeof, desc, desc.getRecordFormat());
                                     }
                                 }
                                 pool.unfix(pg);                                
@@ -1664,11 +2095,16 @@ public class StorageImpl implements Storage {
                 }
             } while (existsNotMarkedObjects);
         }    
+        if (statistics != null) { 
+            statistics.nGcRuns += 1;
+            statistics.gcMarkTime += System.nanoTime() - gcStartTime;
+        }
     }
 
     private int sweep() { 
         int nDeallocated = 0;
         long pos;
+        long start = System.nanoTime();
         gcDone = true;
         for (int i = dbFirstUserId, j = committedIndexSize; i < j; i++) {
             pos = getGCPos(i);
@@ -1679,7 +2115,7 @@ public class StorageImpl implements Storage {
                     if (getPos(i) != pos) { 
                         throw new StorageError(StorageError.INVALID_OID);
                     }
-                    int offs = (int)pos & (Page.pageSize-1);
+                    int offs = (int)pos & (pageSize-1);
                     Page pg = pool.getPage(pos - offs);
                     int typeOid = ObjectHeader.getType(pg.data, offs);
                     if (typeOid != 0) { 
@@ -1710,10 +2146,74 @@ public class StorageImpl implements Storage {
         allocatedDelta = 0;
         gcActive = false;
 
+        long now = System.nanoTime();
+        if (statistics != null) { 
+            statistics.gcSweepTime += now - start;
+            statistics.nDeallocatedObjects += nDeallocated;
+        }
+        checkSlowOperation("gc", now - gcStartTime);
         if (listener != null) {
             listener.gcCompleted(nDeallocated);
         }
         return nDeallocated;
+    }
+
+    /**
+     * Make all pages written by committed transactions durable in the database file and truncate redo log.
+     * This method should be called with storage lock held.
+     */
+    final void checkpoint() { 
+        pool.checkpoint();
+    }
+
+    /**
+     * Thread performing checkpoint in background when size of redo log exceeds
+     * <code>perst.redo.log.limit</code>
+     */
+    class CheckpointThread extends Thread { 
+        private boolean go;
+        private boolean done;
+
+        CheckpointThread() { 
+            setDaemon(true);
+            start();
+        }
+
+        synchronized void activate() { 
+            go = true;
+            notify();
+        }
+
+        void terminate() { 
+            synchronized (this) { 
+                done = true;
+                notify();
+            }
+            try { 
+                join();
+            } catch (InterruptedException x) {}
+        }
+
+        public void run() { 
+            while (true) { 
+                synchronized (this) { 
+                    while (!go && !done) { 
+                        try { 
+                            wait();
+                        } catch (InterruptedException x) {}
+                    }
+                    if (done) { 
+                        return;
+                    }
+                    go = false;
+                }
+                synchronized (StorageImpl.this) { 
+                    if (opened) { 
+                        checkpoint();
+                    }
+                }
+            }
+        }
     }   
      
     class GcThread extends Thread { 
@@ -1763,6 +2263,32 @@ public class StorageImpl implements Storage {
         return gc0();
     }
 
+    public synchronized int upgradeFormat() { 
+        if (!opened) { 
+            throw new StorageError(StorageError.STORAGE_NOT_OPENED);
+        }
+        int nRewritten = 0;
+        for (int oid = dbFirstUserId; oid < currIndexSize; oid++) { 
+            long pos = getPos(oid);
+            if (pos == 0 || ((int)pos & (dbFreeHandleFlag|dbPageObjectFlag)) != 0) { 
+                continue;
+            }
+            int offs = (int)pos & (pageSize-1);
+            Page pg = pool.getPage(pos - offs);
+            int typeOid = ObjectHeader.getType(pg.data, offs);
+            pool.unfix(pg);
+            if (typeOid == 0) { 
+                continue;
+            }
+            IPersistent obj = lookupObject(oid, null);
+            synchronized (objectCache) { 
+                storeObject0(obj);
+            }
+            nRewritten += 1;
+        }
+        return nRewritten;
+    }
+
     private int gc0() { 
         synchronized (objectCache) { 
             if (!opened) {
@@ -1819,7 +2345,7 @@ public class StorageImpl implements Storage {
                                     pos = (((long)i << 5) + j) << dbAllocationQuantumBits;
                                     greyBitmap[i] &= ~(1 << j);
                                     blackBitmap[i] |= 1 << j;
-                                    int offs = (int)pos & (Page.pageSize-1);
+                                    int offs = (int)pos & (pageSize-1);
                                     Page pg = pool.getPage(pos - offs);
                                     int typeOid = ObjectHeader.getType(pg.data, offs);
                                     int objSize = ObjectHeader.getSize(pg.data, offs);
@@ -1833,12 +2359,12 @@ public class StorageImpl implements Storage {
                                             int nPages = btree.markTree();
                                             if (FieldIndex.class.isAssignableFrom(desc.cls)) { 
                                                 fieldIndexUsage.nInstances += 1;
-                                                fieldIndexUsage.totalSize += (long)nPages*Page.pageSize + objSize;
-                                                fieldIndexUsage.allocatedSize += (long)nPages*Page.pageSize + alignedSize;
+                                                fieldIndexUsage.totalSize += (long)nPages*pageSize + objSize;
+                                                fieldIndexUsage.allocatedSize += (long)nPages*pageSize + alignedSize;
                                             } else {
                                                 indexUsage.nInstances += 1;
-                                                indexUsage.totalSize += (long)nPages*Page.pageSize + objSize;
-                                                indexUsage.allocatedSize += (long)nPages*Page.pageSize + alignedSize;
+                                                indexUsage.totalSize += (long)nPages*pageSize + objSize;
+                                                indexUsage.allocatedSize += (long)nPages*pageSize + alignedSize;
                                             }
                                         } else { 
                                             MemoryUsage usage = (MemoryUsage)map.get(desc.cls);
@@ -1851,7 +2377,7 @@ public class StorageImpl implements Storage {
                                             usage.allocatedSize += alignedSize;
                                                       
                                             if (desc.hasReferences) { 
-                                                markObject(pool.get(pos), ObjectHeader.sizeof, desc);
+                                                markObject(pool.get(pos), ObjectHeader.sizeof, desc, desc.getRecordFormat());
                                             }
                                         }
                                     } else { 
@@ -1878,8 +2404,8 @@ public class StorageImpl implements Storage {
                 MemoryUsage system = new MemoryUsage(Storage.class);
                 system.totalSize += header.root[0].indexSize*8L;
                 system.totalSize += header.root[1].indexSize*8L;
-                system.totalSize += (long)(header.root[currIndex].bitmapEnd-dbBitmapId)*Page.pageSize;
-                system.totalSize += Page.pageSize; // root page
+                system.totalSize += (long)(header.root[currIndex].bitmapEnd-dbBitmapId)*pageSize;
+                system.totalSize += pageSize; // root page
 
                 if (header.root[currIndex].bitmapExtent != 0) { 
                     system.allocatedSize = getBitmapUsedSpace(dbBitmapId, dbBitmapId+dbBitmapPages)
@@ -1899,7 +2425,7 @@ public class StorageImpl implements Storage {
         long allocated = 0;
         while (from < till) {
             Page pg = getGCPage(from);
-            for (int j = 0; j < Page.pageSize; j++) {
+            for (int j = 0; j < pageSize; j++) { 
                 int mask = pg.data[j] & 0xFF;
                 while (mask != 0) { 
                     if ((mask & 1) != 0) { 
@@ -1914,166 +2440,62 @@ public class StorageImpl implements Storage {
         return allocated;
     }
 
-    final int markObject(byte[] obj, int offs,  ClassDescriptor desc)
+    final int markObject(byte[] obj, int offs,  ClassDescriptor desc, RecordFormat format)
     { 
         ClassDescriptor.FieldDescriptor[] all = desc.allFields;
 
         for (int i = 0, n = all.length; i < n; i++) { 
             ClassDescriptor.FieldDescriptor fd = all[i];
             switch (fd.type) { 
-                case ClassDescriptor.tpBoolean:
-                case ClassDescriptor.tpByte:
-                    offs += 1;
+                case ClassDescriptor.tpObject:
+                    markOid(format.unpackOid(obj, offs));
+                    offs = format.skipScalar(ClassDescriptor.tpObject, obj, offs);
                     continue;
-                case ClassDescriptor.tpChar:
-                case ClassDescriptor.tpShort:
-                    offs += 2;
-                    continue;
-                case ClassDescriptor.tpInt:
-                case ClassDescriptor.tpEnum:
-                case ClassDescriptor.tpFloat:
-                    offs += 4;
-                    continue;
-                case ClassDescriptor.tpLong:
-                case ClassDescriptor.tpDouble:
-                case ClassDescriptor.tpDate:
-                    offs += 8;
-                    continue;
-                case ClassDescriptor.tpString:
-                {
-                    int strlen = Bytes.unpack4(obj, offs);
-                    offs += 4;
-                    if (strlen > 0) { 
-                        offs += strlen*2;
-                    } else if (strlen < -1) {
-                        offs -= strlen+2;
-                    }
-                    continue;
-                }
-                case ClassDescriptor.tpObject:
-                    markOid(Bytes.unpack4(obj, offs));
-                    offs += 4;
-                    continue;
-                case ClassDescriptor.tpValue:
-                    offs = markObject(obj, offs, fd.valueDesc);
+                case ClassDescriptor.tpValue:
+                    offs = markObject(obj, offs, fd.valueDesc, format);
                     continue;
                 case ClassDescriptor.tpRaw:
-                {
-                    int len = Bytes.unpack4(obj, offs);
-                    offs += 4;
-                    if (len > 0) { 
-                        offs += len;
-                    } else if (len == -2-ClassDescriptor.tpObject) { 
-                        markOid(Bytes.unpack4(obj, offs));
-                        offs += 4;
-                    } else if (len < -1) { 
-                        offs += ClassDescriptor.sizeof[-2-len];
-                    }
-                    continue;
-                }
-                case ClassDescriptor.tpArrayOfByte:
-                case ClassDescriptor.tpArrayOfBoolean:
-                {
-                    int len = Bytes.unpack4(obj, offs);
-                    offs += 4;
-                    if (len > 0) { 
-                        offs += len;
-                    }
-                    continue;
-                }
-                case ClassDescriptor.tpArrayOfShort:
-                case ClassDescriptor.tpArrayOfChar:
-                {
-                    int len = Bytes.unpack4(obj, offs);
-                    offs += 4;
-                    if (len > 0) { 
-                        offs += len*2;
-                    }
-                    continue;
-                }
-                case ClassDescriptor.tpArrayOfInt:
-                case ClassDescriptor.tpArrayOfEnum:
-                case ClassDescriptor.tpArrayOfFloat:
-                {
-                    int len = Bytes.unpack4(obj, offs);
-                    offs += 4;
-                    if (len > 0) { 
-                        offs += len*4;
-                    }
-                    continue;
-                }
-                case ClassDescriptor.tpArrayOfLong:
-                case ClassDescriptor.tpArrayOfDouble:
-                case ClassDescriptor.tpArrayOfDate:
-                {
-                    int len = Bytes.unpack4(obj, offs);
-                    offs += 4;
-                    if (len > 0) { 
-                        offs += len*8;
-                    }
+                    offs = markRawValue(obj, offs);
                     continue;
-                }
-                case ClassDescriptor.tpArrayOfString:
-                {
-                    int len = Bytes.unpack4(obj, offs);
-                    offs += 4;
-                    while (--len >= 0) {
-                        int strlen = Bytes.unpack4(obj, offs);
-                        offs += 4;
-                        if (strlen > 0) { 
-                            offs += strlen*2;
-                        } else if (strlen < -1) {
-                            offs -= strlen+2;
-                        }
-                    }
-                    continue;
-                }
                 case ClassDescriptor.tpArrayOfObject:
                 case ClassDescriptor.tpLink:
                 {
-                    int len = Bytes.unpack4(obj, offs);
-                    offs += 4;
+                    int len = format.unpackLength(obj, offs);
+                    offs = format.skipLength(obj, offs);
+                    int oid = 0;
                     while (--len >= 0) {
-                        markOid(Bytes.unpack4(obj, offs));
-                        offs += 4;
+                        oid = format.unpackOidElement(obj, offs, oid);
+                        offs = format.skipScalar(ClassDescriptor.tpObject, obj, offs);
+                        markOid(oid);
                     }
                     continue;
                 }
                 case ClassDescriptor.tpArrayOfValue:
                 {
-                    int len = Bytes.unpack4(obj, offs);
-                    offs += 4;
+                    int len = format.unpackLength(obj, offs);
+                    offs = format.skipLength(obj, offs);
                     ClassDescriptor valueDesc = fd.valueDesc;
                     while (--len >= 0) {
-                        offs = markObject(obj, offs, valueDesc);
+                        offs = markObject(obj, offs, valueDesc, format);
                     }
                     continue;
                 }
                 case ClassDescriptor.tpArrayOfRaw:
                 {
-                    int len = Bytes.unpack4(obj, offs);
-                    offs += 4;
+                    int len = format.unpackLength(obj, offs);
+                    offs = format.skipLength(obj, offs);
                     while (--len >= 0) {
-                        int rawlen = Bytes.unpack4(obj, offs);
-                        offs += 4;
-                        if (rawlen >= 0) { 
-                            offs += rawlen;
-                        } else if (rawlen == -2-ClassDescriptor.tpObject) { 
-                            markOid(Bytes.unpack4(obj, offs));
-                            offs += 4;
-                        } else if (rawlen < -1) { 
-                            offs += ClassDescriptor.sizeof[-2-rawlen];
-                        }
-                        continue;
+                        offs = markRawValue(obj, offs);
                     }
                     continue;
                 }
+                default:
+                    offs = format.skipField(fd, obj, offs);
             }
         }
         return offs;
     }
 
-
     static class ThreadTransactionContext { 
         int       nested;
         ArrayList locked = new ArrayList();
@@ -2131,9 +2553,13 @@ public class StorageImpl implements Storage {
                         ((IPersistent)ctx.modified.get(--i)).store();
                     } while (i != 0);
 
-                    synchronized (backgroundGcMonitor) { 
-                        synchronized(this) { 
-                            commit0();
+                    if (groupCommitDelay != 0) { 
+                        groupCommit(false);
+                    } else { 
+                        synchronized (backgroundGcMonitor) { 
+                            synchronized(this) { 
+                                commit0();
+                            }
                         }
                     }
                 }
@@ -2232,6 +2658,15 @@ public class StorageImpl implements Storage {
                 gcThread.join();
             } catch (InterruptedException x) {}
         }
+        if (checkpointer != null) { 
+            checkpointer.terminate();
+            checkpointer = null;
+        }
+        waitAsyncCommit();
+        if (commitExecutor != null) { 
+            commitExecutor.shutdown();
+            commitExecutor = null;
+        }
         if (isDirty()) { 
             Page pg = pool.putPage(0);
             header.pack(pg.data);
@@ -2242,12 +2677,24 @@ public class StorageImpl implements Storage {
             pool.unfix(pg);
             pool.flush();
         }
+        if (redoLog != null) { 
+            checkpoint();
+            redoLog.close();
+            redoLog = null;
+        }
         pool.close();
+        if (statisticsMBean != null) { 
+            try { 
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(statisticsMBean);
+            } catch (JMException x) {}
+            statisticsMBean = null;
+        }
+        statistics = null;
         // make GC easier
         pool = null;
         objectCache = null;
         classDescMap = null;
-        bitmapPageAvailableSpace = null;
+        freeSpaceMap = null;
         dirtyPagesMap  = null;
         descList = null;
     }
@@ -2299,6 +2746,23 @@ public class StorageImpl implements Storage {
         throw new StorageError(StorageError.BAD_PROPERTY_VALUE);
     }
 
+    private int getFillFactorValue(Object value) { 
+        long percent = getIntegerValue(value);
+        if (percent <= 0 || percent > 100) { 
+            throw new StorageError(StorageError.BAD_PROPERTY_VALUE, "perst.bulk.load.fill.factor");
+        }
+        return (int)percent;
+    }
+
+    private int getPageBitsValue(Object value) { 
+        long size = getIntegerValue(value);
+        for (int bits = Page.minPageBits; bits <= Page.maxPageBits; bits++) { 
+            if (size == 1L << bits) { 
+                return bits;
+            }
+        }
+        throw new StorageError(StorageError.BAD_PROPERTY_VALUE, "perst.page.size");
+    }
      
     public void setProperties(Properties props) 
     {
@@ -2309,6 +2773,12 @@ public class StorageImpl implements Storage {
         if ((value = props.getProperty("perst.serialize.transient.objects")) != null) { 
             ClassDescriptor.serializeNonPersistentObjects = getBooleanValue(value);
         } 
+        if ((value = props.getProperty("perst.unsafe.field.access")) != null) { 
+            ClassDescriptor.useUnsafeFieldAccessors = getBooleanValue(value);
+        }
+        if ((value = props.getProperty("perst.compact.strings")) != null) { 
+            compactStrings = getBooleanValue(value);
+        }
         if ((value = props.getProperty("perst.object.cache.init.size")) != null) { 
             objectCacheInitSize = (int)getIntegerValue(value);
         }
@@ -2330,9 +2800,27 @@ public class StorageImpl implements Storage {
         if ((value = props.getProperty("perst.file.noflush")) != null) { 
             noFlush = getBooleanValue(value);
         }
+        if ((value = props.getProperty("perst.file.nio")) != null) { 
+            useChannel = getBooleanValue(value);
+        }
+        if ((value = props.getProperty("perst.file.compression")) != null) { 
+            compressFile = getBooleanValue(value);
+        }
+        if ((value = props.getProperty("perst.file.encryption")) != null) { 
+            encryption = value;
+        }
         if ((value = props.getProperty("perst.alternative.btree")) != null) { 
             alternativeBtree = getBooleanValue(value);
         }
+        if ((value = props.getProperty("perst.bulk.load.fill.factor")) != null) { 
+            bulkLoadFillFactor = getFillFactorValue(value);
+        }
+        if ((value = props.getProperty("perst.bulk.load.memory")) != null) { 
+            bulkLoadMemory = getIntegerValue(value);
+        }
+        if ((value = props.getProperty("perst.concurrent.iterator")) != null) { 
+            concurrentIterator = getBooleanValue(value);
+        }
         if ((value = props.getProperty("perst.background.gc")) != null) { 
             backgroundGc = getBooleanValue(value);
         }
@@ -2345,6 +2833,39 @@ public class StorageImpl implements Storage {
         if ((value = props.getProperty("perst.replication.ack")) != null) { 
             replicationAck = getBooleanValue(value);
         }
+        if ((value = props.getProperty("perst.page.pool.segments")) != null) { 
+            pagePoolSegments = (int)getIntegerValue(value);
+        }
+        if ((value = props.getProperty("perst.page.pool.policy")) != null) { 
+            pagePoolPolicy = value;
+        }
+        if ((value = props.getProperty("perst.page.pool.dirty.ratio")) != null) { 
+            pagePoolDirtyRatio = (int)getIntegerValue(value);
+        }
+        if ((value = props.getProperty("perst.page.pool.direct")) != null) { 
+            pagePoolDirect = getBooleanValue(value);
+        }
+        if ((value = props.getProperty("perst.page.size")) != null) { 
+            initPageBits = getPageBitsValue(value);
+        }
+        if ((value = props.getProperty("perst.group.commit.delay")) != null) { 
+            groupCommitDelay = getIntegerValue(value);
+        }
+        if ((value = props.getProperty("perst.redo.log")) != null) { 
+            redoLogPath = value;
+        }
+        if ((value = props.getProperty("perst.redo.log.limit")) != null) { 
+            redoLogLimit = getIntegerValue(value);
+        }
+        if ((value = props.getProperty("perst.statistics")) != null) { 
+            collectStatistics = getBooleanValue(value);
+        }
+        if ((value = props.getProperty("perst.statistics.mbean")) != null) { 
+            statisticsMBeanName = value;
+        }
+        if ((value = props.getProperty("perst.slow.operation.threshold")) != null) { 
+            slowOperationThreshold = getIntegerValue(value);
+        }
     }
 
     public void setProperty(String name, Object value)
@@ -2353,6 +2874,10 @@ public class StorageImpl implements Storage {
             ClassDescriptor.treateAnyNonPersistentObjectAsValue = getBooleanValue(value);
         } else if (name.equals("perst.serialize.transient.objects")) { 
             ClassDescriptor.serializeNonPersistentObjects = getBooleanValue(value);
+        } else if (name.equals("perst.unsafe.field.access")) { 
+            ClassDescriptor.useUnsafeFieldAccessors = getBooleanValue(value);
+        } else if (name.equals("perst.compact.strings")) { 
+            compactStrings = getBooleanValue(value);
         } else if (name.equals("perst.object.cache.init.size")) { 
             objectCacheInitSize = (int)getIntegerValue(value);
         } else if (name.equals("perst.object.cache.kind")) { 
@@ -2367,8 +2892,20 @@ public class StorageImpl implements Storage {
             readOnly = getBooleanValue(value);
         } else if (name.equals("perst.file.noflush")) { 
             noFlush = getBooleanValue(value);
+        } else if (name.equals("perst.file.nio")) { 
+            useChannel = getBooleanValue(value);
+        } else if (name.equals("perst.file.compression")) { 
+            compressFile = getBooleanValue(value);
+        } else if (name.equals("perst.file.encryption")) { 
+            encryption = (String)value;
         } else if (name.equals("perst.alternative.btree")) { 
             alternativeBtree = getBooleanValue(value);
+        } else if (name.equals("perst.bulk.load.fill.factor")) { 
+            bulkLoadFillFactor = getFillFactorValue(value);
+        } else if (name.equals("perst.bulk.load.memory")) { 
+            bulkLoadMemory = getIntegerValue(value);
+        } else if (name.equals("perst.concurrent.iterator")) { 
+            concurrentIterator = getBooleanValue(value);
         } else if (name.equals("perst.background.gc")) {
             backgroundGc = getBooleanValue(value);
         } else if (name.equals("perst.string.encoding")) { 
@@ -2377,6 +2914,28 @@ public class StorageImpl implements Storage {
             lockFile = getBooleanValue(value);
         } else if (name.equals("perst.replication.ack")) { 
             replicationAck = getBooleanValue(value);
+        } else if (name.equals("perst.page.pool.segments")) { 
+            pagePoolSegments = (int)getIntegerValue(value);
+        } else if (name.equals("perst.page.pool.policy")) { 
+            pagePoolPolicy = (String)value;
+        } else if (name.equals("perst.page.pool.dirty.ratio")) { 
+            pagePoolDirtyRatio = (int)getIntegerValue(value);
+        } else if (name.equals("perst.page.pool.direct")) { 
+            pagePoolDirect = getBooleanValue(value);
+        } else if (name.equals("perst.page.size")) { 
+            initPageBits = getPageBitsValue(value);
+        } else if (name.equals("perst.group.commit.delay")) { 
+            groupCommitDelay = getIntegerValue(value);
+        } else if (name.equals("perst.redo.log")) { 
+            redoLogPath = (value == null) ? null : value.toString();
+        } else if (name.equals("perst.redo.log.limit")) { 
+            redoLogLimit = getIntegerValue(value);
+        } else if (name.equals("perst.statistics")) { 
+            collectStatistics = getBooleanValue(value);
+        } else if (name.equals("perst.statistics.mbean")) { 
+            statisticsMBeanName = (value == null) ? null : value.toString();
+        } else if (name.equals("perst.slow.operation.threshold")) { 
+            slowOperationThreshold = getIntegerValue(value);
         } else { 
             throw new StorageError(StorageError.NO_SUCH_PROPERTY);
         }
@@ -2389,9 +2948,12 @@ public class StorageImpl implements Storage {
         return prevListener;
     }
 
-    public synchronized IPersistent getObjectByOID(int oid)
+    public IPersistent getObjectByOID(int oid)
     {
-        return oid == 0 ? null : lookupObject(oid, null);
+        if (oid == 0) { 
+            return null;
+        }
+        return lookupObject(oid, null);
     }
 
     public/*protected*/ synchronized void modifyObject(IPersistent obj) {
@@ -2473,7 +3035,7 @@ public class StorageImpl implements Storage {
             pos = allocate(newSize, 0);
             setPos(oid, pos | dbModifiedFlag);
         } else {
-            int offs = (int)pos & (Page.pageSize-1);
+            int offs = (int)pos & (pageSize-1);
             if ((offs & (dbFreeHandleFlag|dbPageObjectFlag)) != 0) { 
                 throw new StorageError(StorageError.DELETED_OBJECT);
             }
@@ -2509,10 +3071,23 @@ public class StorageImpl implements Storage {
         }
     }
 
+    /**
+     * Get object by OID loading it if it is not present in the object cache. Object cache is thread safe,
+     * so loaded objects are found without locking the storage: lock is needed only to load the object.
+     */
     final IPersistent lookupObject(int oid, Class cls) {
         IPersistent obj = objectCache.get(oid);
         if (obj == null || obj.isRaw()) { 
-            obj = loadStub(oid, obj, cls);
+            synchronized (this) { 
+                // object may be loaded by other thread
+                obj = objectCache.get(oid);
+                if (obj == null || obj.isRaw()) { 
+                    return loadStub(oid, obj, cls);
+                }
+            }
+        }
+        if (statistics != null) { 
+            statistics.objectCacheHits.increment();
         }
         return obj;
     }
@@ -2549,7 +3124,7 @@ public class StorageImpl implements Storage {
             || desc.hasSubclasses) 
         { 
             long pos = getPos(oid);
-            int offs = (int)pos & (Page.pageSize-1);
+            int offs = (int)pos & (pageSize-1);
             if ((offs & (dbFreeHandleFlag|dbPageObjectFlag)) != 0) { 
                 throw new StorageError(StorageError.DELETED_OBJECT);
             }
@@ -2566,6 +3141,9 @@ public class StorageImpl implements Storage {
 
     final IPersistent loadStub(int oid, IPersistent obj, Class cls)
     {
+        if (statistics != null) { 
+            statistics.objectCacheMisses.increment();
+        }
         long pos = getPos(oid);
         if ((pos & (dbFreeHandleFlag|dbPageObjectFlag)) != 0) { 
             throw new StorageError(StorageError.DELETED_OBJECT);
@@ -2580,6 +3158,8 @@ public class StorageImpl implements Storage {
         }
         if (obj == null) { 
             obj = (IPersistent)desc.newInstance();
+            // object is not accessible through the cache without locking until it is loaded
+            obj.assignOid(this, oid, true);
             objectCache.put(oid, obj);
         }
         obj.assignOid(this, oid, false);
@@ -2587,12 +3167,14 @@ public class StorageImpl implements Storage {
             ((FastSerializable)obj).unpack(body, ObjectHeader.sizeof, encoding);
         } else { 
             try { 
-                unpackObject(obj, desc, obj.recursiveLoading(), body, ObjectHeader.sizeof, obj);
+                unpackObject(obj, desc, obj.recursiveLoading(), body, ObjectHeader.sizeof, obj, desc.getRecordFormat());
             } catch (Exception x) { 
                 throw new StorageError(StorageError.ACCESS_VIOLATION, x);
             }
         }
         obj.onLoad();
+        // publish loaded object
+        objectCache.put(oid, obj);
         return obj;
     }
 
@@ -2613,560 +3195,282 @@ public class StorageImpl implements Storage {
         }
     }
 
-    final int unpackObject(Object obj, ClassDescriptor desc, boolean recursiveLoading, byte[] body, int offs, IPersistent po) 
+    /**
+     * System classes which got new fields at the end of their records 
+     * (<code>ClassDescriptor.compact</code> and <code>BtreeMultiFieldIndex.normalized</code>)
+     */
+    static final boolean hasAddedFields(ClassDescriptor desc) { 
+        return desc.cls == ClassDescriptor.class || desc.cls == BtreeMultiFieldIndex.class;
+    }
+
+    final int unpackObject(Object obj, ClassDescriptor desc, boolean recursiveLoading, byte[] body, int offs, IPersistent po,
+                           RecordFormat format) 
       throws Exception
     {
         ClassDescriptor.FieldDescriptor[] all = desc.allFields;
-        ReflectionProvider provider = ClassDescriptor.getReflectionProvider();
         int len;
 
         for (int i = 0, n = all.length; i < n; i++) { 
+            if (offs == body.length) { 
+                if (!hasAddedFields(desc)) { 
+                    throw new StorageError(StorageError.DATABASE_CORRUPTED);
+                }
+                // record was stored by previous version of system class:
+                // fields added later are not present in the record and keep default values
+                break;
+            }
             ClassDescriptor.FieldDescriptor fd = all[i];
-            Field f = fd.field;
+            FieldAccessor f = fd.accessor;
 
             if (f == null || obj == null) { 
-                switch (fd.type) { 
-                case ClassDescriptor.tpBoolean:
-                case ClassDescriptor.tpByte:
-                    offs += 1;
-                    continue;
-                case ClassDescriptor.tpChar:
-                case ClassDescriptor.tpShort:
-                    offs += 2;
-                    continue;
-                case ClassDescriptor.tpInt:
-                case ClassDescriptor.tpFloat:
-                case ClassDescriptor.tpObject:
-                case ClassDescriptor.tpEnum:
-                    offs += 4;
-                    continue;
-                case ClassDescriptor.tpLong:
-                case ClassDescriptor.tpDouble:
-                case ClassDescriptor.tpDate:
-                    offs += 8;
-                    continue;
-                case ClassDescriptor.tpString:
-                    len = Bytes.unpack4(body, offs);
-                    offs += 4;
-                    if (len > 0) { 
-                        offs += len*2;
-                    } else if (len < -1) {
-                        offs -= len+2;
-                    } 
-                    continue;
-                case ClassDescriptor.tpValue:
-                    offs = unpackObject(null, fd.valueDesc, recursiveLoading, body, offs, po);
-                    continue;
-                case ClassDescriptor.tpRaw:
-                case ClassDescriptor.tpArrayOfByte:
-                case ClassDescriptor.tpArrayOfBoolean:
-                    len = Bytes.unpack4(body, offs);
-                    offs += 4;
-                    if (len > 0) { 
-                        offs += len;
-                    } else if (len < -1) { 
-                        offs += ClassDescriptor.sizeof[-2-len];
-                    }
-                    continue;
-                case ClassDescriptor.tpArrayOfShort:
-                case ClassDescriptor.tpArrayOfChar:
-                    len = Bytes.unpack4(body, offs);
-                    offs += 4;
-                    if (len > 0) { 
-                        offs += len*2;
-                    }
-                    continue;
-                case ClassDescriptor.tpArrayOfInt:
-                case ClassDescriptor.tpArrayOfEnum:
-                case ClassDescriptor.tpArrayOfFloat:
-                case ClassDescriptor.tpArrayOfObject:
-                case ClassDescriptor.tpLink:
-                    len = Bytes.unpack4(body, offs);
-                    offs += 4;
-                    if (len > 0) { 
-                        offs += len*4;
-                    }
-                    continue;
-                case ClassDescriptor.tpArrayOfLong:
-                case ClassDescriptor.tpArrayOfDouble:
-                case ClassDescriptor.tpArrayOfDate:
-                    len = Bytes.unpack4(body, offs);
-                    offs += 4;
-                    if (len > 0) { 
-                        offs += len*8;
-                    }
-                    continue;
-                case ClassDescriptor.tpArrayOfString:
-                    len = Bytes.unpack4(body, offs);
-                    offs += 4;
-                    if (len > 0) { 
-                        for (int j = 0; j < len; j++) {
-                            int strlen = Bytes.unpack4(body, offs);
-                            offs += 4;
-                            if (strlen > 0) {
-                                offs += strlen*2;
-                            } else if (strlen < -1) {
-                                offs -= strlen+2;
-                            }
-                        }
-                    }
-                    continue;
-                case ClassDescriptor.tpArrayOfValue:
-                    len = Bytes.unpack4(body, offs);
-                    offs += 4;
-                    if (len > 0) { 
-                        ClassDescriptor valueDesc = fd.valueDesc;
-                        for (int j = 0; j < len; j++) { 
-                            offs = unpackObject(null, valueDesc, recursiveLoading, body, offs, po);
-                        }
-                    }
-                    continue;
-                case ClassDescriptor.tpArrayOfRaw:
-                    len = Bytes.unpack4(body, offs);
-                    offs += 4;
-                    if (len > 0) { 
-                        for (int j = 0; j < len; j++) {
-                            int rawlen = Bytes.unpack4(body, offs);
-                            offs += 4;
-                            if (rawlen > 0) {
-                                offs += rawlen;
-                            } else if (rawlen < -1) { 
-                                offs += ClassDescriptor.sizeof[-2-rawlen];
-                            }
-                        }
-                    }
-                    continue;
-                }                
-            } else {                 
-                switch (fd.type) { 
-                case ClassDescriptor.tpBoolean:
-                    provider.setBoolean(f, obj, body[offs++] != 0);
-                    continue;
-                case ClassDescriptor.tpByte:
-                    provider.setByte(f, obj, body[offs++]);
-                    continue;
-                case ClassDescriptor.tpChar:
-                    provider.setChar(f, obj, (char)Bytes.unpack2(body, offs));
-                    offs += 2;
-                    continue;
-                case ClassDescriptor.tpShort:
-                    provider.setShort(f, obj, Bytes.unpack2(body, offs));
-                    offs += 2;
-                    continue;
-                case ClassDescriptor.tpInt:
-                    provider.setInt(f, obj, Bytes.unpack4(body, offs));
-                    offs += 4;
-                    continue;
-                case ClassDescriptor.tpLong:
-                    provider.setLong(f, obj, Bytes.unpack8(body, offs));
-                    offs += 8;
-                    continue;
-                case ClassDescriptor.tpFloat:
-                    provider.setFloat(f, obj, Float.intBitsToFloat(Bytes.unpack4(body, offs)));
-                    offs += 4;
-                    continue;
-                case ClassDescriptor.tpDouble:
-                    provider.setDouble(f, obj, Double.longBitsToDouble(Bytes.unpack8(body, offs)));
-                    offs += 8;
-                    continue;
-                case ClassDescriptor.tpEnum:
-                {
-                    int index = Bytes.unpack4(body, offs);
+                offs = format.skipField(fd, body, offs);
+                continue;
+            }
+            switch (fd.type) { 
+            case ClassDescriptor.tpBoolean:
+                f.setBoolean(obj, body[offs++] != 0);
+                continue;
+            case ClassDescriptor.tpByte:
+                f.setByte(obj, body[offs++]);
+                continue;
+            case ClassDescriptor.tpChar:
+                f.setChar(obj, format.unpackChar(body, offs));
+                offs = format.skipScalar(ClassDescriptor.tpChar, body, offs);
+                continue;
+            case ClassDescriptor.tpShort:
+                f.setShort(obj, format.unpackShort(body, offs));
+                offs = format.skipScalar(ClassDescriptor.tpShort, body, offs);
+                continue;
+            case ClassDescriptor.tpInt:
+                f.setInt(obj, format.unpackInt(body, offs));
+                offs = format.skipScalar(ClassDescriptor.tpInt, body, offs);
+                continue;
+            case ClassDescriptor.tpLong:
+                f.setLong(obj, format.unpackLong(body, offs));
+                offs = format.skipScalar(ClassDescriptor.tpLong, body, offs);
+                continue;
+            case ClassDescriptor.tpFloat:
+                f.setFloat(obj, Float.intBitsToFloat(Bytes.unpack4(body, offs)));
+                offs += 4;
+                continue;
+            case ClassDescriptor.tpDouble:
+                f.setDouble(obj, Double.longBitsToDouble(Bytes.unpack8(body, offs)));
+                offs += 8;
+                continue;
+            case ClassDescriptor.tpEnum:
+            {
+                int index = format.unpackEnum(body, offs);
+                offs = format.skipScalar(ClassDescriptor.tpEnum, body, offs);
+                if (index >= 0) {
+                    f.set(obj, fd.field.getType().getEnumConstants()[index]);
+                } else {
+                    f.set(obj, null);
+                }
+                continue;
+            }
+            case ClassDescriptor.tpString:
+                f.set(obj, Bytes.unpackStr(body, offs, encoding));
+                offs += Bytes.sizeof(body, offs);
+                continue;
+            case ClassDescriptor.tpDate:
+            {
+                long msec = format.unpackLong(body, offs);
+                offs = format.skipScalar(ClassDescriptor.tpDate, body, offs);
+                Date date = null;
+                if (msec >= 0) { 
+                    date = new Date(msec);
+                }
+                f.set(obj, date);
+                continue;
+            }
+            case ClassDescriptor.tpObject:
+                f.set(obj, unswizzle(format.unpackOid(body, offs), f.getType(), recursiveLoading));
+                offs = format.skipScalar(ClassDescriptor.tpObject, body, offs);
+                continue;
+            case ClassDescriptor.tpValue:
+            {
+                Object value = fd.valueDesc.newInstance();
+                offs = unpackObject(value, fd.valueDesc, recursiveLoading, body, offs, po, format);
+                f.set(obj, value);
+                continue;
+            }
+            case ClassDescriptor.tpRaw:
+                f.set(obj, unpackRawValue(body, offs, recursiveLoading));
+                offs = skipRawValue(body, offs);
+                continue;
+            }
+            len = format.unpackLength(body, offs);
+            offs = format.skipLength(body, offs);
+            if (len < 0) { 
+                f.set(obj, null);
+                continue;
+            }
+            switch (fd.type) { 
+            case ClassDescriptor.tpArrayOfByte:
+            {
+                byte[] arr = new byte[len];
+                System.arraycopy(body, offs, arr, 0, len);
+                offs += len;
+                f.set(obj, arr);
+                continue;
+            }
+            case ClassDescriptor.tpArrayOfBoolean:
+            {
+                boolean[] arr = new boolean[len];
+                for (int j = 0; j < len; j++) { 
+                    arr[j] = body[offs++] != 0;
+                }
+                f.set(obj, arr);
+                continue;
+            }
+            case ClassDescriptor.tpArrayOfShort:
+            {
+                short[] arr = new short[len];
+                for (int j = 0; j < len; j++) { 
+                    arr[j] = format.unpackShort(body, offs);
+                    offs = format.skipScalar(ClassDescriptor.tpShort, body, offs);
+                }
+                f.set(obj, arr);
+                continue;
+            }
+            case ClassDescriptor.tpArrayOfChar:
+            {
+                char[] arr = new char[len];
+                for (int j = 0; j < len; j++) { 
+                    arr[j] = format.unpackChar(body, offs);
+                    offs = format.skipScalar(ClassDescriptor.tpChar, body, offs);
+                }
+                f.set(obj, arr);
+                continue;
+            }
+            case ClassDescriptor.tpArrayOfInt:
+            {
+                int[] arr = new int[len];
+                for (int j = 0; j < len; j++) { 
+                    arr[j] = format.unpackInt(body, offs);
+                    offs = format.skipScalar(ClassDescriptor.tpInt, body, offs);
+                }
+                f.set(obj, arr);
+                continue;
+            }
+            case ClassDescriptor.tpArrayOfEnum:
+            {
+                Class elemType = f.getType().getComponentType();
+                Enum[] enumConstants = (Enum[])elemType.getEnumConstants();
+                Enum[] arr = (Enum[])Array.newInstance(elemType, len);
+                for (int j = 0; j < len; j++) { 
+                    int index = format.unpackEnum(body, offs);
+                    offs = format.skipScalar(ClassDescriptor.tpEnum, body, offs);
                     if (index >= 0) {
-                        provider.set(f, obj, fd.field.getType().getEnumConstants()[index]);
-                    } else {
-                        provider.set(f, obj, null);
+                        arr[j] = enumConstants[index];
                     }
-                    offs += 4;
-                    continue;
                 }
-                case ClassDescriptor.tpString:
-                {
-                    len = Bytes.unpack4(body, offs);
+                f.set(obj, arr);
+                continue;
+            }
+            case ClassDescriptor.tpArrayOfLong:
+            {
+                long[] arr = new long[len];
+                for (int j = 0; j < len; j++) { 
+                    arr[j] = format.unpackLong(body, offs);
+                    offs = format.skipScalar(ClassDescriptor.tpLong, body, offs);
+                }
+                f.set(obj, arr);
+                continue;
+            }
+            case ClassDescriptor.tpArrayOfFloat:
+            {
+                float[] arr = new float[len];
+                for (int j = 0; j < len; j++) { 
+                    arr[j] = Float.intBitsToFloat(Bytes.unpack4(body, offs));
                     offs += 4;
-                    String str = null;
-                    if (len >= 0) { 
-                        char[] chars = new char[len];
-                        for (int j = 0; j < len; j++) { 
-                            chars[j] = (char)Bytes.unpack2(body, offs);
-                            offs += 2;
-                        }
-                        str = new String(chars);
-                    } else if (len < -1) {
-                        if (encoding != null) { 
-                            str = new String(body, offs, -2-len, encoding);
-                        } else { 
-                            str = new String(body, offs, -2-len);
-                        }
-                        offs -= 2+len;
-                    } 
-                    provider.set(f, obj, str);
-                    continue;
                 }
-                case ClassDescriptor.tpDate:
-                {
-                    long msec = Bytes.unpack8(body, offs);
+                f.set(obj, arr);
+                continue;
+            }
+            case ClassDescriptor.tpArrayOfDouble:
+            {
+                double[] arr = new double[len];
+                for (int j = 0; j < len; j++) { 
+                    arr[j] = Double.longBitsToDouble(Bytes.unpack8(body, offs));
                     offs += 8;
-                    Date date = null;
+                }
+                f.set(obj, arr);
+                continue;
+            }
+            case ClassDescriptor.tpArrayOfDate:
+            {
+                Date[] arr = new Date[len];
+                for (int j = 0; j < len; j++) { 
+                    long msec = format.unpackLong(body, offs);
+                    offs = format.skipScalar(ClassDescriptor.tpDate, body, offs);
                     if (msec >= 0) { 
-                        date = new Date(msec);
+                        arr[j] = new Date(msec);
                     }
-                    provider.set(f, obj, date);
-                    continue;
                 }
-                case ClassDescriptor.tpObject:
-                {
-                    provider.set(f, obj, unswizzle(Bytes.unpack4(body, offs), f.getType(), recursiveLoading));
-                    offs += 4;
-                    continue;
+                f.set(obj, arr);
+                continue;
+            }
+            case ClassDescriptor.tpArrayOfString:
+            {
+                String[] arr = new String[len];
+                for (int j = 0; j < len; j++) {
+                    arr[j] = Bytes.unpackStr(body, offs, encoding);
+                    offs += Bytes.sizeof(body, offs);
                 }
-                case ClassDescriptor.tpValue:
-                {
-                    Object value = fd.valueDesc.newInstance();
-                    offs = unpackObject(value, fd.valueDesc, recursiveLoading, body, offs ,po);
-                    provider.set(f, obj, value);
-                    continue;
+                f.set(obj, arr);
+                continue;
+            }
+            case ClassDescriptor.tpArrayOfObject:
+            {
+                Class elemType = f.getType().getComponentType();
+                IPersistent[] arr = (IPersistent[])Array.newInstance(elemType, len);
+                int oid = 0;
+                for (int j = 0; j < len; j++) { 
+                    oid = format.unpackOidElement(body, offs, oid);
+                    offs = format.skipScalar(ClassDescriptor.tpObject, body, offs);
+                    arr[j] = unswizzle(oid, elemType, recursiveLoading);
                 }
-                case ClassDescriptor.tpRaw:
-                    len = Bytes.unpack4(body, offs);
-                    offs += 4;
-                    if (len >= 0) { 
-                        ByteArrayInputStream bin = new ByteArrayInputStream(body, offs, len);
-                        ObjectInputStream in = new PersistentObjectInputStream(bin);
-                        provider.set(f, obj, in.readObject());
-                        in.close();
-                        offs += len;
-                    } else if (len < 0) { 
-                        Object val = null;
-                        switch (-2-len) { 
-                        case ClassDescriptor.tpBoolean:
-                            val = Boolean.valueOf(body[offs++] != 0);
-                            break;
-                        case ClassDescriptor.tpByte:
-                            val = new Byte(body[offs++]);
-                            break;                            
-                        case ClassDescriptor.tpChar:
-                            val = new Character((char)Bytes.unpack2(body, offs));
-                            offs += 2;
-                            break;                            
-                        case ClassDescriptor.tpShort:
-                            val = new Short(Bytes.unpack2(body, offs));
-                            offs += 2;
-                            break;                            
-                        case ClassDescriptor.tpInt:
-                            val = new Integer(Bytes.unpack4(body, offs));
-                            offs += 4;
-                            break;                            
-                        case ClassDescriptor.tpLong:
-                            val = new Long(Bytes.unpack8(body, offs));
-                            offs += 8;
-                            break;                            
-                        case ClassDescriptor.tpFloat:
-                            val = new Float(Float.intBitsToFloat(Bytes.unpack4(body, offs)));
-                            offs += 4;
-                            break;                            
-                        case ClassDescriptor.tpDouble:
-                            val = new Double(Double.longBitsToDouble(Bytes.unpack8(body, offs)));
-                            offs += 8;
-                            break;                            
-                        case ClassDescriptor.tpDate:
-                            val = new Date(Bytes.unpack8(body, offs));
-                            offs += 8;
-                            break;                                                       
-                        case ClassDescriptor.tpObject:
-                            val = unswizzle(Bytes.unpack4(body, offs), Persistent.class, recursiveLoading);
-                            offs += 4;
-                        }
-                        provider.set(f, obj, val);
-                    }
-                    continue;
-                case ClassDescriptor.tpArrayOfByte:
-                    len = Bytes.unpack4(body, offs);
-                    offs += 4;
-                    if (len < 0) { 
-                        provider.set(f, obj, null);
-                    } else {
-                        byte[] arr = new byte[len];
-                        System.arraycopy(body, offs, arr, 0, len);
-                        offs += len;
-                        provider.set(f, obj, arr);
-                    }
-                    continue;
-                case ClassDescriptor.tpArrayOfBoolean:
-                    len = Bytes.unpack4(body, offs);
-                    offs += 4;
-                    if (len < 0) { 
-                        provider.set(f, obj, null);
-                    } else {
-                        boolean[] arr = new boolean[len];
-                        for (int j = 0; j < len; j++) { 
-                            arr[j] = body[offs++] != 0;
-                        }
-                        provider.set(f, obj, arr);
-                    }
-                    continue;
-                case ClassDescriptor.tpArrayOfShort:
-                    len = Bytes.unpack4(body, offs);
-                    offs += 4;
-                    if (len < 0) { 
-                        provider.set(f, obj, null);
-                    } else {
-                        short[] arr = new short[len];
-                        for (int j = 0; j < len; j++) { 
-                            arr[j] = Bytes.unpack2(body, offs);
-                            offs += 2;
-                        }
-                        provider.set(f, obj, arr);
-                    }
-                    continue;
-                case ClassDescriptor.tpArrayOfChar:
-                    len = Bytes.unpack4(body, offs);
-                    offs += 4;
-                    if (len < 0) { 
-                        provider.set(f, obj, null);
-                    } else {
-                        char[] arr = new char[len];
-                        for (int j = 0; j < len; j++) { 
-                            arr[j] = (char)Bytes.unpack2(body, offs);
-                            offs += 2;
-                        }
-                        provider.set(f, obj, arr);
-                    }
-                    continue;
-                case ClassDescriptor.tpArrayOfInt:
-                    len = Bytes.unpack4(body, offs);
-                    offs += 4;
-                    if (len < 0) { 
-                        provider.set(f, obj, null);
-                    } else {
-                        int[] arr = new int[len];
-                        for (int j = 0; j < len; j++) { 
-                            arr[j] = Bytes.unpack4(body, offs);
-                            offs += 4;
-                        }
-                        provider.set(f, obj, arr);
-                    }
-                    continue;
-                case ClassDescriptor.tpArrayOfEnum:
-                    len = Bytes.unpack4(body, offs);
-                    offs += 4;
-                    if (len < 0) { 
-                        f.set(obj, null);
-                    } else {
-                        Class elemType = f.getType().getComponentType();
-                        Enum[] enumConstants = (Enum[])elemType.getEnumConstants();
-                        Enum[] arr = (Enum[])Array.newInstance(elemType, len);
-                        for (int j = 0; j < len; j++) { 
-                            int index = Bytes.unpack4(body, offs);
-                            if (index >= 0) {
-				arr[j] = enumConstants[index];
-			    }
-                            offs += 4;
-                        }
-                        f.set(obj, arr);
-                    }
-                    continue;
-                case ClassDescriptor.tpArrayOfLong:
-                    len = Bytes.unpack4(body, offs);
-                    offs += 4;
-                    if (len < 0) { 
-                        provider.set(f, obj, null);
-                    } else {
-                        long[] arr = new long[len];
-                        for (int j = 0; j < len; j++) { 
-                            arr[j] = Bytes.unpack8(body, offs);
-                            offs += 8;
-                        }
-                        provider.set(f, obj, arr);
-                    }
-                    continue;
-                case ClassDescriptor.tpArrayOfFloat:
-                    len = Bytes.unpack4(body, offs);
-                    offs += 4;
-                    if (len < 0) { 
-                        provider.set(f, obj, null);
-                    } else {
-                        float[] arr = new float[len];
-                        for (int j = 0; j < len; j++) { 
-                            arr[j] = Float.intBitsToFloat(Bytes.unpack4(body, offs));
-                            offs += 4;
-                        }
-                        provider.set(f, obj, arr);
-                    }
-                    continue;
-                case ClassDescriptor.tpArrayOfDouble:
-                    len = Bytes.unpack4(body, offs);
-                    offs += 4;
-                    if (len < 0) { 
-                        provider.set(f, obj, null);
-                    } else {
-                        double[] arr = new double[len];
-                        for (int j = 0; j < len; j++) { 
-                            arr[j] = Double.longBitsToDouble(Bytes.unpack8(body, offs));
-                            offs += 8;
-                        }
-                        provider.set(f, obj, arr);
-                    }
-                    continue;
-                case ClassDescriptor.tpArrayOfDate:
-                    len = Bytes.unpack4(body, offs);
-                    offs += 4;
-                    if (len < 0) { 
-                        provider.set(f, obj, null);
-                    } else {
-                        Date[] arr = new Date[len];
-                        for (int j = 0; j < len; j++) { 
-                            long msec = Bytes.unpack8(body, offs);
-                            offs += 8;
-                            if (msec >= 0) { 
-                                arr[j] = new Date(msec);
-                            }
-                        }
-                        provider.set(f, obj, arr);
-                    }
-                    continue;
-                case ClassDescriptor.tpArrayOfString:
-                    len = Bytes.unpack4(body, offs);
-                    offs += 4;
-                    if (len < 0) { 
-                        provider.set(f, obj, null);
-                    } else {
-                        String[] arr = new String[len];
-                        for (int j = 0; j < len; j++) {
-                            int strlen = Bytes.unpack4(body, offs);
-                            offs += 4;
-                            if (strlen >= 0) {
-                                char[] chars = new char[strlen];
-                                for (int k = 0; k < strlen; k++) { 
-                                    chars[k] = (char)Bytes.unpack2(body, offs);
-                                    offs += 2;
-                                }
-                                arr[j] = new String(chars);
-                            } else if (strlen < -1) {
-                                if (encoding != null) { 
-                                    arr[j] = new String(body, offs, -2-strlen, encoding);
-                                } else {
-                                    arr[j] = new String(body, offs, -2-strlen);
-                                }
-                                offs -= 2+strlen;
-                            }
-                        }
-                        provider.set(f, obj, arr);
-                    }
-                    continue;
-                case ClassDescriptor.tpArrayOfObject:
-                    len = Bytes.unpack4(body, offs);
-                    offs += 4;
-                    if (len < 0) { 
-                        provider.set(f, obj, null);
-                    } else {
-                        Class elemType = f.getType().getComponentType();
-                        IPersistent[] arr = (IPersistent[])Array.newInstance(elemType, len);
-                        for (int j = 0; j < len; j++) { 
-                            arr[j] = unswizzle(Bytes.unpack4(body, offs), elemType, recursiveLoading);
-                            offs += 4;
-                        }
-                        provider.set(f, obj, arr);
-                    }
-                    continue;
-                case ClassDescriptor.tpArrayOfValue:
-                    len = Bytes.unpack4(body, offs);
-                    offs += 4;
-                    if (len < 0) { 
-                        provider.set(f, obj, null);
-                    } else {
-                        Class elemType = f.getType().getComponentType();
-                        Object[] arr = (Object[])Array.newInstance(elemType, len);
-                        ClassDescriptor valueDesc = fd.valueDesc;
-                        for (int j = 0; j < len; j++) { 
-                            Object value = valueDesc.newInstance();
-                            offs = unpackObject(value, valueDesc, recursiveLoading, body, offs, po);
-                            arr[j] = value;
-                        }
-                        provider.set(f, obj, arr);
-                    }
-                    continue;
-                case ClassDescriptor.tpArrayOfRaw:
-                    len = Bytes.unpack4(body, offs);
-                    offs += 4;
-                    if (len < 0) { 
-                        provider.set(f, obj, null);
-                    } else {
-                        Class elemType = f.getType().getComponentType();
-                        Object[] arr = (Object[])Array.newInstance(elemType, len);
-                        for (int j = 0; j < len; j++) { 
-                            int rawlen = Bytes.unpack4(body, offs);
-                            offs += 4;
-                            if (rawlen >= 0) {
-                                ByteArrayInputStream bin = new ByteArrayInputStream(body, offs, rawlen);
-                                ObjectInputStream in = new PersistentObjectInputStream(bin);
-                                arr[j] = in.readObject();
-                                in.close();
-                                offs += rawlen;
-                            } else {
-                                Object val = null;
-                                switch (-2-rawlen) { 
-                                case ClassDescriptor.tpBoolean:
-                                    val = Boolean.valueOf(body[offs++] != 0);
-                                    break;
-                                case ClassDescriptor.tpByte:
-                                    val = new Byte(body[offs++]);
-                                    break;                            
-                                case ClassDescriptor.tpChar:
-                                    val = new Character((char)Bytes.unpack2(body, offs));
-                                    offs += 2;
-                                    break;                            
-                                case ClassDescriptor.tpShort:
-                                    val = new Short(Bytes.unpack2(body, offs));
-                                    offs += 2;
-                                    break;                            
-                                case ClassDescriptor.tpInt:
-                                    val = new Integer(Bytes.unpack4(body, offs));
-                                    offs += 4;
-                                    break;                            
-                                case ClassDescriptor.tpLong:
-                                    val = new Long(Bytes.unpack8(body, offs));
-                                    offs += 8;
-                                    break;                            
-                                case ClassDescriptor.tpFloat:
-                                    val = new Float(Float.intBitsToFloat(Bytes.unpack4(body, offs)));
-                                    offs += 4;
-                                    break;                            
-                                case ClassDescriptor.tpDouble:
-                                    val = new Double(Double.longBitsToDouble(Bytes.unpack8(body, offs)));
-                                    offs += 8;
-                                    break;                            
-                                case ClassDescriptor.tpDate:
-                                    val = new Date(Bytes.unpack8(body, offs));
-                                    offs += 8;
-                                    break;                                                       
-                                case ClassDescriptor.tpObject:
-                                    val = unswizzle(Bytes.unpack4(body, offs), Persistent.class, recursiveLoading);
-                                    offs += 4;
-                                }
-                                arr[j] = val;
-                            }
-                        }
-                        provider.set(f, obj, arr);
-                    }
-                    continue;
-                case ClassDescriptor.tpLink:
-                    len = Bytes.unpack4(body, offs);
-                    offs += 4;
-                    if (len < 0) { 
-                        provider.set(f, obj, null);
-                    } else {
-                        IPersistent[] arr = new IPersistent[len];
-                        for (int j = 0; j < len; j++) { 
-                            int elemOid = Bytes.unpack4(body, offs);
-                            offs += 4;
-                            if (elemOid != 0) { 
-                                arr[j] = new PersistentStub(this, elemOid);
-                            }
-                        }
-                        provider.set(f, obj, new LinkImpl(arr, po));
+                f.set(obj, arr);
+                continue;
+            }
+            case ClassDescriptor.tpArrayOfValue:
+            {
+                Class elemType = f.getType().getComponentType();
+                Object[] arr = (Object[])Array.newInstance(elemType, len);
+                ClassDescriptor valueDesc = fd.valueDesc;
+                for (int j = 0; j < len; j++) { 
+                    Object value = valueDesc.newInstance();
+                    offs = unpackObject(value, valueDesc, recursiveLoading, body, offs, po, format);
+                    arr[j] = value;
+                }
+                f.set(obj, arr);
+                continue;
+            }
+            case ClassDescriptor.tpArrayOfRaw:
+            {
+                Class elemType = f.getType().getComponentType();
+                Object[] arr = (Object[])Array.newInstance(elemType, len);
+                for (int j = 0; j < len; j++) { 
+                    arr[j] = unpackRawValue(body, offs, recursiveLoading);
+                    offs = skipRawValue(body, offs);
+                }
+                f.set(obj, arr);
+                continue;
+            }
+            case ClassDescriptor.tpLink:
+            {
+                IPersistent[] arr = new IPersistent[len];
+                int oid = 0;
+                for (int j = 0; j < len; j++) { 
+                    oid = format.unpackOidElement(body, offs, oid);
+                    offs = format.skipScalar(ClassDescriptor.tpObject, body, offs);
+                    if (oid != 0) { 
+                        arr[j] = new PersistentStub(this, oid);
                     }
                 }
+                f.set(obj, new LinkImpl(arr, po));
+            }
             }
         }
         return offs;
@@ -3182,7 +3486,7 @@ public class StorageImpl implements Storage {
             offs = ((FastSerializable)obj).pack(buf, offs, encoding);
         } else { 
             try {
-                offs = packObject(obj, desc, offs, buf, obj);
+                offs = packObject(obj, desc, offs, buf, obj, desc.getRecordFormat());
             } catch (Exception x) { 
                 throw new StorageError(StorageError.ACCESS_VIOLATION, x);
             }        
@@ -3267,12 +3571,21 @@ public class StorageImpl implements Storage {
     }
 
 
-    final int packObject(Object obj, ClassDescriptor desc, int offs, ByteBuffer buf, IPersistent po) throws Exception 
+    /**
+     * Pack string in compact representation unless it is disabled or encoding of strings is explicitly specified
+     */
+    final int packString(ByteBuffer buf, int offs, String str) { 
+        return compactStrings && encoding == null
+            ? buf.packCompactString(offs, str) : buf.packString(offs, str, encoding);
+    }
+
+    final int packObject(Object obj, ClassDescriptor desc, int offs, ByteBuffer buf, IPersistent po, RecordFormat format)
+      throws Exception 
     { 
         ClassDescriptor.FieldDescriptor[] flds = desc.allFields;
         for (int i = 0, n = flds.length; i < n; i++) {
             ClassDescriptor.FieldDescriptor fd = flds[i];
-            Field f = fd.field;
+            FieldAccessor f = fd.accessor;
             switch(fd.type) {
                 case ClassDescriptor.tpByte:
                     buf.extend(offs + 1);
@@ -3283,24 +3596,16 @@ public class StorageImpl implements Storage {
                     buf.arr[offs++] = (byte)(f.getBoolean(obj) ? 1 : 0);
                     continue;
                 case ClassDescriptor.tpShort:
-                    buf.extend(offs + 2);
-                    Bytes.pack2(buf.arr, offs, f.getShort(obj));
-                    offs += 2;
+                    offs = format.packShort(buf, offs, f.getShort(obj));
                     continue;
                 case ClassDescriptor.tpChar:
-                    buf.extend(offs + 2);
-                    Bytes.pack2(buf.arr, offs, (short)f.getChar(obj));
-                    offs += 2;
+                    offs = format.packChar(buf, offs, f.getChar(obj));
                     continue;
                 case ClassDescriptor.tpInt:
-                    buf.extend(offs + 4);
-                    Bytes.pack4(buf.arr, offs, f.getInt(obj));
-                    offs += 4;
+                    offs = format.packInt(buf, offs, f.getInt(obj));
                     continue;
                 case ClassDescriptor.tpLong:
-                    buf.extend(offs + 8);
-                    Bytes.pack8(buf.arr, offs, f.getLong(obj));
-                    offs += 8;
+                    offs = format.packLong(buf, offs, f.getLong(obj));
                     continue;
                 case ClassDescriptor.tpFloat:
                     buf.extend(offs + 4);
@@ -3313,36 +3618,24 @@ public class StorageImpl implements Storage {
                     offs += 8;
                     continue;
                 case ClassDescriptor.tpEnum:
-		{
+                {
                     Enum e = (Enum)f.get(obj);
-                    buf.extend(offs + 4);
-                    if (e == null) {
-                        Bytes.pack4(buf.arr, offs, -1);
-                    } else {
-                        Bytes.pack4(buf.arr, offs, e.ordinal());
-                    }
-                    offs += 4;
+                    offs = format.packEnum(buf, offs, e == null ? -1 : e.ordinal());
                     continue;
-		}
+                }
                 case ClassDescriptor.tpDate:
                 {
-                    buf.extend(offs + 8);
                     Date d = (Date)f.get(obj);
                     long msec = (d == null) ? -1 : d.getTime();                
-                    Bytes.pack8(buf.arr, offs, msec);
-                    offs += 8;
+                    offs = format.packLong(buf, offs, msec);
                     continue;
                 }
                 case ClassDescriptor.tpString:
-                    offs = buf.packString(offs, (String)f.get(obj), encoding);
+                    offs = packString(buf, offs, (String)f.get(obj));
                     continue;
                 case ClassDescriptor.tpObject:
-                {
-                    buf.extend(offs + 4);
-                    Bytes.pack4(buf.arr, offs, swizzle((IPersistent)f.get(obj)));
-                    offs += 4;
+                    offs = format.packOid(buf, offs, swizzle((IPersistent)f.get(obj)));
                     continue;
-                }
                 case ClassDescriptor.tpValue:
                 {
                     Object value = f.get(obj);
@@ -3351,7 +3644,7 @@ public class StorageImpl implements Storage {
                     } else if (value instanceof IPersistent) { 
                         throw new StorageError(StorageError.SERIALIZE_PERSISTENT);
                     }                        
-                    offs = packObject(value, fd.valueDesc, offs, buf, po);
+                    offs = packObject(value, fd.valueDesc, offs, buf, po, format);
                     continue;
                 }
                 case ClassDescriptor.tpRaw:
@@ -3361,14 +3654,11 @@ public class StorageImpl implements Storage {
                 {
                     byte[] arr = (byte[])f.get(obj);
                     if (arr == null) { 
-                        buf.extend(offs + 4);
-                        Bytes.pack4(buf.arr, offs, -1);
-                        offs += 4;
+                        offs = format.packLength(buf, offs, -1);
                     } else {
                         int len = arr.length;                        
-                        buf.extend(offs + 4 + len);
-                        Bytes.pack4(buf.arr, offs, len);
-                        offs += 4;
+                        offs = format.packLength(buf, offs, len);
+                        buf.extend(offs + len);
                         System.arraycopy(arr, 0, buf.arr, offs, len);
                         offs += len;
                     }
@@ -3378,14 +3668,11 @@ public class StorageImpl implements Storage {
                 {
                     boolean[] arr = (boolean[])f.get(obj);
                     if (arr == null) { 
-                        buf.extend(offs + 4);
-                        Bytes.pack4(buf.arr, offs, -1);
-                        offs += 4;
+                        offs = format.packLength(buf, offs, -1);
                     } else {
                         int len = arr.length;                        
-                        buf.extend(offs + 4 + len);
-                        Bytes.pack4(buf.arr, offs, len);
-                        offs += 4;
+                        offs = format.packLength(buf, offs, len);
+                        buf.extend(offs + len);
                         for (int j = 0; j < len; j++, offs++) {
                             buf.arr[offs] = (byte)(arr[j] ? 1 : 0);
                         }
@@ -3396,17 +3683,12 @@ public class StorageImpl implements Storage {
                 {
                     short[] arr = (short[])f.get(obj);
                     if (arr == null) { 
-                        buf.extend(offs + 4);
-                        Bytes.pack4(buf.arr, offs, -1);
-                        offs += 4;
+                        offs = format.packLength(buf, offs, -1);
                     } else {
                         int len = arr.length;                        
-                        buf.extend(offs + 4 + len*2);
-                        Bytes.pack4(buf.arr, offs, len);
-                        offs += 4;
+                        offs = format.packLength(buf, offs, len);
                         for (int j = 0; j < len; j++) {
-                            Bytes.pack2(buf.arr, offs, arr[j]);
-                            offs += 2;
+                            offs = format.packShort(buf, offs, arr[j]);
                         }
                     }
                     continue;
@@ -3415,17 +3697,12 @@ public class StorageImpl implements Storage {
                 {
                     char[] arr = (char[])f.get(obj);
                     if (arr == null) { 
-                        buf.extend(offs + 4);
-                        Bytes.pack4(buf.arr, offs, -1);
-                        offs += 4;
+                        offs = format.packLength(buf, offs, -1);
                     } else {
                         int len = arr.length;                        
-                        buf.extend(offs + 4 + len*2);
-                        Bytes.pack4(buf.arr, offs, len);
-                        offs += 4;
+                        offs = format.packLength(buf, offs, len);
                         for (int j = 0; j < len; j++) {
-                            Bytes.pack2(buf.arr, offs, (short)arr[j]);
-                            offs += 2;
+                            offs = format.packChar(buf, offs, arr[j]);
                         }
                     }
                     continue;
@@ -3434,17 +3711,12 @@ public class StorageImpl implements Storage {
                 {
                     int[] arr = (int[])f.get(obj);
                     if (arr == null) { 
-                        buf.extend(offs + 4);
-                        Bytes.pack4(buf.arr, offs, -1);
-                        offs += 4;
+                        offs = format.packLength(buf, offs, -1);
                     } else {
                         int len = arr.length;                        
-                        buf.extend(offs + 4 + len*4);
-                        Bytes.pack4(buf.arr, offs, len);
-                        offs += 4;
+                        offs = format.packLength(buf, offs, len);
                         for (int j = 0; j < len; j++) {
-                            Bytes.pack4(buf.arr, offs, arr[j]);
-                            offs += 4;
+                            offs = format.packInt(buf, offs, arr[j]);
                         }
                     }
                     continue;
@@ -3453,21 +3725,12 @@ public class StorageImpl implements Storage {
                 {
                     Enum[] arr = (Enum[])f.get(obj);
                     if (arr == null) { 
-                        buf.extend(offs + 4);
-                        Bytes.pack4(buf.arr, offs, -1);
-                        offs += 4;
+                        offs = format.packLength(buf, offs, -1);
                     } else {
                         int len = arr.length;                        
-                        buf.extend(offs + 4 + len*4);
-                        Bytes.pack4(buf.arr, offs, len);
-                        offs += 4;
+                        offs = format.packLength(buf, offs, len);
                         for (int j = 0; j < len; j++) {
-                            if (arr[j] == null) {
-                                Bytes.pack4(buf.arr, offs, -1);
-                            } else {
-                                Bytes.pack4(buf.arr, offs, arr[j].ordinal());
-                            }
-                            offs += 4;
+                            offs = format.packEnum(buf, offs, arr[j] == null ? -1 : arr[j].ordinal());
                         }
                     }
                     continue;
@@ -3476,17 +3739,12 @@ public class StorageImpl implements Storage {
                 {
                     long[] arr = (long[])f.get(obj);
                     if (arr == null) { 
-                        buf.extend(offs + 4);
-                        Bytes.pack4(buf.arr, offs, -1);
-                        offs += 4;
+                        offs = format.packLength(buf, offs, -1);
                     } else {
                         int len = arr.length;                        
-                        buf.extend(offs + 4 + len*8);
-                        Bytes.pack4(buf.arr, offs, len);
-                        offs += 4;
+                        offs = format.packLength(buf, offs, len);
                         for (int j = 0; j < len; j++) {
-                            Bytes.pack8(buf.arr, offs, arr[j]);
-                            offs += 8;
+                            offs = format.packLong(buf, offs, arr[j]);
                         }
                     }
                     continue;
@@ -3495,14 +3753,11 @@ public class StorageImpl implements Storage {
                 {
                     float[] arr = (float[])f.get(obj);
                     if (arr == null) { 
-                        buf.extend(offs + 4);
-                        Bytes.pack4(buf.arr, offs, -1);
-                        offs += 4;
+                        offs = format.packLength(buf, offs, -1);
                     } else {
                         int len = arr.length;                        
-                        buf.extend(offs + 4 + len*4);
-                        Bytes.pack4(buf.arr, offs, len);
-                        offs += 4;
+                        offs = format.packLength(buf, offs, len);
+                        buf.extend(offs + len*4);
                         for (int j = 0; j < len; j++) {
                             Bytes.pack4(buf.arr, offs, Float.floatToIntBits(arr[j]));
                             offs += 4;
@@ -3514,14 +3769,11 @@ public class StorageImpl implements Storage {
                 {
                     double[] arr = (double[])f.get(obj);
                     if (arr == null) { 
-                        buf.extend(offs + 4);
-                        Bytes.pack4(buf.arr, offs, -1);
-                        offs += 4;
+                        offs = format.packLength(buf, offs, -1);
                     } else {
                         int len = arr.length;                        
-                        buf.extend(offs + 4 + len*8);
-                        Bytes.pack4(buf.arr, offs, len);
-                        offs += 4;
+                        offs = format.packLength(buf, offs, len);
+                        buf.extend(offs + len*8);
                         for (int j = 0; j < len; j++) {
                             Bytes.pack8(buf.arr, offs, Double.doubleToLongBits(arr[j]));
                             offs += 8;
@@ -3533,19 +3785,14 @@ public class StorageImpl implements Storage {
                 {
                     Date[] arr = (Date[])f.get(obj);
                     if (arr == null) { 
-                        buf.extend(offs + 4);
-                        Bytes.pack4(buf.arr, offs, -1);
-                        offs += 4;
+                        offs = format.packLength(buf, offs, -1);
                     } else {
                         int len = arr.length;                        
-                        buf.extend(offs + 4 + len*8);
-                        Bytes.pack4(buf.arr, offs, len);
-                        offs += 4;
+                        offs = format.packLength(buf, offs, len);
                         for (int j = 0; j < len; j++) {
                             Date d = arr[j];
                             long msec = (d == null) ? -1 : d.getTime();                            
-                            Bytes.pack8(buf.arr, offs, msec);
-                            offs += 8;
+                            offs = format.packLong(buf, offs, msec);
                         }
                     }
                     continue;
@@ -3554,16 +3801,12 @@ public class StorageImpl implements Storage {
                 {
                     String[] arr = (String[])f.get(obj);
                     if (arr == null) { 
-                        buf.extend(offs + 4);
-                        Bytes.pack4(buf.arr, offs, -1);
-                        offs += 4;
+                        offs = format.packLength(buf, offs, -1);
                     } else {
                         int len = arr.length;                        
-                        buf.extend(offs + 4);
-                        Bytes.pack4(buf.arr, offs, len);
-                        offs += 4;
+                        offs = format.packLength(buf, offs, len);
                         for (int j = 0; j < len; j++) {
-                            offs = buf.packString(offs, (String)arr[j], encoding);
+                            offs = packString(buf, offs, (String)arr[j]);
                         }
                     }
                     continue;
@@ -3572,17 +3815,15 @@ public class StorageImpl implements Storage {
                 {
                     IPersistent[] arr = (IPersistent[])f.get(obj);
                     if (arr == null) { 
-                        buf.extend(offs + 4);
-                        Bytes.pack4(buf.arr, offs, -1);
-                        offs += 4;
+                        offs = format.packLength(buf, offs, -1);
                     } else {
                         int len = arr.length;                        
-                        buf.extend(offs + 4 + len*4);
-                        Bytes.pack4(buf.arr, offs, len);
-                        offs += 4;
+                        offs = format.packLength(buf, offs, len);
+                        int prevOid = 0;
                         for (int j = 0; j < len; j++) {
-                            Bytes.pack4(buf.arr, offs, swizzle(arr[j]));
-                            offs += 4;
+                            int oid = swizzle(arr[j]);
+                            offs = format.packOidElement(buf, offs, oid, prevOid);
+                            prevOid = oid;
                         }
                     }
                     continue;
@@ -3591,21 +3832,17 @@ public class StorageImpl implements Storage {
                 {
                     Object[] arr = (Object[])f.get(obj);
                     if (arr == null) { 
-                        buf.extend(offs + 4);
-                        Bytes.pack4(buf.arr, offs, -1);
-                        offs += 4;
+                        offs = format.packLength(buf, offs, -1);
                     } else {
                         int len = arr.length;                        
-                        buf.extend(offs + 4);
-                        Bytes.pack4(buf.arr, offs, len);
-                        offs += 4;
+                        offs = format.packLength(buf, offs, len);
                         ClassDescriptor elemDesc = fd.valueDesc;
                         for (int j = 0; j < len; j++) {
                             Object value = arr[j];
                             if (value == null) { 
                                 throw new StorageError(StorageError.NULL_VALUE, fd.fieldName);
                             }
-                            offs = packObject(value, elemDesc, offs, buf, po);
+                            offs = packObject(value, elemDesc, offs, buf, po, format);
                         }
                     }
                     continue;
@@ -3614,14 +3851,10 @@ public class StorageImpl implements Storage {
                 {
                     Object[] arr = (Object[])f.get(obj);
                     if (arr == null) { 
-                        buf.extend(offs + 4);
-                        Bytes.pack4(buf.arr, offs, -1);
-                        offs += 4;
+                        offs = format.packLength(buf, offs, -1);
                     } else {
                         int len = arr.length;                        
-                        buf.extend(offs + 4);
-                        Bytes.pack4(buf.arr, offs, len);
-                        offs += 4;
+                        offs = format.packLength(buf, offs, len);
                         for (int j = 0; j < len; j++) {
                             offs = packValue(arr[j], offs, buf);
                         }
@@ -3632,18 +3865,16 @@ public class StorageImpl implements Storage {
                 {
                     LinkImpl link = (LinkImpl)f.get(obj);
                     if (link == null) { 
-                        buf.extend(offs + 4);
-                        Bytes.pack4(buf.arr, offs, -1);
-                        offs += 4;
+                        offs = format.packLength(buf, offs, -1);
                     } else {
                         link.owner = po;
                         int len = link.size();                        
-                        buf.extend(offs + 4 + len*4);
-                        Bytes.pack4(buf.arr, offs, len);
-                        offs += 4;
+                        offs = format.packLength(buf, offs, len);
+                        int prevOid = 0;
                         for (int j = 0; j < len; j++) {
-                            Bytes.pack4(buf.arr, offs, swizzle(link.getRaw(j)));
-                            offs += 4;
+                            int oid = swizzle(link.getRaw(j));
+                            offs = format.packOidElement(buf, offs, oid, prevOid);
+                            prevOid = oid;
                         }
                         link.unpin();
                     }
@@ -3653,7 +3884,60 @@ public class StorageImpl implements Storage {
         }
         return offs;
     }
-                
+
+    final int markRawValue(byte[] obj, int offs) { 
+        if (Bytes.unpack4(obj, offs) == -2-ClassDescriptor.tpObject) { 
+            markOid(Bytes.unpack4(obj, offs + 4));
+        }
+        return skipRawValue(obj, offs);
+    }
+
+    static int skipRawValue(byte[] body, int offs) { 
+        int len = Bytes.unpack4(body, offs);
+        offs += 4;
+        if (len > 0) { 
+            offs += len;
+        } else if (len < -1) { 
+            offs += ClassDescriptor.sizeof[-2-len];
+        }
+        return offs;
+    }
+
+    final Object unpackRawValue(byte[] body, int offs, boolean recursiveLoading) throws Exception { 
+        int len = Bytes.unpack4(body, offs);
+        offs += 4;
+        if (len >= 0) { 
+            ByteArrayInputStream bin = new ByteArrayInputStream(body, offs, len);
+            ObjectInputStream in = new PersistentObjectInputStream(bin);
+            Object val = in.readObject();
+            in.close();
+            return val;
+        }
+        switch (-2-len) { 
+        case ClassDescriptor.tpBoolean:
+            return Boolean.valueOf(body[offs] != 0);
+        case ClassDescriptor.tpByte:
+            return new Byte(body[offs]);
+        case ClassDescriptor.tpChar:
+            return new Character((char)Bytes.unpack2(body, offs));
+        case ClassDescriptor.tpShort:
+            return new Short(Bytes.unpack2(body, offs));
+        case ClassDescriptor.tpInt:
+            return new Integer(Bytes.unpack4(body, offs));
+        case ClassDescriptor.tpLong:
+            return new Long(Bytes.unpack8(body, offs));
+        case ClassDescriptor.tpFloat:
+            return new Float(Float.intBitsToFloat(Bytes.unpack4(body, offs)));
+        case ClassDescriptor.tpDouble:
+            return new Double(Double.longBitsToDouble(Bytes.unpack8(body, offs)));
+        case ClassDescriptor.tpDate:
+            return new Date(Bytes.unpack8(body, offs));
+        case ClassDescriptor.tpObject:
+            return unswizzle(Bytes.unpack4(body, offs), Persistent.class, recursiveLoading);
+        }
+        return null;
+    }
+
     public ClassLoader setClassLoader(ClassLoader loader) 
     { 
         ClassLoader prev = loader;
@@ -3671,11 +3955,29 @@ public class StorageImpl implements Storage {
     private String  cacheKind = "lru";
     private boolean readOnly = false;
     private boolean noFlush = false;
+    private boolean useChannel = false;
+    private boolean compressFile = false;
+    private String  encryption = "rc4";
     private boolean lockFile = false;
     private boolean alternativeBtree = false;
     private boolean backgroundGc = false;
+    private int     pagePoolSegments = 1;
+    private String  pagePoolPolicy = "lru";
+    private int     pagePoolDirtyRatio = 0;
+    private boolean pagePoolDirect = false;
+    private long    groupCommitDelay = 0;
+    private String  redoLogPath = null;
+    private long    redoLogLimit = dbDefaultRedoLogLimit;
+    private boolean collectStatistics = false;
+    private String  statisticsMBeanName = null;
+    private long    slowOperationThreshold = 0;
     
     boolean replicationAck = false;
+    int     initPageBits = Page.minPageBits;
+    boolean compactStrings = true;
+    int     bulkLoadFillFactor = 90;
+    long    bulkLoadMemory = 0;
+    boolean concurrentIterator = false;
 
     String    encoding = null; 
 
@@ -3693,12 +3995,16 @@ public class StorageImpl implements Storage {
     Location  reservedChain;
 
     int       committedIndexSize;
-    int       currIndexSize;
+    volatile int currIndexSize;
+
+    volatile AtomicLongArray[] indexChunks; // mirrored pages of current object index
+    int       nIndexChunks;
+    int       maxIndexChunks;
 
     int       currIndex;  // copy of header.root, used to allow read access to the database 
                           // during transaction commit
     long      usedSize;   // total size of allocated objects since the beginning of the session
-    int[]     bitmapPageAvailableSpace;
+    FreeSpaceMap freeSpaceMap; // summary of free space in allocation bitmap pages
     boolean   opened;
 
     int[]     greyBitmap; // bitmap of visited during GC but not yet marked object
@@ -3707,10 +4013,20 @@ public class StorageImpl implements Storage {
     long      allocatedDelta;
     boolean   gcDone;
     boolean   gcActive;
+    long      gcStartTime;
     Object    backgroundGcMonitor;
     Object    backgroundGcStartMonitor;
     GcThread  gcThread;
 
+    RedoLog          redoLog;
+    CheckpointThread checkpointer;
+
+    ExecutorService  commitExecutor;
+    Future<Void>     asyncCommit; // completion of last asynchronous commit
+
+    Statistics       statistics; // null if collection of statistic is disabled
+    ObjectName       statisticsMBean;
+
     ClassLoader loader;
 
     StorageListener listener;
@@ -3722,6 +4038,14 @@ public class StorageImpl implements Storage {
     Object    transactionMonitor;
     PersistentResource transactionLock;
 
+    Object    groupCommitMonitor = new Object();
+    boolean   groupCommitLeader;      // some thread is waiting to start next group commit
+    boolean   groupCommitFlushCache;  // one of the members of next group commit needs object cache to be flushed
+    long      nStartedCommits;
+    long      nCompletedCommits;
+    long      failedCommit;
+    RuntimeException groupCommitFailure;
+
     static final ThreadLocal transactionContext = new ThreadLocal() {
          protected synchronized Object initialValue() {
              return new ThreadTransactionContext();
@@ -3756,10 +4080,11 @@ class Header {
     int      curr;  // current root
     boolean  dirty; // database was not closed normally
     boolean  initialized; // database is initilaized
+    int      pageBits; // log2 of database page size
 
     RootPage root[];
     
-    final static int sizeof = 3 + RootPage.sizeof*2;
+    final static int sizeof = 3 + RootPage.sizeof*2 + 1;
     
     final void pack(byte[] rec) { 
         int offs = 0;
@@ -3792,6 +4117,7 @@ class Header {
             Bytes.pack4(rec, offs, root[i].bitmapExtent);
             offs += 4;
         }
+        rec[offs++] = (byte)pageBits;
     }
     
     final void unpack(byte[] rec) { 
@@ -3827,6 +4153,8 @@ class Header {
             root[i].bitmapExtent = Bytes.unpack4(rec, offs);
             offs += 4;
         }
+        // page size is not stored in the header of databases created with default 4Kb page
+        pageBits = rec[offs] != 0 ? rec[offs] : Page.minPageBits;
     }   
 }
 
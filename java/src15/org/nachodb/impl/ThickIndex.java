@@ -325,6 +325,37 @@ class ThickIndex<T extends IPersistent> extends PersistentCollection<T> implemen
         throw new StorageError(StorageError.KEY_NOT_UNIQUE);
     }
 
+    public int bulkLoad(Iterator<Map.Entry<Key,T>> entries) { 
+        int n = 0;
+        while (entries.hasNext()) { 
+            Map.Entry<Key,T> e = entries.next();
+            if (put(e.getKey(), e.getValue())) { 
+                n += 1;
+            }
+        }
+        return n;
+    }
+
+    public int getAll(Key[] keys, T[] result) { 
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) { 
+            if ((result[i] = get(keys[i])) != null) { 
+                n += 1;
+            }
+        }
+        return n;
+    }
+
+    public int putAll(Key[] keys, T[] objs) { 
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) { 
+            if (put(keys[i], objs[i])) { 
+                n += 1;
+            }
+        }
+        return n;
+    }
+
     public boolean put(Object key, T obj) {
         return put(Btree.getKeyFromObject(key), obj);
     }
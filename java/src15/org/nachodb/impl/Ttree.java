@@ -83,7 +83,7 @@ public class Ttree<T extends IPersistent> extends PersistentCollection<T> implem
     public boolean add(T obj) { 
         TtreePage newRoot;
         if (root == null) { 
-            newRoot = new TtreePage(obj);
+            newRoot = new TtreePage(obj, TtreePage.maxItems(getStorage()));
         } else { 
             TtreePage.PageReference ref = new TtreePage.PageReference(root);
             if (root.insert(comparator, obj, unique, ref) == TtreePage.NOT_UNIQUE) { 
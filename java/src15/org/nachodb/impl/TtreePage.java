@@ -4,8 +4,10 @@ import org.nachodb.*;
 import java.util.ArrayList;
 
 public class TtreePage extends Persistent  { 
-    static final int maxItems = (Page.pageSize-ObjectHeader.sizeof-4*5)/4;
-    static final int minItems = maxItems - 2; // minimal number of items in internal node
+    // number of items in the new page depends on the page size of the database
+    static int maxItems(Storage storage) { 
+        return (((StorageImpl)storage).pageSize-ObjectHeader.sizeof-4*5)/4;
+    }
 
     TtreePage   left;
     TtreePage   right;
@@ -25,7 +27,7 @@ public class TtreePage extends Persistent  {
 
     TtreePage() {}
 
-    TtreePage(IPersistent mbr) { 
+    TtreePage(IPersistent mbr, int maxItems) { 
         nItems = 1;
         item = new IPersistent[maxItems];
         item[0] = mbr;
@@ -162,7 +164,7 @@ public class TtreePage extends Persistent  {
             if (unique && diff == 0) { 
                 return NOT_UNIQUE;
             }
-            if ((left == null || diff == 0) && n != maxItems) { 
+            if ((left == null || diff == 0) && n != item.length) { 
                 modify();
                 //for (int i = n; i > 0; i--) item[i] = item[i-1];
                 System.arraycopy(item, 0, item, 1, n);
@@ -172,7 +174,7 @@ public class TtreePage extends Persistent  {
             } 
             if (left == null) { 
                 modify();
-                left = new TtreePage(mbr);
+                left = new TtreePage(mbr, item.length);
             } else {
                 pg = ref.pg;
                 ref.pg = left;
@@ -222,7 +224,7 @@ public class TtreePage extends Persistent  {
             if (unique && diff == 0) { 
                 return NOT_UNIQUE;
             }
-            if ((right == null || diff == 0) && n != maxItems) { 
+            if ((right == null || diff == 0) && n != item.length) { 
                 modify();
                 item[n] = mbr;
                 nItems += 1;
@@ -230,7 +232,7 @@ public class TtreePage extends Persistent  {
             }
             if (right == null) { 
                  modify();
-                 right = new TtreePage(mbr);
+                 right = new TtreePage(mbr, item.length);
             } else { 
                 pg = ref.pg;
                 ref.pg = right;
@@ -293,7 +295,7 @@ public class TtreePage extends Persistent  {
         }
         // Insert before item[r]
         modify();
-        if (n != maxItems) {
+        if (n != item.length) { 
             System.arraycopy(item, r, item, r+1, n-r);
             //for (int i = n; i > r; i--) item[i] = item[i-1]; 
             item[r] = mbr;
@@ -439,7 +441,7 @@ public class TtreePage extends Persistent  {
                         } 
                     }
                     modify();
-                    if (n <= minItems) { 
+                    if (n <= item.length - 2) { // minimal number of items in internal node
                         if (left != null && balance <= 0) {  
                             TtreePage prev = left;
                             prev.load();
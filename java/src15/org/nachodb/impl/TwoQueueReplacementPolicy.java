@@ -0,0 +1,78 @@
+package org.nachodb.impl;
+
+import java.util.*;
+
+/**
+ * 2Q replacement policy (T.Johnson, D.Shasha "2Q: A Low Overhead High Performance Buffer
+ * Management Replacement Algorithm"). Pages accessed for the first time are placed in A1in queue,
+ * addresses of pages thrown away from this queue are remembered in A1out queue and only
+ * pages which are accessed once again while present in A1out are placed in the main LRU list Am.
+ * So sequential scan of large index or backup can not throw away frequently used pages from the pool.
+ */
+class TwoQueueReplacementPolicy extends PageReplacementPolicy { 
+    LRU am   = new LRU();
+    LRU a1in = new LRU();
+    int nIn;
+    int maxIn;
+    int maxOut;
+    LinkedHashSet<Long> a1out = new LinkedHashSet<Long>();
+
+    TwoQueueReplacementPolicy(int poolSize) { 
+        maxIn = poolSize/4;
+        maxOut = poolSize/2;
+    }
+
+    void pin(Page pg) { 
+        pg.unlink();
+        if (!pg.hot) { 
+            nIn -= 1;
+        }
+    }
+
+    void unpin(Page pg) { 
+        if (pg.hot) { 
+            am.link(pg);
+        } else { 
+            a1in.link(pg);
+            nIn += 1;
+        }
+    }
+
+    void requeue(Page pg) { 
+        if (pg.hot) { 
+            am.prev.link(pg);
+        } else { 
+            a1in.prev.link(pg);
+            nIn += 1;
+        }
+    }
+
+    Page victim() { 
+        LRU list = (nIn > maxIn || am.prev == am) ? a1in : am;
+        if (list.prev == list) { 
+            return null;
+        }
+        Page pg = (Page)list.prev;
+        pin(pg);
+        return pg;
+    }
+
+    void loaded(Page pg) { 
+        pg.hot = a1out.remove(pg.offs);
+    }
+
+    void removed(Page pg) { 
+        if (!pg.hot) { 
+            a1out.add(pg.offs);
+            if (a1out.size() > maxOut) { 
+                Iterator<Long> i = a1out.iterator();
+                i.next();
+                i.remove();
+            }
+        }
+    }
+
+    String getName() { 
+        return "2q";
+    }
+}
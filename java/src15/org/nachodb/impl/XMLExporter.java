@@ -34,6 +34,8 @@ public class XMLExporter {
                             ClassDescriptor desc = storage.findClassDescriptor(typeOid);
                             if (desc.cls == Btree.class) { 
                                 exportIndex(oid, obj, "org.nachodb.impl.Btree");
+                            } else if (desc.cls == PrefixBtree.class) { 
+                                exportIndex(oid, obj, "org.nachodb.impl.PrefixBtree");
                             } else if (desc.cls == BitIndexImpl.class) { 
                                 exportIndex(oid, obj, "org.nachodb.impl.BitIndexImpl");
                             } else if (desc.cls == PersistentSet.class) { 
@@ -45,6 +47,12 @@ public class XMLExporter {
                             } else { 
                                 String className = exportIdentifier(desc.name);
                                 writer.write(" <" + className + " id=\"" + oid + "\">\n");
+                                if (desc.compact) { 
+                                    ByteBuffer buf = new ByteBuffer();
+                                    buf.extend(ObjectHeader.sizeof);
+                                    RecordFormat.convert(RecordFormat.COMPACT, RecordFormat.LEGACY, desc, obj, ObjectHeader.sizeof, buf);
+                                    obj = buf.arr;
+                                }
                                 exportObject(desc, obj, ObjectHeader.sizeof, 2);
                                 writer.write(" </" + className + ">\n");
                             }
@@ -116,6 +124,8 @@ public class XMLExporter {
             compoundKeyTypes[i] = Bytes.unpack4(data, offs);
             offs += 4;
         }
+        // indices created by previous versions have no flag of normalized keys
+        normalizedCompoundKeys = offs < ObjectHeader.getSize(data, 0) && data[offs] != 0;
         btree.export(this); 
         compoundKeyTypes = null;
         writer.write(" </org.nachodb.impl.BtreeMultiFieldIndex>\n");
@@ -189,6 +199,10 @@ public class XMLExporter {
     final void exportCompoundKey(byte[] body, int offs, int size, int type) throws IOException 
     { 
         Assert.that(type == ClassDescriptor.tpArrayOfByte);
+        if (normalizedCompoundKeys) { 
+            exportNormalizedCompoundKey(body, offs);
+            return;
+        }
         int end = offs + size;
         for (int i = 0; i < compoundKeyTypes.length; i++) { 
             type = compoundKeyTypes[i];
@@ -203,6 +217,60 @@ public class XMLExporter {
         Assert.that(offs == end);
     }
 
+    final void exportNormalizedCompoundKey(byte[] body, int offs) throws IOException
+    { 
+        Object[] values = NormalizedKey.unpack(compoundKeyTypes, body, offs);
+        for (int i = 0; i < values.length; i++) { 
+            Object v = values[i];
+            if (v == null && (compoundKeyTypes[i] == ClassDescriptor.tpString 
+                              || compoundKeyTypes[i] == ClassDescriptor.tpArrayOfByte)) 
+            { 
+                // attribute is omitted for null string or byte array
+                continue;
+            }
+            writer.write(" key" + i + "=\"");
+            switch (compoundKeyTypes[i]) { 
+              case ClassDescriptor.tpBoolean:
+                writer.write(((Boolean)v).booleanValue() ? "1" : "0");
+                break;
+              case ClassDescriptor.tpChar:
+                writer.write(Integer.toString(((Character)v).charValue()));
+                break;
+              case ClassDescriptor.tpString:
+              { 
+                  String str = (String)v;
+                  for (int j = 0, n = str.length(); j < n; j++) { 
+                      exportChar(str.charAt(j));
+                  }
+                  break;
+              }
+              case ClassDescriptor.tpArrayOfByte:
+              { 
+                  byte[] arr = (byte[])v;
+                  for (int j = 0; j < arr.length; j++) { 
+                      byte b = arr[j];
+                      writer.write(hexDigit[(b >>> 4) & 0xF]);
+                      writer.write(hexDigit[b & 0xF]);
+                  }
+                  break;
+              }
+              case ClassDescriptor.tpDate:
+              { 
+                  long msec = ((Long)v).longValue();
+                  if (msec >= 0) { 
+                      writer.write(XMLImporter.httpFormatter.format(new Date(msec)));
+                  } else { 
+                      writer.write("null");
+                  }
+                  break;
+              }
+              default:
+                writer.write(v.toString());
+            }
+            writer.write("\"");
+        }
+    }
+
     final void exportAssoc(int oid, byte[] body, int offs, int size, int type) throws IOException
     {
         writer.write("  <ref id=\"" + oid + "\"");
@@ -245,6 +313,19 @@ public class XMLExporter {
     }
 
     final int exportString(byte[] body, int offs) throws IOException { 
+        if (Bytes.isCompactStr(body, offs)) { 
+            String s = Bytes.unpackStr(body, offs, null);
+            if (s != null) { 
+                writer.write("\"");
+                for (int i = 0, n = s.length(); i < n; i++) { 
+                    exportChar(s.charAt(i));
+                }
+                writer.write("\"");
+            } else { 
+                writer.write("null");
+            }
+            return offs + Bytes.sizeof(body, offs);
+        }
         int len = Bytes.unpack4(body, offs);
         offs += 4;
         if (len >= 0) { 
@@ -355,9 +436,16 @@ public class XMLExporter {
                     offs += 8;
                     break;
                 case ClassDescriptor.tpEnum:
-                    writer.write("\"" + ((Enum)fd.field.getType().getEnumConstants()[Bytes.unpack4(body, offs)]).name() + "\"");
+                { 
+                    int index = Bytes.unpack4(body, offs);
+                    if (index >= 0) { 
+                        writer.write("\"" + ((Enum)fd.field.getType().getEnumConstants()[index]).name() + "\"");
+                    } else { 
+                        writer.write("null");
+                    }
                     offs += 4;
                     break;
+                }
                 case ClassDescriptor.tpString:
                     offs = exportString(body, offs);
                     break;
@@ -443,10 +531,32 @@ public class XMLExporter {
                         writer.write("null");
                     } else {
                         writer.write('\n');
-                        Enum[] enumConstants = (Enum[])fd.field.getType().getEnumConstants();
                         while (--len >= 0) { 
                             indentation(indent+1);
-                            writer.write("<element>\"" + enumConstants[Bytes.unpack4(body, offs)].name() + "\"</element>\n");
+                            writer.write("<element>" + Bytes.unpack4(body, offs) + "</element>\n");
+                            offs += 4;
+                        }
+                        indentation(indent);
+                    }
+                    break;
+                }
+                case ClassDescriptor.tpArrayOfEnum:
+                { 
+                    int len = Bytes.unpack4(body, offs);
+                    offs += 4;
+                    if (len < 0) { 
+                        writer.write("null");
+                    } else { 
+                        writer.write('\n');
+                        Enum[] enumConstants = (Enum[])fd.field.getType().getComponentType().getEnumConstants();
+                        while (--len >= 0) { 
+                            indentation(indent+1);
+                            int index = Bytes.unpack4(body, offs);
+                            if (index >= 0) { 
+                                writer.write("<element>\"" + enumConstants[index].name() + "\"</element>\n");
+                            } else { 
+                                writer.write("<element>null</element>\n");
+                            }
                             offs += 4;
                         }
                         indentation(indent);
@@ -620,4 +730,5 @@ public class XMLExporter {
     private int[]       markedBitmap;
     private int[]       exportedBitmap;
     private int[]       compoundKeyTypes;
+    private boolean     normalizedCompoundKeys;
 }
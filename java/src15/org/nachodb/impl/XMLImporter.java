@@ -49,6 +49,7 @@ public class XMLImporter {
             }
             String elemName = scanner.getIdentifier();
             if (elemName.equals("org.nachodb.impl.Btree")
+                || elemName.equals("org.nachodb.impl.PrefixBtree")
                 || elemName.equals("org.nachodb.impl.PersistentSet")
                 || elemName.equals("org.nachodb.impl.BtreeFieldIndex")
                 || elemName.equals("org.nachodb.impl.BtreeMultiFieldIndex"))
@@ -239,72 +240,63 @@ public class XMLImporter {
     
     final Key createCompoundKey(int[] types, String[] values) throws XMLImportException
     {
-        IPersistent obj;
-        Date date;
-        ByteBuffer buf = new ByteBuffer();
-        int dst = 0;
+        Object[] keys = new Object[types.length];
 
         try { 
             for (int i = 0; i < types.length; i++) { 
                 String value = values[i];
                 switch (types[i]) { 
                   case ClassDescriptor.tpBoolean:
-                    buf.extend(dst+1);
-                    buf.arr[dst++] = (byte)(Integer.parseInt(value) != 0 ? 1 : 0);
+                    keys[i] = Boolean.valueOf(Integer.parseInt(value) != 0);
                     break;
                   case ClassDescriptor.tpByte:
-                    buf.extend(dst+1);
-                    buf.arr[dst++] = Byte.parseByte(value);
+                    keys[i] = new Byte(Byte.parseByte(value));
                     break;
                   case ClassDescriptor.tpChar:
-                    buf.extend(dst+2);
-                    Bytes.pack2(buf.arr, dst, (short)Integer.parseInt(value));
-                    dst += 2;
+                    keys[i] = new Character((char)Integer.parseInt(value));
                     break;
                   case ClassDescriptor.tpShort:
-                    buf.extend(dst+2);
-                    Bytes.pack2(buf.arr, dst, Short.parseShort(value));
-                    dst += 2;
+                    keys[i] = new Short(Short.parseShort(value));
                     break;
                   case ClassDescriptor.tpInt:
                   case ClassDescriptor.tpEnum:
-                    buf.extend(dst+4);
-                    Bytes.pack4(buf.arr, dst, Integer.parseInt(value));
-                    dst += 4;
+                    keys[i] = new Integer(Integer.parseInt(value));
                     break;
                   case ClassDescriptor.tpObject:
-                    buf.extend(dst+4);
-                    Bytes.pack4(buf.arr, dst, mapId(Integer.parseInt(value)));
-                    dst += 4;
+                    keys[i] = new Integer(mapId(Integer.parseInt(value)));
                     break;
                   case ClassDescriptor.tpLong:
+                    keys[i] = new Long(Long.parseLong(value));
+                    break;
                   case ClassDescriptor.tpDate:
-                    buf.extend(dst+8);
-                    Bytes.pack8(buf.arr, dst, Long.parseLong(value));
-                    dst += 8;
+                    if (!value.equals("null")) { 
+                        Date date = httpFormatter.parse(value, new ParsePosition(0));
+                        if (date == null) { 
+                            throwException("Invalid date");
+                        }
+                        keys[i] = date;
+                    }
                     break;
                   case ClassDescriptor.tpFloat:
-                    buf.extend(dst+4);
-                    Bytes.pack4(buf.arr, dst, Float.floatToIntBits(Float.parseFloat(value)));
-                    dst += 4;
+                    keys[i] = new Float(Float.parseFloat(value));
                     break;
                   case ClassDescriptor.tpDouble:
-                    buf.extend(dst+8);
-                    Bytes.pack8(buf.arr, dst, Double.doubleToLongBits(Double.parseDouble(value)));
-                    dst += 8;
+                    keys[i] = new Double(Double.parseDouble(value));
                     break;
                   case ClassDescriptor.tpString:
-                    dst = buf.packString(dst, value, storage.encoding);
+                    keys[i] = value;
                     break;
                   case ClassDescriptor.tpArrayOfByte:
-                    buf.extend(dst + 4 + (value.length() >>> 1));
-                    Bytes.pack4(buf.arr, dst, value.length() >>> 1);
-                    dst += 4;
-                    for (int j = 0, n = value.length(); j < n; j+=2) { 
-                        buf.arr[dst++] = (byte)((getHexValue(value.charAt(j)) << 4) 
-                                                | getHexValue(value.charAt(j+1)));
-                    }
-                    break;
+                  { 
+                      if (value != null) { 
+                          byte[] buf = new byte[value.length() >> 1];
+                          for (int j = 0; j < buf.length; j++) { 
+                              buf[j] = (byte)((getHexValue(value.charAt(j*2)) << 4) | getHexValue(value.charAt(j*2+1)));
+                          }
+                          keys[i] = buf;
+                      }
+                      break;
+                  }
                   default:
                     throwException("Bad key type");
                 }
@@ -312,7 +304,7 @@ public class XMLImporter {
         } catch (NumberFormatException x) { 
             throwException("Failed to convert key value");
         }
-        return new Key(buf.toArray());
+        return new Key(NormalizedKey.pack(types, keys));
     }
 
     final Key createKey(int type, String value) throws XMLImportException
@@ -451,6 +443,8 @@ public class XMLImporter {
             } else { 
                 if (indexType.equals("org.nachodb.impl.BitIndexImpl")) { 
                     btree = new BitIndexImpl();
+                } else if (indexType.equals("org.nachodb.impl.PrefixBtree")) { 
+                    btree = new PrefixBtree(mapType(type), unique);
                 } else { 
                     btree = new Btree(mapType(type), unique);
                 }
@@ -471,7 +465,9 @@ public class XMLImporter {
                 String[] values = new String[fieldNames.length];                
                 int[] types = ((BtreeMultiFieldIndex)btree).types;
                 for (int i = 0; i < values.length; i++) { 
-                    values[i] = getAttribute(ref, "key"+i);
+                    // attribute is omitted for null string or byte array component of normalized key
+                    values[i] = types[i] == ClassDescriptor.tpString || types[i] == ClassDescriptor.tpArrayOfByte
+                        ? ref.getAttribute("key"+i) : getAttribute(ref, "key"+i);
                 }
                 key = createCompoundKey(types, values);
             } else { 
@@ -513,6 +509,13 @@ public class XMLImporter {
         buf.extend(offs);
 
         offs = packObject(elem, desc, offs, buf);
+        if (desc.compact) { 
+            ByteBuffer compactBuf = new ByteBuffer();
+            compactBuf.extend(ObjectHeader.sizeof);
+            RecordFormat.convert(RecordFormat.LEGACY, RecordFormat.COMPACT, desc, buf.arr, ObjectHeader.sizeof, compactBuf);
+            buf = compactBuf;
+            offs = buf.used;
+        }
 
         ObjectHeader.setSize(buf.arr, 0, offs);
         ObjectHeader.setType(buf.arr, 0, desc.getOid());
@@ -700,6 +703,8 @@ public class XMLImporter {
                             Bytes.pack4(buf.arr, offs, (int)elem.getRealValue());
                         } else if (elem.isStringValue()) {
                             Bytes.pack4(buf.arr, offs, Enum.valueOf((Class)fd.field.getType(), elem.getStringValue()).ordinal());
+                        } else if (elem.isNullValue()) { 
+                            Bytes.pack4(buf.arr, offs, -1);
                         } else { 
                             throwException("Conversion for field " + fieldName + " is not possible");
                         }
@@ -739,7 +744,7 @@ public class XMLImporter {
                         } else { 
                             throwException("Conversion for field " + fieldName + " is not possible");
                         }
-                        offs = buf.packString(offs, value, storage.encoding);
+                        offs = storage.packString(buf, offs, value);
                         continue;
                     } 
                     buf.extend(offs + 4);
@@ -987,12 +992,12 @@ public class XMLImporter {
                                 value = Double.toString(item.getRealValue());
                             } else if (item.isStringValue()) {
                                 value = item.getStringValue();
-                            } else if (elem.isNullValue()) {
+                            } else if (item.isNullValue()) {
                                 value = null;
                             } else { 
                                 throwException("Conversion for field " + fieldName + " is not possible");
                             }
-                            offs = buf.packString(offs, value, storage.encoding);
+                            offs = storage.packString(buf, offs, value);
                             item = item.getNextSibling();
                         }
                     }
@@ -0,0 +1,102 @@
+package org.nachodb.impl.sun14;
+
+import java.lang.reflect.*;
+import org.nachodb.impl.FieldAccessor;
+import sun.misc.Unsafe;
+
+/**
+ * Field accessor reading and writing field directly at its offset in the object.
+ * Offset is calculated once when accessor is created, so access to the field
+ * doesn't require access checks and unwrapping performed by reflection.
+ */
+public class UnsafeFieldAccessor extends FieldAccessor { 
+    private static final Unsafe unsafe;
+    private final long offset;
+
+    static { 
+        try { 
+            Field f = Unsafe.class.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            unsafe = (Unsafe)f.get(null);
+        } catch (Exception x) { 
+            throw new Error("Failed to access sun.misc.Unsafe");
+        }
+    }
+
+    public UnsafeFieldAccessor(Field field) { 
+        super(field);
+        offset = unsafe.objectFieldOffset(field);
+    }
+
+    public boolean getBoolean(Object obj) { 
+        return unsafe.getBoolean(obj, offset);
+    }
+
+    public byte getByte(Object obj) { 
+        return unsafe.getByte(obj, offset);
+    }
+
+    public char getChar(Object obj) { 
+        return unsafe.getChar(obj, offset);
+    }
+
+    public short getShort(Object obj) { 
+        return unsafe.getShort(obj, offset);
+    }
+
+    public int getInt(Object obj) { 
+        return unsafe.getInt(obj, offset);
+    }
+
+    public long getLong(Object obj) { 
+        return unsafe.getLong(obj, offset);
+    }
+
+    public float getFloat(Object obj) { 
+        return unsafe.getFloat(obj, offset);
+    }
+
+    public double getDouble(Object obj) { 
+        return unsafe.getDouble(obj, offset);
+    }
+
+    public Object get(Object obj) { 
+        return unsafe.getObject(obj, offset);
+    }
+
+    public void setBoolean(Object obj, boolean value) { 
+        unsafe.putBoolean(obj, offset, value);
+    }
+
+    public void setByte(Object obj, byte value) { 
+        unsafe.putByte(obj, offset, value);
+    }
+
+    public void setChar(Object obj, char value) { 
+        unsafe.putChar(obj, offset, value);
+    }
+
+    public void setShort(Object obj, short value) { 
+        unsafe.putShort(obj, offset, value);
+    }
+
+    public void setInt(Object obj, int value) { 
+        unsafe.putInt(obj, offset, value);
+    }
+
+    public void setLong(Object obj, long value) { 
+        unsafe.putLong(obj, offset, value);
+    }
+
+    public void setFloat(Object obj, float value) { 
+        unsafe.putFloat(obj, offset, value);
+    }
+
+    public void setDouble(Object obj, double value) { 
+        unsafe.putDouble(obj, offset, value);
+    }
+
+    public void set(Object obj, Object value) { 
+        unsafe.putObject(obj, offset, value);
+    }
+}
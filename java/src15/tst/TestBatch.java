@@ -0,0 +1,178 @@
+import org.nachodb.*;
+
+class Quote extends Persistent { 
+    long   id;
+    String symbol;
+
+    Quote() {}
+
+    Quote(long id) { 
+        this.id = id;
+        symbol = "Q" + id;
+    }
+}
+
+class Board extends Persistent { 
+    Index<Quote> byId;
+    Index<Quote> bySymbol;
+    Index<Quote> byBucket;
+}
+
+/**
+ * Insert objects in batches of unordered keys, compare time of lookup of batches by <code>getAll</code>
+ * with lookup of the same keys one by one for batches of keys spread over the whole index and batches
+ * of adjacent keys (which share path from the root to the leaf page), check lookup of missing keys
+ * and keys of not unique index. Both kinds of lookup are performed in several rounds: the first rounds
+ * warm up JIT and are not measured and order of the lookups alternates in the following rounds.
+ */
+public class TestBatch { 
+    final static int nQuotes = 100000;
+    final static int batchSize = 500;
+    final static int nBuckets = 1000;
+    final static int pagePoolSize = 32*1024*1024;
+    final static int nRounds = 12;
+    final static int nWarmUpRounds = 4;
+
+    static long key(int i) { 
+        // permutation of [0, 2*nQuotes) with even numbers used for present keys
+        return (i*7919L % nQuotes)*2;
+    }
+
+    /**
+     * Key of the lookup: keys of unordered batch are spread over the whole index,
+     * keys of ordered batch are adjacent and ascending
+     */
+    static long lookupKey(int i, boolean ordered) { 
+        return ordered ? i*2L : key(i);
+    }
+
+    /**
+     * Lookup keys by batches, each batch contains present (even) and missing (odd) keys
+     * @return elapsed time in milliseconds
+     */
+    static long lookupByBatches(Board root, Key[] ids, Quote[] quotes, boolean ordered) { 
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < nQuotes; i += batchSize) { 
+            for (int j = 0; j < batchSize; j++) { 
+                ids[j] = new Key(lookupKey(i + j, ordered) + (j & 1));
+            }
+            Assert.that(root.byId.getAll(ids, quotes) == batchSize/2);
+            for (int j = 0; j < batchSize; j++) { 
+                Assert.that((j & 1) == 0 ? quotes[j].id == ids[j].lval : quotes[j] == null);
+            }
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    /**
+     * Lookup the same keys one by one
+     * @return elapsed time in milliseconds
+     */
+    static long lookupBySingleKeys(Board root, boolean ordered) { 
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < nQuotes; i += batchSize) { 
+            for (int j = 0; j < batchSize; j++) { 
+                Quote q = root.byId.get(new Key(lookupKey(i + j, ordered) + (j & 1)));
+                Assert.that((j & 1) == 0 ? q.id == lookupKey(i + j, ordered) : q == null);
+            }
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    static void compareLookups(Board root, Key[] ids, Quote[] quotes, boolean ordered) { 
+        long batchTime = 0;
+        long singleTime = 0;
+        for (int round = 0; round < nRounds; round++) { 
+            long t1, t2;
+            if ((round & 1) == 0) { 
+                t1 = lookupByBatches(root, ids, quotes, ordered);
+                t2 = lookupBySingleKeys(root, ordered);
+            } else { 
+                t2 = lookupBySingleKeys(root, ordered);
+                t1 = lookupByBatches(root, ids, quotes, ordered);
+            }
+            if (round >= nWarmUpRounds) { 
+                batchTime += t1;
+                singleTime += t2;
+            }
+        }
+        System.out.println("Elapsed time for lookup of " + nQuotes + (ordered ? " ordered" : " unordered") 
+                           + " keys (average of " + (nRounds - nWarmUpRounds) + " rounds): "
+                           + batchTime/(nRounds - nWarmUpRounds) + " milliseconds by batches, "
+                           + singleTime/(nRounds - nWarmUpRounds) + " milliseconds by single keys");
+    }
+
+    static public void main(String[] args) throws Exception { 
+        String path = "testbatch.dbs";
+        new java.io.File(path).delete();
+        Storage db = StorageFactory.getInstance().createStorage();
+        db.open(path, pagePoolSize);
+        Board root = new Board();
+        root.byId = db.<Quote>createIndex(long.class, true);
+        root.bySymbol = db.<Quote>createIndex(String.class, true);
+        root.byBucket = db.<Quote>createIndex(int.class, false);
+        db.setRoot(root);
+
+        Key[] ids = new Key[batchSize];
+        Key[] symbols = new Key[batchSize];
+        Key[] buckets = new Key[batchSize];
+        Quote[] quotes = new Quote[batchSize];
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < nQuotes; i += batchSize) { 
+            for (int j = 0; j < batchSize; j++) { 
+                Quote q = new Quote(key(i + j));
+                quotes[j] = q;
+                ids[j] = new Key(q.id);
+                symbols[j] = new Key(q.symbol);
+                buckets[j] = new Key((int)(q.id/2 % nBuckets));
+            }
+            Assert.that(root.byId.putAll(ids, quotes) == batchSize);
+            Assert.that(root.bySymbol.putAll(symbols, quotes) == batchSize);
+            Assert.that(root.byBucket.putAll(buckets, quotes) == batchSize);
+            // keys are already present in unique index
+            Assert.that(root.byId.putAll(ids, quotes) == 0);
+        }
+        db.commit();
+        System.out.println("Elapsed time for inserting " + nQuotes + " objects by batches: "
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+        Assert.that(root.byId.size() == nQuotes && root.bySymbol.size() == nQuotes && root.byBucket.size() == nQuotes);
+        long prev = -2;
+        for (Quote q : root.byId) { 
+            Assert.that(q.id == prev + 2);
+            prev = q.id;
+        }
+
+        compareLookups(root, ids, quotes, false);
+        compareLookups(root, ids, quotes, true);
+
+        // sorted keys
+        for (int i = 0; i < batchSize; i++) { 
+            symbols[i] = new Key("Q" + (nQuotes + i*2));
+        }
+        java.util.Arrays.sort(symbols, new java.util.Comparator<Key>() { 
+            public int compare(Key k1, Key k2) { 
+                return ((String)k1.oval).compareTo((String)k2.oval);
+            }
+        });
+        Assert.that(root.bySymbol.getAll(symbols, quotes) == batchSize);
+        for (int i = 0; i < batchSize; i++) { 
+            Assert.that(quotes[i].symbol.equals(symbols[i].oval));
+        }
+
+        // not unique index
+        for (int i = 0; i < batchSize; i++) { 
+            buckets[i] = new Key(nBuckets + i);
+        }
+        Assert.that(root.byBucket.getAll(buckets, quotes) == 0);
+        root.byBucket.put(new Key(nBuckets + 1), new Quote(-1));
+        Assert.that(root.byBucket.getAll(buckets, quotes) == 1 && quotes[1].id == -1);
+        buckets[0] = new Key(nBuckets/2);
+        try { 
+            root.byBucket.getAll(buckets, quotes);
+            Assert.failed("Key is not unique");
+        } catch (StorageError x) { 
+            Assert.that(x.getErrorCode() == StorageError.KEY_NOT_UNIQUE);
+        }
+        db.close();
+    }
+}
@@ -0,0 +1,289 @@
+import org.nachodb.*;
+import java.util.*;
+
+class Sensor extends Persistent { 
+    long   id;
+    String name;
+    int    zone;
+}
+
+class Registry extends Persistent { 
+    Index<Sensor>      byId;
+    FieldIndex<Sensor> byName;
+    FieldIndex<Sensor> byZoneAndName;
+    Index<Sensor>      byCode;
+}
+
+/**
+ * Compare time of construction and size of index built by bulk load with insertion of the same keys,
+ * check bulk load of unordered input (sorted in memory or, if memory is limited, by merging runs
+ * saved in temporary files), ordered input and input which becomes unordered after the first run,
+ * loading into not empty index, and that bulk loaded index can be updated
+ */
+public class TestBulkLoad { 
+    final static int nSensors = 200000;
+    final static int pagePoolSize = 32*1024*1024;
+    final static long smallBulkLoadMemory = 1024*1024;
+
+    static class Entry implements Map.Entry<Key,Sensor> { 
+        Key    key;
+        Sensor value;
+
+        Entry(Key key, Sensor value) { 
+            this.key = key;
+            this.value = value;
+        }
+
+        public Key getKey() { 
+            return key;
+        }
+
+        public Sensor getValue() { 
+            return value;
+        }
+
+        public Sensor setValue(Sensor value) { 
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    static Sensor[] createSensors(Storage db) { 
+        Sensor[] sensors = new Sensor[nSensors];
+        long key = 1999;
+        for (int i = 0; i < nSensors; i++) { 
+            key = (3141592621L*key + 2718281829L) % 1000000007L;
+            Sensor s = new Sensor();
+            s.id = key;
+            s.name = "Sensor-" + key;
+            s.zone = (int)(key % 100);
+            db.makePersistent(s);
+            sensors[i] = s;
+        }
+        return sensors;
+    }
+
+    static byte[] code(long id) { 
+        return new byte[] {(byte)(id >>> 24), (byte)(id >>> 16), (byte)(id >>> 8), (byte)id};
+    }
+
+    static Iterator<Map.Entry<Key,Sensor>> byId(final Sensor[] sensors) { 
+        ArrayList<Map.Entry<Key,Sensor>> entries = new ArrayList<Map.Entry<Key,Sensor>>();
+        for (Sensor s : sensors) { 
+            entries.add(new Entry(new Key(s.id), s));
+        }
+        return entries.iterator();
+    }
+
+    static Iterator<Map.Entry<Key,Sensor>> byCode(final Sensor[] sensors) { 
+        ArrayList<Map.Entry<Key,Sensor>> entries = new ArrayList<Map.Entry<Key,Sensor>>();
+        for (Sensor s : sensors) { 
+            entries.add(new Entry(new Key(code(s.id)), s));
+        }
+        return entries.iterator();
+    }
+
+    static Registry createRegistry(Storage db) { 
+        Registry root = new Registry();
+        root.byId = db.<Sensor>createIndex(long.class, true);
+        root.byName = db.<Sensor>createFieldIndex(Sensor.class, "name", true);
+        root.byZoneAndName = db.<Sensor>createFieldIndex(Sensor.class, new String[]{"zone", "name"}, true);
+        root.byCode = db.<Sensor>createIndex(byte[].class, false);
+        db.setRoot(root);
+        return root;
+    }
+
+    static void checkIndices(Registry root, Sensor[] sensors) { 
+        Assert.that(root.byId.size() == nSensors && root.byName.size() == nSensors
+                    && root.byZoneAndName.size() == nSensors && root.byCode.size() == nSensors);
+        long prevId = -1;
+        for (Sensor s : root.byId) { 
+            Assert.that(s.id > prevId);
+            prevId = s.id;
+        }
+        String prevName = "";
+        for (Sensor s : root.byName) { 
+            Assert.that(s.name.compareTo(prevName) > 0);
+            prevName = s.name;
+        }
+        int prevZone = -1;
+        prevName = "";
+        for (Sensor s : root.byZoneAndName) { 
+            Assert.that(s.zone > prevZone || (s.zone == prevZone && s.name.compareTo(prevName) > 0));
+            prevZone = s.zone;
+            prevName = s.name;
+        }
+        int nCodes = 0;
+        for (Map.Entry<Object,Sensor> e : root.byCode.entryIterator()) { 
+            Assert.that(Arrays.equals((byte[])e.getKey(), code(e.getValue().id)));
+            nCodes += 1;
+        }
+        Assert.that(nCodes == nSensors);
+        for (int i = 0; i < nSensors; i += 97) { 
+            Sensor s = sensors[i];
+            Assert.that(root.byId.get(new Key(s.id)) == s);
+            Assert.that(root.byName.get(new Key(s.name)) == s);
+            Assert.that(root.byZoneAndName.get(new Key(new Object[]{new Integer(s.zone), s.name})) == s);
+            IPersistent[] found = root.byCode.get(new Key(code(s.id)), new Key(code(s.id)));
+            Assert.that(Arrays.asList(found).contains(s));
+        }
+    }
+
+    static void testBulkLoad() { 
+        String path = "testbulk1.dbs";
+        new java.io.File(path).delete();
+        Storage db = StorageFactory.getInstance().createStorage();
+        db.open(path, pagePoolSize);
+        Registry root = createRegistry(db);
+        Sensor[] sensors = createSensors(db);
+        db.commit();
+        long sizeBefore = db.getUsedSize();
+        long start = System.currentTimeMillis();
+        for (Sensor s : sensors) { 
+            root.byId.put(new Key(s.id), s);
+            root.byName.put(s);
+            root.byZoneAndName.put(s);
+            root.byCode.put(new Key(code(s.id)), s);
+        }
+        db.commit();
+        long insertTime = System.currentTimeMillis() - start;
+        long insertSize = db.getUsedSize() - sizeBefore;
+        checkIndices(root, sensors);
+
+        root.byId.deallocate();
+        root.byName.deallocate();
+        root.byZoneAndName.deallocate();
+        root.byCode.deallocate();
+        root = createRegistry(db);
+        db.commit();
+        sizeBefore = db.getUsedSize();
+        start = System.currentTimeMillis();
+        Assert.that(root.byId.bulkLoad(byId(sensors)) == nSensors);
+        Assert.that(root.byName.bulkLoad(Arrays.asList(sensors)) == nSensors);
+        Assert.that(root.byZoneAndName.bulkLoad(Arrays.asList(sensors)) == nSensors);
+        Assert.that(root.byCode.bulkLoad(byCode(sensors)) == nSensors);
+        db.commit();
+        long bulkLoadTime = System.currentTimeMillis() - start;
+        long bulkLoadSize = db.getUsedSize() - sizeBefore;
+        checkIndices(root, sensors);
+        System.out.println("Insertion of " + nSensors + " objects in 4 indices: " + insertTime
+                           + " milliseconds, " + insertSize/1024 + "Kb, bulk load: " + bulkLoadTime
+                           + " milliseconds, " + bulkLoadSize/1024 + "Kb");
+        Assert.that(bulkLoadSize < insertSize);
+        db.close();
+
+        db = StorageFactory.getInstance().createStorage();
+        db.open(path, pagePoolSize);
+        root = (Registry)db.getRoot();
+        for (int i = 0; i < nSensors; i++) { 
+            sensors[i] = (Sensor)db.getObjectByOID(sensors[i].getOid());
+        }
+        checkIndices(root, sensors);
+
+        // bulk loaded index can be updated
+        for (int i = 0; i < nSensors; i += 2) { 
+            Sensor s = sensors[i];
+            root.byId.remove(new Key(s.id), s);
+            root.byCode.remove(new Key(code(s.id)), s);
+        }
+        for (int i = 0; i < nSensors; i += 2) { 
+            Sensor s = sensors[i];
+            Assert.that(root.byId.put(new Key(s.id), s));
+            Assert.that(root.byCode.put(new Key(code(s.id)), s));
+        }
+        for (int i = 1; i < nSensors; i += 2) { 
+            Sensor s = sensors[i];
+            root.byId.remove(new Key(s.id), s);
+            root.byCode.remove(new Key(code(s.id)), s);
+        }
+        Assert.that(root.byId.size() == nSensors/2 && root.byCode.size() == nSensors/2);
+        for (int i = 0; i < nSensors; i++) { 
+            Sensor s = sensors[i];
+            Assert.that((root.byId.get(new Key(s.id)) == s) == (i % 2 == 0));
+            Assert.that((root.byCode.get(new Key(code(s.id))) == s) == (i % 2 == 0));
+        }
+        db.close();
+    }
+
+    static void testOrder() { 
+        String path = "testbulk2.dbs";
+        new java.io.File(path).delete();
+        Storage db = StorageFactory.getInstance().createStorage();
+        db.setProperty("perst.bulk.load.fill.factor", new Integer(100));
+        db.open(path, pagePoolSize);
+        Registry root = createRegistry(db);
+        Sensor[] sensors = createSensors(db);
+        Sensor[] sorted = sensors.clone();
+        Arrays.sort(sorted, new Comparator<Sensor>() { 
+            public int compare(Sensor s1, Sensor s2) { 
+                return s1.id < s2.id ? -1 : s1.id == s2.id ? 0 : 1;
+            }
+        });
+
+        // ordered input
+        Assert.that(root.byId.bulkLoad(byId(sorted)) == nSensors);
+        checkOrder(root.byId, sorted);
+        root.byId.clear();
+
+        // unordered input doesn't fit in memory: sorted runs are saved in temporary files and merged
+        db.setProperty("perst.bulk.load.memory", new Long(smallBulkLoadMemory));
+        Assert.that(root.byId.bulkLoad(byId(sensors)) == nSensors);
+        checkOrder(root.byId, sorted);
+        root.byId.clear();
+        Assert.that(root.byName.bulkLoad(Arrays.asList(sensors)) == nSensors);
+        Assert.that(root.byName.size() == nSensors);
+        root.byName.clear();
+        db.setProperty("perst.bulk.load.memory", new Long(0));
+
+        // input becomes unordered after pages were built from its first part
+        Sensor[] mixed = sorted.clone();
+        Collections.shuffle(Arrays.asList(mixed).subList(nSensors*3/4, nSensors), new Random(2007));
+        Assert.that(root.byId.bulkLoad(byId(mixed)) == nSensors);
+        checkOrder(root.byId, sorted);
+        root.byId.clear();
+
+        // load into not empty index, objects with duplicate keys are not inserted in unique index
+        Sensor[] firstHalf = new Sensor[nSensors/2];
+        System.arraycopy(sensors, 0, firstHalf, 0, firstHalf.length);
+        Assert.that(root.byId.bulkLoad(byId(firstHalf)) == nSensors/2);
+        Assert.that(root.byId.bulkLoad(byId(sensors)) == nSensors - nSensors/2);
+        checkOrder(root.byId, sorted);
+        Assert.that(root.byName.bulkLoad(Arrays.asList(firstHalf)) == nSensors/2);
+        Assert.that(root.byName.bulkLoad(Arrays.asList(firstHalf)) == 0);
+        Assert.that(root.byName.size() == nSensors/2);
+
+        // full pages of index with int keys are split by insertion
+        Index<Sensor> byZone = db.<Sensor>createIndex(int.class, false);
+        ArrayList<Map.Entry<Key,Sensor>> zones = new ArrayList<Map.Entry<Key,Sensor>>();
+        for (int i = 0; i < 3; i++) { 
+            for (Sensor s : sorted) { 
+                zones.add(new Entry(new Key(s.zone), s));
+            }
+        }
+        Assert.that(byZone.bulkLoad(zones.iterator()) == nSensors*3);
+        for (Sensor s : sorted) { 
+            Assert.that(byZone.put(new Key(s.zone), s));
+        }
+        Assert.that(byZone.size() == nSensors*4 && byZone.get(new Key(-1), new Key(100)).length == nSensors*4);
+        byZone.deallocate();
+
+        // small index fits in one page
+        root.byId.clear();
+        Assert.that(root.byId.bulkLoad(byId(new Sensor[]{sensors[0]})) == 1);
+        Assert.that(root.byId.get(new Key(sensors[0].id)) == sensors[0]);
+        db.close();
+    }
+
+    static void checkOrder(Index<Sensor> index, Sensor[] sorted) { 
+        Assert.that(index.size() == sorted.length);
+        int i = 0;
+        for (Sensor s : index) { 
+            Assert.that(s == sorted[i++]);
+        }
+        Assert.that(i == sorted.length);
+    }
+
+    static public void main(String[] args) throws Exception { 
+        testBulkLoad();
+        testOrder();
+    }
+}
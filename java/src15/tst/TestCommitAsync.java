@@ -0,0 +1,135 @@
+import org.nachodb.*;
+import org.nachodb.impl.OSFile;
+import java.util.concurrent.Future;
+
+class Sample extends Persistent { 
+    long   id;
+    double value;
+}
+
+class Series extends Persistent { 
+    FieldIndex<Sample> samples;
+}
+
+/**
+ * Compare speed of ingest performing synchronous and asynchronous commits after each batch of samples.
+ * With asynchronous commit preparing of the next batch overlaps with disk I/O of the previous commit.
+ * Then check with small page pool that pages are not written to the file while asynchronous commit
+ * is updating database header.
+ */
+public class TestCommitAsync { 
+    final static int nBatches = 1000;
+    final static int batchSize = 100;
+    final static int pagePoolSize = 32*1024*1024;
+    final static int smallPagePoolSize = 256*1024;
+
+    /**
+     * File detecting writes performed by application thread between synchronization of data pages
+     * and synchronization of new header by asynchronous commit.
+     */
+    static class CheckedFile extends OSFile { 
+        Thread  application = Thread.currentThread();
+        boolean committing;
+        int     nViolations;
+
+        CheckedFile(String path) { 
+            super(path, false, false);
+        }
+
+        public void write(long pos, byte[] buf) { 
+            synchronized (this) { 
+                if (Thread.currentThread() == application && committing) { 
+                    nViolations += 1;
+                }
+            }
+            super.write(pos, buf);
+        }
+
+        public void sync() { 
+            boolean background = Thread.currentThread() != application;
+            if (background) { 
+                synchronized (this) { 
+                    // first synchronization of asynchronous commit starts it, second completes it
+                    committing = !committing;
+                }
+            }
+            super.sync();
+            if (background) { 
+                // make window for concurrent writes wider
+                try { 
+                    Thread.sleep(1);
+                } catch (InterruptedException x) {}
+            }
+        }
+    }
+
+    static long test(boolean async, Storage db) throws Exception { 
+        Series root = new Series();
+        root.samples = db.<Sample>createFieldIndex(Sample.class, "id", true);
+        db.setRoot(root);
+        long start = System.currentTimeMillis();
+        long id = 0;
+        Future<Void> done = null;
+        for (int i = 0; i < nBatches; i++) { 
+            for (int j = 0; j < batchSize; j++) { 
+                Sample sample = new Sample();
+                sample.id = id++;
+                sample.value = Math.sin(sample.id);
+                root.samples.put(sample);
+            }
+            if (async) { 
+                done = db.commitAsync();
+            } else { 
+                db.commit();
+            }
+        }
+        if (done != null) { 
+            done.get();
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        db.close();
+        return elapsed;
+    }
+
+    static void check(String path) { 
+        Storage db = StorageFactory.getInstance().createStorage();
+        db.open(path, pagePoolSize);
+        Series root = (Series)db.getRoot();
+        Assert.that(root.samples.size() == nBatches*batchSize);
+        long id = 0;
+        for (Sample sample : root.samples) { 
+            Assert.that(sample.id == id && sample.value == Math.sin(id));
+            id += 1;
+        }
+        db.close();
+    }
+
+    static void test(boolean async) throws Exception { 
+        String path = "testasync.dbs";
+        new java.io.File(path).delete();
+        Storage db = StorageFactory.getInstance().createStorage();
+        db.open(path, pagePoolSize);
+        long elapsed = test(async, db);
+        System.out.println((async ? "Asynchronous" : "Synchronous") + " commit: " + elapsed
+                           + " milliseconds for " + nBatches + " transactions");
+        check(path);
+    }
+
+    static public void main(String[] args) throws Exception { 
+        // first pair of runs warms up JIT
+        test(false);
+        test(true);
+        test(false);
+        test(true);
+
+        String path = "testasync.dbs";
+        new java.io.File(path).delete();
+        CheckedFile file = new CheckedFile(path);
+        Storage db = StorageFactory.getInstance().createStorage();
+        db.open(file, smallPagePoolSize);
+        test(true, db);
+        System.out.println("Pages written during asynchronous commit: " + file.nViolations);
+        Assert.that(file.nViolations == 0);
+        check(path);
+    }
+}
@@ -0,0 +1,4 @@
+set SAVE_PATH=%PATH%
+set PATH=\j2sdk1.5.0\bin;%path%
+java -classpath .;..\..\lib\perst15.jar TestCompactStrings %1
+set PATH=%SAVE_PATH%
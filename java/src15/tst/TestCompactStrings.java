@@ -0,0 +1,107 @@
+import org.nachodb.*;
+
+class Message extends Persistent { 
+    String   text;
+    String   author;
+    String[] keywords;
+}
+
+class Mailbox extends Persistent { 
+    Index<Message> messages;
+}
+
+/**
+ * Store strings in legacy representation, then reopen database with compact strings enabled,
+ * check that both representations are readable and convert database using Storage.upgradeFormat
+ */
+public class TestCompactStrings { 
+    final static int nMessages = 10000;
+    final static int pagePoolSize = 32*1024*1024;
+
+    static final String[] samples = { 
+        "",
+        "Plain ASCII text",
+        "Caf\u00E9 cr\u00E8me br\u00FBl\u00E9e",
+        "\u041F\u0440\u0438\u0432\u0435\u0442, \u043C\u0438\u0440",
+        "\u65E5\u672C\u8A9E\u306E\u30C6\u30AD\u30B9\u30C8",
+        "Mixed \u00FF\u0100 and \uD834\uDD1E surrogate pair",
+        "\u0000 zero char and \u07FF\u0800\uFFFF"
+    };
+
+    static String text(int i) { 
+        return samples[i % samples.length] + " #" + i;
+    }
+
+    static void populate(Storage db) { 
+        Mailbox root = new Mailbox();
+        root.messages = db.<Message>createIndex(String.class, true);
+        db.setRoot(root);
+        for (int i = 0; i < nMessages; i++) { 
+            Message msg = new Message();
+            msg.text = text(i);
+            msg.author = (i % 5 == 0) ? null : "author" + (i % 100);
+            msg.keywords = (i % 7 == 0) ? null : new String[]{samples[i % samples.length], null, "kw" + i};
+            root.messages.put(msg.text, msg);
+        }
+        db.commit();
+    }
+
+    static void verify(Storage db) { 
+        Mailbox root = (Mailbox)db.getRoot();
+        Assert.that(root.messages.size() == nMessages);
+        for (int i = 0; i < nMessages; i++) { 
+            Message msg = root.messages.get(text(i));
+            Assert.that(msg != null && msg.text.equals(text(i)));
+            Assert.that(i % 5 == 0 ? msg.author == null : msg.author.equals("author" + (i % 100)));
+            if (i % 7 == 0) { 
+                Assert.that(msg.keywords == null);
+            } else { 
+                Assert.that(msg.keywords.length == 3 && msg.keywords[0].equals(samples[i % samples.length])
+                            && msg.keywords[1] == null && msg.keywords[2].equals("kw" + i));
+            }
+        }
+    }
+
+    static public void main(String[] args) throws Exception { 
+        String path = "testcstr.dbs";
+        new java.io.File(path).delete();
+
+        Storage db = StorageFactory.getInstance().createStorage();
+        db.setProperty("perst.compact.strings", Boolean.FALSE);
+        db.open(path, pagePoolSize);
+        populate(db);
+        db.gc();
+        long legacyUsedSize = db.getUsedSize();
+        db.close();
+
+        db = StorageFactory.getInstance().createStorage();
+        db.open(path, pagePoolSize);
+        verify(db);
+        // update part of the objects: database contains strings in both representations
+        Mailbox root = (Mailbox)db.getRoot();
+        for (int i = 0; i < nMessages; i += 2) { 
+            Message msg = root.messages.get(text(i));
+            msg.author = msg.author;
+            msg.modify();
+        }
+        db.commit();
+        verify(db);
+        java.io.StringWriter writer = new java.io.StringWriter();
+        db.exportXML(writer);
+        Assert.that(writer.toString().indexOf("Caf\u00E9 cr\u00E8me") >= 0);
+
+        int nRewritten = db.upgradeFormat();
+        Assert.that(nRewritten >= nMessages);
+        db.commit();
+        db.gc();
+        long compactUsedSize = db.getUsedSize();
+        System.out.println("Used size with legacy strings " + legacyUsedSize + ", with compact strings " + compactUsedSize);
+        Assert.that(compactUsedSize < legacyUsedSize);
+        db.close();
+
+        db = StorageFactory.getInstance().createStorage();
+        db.open(path, pagePoolSize);
+        verify(db);
+        db.close();
+    }
+}
@@ -0,0 +1,327 @@
+import org.nachodb.*;
+import java.util.*;
+
+enum Cabin { ECONOMY, BUSINESS, FIRST }
+
+class Flight extends Persistent { 
+    int    gate;
+    String code;
+    double fare;
+    byte[] tag;
+    Cabin  cabin;
+    Date   departure;
+
+    Flight() {}
+
+    Flight(int i, long rnd) { 
+        gate = (int)(rnd % 101) - 50;
+        // non ASCII characters and characters which encoding contains zero bytes
+        code = (i % 3 == 0 ? "\u0000" : i % 3 == 1 ? "\u00e9\uffff" : "\u0100A") + (rnd % 1000) + "-" + i;
+        fare = i % 100 == 0 ? -0.0 : (double)(rnd % 2001 - 1000) / 8;
+        tag = new byte[] {(byte)(rnd >>> 8), 0, (byte)0x80, (byte)i};
+        cabin = Cabin.values()[i % 3];
+        departure = i % 10 == 0 ? null : new Date(rnd % 100000 * 60000L);
+    }
+}
+
+class Timetable extends Persistent { 
+    FieldIndex<Flight> byGateAndCode;
+    FieldIndex<Flight> byFareAndTag;
+    FieldIndex<Flight> byCabinAndDeparture;
+    FieldIndex<Flight> byCodeAndTag;
+    FieldIndex<Flight> legacyByGateAndCode;
+}
+
+/**
+ * Check that order of objects in multi-field indices (which keys are compared as normalized byte strings)
+ * is the same as order defined by comparison of the fields and as order of index with keys compared
+ * field by field (format of previous versions), compare time of lookups in these indices,
+ * check that null strings and byte arrays are distinct from empty ones, search by prefix of the compound key,
+ * unpacking of the keys, XML export/import and multi-field index of alternative B-Tree implementation
+ */
+public class TestCompoundIndex { 
+    final static int nFlights = 20000;
+    final static int pagePoolSize = 32*1024*1024;
+    final static int nRounds = 5;
+
+    // keys of byCodeAndTag index in ascending order
+    final static String[] nullableCodes = {null, null, "", "", "A"};
+    final static byte[][] nullableTags = {null, {}, null, {}, {0}};
+
+    static int compareBytes(byte[] a, byte[] b) { 
+        for (int i = 0; i < a.length && i < b.length; i++) { 
+            if (a[i] != b[i]) { 
+                return a[i] - b[i];
+            }
+        }
+        return a.length - b.length;
+    }
+
+    static long date(Flight f) { 
+        return f.departure == null ? -1 : f.departure.getTime();
+    }
+
+    final static Comparator<Flight> gateAndCode = new Comparator<Flight>() { 
+        public int compare(Flight f1, Flight f2) { 
+            return f1.gate != f2.gate ? f1.gate - f2.gate : f1.code.compareTo(f2.code);
+        }
+    };
+    final static Comparator<Flight> fareAndTag = new Comparator<Flight>() { 
+        public int compare(Flight f1, Flight f2) { 
+            return f1.fare != f2.fare ? (f1.fare < f2.fare ? -1 : 1) : compareBytes(f1.tag, f2.tag);
+        }
+    };
+    final static Comparator<Flight> cabinAndDeparture = new Comparator<Flight>() { 
+        public int compare(Flight f1, Flight f2) { 
+            return f1.cabin != f2.cabin ? f1.cabin.compareTo(f2.cabin) : date(f1) < date(f2) ? -1 : date(f1) == date(f2) ? 0 : 1;
+        }
+    };
+
+    /**
+     * Index with keys in format of previous versions is created by clearing flag of normalized keys,
+     * which is not available through public API
+     */
+    static FieldIndex<Flight> createLegacyIndex(Storage db, String[] fields) { 
+        FieldIndex<Flight> index = db.<Flight>createFieldIndex(Flight.class, fields, true);
+        try { 
+            java.lang.reflect.Field f = index.getClass().getDeclaredField("normalized");
+            f.setAccessible(true);
+            f.setBoolean(index, false);
+        } catch (Exception x) { 
+            throw new Error(x.toString());
+        }
+        return index;
+    }
+
+    static Flight nullableFlight(int i) { 
+        Flight f = new Flight(i, 1);
+        f.code = nullableCodes[i];
+        f.tag = nullableTags[i];
+        return f;
+    }
+
+    static void createNullableIndex(Storage db, Timetable root) { 
+        root.byCodeAndTag = db.<Flight>createFieldIndex(Flight.class, new String[]{"code", "tag"}, true);
+        for (int i = nullableCodes.length; --i >= 0;) { 
+            Assert.that(root.byCodeAndTag.put(nullableFlight(i)));
+        }
+        Assert.that(!root.byCodeAndTag.put(nullableFlight(0)));
+    }
+
+    static void checkNulls(FieldIndex<Flight> index) { 
+        int i = 0;
+        for (Flight f : index) { 
+            Assert.that(f.code == null ? nullableCodes[i] == null : f.code.equals(nullableCodes[i]));
+            Assert.that(f.tag == null ? nullableTags[i] == null : Arrays.equals(f.tag, nullableTags[i]));
+            Assert.that(index.get(new Key(new Object[]{f.code, f.tag})) == f);
+            i += 1;
+        }
+        Assert.that(i == nullableCodes.length);
+    }
+
+    static long lookup(FieldIndex<Flight> index, ArrayList<Flight> flights) { 
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 10; i++) { 
+            for (Flight f : flights) { 
+                Assert.that(index.get(new Key(new Object[]{f.gate, f.code})) == f);
+            }
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    static void checkOrder(FieldIndex<Flight> index, Comparator<Flight> cmp) { 
+        Flight prev = null;
+        int n = 0;
+        for (Flight f : index) { 
+            Assert.that(prev == null || cmp.compare(prev, f) <= 0);
+            prev = f;
+            n += 1;
+        }
+        Assert.that(n == nFlights);
+    }
+
+    static void checkIndices(Timetable root, ArrayList<Flight> flights) { 
+        checkOrder(root.byGateAndCode, gateAndCode);
+        checkOrder(root.byFareAndTag, fareAndTag);
+        checkOrder(root.byCabinAndDeparture, cabinAndDeparture);
+        Iterator<Flight> legacy = root.legacyByGateAndCode.iterator();
+        for (Flight f : root.byGateAndCode) { 
+            Assert.that(legacy.next() == f);
+        }
+        Assert.that(!legacy.hasNext());
+        checkNulls(root.byCodeAndTag);
+        int nFound = 0;
+        for (Flight f : flights) { 
+            Assert.that(root.byGateAndCode.get(new Key(new Object[]{f.gate, f.code})) == f);
+            Assert.that(root.byGateAndCode.get(new Key(new Object[]{f.gate, f.code + " "})) == null);
+            Key key = new Key(new Object[]{f.fare, f.tag});
+            for (Flight g : root.byFareAndTag.iterator(key, key, Index.ASCENT_ORDER)) { 
+                Assert.that(g.fare == f.fare && Arrays.equals(g.tag, f.tag));
+                nFound += g == f ? 1 : 0;
+            }
+        }
+        Assert.that(nFound == nFlights);
+        // -0.0 is equal to 0.0
+        Assert.that(root.byFareAndTag.get(new Key(new Object[]{0.0}), new Key(new Object[]{-0.0})).length
+                    == root.byFareAndTag.get(new Key(new Object[]{-0.0}), new Key(new Object[]{0.0})).length);
+
+        // search by prefix of the compound key
+        int nInRange = 0;
+        for (Flight f : flights) { 
+            if (f.gate >= -10 && f.gate < 10) { 
+                nInRange += 1;
+            }
+        }
+        int n = 0;
+        for (Flight f : root.byGateAndCode.iterator(new Key(new Object[]{-10}), new Key(new Object[]{10}, false), 
+                                                    Index.DESCENT_ORDER)) 
+        { 
+            Assert.that(f.gate >= -10 && f.gate < 10);
+            n += 1;
+        }
+        Assert.that(n == nInRange);
+        int nNull = 0;
+        for (Flight f : root.byCabinAndDeparture.iterator(new Key(new Object[]{Cabin.FIRST, null}),
+                                                          new Key(new Object[]{Cabin.FIRST, null}), Index.ASCENT_ORDER))
+        { 
+            Assert.that(f.cabin == Cabin.FIRST && f.departure == null);
+            nNull += 1;
+        }
+        Assert.that(nNull > 0);
+
+        // unpacked keys
+        for (Map.Entry<Object,Flight> e : root.byGateAndCode.entryIterator()) { 
+            Object[] key = (Object[])e.getKey();
+            Assert.that(key[0].equals(e.getValue().gate) && key[1].equals(e.getValue().code));
+        }
+        for (Map.Entry<Object,Flight> e : root.byFareAndTag.entryIterator()) { 
+            Object[] key = (Object[])e.getKey();
+            Assert.that(((Double)key[0]).doubleValue() == e.getValue().fare && Arrays.equals((byte[])key[1], e.getValue().tag));
+        }
+        for (Map.Entry<Object,Flight> e : root.byCabinAndDeparture.entryIterator()) { 
+            Object[] key = (Object[])e.getKey();
+            Flight f = e.getValue();
+            Assert.that(key[0] == f.cabin && (key[1] == null ? f.departure == null : key[1].equals(f.departure)));
+        }
+        // null and empty strings are different prefixes of the compound key
+        Assert.that(root.byCodeAndTag.get(new Key(new Object[]{null}), new Key(new Object[]{null})).length == 2);
+        Assert.that(root.byCodeAndTag.get(new Key(new Object[]{""}), new Key(new Object[]{""})).length == 2);
+        for (Map.Entry<Object,Flight> e : root.byCodeAndTag.entryIterator()) { 
+            Object[] key = (Object[])e.getKey();
+            Flight f = e.getValue();
+            Assert.that(key[0] == null ? f.code == null : key[0].equals(f.code));
+            Assert.that(key[1] == null ? f.tag == null : Arrays.equals((byte[])key[1], f.tag));
+        }
+    }
+
+    static ArrayList<Flight> createFlights() { 
+        ArrayList<Flight> flights = new ArrayList<Flight>();
+        long rnd = 1999;
+        for (int i = 0; i < nFlights; i++) { 
+            rnd = (3141592621L*rnd + 2718281829L) % 1000000007L;
+            flights.add(new Flight(i, rnd));
+        }
+        return flights;
+    }
+
+    static public void main(String[] args) throws Exception { 
+        String path = "testcompound.dbs";
+        new java.io.File(path).delete();
+        Storage db = StorageFactory.getInstance().createStorage();
+        db.open(path, pagePoolSize);
+        Timetable root = new Timetable();
+        root.byGateAndCode = db.<Flight>createFieldIndex(Flight.class, new String[]{"gate", "code"}, true);
+        root.byFareAndTag = db.<Flight>createFieldIndex(Flight.class, new String[]{"fare", "tag"}, false);
+        root.byCabinAndDeparture = db.<Flight>createFieldIndex(Flight.class, new String[]{"cabin", "departure"}, false);
+        root.legacyByGateAndCode = createLegacyIndex(db, new String[]{"gate", "code"});
+        createNullableIndex(db, root);
+        db.setRoot(root);
+        ArrayList<Flight> flights = createFlights();
+        for (Flight f : flights) { 
+            root.byGateAndCode.put(f);
+            root.byFareAndTag.put(f);
+            root.byCabinAndDeparture.put(f);
+            root.legacyByGateAndCode.put(f);
+        }
+        db.commit();
+        // the first round warms up JIT and is not measured, order of lookups alternates in the following rounds
+        long normalizedTime = 0;
+        long legacyTime = 0;
+        for (int round = 0; round < nRounds; round++) { 
+            long t1, t2;
+            if ((round & 1) == 0) { 
+                t1 = lookup(root.byGateAndCode, flights);
+                t2 = lookup(root.legacyByGateAndCode, flights);
+            } else { 
+                t2 = lookup(root.legacyByGateAndCode, flights);
+                t1 = lookup(root.byGateAndCode, flights);
+            }
+            if (round != 0) { 
+                normalizedTime += t1;
+                legacyTime += t2;
+            }
+        }
+        System.out.println("Elapsed time for " + nFlights*10 + " lookups of compound keys (average of " 
+                           + (nRounds - 1) + " rounds): " + normalizedTime/(nRounds - 1) 
+                           + " milliseconds with normalized keys, " + legacyTime/(nRounds - 1) 
+                           + " milliseconds with keys compared field by field");
+        checkIndices(root, flights);
+        db.close();
+
+        db.open(path, pagePoolSize);
+        root = (Timetable)db.getRoot();
+        flights = root.byGateAndCode.getList(null, null);
+        checkIndices(root, flights);
+        for (int i = 0; i < nFlights; i += 2) { 
+            Flight f = flights.get(i);
+            root.byGateAndCode.remove(f);
+            root.byFareAndTag.remove(f);
+            root.byCabinAndDeparture.remove(f);
+            root.legacyByGateAndCode.remove(f);
+            root.byGateAndCode.put(f);
+            root.byFareAndTag.put(f);
+            root.byCabinAndDeparture.put(f);
+            root.legacyByGateAndCode.put(f);
+        }
+        checkIndices(root, flights);
+
+        java.io.StringWriter writer = new java.io.StringWriter();
+        db.exportXML(writer);
+        db.close();
+        new java.io.File(path).delete();
+        db.open(path, pagePoolSize);
+        db.importXML(new java.io.StringReader(writer.toString()));
+        root = (Timetable)db.getRoot();
+        checkIndices(root, root.byGateAndCode.getList(null, null));
+        db.close();
+
+        // alternative B-Tree stores compound keys as serialized objects
+        new java.io.File(path).delete();
+        db.setProperty("perst.alternative.btree", Boolean.TRUE);
+        db.setProperty("perst.serialize.transient.objects", Boolean.TRUE);
+        db.open(path, pagePoolSize);
+        root = new Timetable();
+        root.byGateAndCode = db.<Flight>createFieldIndex(Flight.class, new String[]{"gate", "code"}, true);
+        root.byFareAndTag = db.<Flight>createFieldIndex(Flight.class, new String[]{"fare", "tag"}, false);
+        root.byCabinAndDeparture = db.<Flight>createFieldIndex(Flight.class, new String[]{"cabin", "departure"}, false);
+        createNullableIndex(db, root);
+        db.setRoot(root);
+        flights = createFlights();
+        for (Flight f : flights) { 
+            root.byGateAndCode.put(f);
+            root.byFareAndTag.put(f);
+            root.byCabinAndDeparture.put(f);
+        }
+        db.close();
+        db.open(path, pagePoolSize);
+        root = (Timetable)db.getRoot();
+        checkOrder(root.byGateAndCode, gateAndCode);
+        checkOrder(root.byFareAndTag, fareAndTag);
+        checkOrder(root.byCabinAndDeparture, cabinAndDeparture);
+        checkNulls(root.byCodeAndTag);
+        for (Flight f : root.byGateAndCode) { 
+            Assert.that(root.byGateAndCode.get(new Key(new Object[]{f.gate, f.code})) == f);
+        }
+        db.close();
+    }
+}
@@ -0,0 +1,119 @@
+import org.nachodb.*;
+import org.nachodb.impl.*;
+import java.io.File;
+
+class Document extends Persistent { 
+    int    id;
+    String title;
+    String body;
+}
+
+class Archive extends Persistent { 
+    Index<Document> documents;
+}
+
+/**
+ * Store the same documents in plain and compressed file and compare size of the files,
+ * check that data is preserved after update and reopen and that compressed file
+ * is restored to the state of last synchronization when it is not closed
+ */
+public class TestCompressedFile { 
+    final static int nDocuments = 10000;
+    final static int pagePoolSize = 32*1024*1024;
+
+    static String body(int i) { 
+        StringBuffer buf = new StringBuffer();
+        for (int j = 0; j < 10; j++) { 
+            buf.append("Paragraph ").append(j).append(" of document ").append(i).append(". ");
+        }
+        return buf.toString();
+    }
+
+    static long populate(String path, boolean compressed) { 
+        new File(path).delete();
+        Storage db = StorageFactory.getInstance().createStorage();
+        db.setProperty("perst.file.compression", Boolean.valueOf(compressed));
+        db.open(path, pagePoolSize);
+        Archive root = new Archive();
+        root.documents = db.<Document>createIndex(int.class, true);
+        db.setRoot(root);
+        for (int i = 0; i < nDocuments; i++) { 
+            Document doc = new Document();
+            doc.id = i;
+            doc.title = "Document " + i;
+            doc.body = body(i);
+            root.documents.put(new Key(i), doc);
+        }
+        db.close();
+        return new File(path).length();
+    }
+
+    static void verify(Storage db, int version) { 
+        Archive root = (Archive)db.getRoot();
+        int n = 0;
+        for (Document doc : root.documents) { 
+            Assert.that(doc.id == n);
+            Assert.that(doc.title.equals((n % 2 == 0 ? "Version " + version + " of document " : "Document ") + n));
+            Assert.that(doc.body.equals(body(n)));
+            n += 1;
+        }
+        Assert.that(n == nDocuments);
+    }
+
+    static void testRecovery(String path) { 
+        new File(path).delete();
+        byte[] page = new byte[4096];
+        CompressedFile file = new CompressedFile(path, false, false);
+        for (int i = 0; i < 100; i++) { 
+            page[i] = (byte)i;
+            file.write((long)i*page.length, page);
+        }
+        file.sync();
+        for (int i = 0; i < 200; i += 2) { 
+            page[i] = (byte)-i;
+            file.write((long)i*page.length, page);
+        }
+        // reopen file without closing it: changes made after last sync should be discarded
+        CompressedFile copy = new CompressedFile(path, true, false);
+        Assert.that(copy.length() == 100L*page.length);
+        for (int i = 0; i < 100; i++) { 
+            Assert.that(copy.read((long)i*page.length, page) == page.length);
+            for (int j = 0; j < page.length; j++) { 
+                Assert.that(page[j] == (j <= i ? (byte)j : 0));
+            }
+        }
+        copy.close();
+        file.close();
+    }
+
+    static public void main(String[] args) throws Exception { 
+        long plainSize = populate("testcfile1.dbs", false);
+        long compressedSize = populate("testcfile2.dbs", true);
+        System.out.println("Size of plain file " + plainSize + ", of compressed file " + compressedSize);
+        Assert.that(compressedSize < plainSize);
+
+        Storage db = StorageFactory.getInstance().createStorage();
+        db.setProperty("perst.file.compression", Boolean.TRUE);
+        db.open("testcfile2.dbs", pagePoolSize);
+        Archive root = (Archive)db.getRoot();
+        for (int version = 1; version <= 3; version++) { 
+            for (int i = 0; i < nDocuments; i += 2) { 
+                Document doc = root.documents.get(new Key(i));
+                doc.title = "Version " + version + " of document " + i;
+                doc.modify();
+            }
+            db.commit();
+            verify(db, version);
+        }
+        db.close();
+
+        db = StorageFactory.getInstance().createStorage();
+        db.setProperty("perst.file.compression", Boolean.TRUE);
+        db.open("testcfile2.dbs", pagePoolSize);
+        verify(db, 3);
+        db.close();
+        System.out.println("Size of compressed file after updates " + new File("testcfile2.dbs").length());
+
+        testRecovery("testcfile3.dbs");
+    }
+}
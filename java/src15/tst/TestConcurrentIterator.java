@@ -0,0 +1,121 @@
+import org.nachodb.*;
+import java.util.*;
+
+class Job extends Persistent { 
+    int    id;
+    int    priority;
+    String name;
+
+    Job() {}
+
+    Job(int id) { 
+        this.id = id;
+        priority = id % 100;
+        name = "job-" + (1000000 + id);
+    }
+}
+
+class Scheduler extends Persistent { 
+    Index<Job>      byId;
+    Index<Job>      byPriority;
+    Index<Job>      byName;
+}
+
+/**
+ * Check that B-Tree iterator throws ConcurrentModificationException when index is updated during iteration
+ * and that with <code>perst.concurrent.iterator</code> property iterator continues from the last returned key:
+ * removal of returned objects, insertion of keys before and after the current position, reinsertion of
+ * objects with duplicate keys and iteration in descent order
+ */
+public class TestConcurrentIterator { 
+    final static int nJobs = 20000;
+    final static int pagePoolSize = 32*1024*1024;
+
+    static Scheduler populate(Storage db) { 
+        Scheduler root = new Scheduler();
+        root.byId = db.<Job>createIndex(int.class, true);
+        root.byPriority = db.<Job>createIndex(int.class, false);
+        root.byName = db.<Job>createIndex(String.class, true);
+        db.setRoot(root);
+        for (int i = 0; i < nJobs; i++) { 
+            Job job = new Job(i*2);
+            root.byId.put(new Key(job.id), job);
+            root.byPriority.put(new Key(job.priority), job);
+            root.byName.put(new Key(job.name), job);
+        }
+        db.commit();
+        return root;
+    }
+
+    static public void main(String[] args) throws Exception { 
+        String path = "testiterator.dbs";
+        new java.io.File(path).delete();
+        Storage db = StorageFactory.getInstance().createStorage();
+        db.open(path, pagePoolSize);
+        Scheduler root = populate(db);
+        try { 
+            for (Job job : root.byId) { 
+                root.byId.remove(new Key(job.id), job);
+            }
+            Assert.failed("Iterator should detect modification of the index");
+        } catch (ConcurrentModificationException x) {}
+        db.close();
+
+        new java.io.File(path).delete();
+        db.setProperty("perst.concurrent.iterator", Boolean.TRUE);
+        db.open(path, pagePoolSize);
+        root = populate(db);
+
+        // insert keys before and after the current position: only the following keys are returned
+        int n = 0, prev = -1;
+        for (Job job : root.byId) { 
+            Assert.that(job.id > prev);
+            prev = job.id;
+            n += 1;
+            if (job.id % 4 == 0) { 
+                root.byId.put(new Key(job.id + 1), new Job(job.id + 1));
+                root.byId.put(new Key(-job.id - 1), new Job(-job.id - 1));
+            }
+        }
+        Assert.that(n == nJobs + nJobs/2 && root.byId.size() == nJobs*2);
+
+        // remove returned objects
+        n = 0;
+        prev = Integer.MIN_VALUE;
+        for (Map.Entry<Object,Job> e : root.byId.entryIterator()) { 
+            Job job = e.getValue();
+            Assert.that(((Integer)e.getKey()).intValue() == job.id && job.id > prev);
+            prev = job.id;
+            root.byId.remove(new Key(job.id), job);
+            n += 1;
+        }
+        Assert.that(n == nJobs*2 && root.byId.size() == 0);
+
+        // duplicate keys: each object is returned once even if it is moved to the end of the duplicates
+        HashSet<Job> returned = new HashSet<Job>();
+        prev = -1;
+        for (Job job : root.byPriority) { 
+            Assert.that(job.priority >= prev && returned.add(job));
+            prev = job.priority;
+            root.byPriority.remove(new Key(job.priority), job);
+            root.byPriority.put(new Key(job.priority), job);
+        }
+        Assert.that(returned.size() == nJobs && root.byPriority.size() == nJobs);
+
+        // descent order in the range of keys, remove every other object
+        String till = "job-" + (1000000 + nJobs);
+        String from = "job-" + (1000000 + nJobs/2);
+        n = 0;
+        String prevName = null;
+        for (Job job : root.byName.iterator(new Key(from), new Key(till, false), Index.DESCENT_ORDER)) { 
+            Assert.that(job.name.compareTo(from) >= 0 && job.name.compareTo(till) < 0);
+            Assert.that(prevName == null || prevName.compareTo(job.name) > 0);
+            prevName = job.name;
+            if ((n++ & 1) == 0) { 
+                root.byName.remove(new Key(job.name), job);
+            }
+        }
+        Assert.that(n == nJobs/4 && root.byName.size() == nJobs - nJobs/8);
+        db.close();
+    }
+}
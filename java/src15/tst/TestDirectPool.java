@@ -0,0 +1,90 @@
+import org.nachodb.*;
+
+class Customer extends Persistent { 
+    long   id;
+    String name;
+    String address;
+}
+
+/**
+ * Compare speed of database opened with MappedFile with and without direct loading of objects
+ * from the mapped region (<code>perst.page.pool.direct</code> property). Page pool is smaller than the database.
+ */
+public class TestDirectPool { 
+    final static int nRecords = 200000;
+    final static int nLookups = 1000000;
+    final static int pagePoolSize = 8*1024*1024;
+
+    static void test(boolean direct) { 
+        String path = "testdirect.dbs";
+        new java.io.File(path).delete();
+        Storage db = StorageFactory.getInstance().createStorage();
+        db.setProperty("perst.page.pool.direct", Boolean.valueOf(direct));
+        db.open(new MappedFile(path, pagePoolSize, false), pagePoolSize);
+        FieldIndex<Customer> index = db.<Customer>createFieldIndex(Customer.class, "id", true);
+        db.setRoot(index);
+        String mode = direct ? "Direct" : "Pool";
+
+        long start = System.currentTimeMillis();
+        long key = 1999;
+        for (int i = 0; i < nRecords; i++) { 
+            key = (3141592621L*key + 2718281829L) % 1000000007L;
+            Customer c = new Customer();
+            c.id = key;
+            c.name = "Customer " + key;
+            c.address = "Street " + (key % 1000) + ", house " + i;
+            index.put(c);
+        }
+        db.commit();
+        System.out.println(mode + ": elapsed time for inserting " + nRecords + " records: "
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+
+        long[] keys = new long[nRecords];
+        key = 1999;
+        for (int i = 0; i < nRecords; i++) { 
+            keys[i] = key = (3141592621L*key + 2718281829L) % 1000000007L;
+        }
+        start = System.currentTimeMillis();
+        int r = 12345;
+        for (int i = 0; i < nLookups; i++) { 
+            r = r*1103515245 + 12345;
+            long k = keys[(r >>> 1) % nRecords];
+            Customer c = index.get(new Key(k));
+            Assert.that(c != null && c.name.equals("Customer " + k));
+        }
+        System.out.println(mode + ": elapsed time for " + nLookups + " random searches: "
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+
+        start = System.currentTimeMillis();
+        int n = 0;
+        for (Customer c : index) { 
+            Assert.that(c.address.startsWith("Street "));
+            n += 1;
+        }
+        Assert.that(n == nRecords);
+        System.out.println(mode + ": elapsed time for iteration through " + nRecords + " records: "
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+
+        start = System.currentTimeMillis();
+        for (int i = 0; i < nRecords; i++) { 
+            Customer c = index.get(new Key(keys[i]));
+            index.remove(c);
+            c.deallocate();
+        }
+        db.commit();
+        Assert.that(index.size() == 0);
+        System.out.println(mode + ": elapsed time for deleting " + nRecords + " records: "
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+        PagePoolStatistics stat = db.getPagePoolStatistics();
+        System.out.println(mode + ": page pool hits=" + stat.nHits + ", misses=" + stat.nMisses);
+        db.close();
+    }
+
+    static public void main(String[] args) { 
+        // first run warms up JIT
+        test(false);
+        test(true);
+        test(false);
+        test(true);
+    }
+}
@@ -0,0 +1,186 @@
+import org.nachodb.*;
+import org.nachodb.impl.*;
+import java.io.File;
+
+class Secret extends Persistent { 
+    long   id;
+    String text;
+}
+
+class Vault extends Persistent { 
+    FieldIndex<Secret> secrets;
+}
+
+/**
+ * Check that AES encrypted database can be reopened and can not be opened with wrong key,
+ * compare speed of plain, RC4 and AES encrypted files, check that pages of AES encrypted file
+ * can be concurrently read by several threads and that data is not stored in plain text
+ */
+public class TestEncryptedFile { 
+    final static int nSecrets = 10000;
+    final static int nPages = 1000;
+    final static int nThreads = 4;
+    final static int nRounds = 4;
+    final static int pagePoolSize = 4*1024*1024;
+    final static String key = "Secret key";
+
+    static String text(long id) { 
+        return "Secret message #" + id;
+    }
+
+    static void testDatabase(String path) { 
+        new File(path).delete();
+        Storage db = StorageFactory.getInstance().createStorage();
+        db.setProperty("perst.file.encryption", "aes");
+        db.open(path, pagePoolSize, key);
+        Vault root = new Vault();
+        root.secrets = db.<Secret>createFieldIndex(Secret.class, "id", true);
+        db.setRoot(root);
+        for (long i = 0; i < nSecrets; i++) { 
+            Secret s = new Secret();
+            s.id = i;
+            s.text = text(i);
+            root.secrets.put(s);
+        }
+        db.close();
+
+        db = StorageFactory.getInstance().createStorage();
+        db.setProperty("perst.file.encryption", "aes");
+        db.open(path, pagePoolSize, key);
+        root = (Vault)db.getRoot();
+        long id = 0;
+        for (Secret s : root.secrets) { 
+            Assert.that(s.id == id && s.text.equals(text(id)));
+            id += 1;
+        }
+        Assert.that(id == nSecrets);
+        db.close();
+
+        db = StorageFactory.getInstance().createStorage();
+        db.setProperty("perst.file.encryption", "aes");
+        try { 
+            db.open(path, pagePoolSize, "Wrong key");
+            Assert.failed("Database is opened with wrong key");
+        } catch (StorageError x) { 
+            Assert.that(x.getErrorCode() == StorageError.FILE_ACCESS_ERROR);
+        }
+    }
+
+    static long measure(IFile file) { 
+        byte[] page = new byte[4096];
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < nPages*10; i++) { 
+            file.write((long)i*page.length, page);
+        }
+        for (int i = 0; i < nPages*10; i++) { 
+            file.read((long)i*page.length, page);
+        }
+        file.close();
+        return System.currentTimeMillis() - start;
+    }
+
+    static void comparePerformance(String path) { 
+        long plainTime = 0;
+        long rc4Time = 0;
+        long aesTime = 0;
+        for (int i = 0; i < nRounds; i++) { // first round is warming up
+            new File(path).delete();
+            long t1 = measure(new OSFile(path, false, true));
+            new File(path).delete();
+            long t2 = measure(new Rc4File(path, false, true, key));
+            new File(path).delete();
+            long t3 = measure(new AesFile(path, false, true, key));
+            if (i != 0) { 
+                plainTime += t1;
+                rc4Time += t2;
+                aesTime += t3;
+            }
+        }
+        System.out.println("Elapsed time for writing and reading " + nPages*10 + " pages (average of " + (nRounds - 1) 
+                           + " rounds): plain file " + plainTime/(nRounds - 1) + " milliseconds, RC4 " 
+                           + rc4Time/(nRounds - 1) + " milliseconds, AES " + aesTime/(nRounds - 1) + " milliseconds");
+    }
+
+    static void checkPage(byte[] page, int i) { 
+        for (int j = 0; j < page.length; j++) { 
+            Assert.that(page[j] == (byte)(i + j));
+        }
+    }
+
+    static void testConcurrentAccess(String path) throws Exception { 
+        new File(path).delete();
+        final IFile file = new AesFile(new ChannelFile(path, false, false), key);
+        byte[] page = new byte[4096];
+        // write pages in reverse order to check that gaps are filled
+        for (int i = nPages; --i >= 0;) { 
+            for (int j = 0; j < page.length; j++) { 
+                page[j] = (byte)(i + j);
+            }
+            file.write((long)i*page.length, page);
+        }
+        file.sync();
+        Thread[] threads = new Thread[nThreads];
+        final Throwable[] failure = new Throwable[1];
+        for (int t = 0; t < nThreads; t++) { 
+            final int seed = t;
+            threads[t] = new Thread() { 
+                public void run() { 
+                    try { 
+                        byte[] buf = new byte[4096];
+                        java.util.Random rnd = new java.util.Random(seed);
+                        for (int n = 0; n < nPages*10; n++) { 
+                            int i = rnd.nextInt(nPages);
+                            Assert.that(file.read((long)i*buf.length, buf) == buf.length);
+                            checkPage(buf, i);
+                        }
+                    } catch (Throwable x) { 
+                        failure[0] = x;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (int t = 0; t < nThreads; t++) { 
+            threads[t].join();
+        }
+        Assert.that(failure[0] == null);
+        file.close();
+
+        // data should not be stored in plain text: pages follow header of the encrypted file
+        IFile raw = new OSFile(path, true, false);
+        long first = raw.length() - (long)nPages*page.length;
+        Assert.that(raw.read(first, page) == page.length);
+        int nMatches = 0;
+        for (int j = 0; j < page.length; j++) { 
+            if (page[j] == (byte)j) { 
+                nMatches += 1;
+            }
+        }
+        Assert.that(nMatches < page.length/16);
+        raw.close();
+
+        // the same page encrypted with the same key in other file should differ because salt is random
+        String copyPath = path + ".copy";
+        new File(copyPath).delete();
+        IFile copy = new AesFile(copyPath, false, false, key);
+        for (int j = 0; j < page.length; j++) { 
+            page[j] = (byte)j;
+        }
+        copy.write(0, page);
+        copy.close();
+        byte[] copyPage = new byte[page.length];
+        raw = new OSFile(path, true, false);
+        raw.read(first, page);
+        raw.close();
+        raw = new OSFile(copyPath, true, false);
+        Assert.that(raw.read(first, copyPage) == page.length);
+        raw.close();
+        Assert.that(!java.util.Arrays.equals(page, copyPage));
+    }
+
+    static public void main(String[] args) throws Exception { 
+        testDatabase("testenc1.dbs");
+        comparePerformance("testenc2.dbs");
+        testConcurrentAccess("testenc3.dbs");
+    }
+}
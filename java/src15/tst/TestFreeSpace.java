@@ -0,0 +1,116 @@
+import org.nachodb.*;
+
+class Chunk extends Persistent { 
+    long   key;
+    byte[] data;
+}
+
+class Heap extends Persistent { 
+    Index<Chunk> chunks;
+}
+
+/**
+ * Fragment database by interleaving deallocation of small objects with allocation of large objects
+ * which do not fit in the holes and check that allocator doesn't rescan bitmap pages with small holes.
+ * Then check that extents released by deallocated objects are reused by new objects of the same size.
+ */
+public class TestFreeSpace { 
+    final static int nSmallChunks = 500000;
+    final static int nLargeChunks = 20000;
+    final static int nReusedChunks = 100;
+    final static int smallChunkSize = 32;
+    final static int largeChunkSize = 5000;
+    final static int pagePoolSize = 16*1024*1024;
+
+    /**
+     * Position of the object is not available through public API, so it is obtained using method of storage implementation
+     */
+    static long getPosition(Storage db, IPersistent obj) throws Exception { 
+        java.lang.reflect.Method getPos = db.getClass().getDeclaredMethod("getPos", new Class[]{int.class});
+        getPos.setAccessible(true);
+        long pos = ((Long)getPos.invoke(db, new Object[]{new Integer(obj.getOid())})).longValue();
+        return pos & ~7; // position flags are stored in low bits
+    }
+
+    static void checkReuse(Storage db, Heap root) throws Exception { 
+        long key = (long)nSmallChunks + nLargeChunks;
+        java.util.HashSet<Long> freed = new java.util.HashSet<Long>();
+        for (int i = 0; i < nReusedChunks; i++) { 
+            root.chunks.put(key + i, createChunk(key + i, largeChunkSize));
+        }
+        db.commit();
+        for (int i = 0; i < nReusedChunks; i++) { 
+            Chunk chunk = root.chunks.remove(new Key(key + i));
+            freed.add(new Long(getPosition(db, chunk)));
+            chunk.deallocate();
+        }
+        db.commit();
+        key += nReusedChunks;
+        int nReused = 0;
+        Chunk[] chunks = new Chunk[nReusedChunks];
+        for (int i = 0; i < nReusedChunks; i++) { 
+            chunks[i] = createChunk(key + i, largeChunkSize);
+            root.chunks.put(key + i, chunks[i]);
+        }
+        db.commit();
+        for (int i = 0; i < nReusedChunks; i++) { 
+            if (freed.contains(new Long(getPosition(db, chunks[i])))) { 
+                nReused += 1;
+            }
+        }
+        System.out.println(nReused + " of " + nReusedChunks + " released extents are reused");
+        Assert.that(nReused == nReusedChunks);
+    }
+
+    static Chunk createChunk(long key, int size) { 
+        Chunk chunk = new Chunk();
+        chunk.key = key;
+        chunk.data = new byte[size];
+        return chunk;
+    }
+
+    static public void main(String[] args) throws Exception { 
+        String path = "testfree.dbs";
+        new java.io.File(path).delete();
+        Storage db = StorageFactory.getInstance().createStorage();
+        db.setProperty("perst.statistics", Boolean.TRUE);
+        db.open(path, pagePoolSize);
+        Heap root = new Heap();
+        root.chunks = db.<Chunk>createIndex(long.class, true);
+        db.setRoot(root);
+        for (int i = 0; i < nSmallChunks; i++) { 
+            root.chunks.put((long)i, createChunk(i, smallChunkSize));
+        }
+        db.commit();
+
+        StorageStatistics before = db.getStatistics();
+        long start = System.currentTimeMillis();
+        int step = nSmallChunks/nLargeChunks;
+        for (int i = 0; i < nLargeChunks; i++) { 
+            Chunk small = root.chunks.remove(new Key((long)i*step));
+            small.deallocate();
+            root.chunks.put((long)(nSmallChunks + i), createChunk(nSmallChunks + i, largeChunkSize));
+            if (i % 1000 == 0) { 
+                db.commit();
+            }
+        }
+        db.commit();
+        StorageStatistics after = db.getStatistics();
+        long nAllocations = after.nAllocations - before.nAllocations;
+        long nInspectedPages = after.nAllocationBitmapPages - before.nAllocationBitmapPages;
+        System.out.println("Elapsed time " + (System.currentTimeMillis() - start) + " milliseconds, "
+                           + nAllocations + " allocations, " + nInspectedPages + " bitmap pages inspected");
+        Assert.that(nInspectedPages < nAllocations*2);
+
+        int n = 0;
+        for (Chunk chunk : root.chunks) { 
+            Assert.that(chunk.key % step != 0 || chunk.key >= nSmallChunks);
+            Assert.that(chunk.data.length == (chunk.key < nSmallChunks ? smallChunkSize : largeChunkSize));
+            n += 1;
+        }
+        Assert.that(n == nSmallChunks);
+
+        checkReuse(db, root);
+        db.close();
+    }
+}
@@ -0,0 +1,82 @@
+import org.nachodb.*;
+
+class Counter extends Persistent { 
+    int value;
+}
+
+class Counters extends Persistent { 
+    Counter[] counters;
+}
+
+/**
+ * Several threads concurrently update their own objects and commit after each update.
+ * With group commit commits of concurrent threads are combined in one transaction.
+ * Group commit delay in milliseconds can be specified as parameter (default is 1).
+ */
+public class TestGroupCommit { 
+    final static int nThreads = 8;
+    final static int nIterations = 200;
+    final static int pagePoolSize = 32*1024*1024;
+
+    static class CommitThread extends Thread { 
+        Storage db;
+        Counter counter;
+
+        CommitThread(Storage db, Counter counter) { 
+            this.db = db;
+            this.counter = counter;
+        }
+
+        public void run() { 
+            for (int i = 0; i < nIterations; i++) { 
+                synchronized (counter) { 
+                    counter.value += 1;
+                    counter.modify();
+                }
+                db.commit();
+            }
+        }
+    }
+
+    static void test(long delay) throws Exception { 
+        String path = "testgcommit.dbs";
+        new java.io.File(path).delete();
+        Storage db = StorageFactory.getInstance().createStorage();
+        db.setProperty("perst.group.commit.delay", new Long(delay));
+        db.open(path, pagePoolSize);
+        Counters root = new Counters();
+        Counter[] counters = new Counter[nThreads];
+        for (int i = 0; i < nThreads; i++) { 
+            counters[i] = new Counter();
+        }
+        root.counters = counters;
+        db.setRoot(root);
+        db.commit();
+        long start = System.currentTimeMillis();
+        CommitThread[] threads = new CommitThread[nThreads];
+        for (int i = 0; i < nThreads; i++) { 
+            threads[i] = new CommitThread(db, counters[i]);
+            threads[i].start();
+        }
+        for (int i = 0; i < nThreads; i++) { 
+            threads[i].join();
+        }
+        System.out.println("Group commit delay " + delay + ": " + (System.currentTimeMillis() - start)
+                           + " milliseconds for " + nThreads*nIterations + " commits");
+        db.close();
+
+        db = StorageFactory.getInstance().createStorage();
+        db.open(path, pagePoolSize);
+        root = (Counters)db.getRoot();
+        Assert.that(root.counters.length == nThreads);
+        for (int i = 0; i < nThreads; i++) { 
+            Assert.that(root.counters[i].value == nIterations);
+        }
+        db.close();
+    }
+
+    static public void main(String[] args) throws Exception { 
+        test(0);
+        test(args.length > 0 ? Long.parseLong(args[0]) : 1);
+    }
+}
@@ -0,0 +1,99 @@
+import org.nachodb.*;
+
+import java.util.*;
+
+class Item extends Persistent { 
+    long   key;
+    String body;
+};
+
+/**
+ * Check that sequential scan of large index doesn't throw away frequently accessed pages from the pool.
+ * Policy can be specified as first parameter: "lru" (default) or "2q".
+ */
+public class TestPagePool { 
+    final static int nRecords = 200000;
+    final static int nHotRecords = 1000;
+    final static int nIterations = 10;
+    final static int pagePoolSize = 4*1024*1024;
+
+    static void searchHotRecords(Index<Item> index) { 
+        for (int j = 0; j < nIterations; j++) { 
+            long key = 1999;
+            for (int i = 0; i < nHotRecords; i++) { 
+                key = (3141592621L*key + 2718281829L) % 1000000007L;
+                Item item = index.get(key);
+                Assert.that(item != null && item.key == key);
+            }
+        }
+    }
+
+    static void printStatistics(String phase, PagePoolStatistics stat) { 
+        System.out.println(phase + ": policy=" + stat.policy + ", hits=" + stat.nHits
+                           + ", misses=" + stat.nMisses + ", evictions=" + stat.nEvictions);
+    }
+
+    static public void main(String[] args) { 
+        Storage db = StorageFactory.getInstance().createStorage();
+        if (args.length > 0) { 
+            db.setProperty("perst.page.pool.policy", args[0]);
+        }
+        db.open("testpool.dbs", pagePoolSize);
+        Index<Item> index = (Index<Item>)db.getRoot();
+        if (index == null) { 
+            index = db.<Item>createIndex(long.class, true);
+            db.setRoot(index);
+        }
+        long start = System.currentTimeMillis();
+        long key = 1999;
+        int i;
+        for (i = 0; i < nRecords; i++) { 
+            Item item = new Item();
+            key = (3141592621L*key + 2718281829L) % 1000000007L;
+            item.key = key;
+            item.body = "Record " + key;
+            index.put(key, item);
+        }
+        db.commit();
+        System.out.println("Elapsed time for inserting " + nRecords + " records: "
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+
+        searchHotRecords(index);
+        PagePoolStatistics before = db.getPagePoolStatistics();
+        printStatistics("Before scan", before);
+
+        start = System.currentTimeMillis();
+        key = Long.MIN_VALUE;
+        i = 0;
+        for (Item item : index) { 
+            Assert.that(item.key > key);
+            key = item.key;
+            i += 1;
+        }
+        Assert.that(i == nRecords);
+        System.out.println("Elapsed time for iterating through " + nRecords + " records: "
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+        PagePoolStatistics scan = db.getPagePoolStatistics();
+        printStatistics("After scan", scan);
+
+        start = System.currentTimeMillis();
+        searchHotRecords(index);
+        PagePoolStatistics after = db.getPagePoolStatistics();
+        printStatistics("After search", after);
+        System.out.println("Elapsed time for " + nHotRecords*nIterations + " searches of hot records: "
+                           + (System.currentTimeMillis() - start) + " milliseconds, "
+                           + (after.nMisses - scan.nMisses) + " pages loaded");
+        Assert.that(after.nHits >= before.nHits && after.nMisses >= scan.nMisses && scan.nMisses >= before.nMisses);
+
+        db.close();
+
+        db = StorageFactory.getInstance().createStorage();
+        db.setProperty("perst.page.pool.policy", "mru");
+        try { 
+            db.open("testpool.dbs", pagePoolSize);
+            Assert.failed("unknown policy is accepted");
+        } catch (StorageError x) { 
+            Assert.that(x.getErrorCode() == StorageError.BAD_PROPERTY_VALUE);
+        }
+    }
+}
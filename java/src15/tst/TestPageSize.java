@@ -0,0 +1,109 @@
+import org.nachodb.*;
+
+class Row extends Persistent { 
+    long   intKey;
+    String strKey;
+};
+
+class Tables extends Persistent { 
+    Index<Row> intIndex;
+    Index<Row> strIndex;
+}
+
+/**
+ * Compare cost of B-Tree lookups for different database page sizes.
+ * Larger page contains more keys, so the tree becomes lower. Test reports height of the tree
+ * and average number of page pool accesses per lookup (one access for each level of the tree
+ * plus accesses needed to load the found record if it is not in object cache).
+ * Page sizes can be specified as parameters (default is 4096 8192 16384 32768).
+ */
+public class TestPageSize { 
+    final static int nRecords = 200000;
+    final static int nLookups = 100000;
+    final static int pagePoolSize = 64*1024*1024;
+
+    static String strKey(long key) { 
+        return "Record with rather long key " + key;
+    }
+
+    /**
+     * Height of the tree is not available through public API, so it is read from the field of B-Tree implementation
+     */
+    static int getHeight(Index<Row> index) { 
+        for (Class cls = index.getClass(); cls != null; cls = cls.getSuperclass()) { 
+            try { 
+                java.lang.reflect.Field f = cls.getDeclaredField("height");
+                f.setAccessible(true);
+                return f.getInt(index);
+            } catch (NoSuchFieldException x) { 
+            } catch (IllegalAccessException x) { 
+                break;
+            }
+        }
+        return -1;
+    }
+
+    static void lookup(Storage db, Index<Row> index, boolean strIndex, int pageSize) { 
+        PagePoolStatistics before = db.getPagePoolStatistics();
+        long start = System.currentTimeMillis();
+        long key = 1999;
+        for (int i = 0; i < nLookups; i++) { 
+            key = (3141592621L*key + 2718281829L) % 1000000007L;
+            Row row = strIndex ? index.get(strKey(key)) : index.get(key);
+            Assert.that(row != null && row.intKey == key);
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        PagePoolStatistics after = db.getPagePoolStatistics();
+        long nAccesses = after.nHits + after.nMisses - before.nHits - before.nMisses;
+        System.out.println("Page size " + pageSize + ", " + (strIndex ? "string" : "long") + " keys: "
+                           + "tree height " + getHeight(index) + ", "
+                           + elapsed + " milliseconds for " + nLookups + " lookups, "
+                           + (double)nAccesses/nLookups + " page accesses per lookup");
+    }
+
+    static void test(int pageSize) { 
+        String path = "testpgsize.dbs";
+        new java.io.File(path).delete();
+        Storage db = StorageFactory.getInstance().createStorage();
+        db.setProperty("perst.page.size", new Integer(pageSize));
+        db.open(path, pagePoolSize);
+        Tables root = new Tables();
+        root.intIndex = db.<Row>createIndex(long.class, true);
+        root.strIndex = db.<Row>createIndex(String.class, true);
+        db.setRoot(root);
+        long start = System.currentTimeMillis();
+        long key = 1999;
+        for (int i = 0; i < nRecords; i++) { 
+            key = (3141592621L*key + 2718281829L) % 1000000007L;
+            Row row = new Row();
+            row.intKey = key;
+            row.strKey = strKey(key);
+            root.intIndex.put(key, row);
+            root.strIndex.put(row.strKey, row);
+        }
+        db.commit();
+        System.out.println("Page size " + pageSize + ": " + (System.currentTimeMillis() - start)
+                           + " milliseconds for inserting " + nRecords + " records, database size "
+                           + db.getDatabaseSize());
+        lookup(db, root.intIndex, false, pageSize);
+        lookup(db, root.strIndex, true, pageSize);
+        db.close();
+
+        // page size is taken from the database header when database is reopened
+        db = StorageFactory.getInstance().createStorage();
+        db.open(path, pagePoolSize);
+        root = (Tables)db.getRoot();
+        Assert.that(root.intIndex.size() == nRecords && root.strIndex.size() == nRecords);
+        lookup(db, root.intIndex, false, pageSize);
+        db.close();
+    }
+
+    static public void main(String[] args) { 
+        if (args.length == 0) { 
+            args = new String[]{"4096", "8192", "16384", "32768"};
+        }
+        for (int i = 0; i < args.length; i++) { 
+            test(Integer.parseInt(args[i]));
+        }
+    }
+}
@@ -0,0 +1,216 @@
+import org.nachodb.*;
+import java.util.*;
+
+class WebPage extends Persistent { 
+    int    id;
+    String url;
+    String host;
+    String mirror;
+
+    WebPage() {}
+
+    WebPage(int id) { 
+        this.id = id;
+        host = "http://host-" + (id % 10) + ".example.com/";
+        url = host + "catalog/section-" + (id % 100) + "/item-" + id + ".html";
+        mirror = host + "mirror-" + (id / 10 % 10) + "/";
+    }
+}
+
+class Site extends Persistent { 
+    Index<WebPage> byUrl;
+    Index<WebPage> byCompressedUrl;
+    Index<WebPage> byMirror;
+    Index<WebPage> byBytes;
+}
+
+/**
+ * Compare size of index with prefix compression of keys with plain index for keys having long common prefixes,
+ * check exact, range and prefix searches, iteration, removal of keys, not unique keys, keys of byte array type,
+ * bulk load and XML export/import of compressed index
+ */
+public class TestPrefixIndex { 
+    final static int nLinks = 100000;
+    final static int pagePoolSize = 32*1024*1024;
+
+    static int id(int i) { 
+        return (int)(i*7919L % nLinks);
+    }
+
+    static void checkIndices(Site root, int nRemoved) { 
+        int n = nLinks - nRemoved;
+        Assert.that(root.byCompressedUrl.size() == n && root.byBytes.size() == n && root.byMirror.size() == n);
+        for (int i = 0; i < nLinks; i++) { 
+            WebPage link = new WebPage(id(i));
+            boolean present = link.id >= nRemoved;
+            WebPage l = root.byCompressedUrl.get(new Key(link.url));
+            Assert.that(present ? l.id == link.id : l == null);
+            l = root.byBytes.get(new Key(link.url.getBytes()));
+            Assert.that(present ? l.id == link.id : l == null);
+        }
+        Assert.that(root.byCompressedUrl.get(new Key("http://host-1.example.com/")) == null);
+        Assert.that(root.byCompressedUrl.get(new Key("http://host-1.example.com/catalog/section-1/item-1.htm")) == null);
+
+        // iteration through compressed index returns the same keys in the same order as through plain index
+        Iterator<Map.Entry<Object,WebPage>> i1 = root.byUrl.entryIterator();
+        Iterator<Map.Entry<Object,WebPage>> i2 = root.byCompressedUrl.entryIterator();
+        int nItems = 0;
+        while (i1.hasNext()) { 
+            Map.Entry<Object,WebPage> e1 = i1.next();
+            if (e1.getValue().id < nRemoved) { 
+                continue;
+            }
+            Map.Entry<Object,WebPage> e2 = i2.next();
+            Assert.that(e1.getKey().equals(e2.getKey()) && e1.getValue() == e2.getValue());
+            nItems += 1;
+        }
+        Assert.that(!i2.hasNext() && nItems == n);
+
+        String prev = null;
+        nItems = 0;
+        for (WebPage link : root.byBytes) { 
+            Assert.that(prev == null || prev.compareTo(link.url) < 0);
+            prev = link.url;
+            nItems += 1;
+        }
+        Assert.that(nItems == n);
+
+        // range, prefix and not unique key searches
+        String from = "http://host-3.example.com/catalog/section-13/item-50000";
+        String till = "http://host-3.example.com/catalog/section-13/item-70000";
+        int nInRange = 0;
+        for (WebPage link : root.byUrl.iterator(new Key(from), new Key(till), Index.DESCENT_ORDER)) { 
+            if (link.id >= nRemoved) { 
+                nInRange += 1;
+            }
+        }
+        nItems = 0;
+        prev = null;
+        for (WebPage link : root.byCompressedUrl.iterator(new Key(from), new Key(till), Index.DESCENT_ORDER)) { 
+            Assert.that(link.url.compareTo(from) >= 0 && link.url.compareTo(till) <= 0);
+            Assert.that(prev == null || prev.compareTo(link.url) > 0);
+            prev = link.url;
+            nItems += 1;
+        }
+        Assert.that(nItems == nInRange && nInRange > 0);
+        Assert.that(root.byCompressedUrl.getPrefix("http://host-7.example.com/catalog/section-17/").length == n/100);
+        Assert.that(root.byCompressedUrl.getPrefix("http://host-7.example.com/catalog/section-18/").length == 0);
+        WebPage link = new WebPage(nLinks - 1);
+        IPersistent[] found = root.byCompressedUrl.prefixSearch(link.url + "?page=2");
+        Assert.that(found.length == 1 && found[0] == root.byUrl.get(new Key(link.url)));
+        Assert.that(root.byMirror.get(new Key(link.mirror), new Key(link.mirror)).length == n/100);
+    }
+
+    static public void main(String[] args) throws Exception { 
+        String path = "testprefix.dbs";
+        new java.io.File(path).delete();
+        Storage db = StorageFactory.getInstance().createStorage();
+        db.open(path, pagePoolSize);
+        Site root = new Site();
+        root.byUrl = db.<WebPage>createIndex(String.class, true);
+        root.byCompressedUrl = db.<WebPage>createIndex(String.class, true, true);
+        root.byMirror = db.<WebPage>createIndex(String.class, false, true);
+        root.byBytes = db.<WebPage>createIndex(byte[].class, true, true);
+        db.setRoot(root);
+        WebPage[] links = new WebPage[nLinks];
+        for (int i = 0; i < nLinks; i++) { 
+            links[i] = new WebPage(id(i));
+            db.makePersistent(links[i]);
+        }
+        db.commit();
+
+        long start = System.currentTimeMillis();
+        long sizeBefore = db.getUsedSize();
+        for (WebPage link : links) { 
+            root.byUrl.put(new Key(link.url), link);
+        }
+        db.commit();
+        long plainTime = System.currentTimeMillis() - start;
+        long plainSize = db.getUsedSize() - sizeBefore;
+        start = System.currentTimeMillis();
+        sizeBefore = db.getUsedSize();
+        for (WebPage link : links) { 
+            root.byCompressedUrl.put(new Key(link.url), link);
+        }
+        db.commit();
+        long compressedTime = System.currentTimeMillis() - start;
+        long compressedSize = db.getUsedSize() - sizeBefore;
+        System.out.println("Insertion of " + nLinks + " keys in plain index: " + plainTime + " milliseconds, "
+                           + plainSize/1024 + "Kb, in prefix compressed index: " + compressedTime + " milliseconds, "
+                           + compressedSize/1024 + "Kb");
+        Assert.that(compressedSize < plainSize);
+        for (WebPage link : links) { 
+            Assert.that(root.byCompressedUrl.put(new Key(link.url), link) == false);
+            root.byMirror.put(new Key(link.mirror), link);
+            root.byBytes.put(new Key(link.url.getBytes()), link);
+        }
+        db.commit();
+
+        start = System.currentTimeMillis();
+        for (WebPage link : links) { 
+            Assert.that(root.byUrl.get(new Key(link.url)) == link);
+        }
+        long plainSearchTime = System.currentTimeMillis() - start;
+        start = System.currentTimeMillis();
+        for (WebPage link : links) { 
+            Assert.that(root.byCompressedUrl.get(new Key(link.url)) == link);
+        }
+        System.out.println("Search of " + nLinks + " keys in plain index: " + plainSearchTime
+                           + " milliseconds, in prefix compressed index: " + (System.currentTimeMillis() - start)
+                           + " milliseconds");
+        checkIndices(root, 0);
+        db.close();
+
+        db.open(path, pagePoolSize);
+        root = (Site)db.getRoot();
+        checkIndices(root, 0);
+        // remove half of keys: pages are merged and their keys are redistributed
+        int nRemoved = nLinks/2;
+        for (int i = 0; i < nLinks; i++) { 
+            WebPage link = new WebPage(id(i));
+            if (link.id < nRemoved) { 
+                link = root.byUrl.get(new Key(link.url));
+                root.byCompressedUrl.remove(new Key(link.url), link);
+                root.byMirror.remove(new Key(link.mirror), link);
+                root.byBytes.remove(new Key(link.url.getBytes()), link);
+            }
+        }
+        db.commit();
+        checkIndices(root, nRemoved);
+
+        // bulk load into compressed index
+        ArrayList<Map.Entry<Key,WebPage>> entries = new ArrayList<Map.Entry<Key,WebPage>>();
+        for (WebPage link : root.byUrl) { 
+            entries.add(new AbstractMap.SimpleEntry<Key,WebPage>(new Key(link.url), link));
+        }
+        Index<WebPage> loaded = db.<WebPage>createIndex(String.class, true, true);
+        Assert.that(loaded.bulkLoad(entries.iterator()) == nLinks);
+        for (WebPage link : root.byUrl) { 
+            Assert.that(loaded.get(new Key(link.url)) == link);
+        }
+        Assert.that(loaded.getPrefix("http://host-5.example.com/catalog/section-25/").length == nLinks/100);
+        loaded.deallocate();
+        db.commit();
+
+        // export compressed index to XML and import it in new storage
+        java.io.StringWriter writer = new java.io.StringWriter();
+        db.exportXML(writer);
+        db.close();
+        new java.io.File(path).delete();
+        db.open(path, pagePoolSize);
+        db.importXML(new java.io.StringReader(writer.toString()));
+        root = (Site)db.getRoot();
+        checkIndices(root, nRemoved);
+
+        for (WebPage link : root.byUrl) { 
+            if (link.id >= nRemoved) { 
+                root.byCompressedUrl.remove(new Key(link.url), link);
+                root.byMirror.remove(new Key(link.mirror), link);
+                root.byBytes.remove(new Key(link.url.getBytes()), link);
+            }
+        }
+        Assert.that(root.byCompressedUrl.size() == 0 && root.byMirror.size() == 0 && root.byBytes.size() == 0);
+        Assert.that(!root.byCompressedUrl.iterator().hasNext() && !root.byBytes.iterator().hasNext());
+        db.close();
+    }
+}
@@ -0,0 +1,5 @@
+set SAVE_PATH=%PATH%
+set PATH=\j2sdk1.5.0\bin;%path%
+java -classpath .;..\..\lib\perst15.jar TestRedoLog
+java -classpath .;..\..\lib\perst15.jar TestRedoLog recover
+set PATH=%SAVE_PATH%
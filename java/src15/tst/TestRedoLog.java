@@ -0,0 +1,183 @@
+import org.nachodb.*;
+import org.nachodb.impl.OSFile;
+import java.util.*;
+
+class Account extends Persistent { 
+    long id;
+    long balance;
+}
+
+class Bank extends Persistent { 
+    FieldIndex<Account> accounts;
+    int nTransfers;
+}
+
+/**
+ * Compare speed of small transactions with and without write-ahead redo log and check recovery from the log.
+ * Test should be started twice: first run performs transactions and terminates without closing
+ * the database, second run (with "recover" parameter) checks that all committed transactions are restored.
+ * Crash is simulated by the file which keeps written pages in memory until the file is synchronized,
+ * so all pages written since the last checkpoint are lost and have to be restored from the log.
+ * Small page pool and write-behind thread are used in this run to write pages outside commit.
+ */
+public class TestRedoLog { 
+    final static int nAccounts = 1000;
+    final static int nTransactions = 10000;
+    final static int pagePoolSize = 32*1024*1024;
+    final static int crashPagePoolSize = 256*1024;
+    final static long redoLogLimit = 4*1024*1024;
+
+    /**
+     * File which applies writes only when it is synchronized: content written after the last
+     * synchronization is lost when application terminates.
+     */
+    static class UnsyncedFile implements IFile { 
+        OSFile file;
+        TreeMap<Long,byte[]> pending = new TreeMap<Long,byte[]>();
+        long size;
+
+        UnsyncedFile(String path) { 
+            file = new OSFile(path, false, false);
+            size = file.length();
+        }
+
+        public synchronized void write(long pos, byte[] buf) { 
+            pending.put(new Long(pos), (byte[])buf.clone());
+            if (pos + buf.length > size) { 
+                size = pos + buf.length;
+            }
+        }
+
+        public synchronized int read(long pos, byte[] buf) { 
+            int n = file.read(pos, buf);
+            for (int i = n < 0 ? 0 : n; i < buf.length; i++) { 
+                buf[i] = 0;
+            }
+            for (Map.Entry<Long,byte[]> e : pending.subMap(new Long(pos - 65536), new Long(pos + buf.length)).entrySet()) { 
+                long offs = e.getKey().longValue();
+                byte[] data = e.getValue();
+                long from = Math.max(offs, pos);
+                long till = Math.min(offs + data.length, pos + buf.length);
+                if (from < till) { 
+                    System.arraycopy(data, (int)(from - offs), buf, (int)(from - pos), (int)(till - from));
+                }
+            }
+            return (int)Math.max(0, Math.min(buf.length, size - pos));
+        }
+
+        public synchronized void sync() { 
+            for (Map.Entry<Long,byte[]> e : pending.entrySet()) { 
+                file.write(e.getKey().longValue(), e.getValue());
+            }
+            pending.clear();
+            file.sync();
+        }
+
+        public boolean lock() { 
+            return file.lock();
+        }
+
+        public void close() { 
+            file.close();
+        }
+
+        public synchronized long length() { 
+            return size;
+        }
+    }
+
+    static Storage open(String path, boolean redoLog) { 
+        Storage db = StorageFactory.getInstance().createStorage();
+        if (redoLog) { 
+            db.setProperty("perst.redo.log", path + ".log");
+            db.setProperty("perst.redo.log.limit", new Long(redoLogLimit));
+        }
+        db.open(path, pagePoolSize);
+        return db;
+    }
+
+    static void transfer(Storage db, Bank bank, int i) { 
+        // transfer one unit from one account to another
+        Account src = bank.accounts.get(new Key((long)(i % nAccounts)));
+        Account dst = bank.accounts.get(new Key((long)((i*7 + 1) % nAccounts)));
+        src.balance -= 1;
+        dst.balance += 1;
+        bank.nTransfers += 1;
+        src.modify();
+        dst.modify();
+        bank.modify();
+        db.commit();
+    }
+
+    static Bank populate(Storage db) { 
+        Bank bank = new Bank();
+        bank.accounts = db.<Account>createFieldIndex(Account.class, "id", true);
+        for (int i = 0; i < nAccounts; i++) { 
+            Account account = new Account();
+            account.id = i;
+            account.balance = 0;
+            bank.accounts.put(account);
+        }
+        db.setRoot(bank);
+        db.commit();
+        return bank;
+    }
+
+    static void test(String path, boolean redoLog) { 
+        new java.io.File(path).delete();
+        new java.io.File(path + ".log").delete();
+        Storage db = open(path, redoLog);
+        Bank bank = populate(db);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < nTransactions; i++) { 
+            transfer(db, bank, i);
+        }
+        System.out.println((redoLog ? "With" : "Without") + " redo log: " + (System.currentTimeMillis() - start)
+                           + " milliseconds for " + nTransactions + " transactions");
+        check(db);
+        db.close();
+    }
+
+    static void crash(String path) { 
+        new java.io.File(path).delete();
+        new java.io.File(path + ".log").delete();
+        Storage db = StorageFactory.getInstance().createStorage();
+        db.setProperty("perst.redo.log", path + ".log");
+        db.setProperty("perst.redo.log.limit", new Long(redoLogLimit));
+        db.setProperty("perst.page.pool.dirty.ratio", new Integer(25));
+        db.open(new UnsyncedFile(path), crashPagePoolSize);
+        Bank bank = populate(db);
+        for (int i = 0; i < nTransactions; i++) { 
+            transfer(db, bank, i);
+        }
+        System.out.println(nTransactions + " transactions are committed, terminate without closing the database");
+        // pages written since the last checkpoint are lost
+        Runtime.getRuntime().halt(0);
+    }
+
+    static void check(Storage db) { 
+        Bank bank = (Bank)db.getRoot();
+        long total = 0;
+        for (Account account : bank.accounts) { 
+            total += account.balance;
+        }
+        Assert.that(bank.accounts.size() == nAccounts && total == 0);
+        Assert.that(bank.nTransfers == nTransactions);
+    }
+
+    static public void main(String[] args) { 
+        if (args.length > 0 && args[0].equals("recover")) { 
+            Storage db = open("testredo3.dbs", true);
+            check(db);
+            db.close();
+            System.out.println("Recovery completed");
+        } else { 
+            // first pair of runs warms up JIT
+            test("testredo1.dbs", false);
+            test("testredo2.dbs", true);
+            test("testredo1.dbs", false);
+            test("testredo2.dbs", true);
+            crash("testredo3.dbs");
+        }
+    }
+}
@@ -0,0 +1,131 @@
+import org.nachodb.*;
+import java.util.Date;
+
+enum Tint { RED, GREEN, BLUE }
+
+class Point implements IValue { 
+    int x;
+    int y;
+}
+
+class Shape extends Persistent { 
+    boolean  visible;
+    byte     layer;
+    char     code;
+    short    depth;
+    int      id;
+    long     created;
+    float    scale;
+    double   angle;
+    String   name;
+    Date     modified;
+    Tint    color;
+    Point    origin;
+    Shape    next;
+    int[]    coords;
+    double[] weights;
+    String[] tags;
+
+    Shape() {}
+
+    public boolean recursiveLoading() { 
+        return false;
+    }
+
+    Shape(int i, Shape next) { 
+        visible = (i & 1) != 0;
+        layer = (byte)i;
+        code = (char)('A' + i % 26);
+        depth = (short)i;
+        id = i;
+        created = (long)i << 32;
+        scale = i / 2.0f;
+        angle = i / 3.0;
+        name = "Shape " + i;
+        modified = new Date(i);
+        color = Tint.values()[i % 3];
+        origin = new Point();
+        origin.x = i;
+        origin.y = -i;
+        this.next = next;
+        coords = new int[]{i, i + 1, i + 2, i + 3};
+        weights = new double[]{i, -i};
+        tags = new String[]{"tag" + i};
+    }
+
+    void check(int i) { 
+        Assert.that(visible == ((i & 1) != 0) && layer == (byte)i && code == (char)('A' + i % 26)
+                    && depth == (short)i && id == i && created == (long)i << 32 && scale == i / 2.0f
+                    && angle == i / 3.0 && name.equals("Shape " + i) && modified.getTime() == i
+                    && color == Tint.values()[i % 3] && origin.x == i && origin.y == -i
+                    && coords.length == 4 && coords[3] == i + 3 && weights[1] == -i && tags[0].equals("tag" + i));
+    }
+}
+
+class Drawing extends Persistent { 
+    Index<Shape> shapes;
+}
+
+/**
+ * Compare speed of packing and unpacking objects when fields are accessed
+ * using field accessors based on sun.misc.Unsafe (default) and using reflection.
+ * Large page pool is used, so time is mostly spent in serialization of objects.
+ */
+public class TestSerializer { 
+    final static int nObjects = 100000;
+    final static int nIterations = 5;
+    final static int pagePoolSize = 128*1024*1024;
+
+    static void test(boolean unsafe) { 
+        String path = "testser.dbs";
+        new java.io.File(path).delete();
+        Storage db = StorageFactory.getInstance().createStorage();
+        db.setProperty("perst.unsafe.field.access", Boolean.valueOf(unsafe));
+        db.open(path, pagePoolSize);
+        Drawing root = new Drawing();
+        root.shapes = db.<Shape>createIndex(int.class, true);
+        db.setRoot(root);
+        Shape prev = null;
+        for (int i = 0; i < nObjects; i++) { 
+            Shape shape = new Shape(i, prev);
+            root.shapes.put(new Key(i), shape);
+            prev = shape;
+        }
+        db.commit();
+
+        long start = System.currentTimeMillis();
+        for (int j = 0; j < nIterations; j++) { 
+            for (Shape shape : root.shapes) { 
+                shape.store();
+            }
+        }
+        long packTime = System.currentTimeMillis() - start;
+        db.close();
+
+        db = StorageFactory.getInstance().createStorage();
+        db.setProperty("perst.unsafe.field.access", Boolean.valueOf(unsafe));
+        db.open(path, pagePoolSize);
+        root = (Drawing)db.getRoot();
+        start = System.currentTimeMillis();
+        for (int j = 0; j < nIterations; j++) { 
+            int i = 0;
+            for (Shape shape : root.shapes) { 
+                shape.check(i++);
+                shape.invalidate();
+            }
+            Assert.that(i == nObjects);
+        }
+        long unpackTime = System.currentTimeMillis() - start;
+        db.close();
+        System.out.println((unsafe ? "Unsafe" : "Reflection") + " field access: pack "
+                           + packTime + " milliseconds, unpack " + unpackTime + " milliseconds for "
+                           + nObjects*nIterations + " objects");
+    }
+
+    static public void main(String[] args) { 
+        test(false);
+        test(true);
+        test(false);
+        test(true);
+    }
+}
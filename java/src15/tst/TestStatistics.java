@@ -0,0 +1,115 @@
+import org.nachodb.*;
+import java.lang.management.ManagementFactory;
+import javax.management.*;
+
+class Product extends Persistent { 
+    long   key;
+    String name;
+}
+
+class Catalog extends Persistent { 
+    Index<Product> index;
+}
+
+/**
+ * Check collection of storage statistic and its export through JMX
+ */
+public class TestStatistics { 
+    final static int nRecords = 100000;
+    final static int nCommits = 100;
+    final static int pagePoolSize = 4*1024*1024;
+
+    static class CommitListener extends StorageListener { 
+        int  nCommits;
+        long maxCommitTime;
+
+        public void commitCompleted(long elapsedTime) { 
+            nCommits += 1;
+            if (elapsedTime > maxCommitTime) { 
+                maxCommitTime = elapsedTime;
+            }
+        }
+
+        public void slowOperation(String operation, long elapsedTime) { 
+            System.out.println("Slow " + operation + ": " + elapsedTime/1000 + " microseconds");
+        }
+    }
+
+    static public void main(String[] args) throws Exception { 
+        String path = "teststat.dbs";
+        String mbeanName = "org.nachodb:type=Statistics,name=teststat";
+        new java.io.File(path).delete();
+        Storage db = StorageFactory.getInstance().createStorage();
+        db.setProperty("perst.statistics.mbean", mbeanName);
+        db.setProperty("perst.slow.operation.threshold", new Long(100));
+        db.setGcThreshold(1024*1024);
+        CommitListener listener = new CommitListener();
+        db.setListener(listener);
+        db.open(path, pagePoolSize);
+
+        Catalog root = new Catalog();
+        root.index = db.<Product>createIndex(long.class, true);
+        db.setRoot(root);
+        long start = System.currentTimeMillis();
+        long key = 1999;
+        for (int i = 0; i < nRecords; i++) { 
+            key = (3141592621L*key + 2718281829L) % 1000000007L;
+            Product item = new Product();
+            item.key = key;
+            item.name = Long.toString(key);
+            root.index.put(key, item);
+            if (i % (nRecords/nCommits) == 0) { 
+                db.commit();
+            }
+        }
+        db.commit();
+        java.util.ArrayList<Product> removed = new java.util.ArrayList<Product>();
+        for (Product item : root.index) { 
+            if (item.key % 2 == 0) { 
+                removed.add(item);
+            }
+        }
+        for (Product item : removed) { 
+            root.index.remove(new Key(item.key), item);
+        }
+        db.commit();
+        db.gc();
+        for (Product item : root.index) { 
+            Assert.that(db.getObjectByOID(item.getOid()) == item);
+        }
+        System.out.println("Elapsed time " + (System.currentTimeMillis() - start) + " milliseconds");
+
+        StorageStatistics stat = db.getStatistics();
+        System.out.println("Object cache: " + stat.nObjectCacheHits + " hits, " + stat.nObjectCacheMisses + " misses");
+        System.out.println("Page pool: " + stat.pagePool.nHits + " hits, " + stat.pagePool.nMisses + " misses, "
+                           + stat.pagePool.nEvictions + " evictions, " + stat.pagePool.nWrites + " writes");
+        System.out.println("Allocations: " + stat.nAllocations + ", " + stat.nAllocationBitmapPages
+                           + " bitmap pages inspected");
+        System.out.println("Commits: " + stat.nCommits + ", average time " + stat.commitTime/stat.nCommits/1000
+                           + " microseconds, maximal time " + stat.maxCommitTime/1000 + " microseconds");
+        System.out.println("GC: " + stat.nGcRuns + " runs, mark time " + stat.gcMarkTime/1000
+                           + " microseconds, sweep time " + stat.gcSweepTime/1000 + " microseconds, "
+                           + stat.nDeallocatedObjects + " objects deallocated");
+        Assert.that(stat.nObjectCacheHits > 0);
+        Assert.that(stat.pagePool.nWrites > 0);
+        Assert.that(stat.nAllocations > nRecords);
+        Assert.that(stat.nCommits == listener.nCommits && stat.maxCommitTime == listener.maxCommitTime);
+        Assert.that(stat.nGcRuns > 0 && stat.nDeallocatedObjects >= removed.size());
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(mbeanName);
+        long nCommits = ((Long)server.getAttribute(name, "Commits")).longValue();
+        Assert.that(nCommits == stat.nCommits);
+        db.close();
+        Assert.that(!server.isRegistered(name));
+
+        // without statistic only page pool counters are available
+        db = StorageFactory.getInstance().createStorage();
+        db.open(path, pagePoolSize);
+        root = (Catalog)db.getRoot();
+        Assert.that(root.index.size() == nRecords - removed.size());
+        stat = db.getStatistics();
+        Assert.that(stat.nCommits == 0 && stat.nObjectCacheMisses == 0 && stat.pagePool.nMisses > 0);
+        db.close();
+    }
+}
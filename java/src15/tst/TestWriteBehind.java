@@ -0,0 +1,76 @@
+import org.nachodb.*;
+import org.nachodb.impl.OSFile;
+
+class Parcel extends Persistent { 
+    long   id;
+    String address;
+}
+
+/**
+ * Check that failure of the page write performed by write-behind thread is reported by the next commit
+ * and that the page is not lost: commit performed after the error writes it once again.
+ */
+public class TestWriteBehind { 
+    final static int nParcels = 100000;
+    final static int pagePoolSize = 1024*1024;
+
+    /**
+     * File failing writes of write-behind thread while <code>failWrites</code> is set
+     */
+    static class FaultyFile extends OSFile { 
+        volatile boolean failWrites;
+        volatile int     nFailed;
+
+        FaultyFile(String path) { 
+            super(path, false, false);
+        }
+
+        public void write(long pos, byte[] buf) { 
+            if (failWrites && Thread.currentThread().getClass().getName().endsWith("WriteBehindThread")) { 
+                nFailed += 1;
+                throw new StorageError(StorageError.FILE_ACCESS_ERROR, new java.io.IOException("Write failed"));
+            }
+            super.write(pos, buf);
+        }
+    }
+
+    static public void main(String[] args) { 
+        String path = "testwb.dbs";
+        new java.io.File(path).delete();
+        FaultyFile file = new FaultyFile(path);
+        Storage db = StorageFactory.getInstance().createStorage();
+        db.setProperty("perst.page.pool.dirty.ratio", 10);
+        db.open(file, pagePoolSize);
+        FieldIndex<Parcel> index = db.<Parcel>createFieldIndex(Parcel.class, "id", true);
+        db.setRoot(index);
+        file.failWrites = true;
+        for (int i = 0; i < nParcels; i++) { 
+            Parcel parcel = new Parcel();
+            parcel.id = i;
+            parcel.address = "Street " + i;
+            index.put(parcel);
+        }
+        file.failWrites = false;
+        Assert.that(file.nFailed > 0);
+        try { 
+            db.commit();
+            Assert.failed("write error is lost");
+        } catch (StorageError x) { 
+            Assert.that(x.getErrorCode() == StorageError.FILE_ACCESS_ERROR);
+            System.out.println("Commit failed: " + x.getMessage());
+        }
+        db.commit();
+        db.close();
+
+        db = StorageFactory.getInstance().createStorage();
+        db.open(path, pagePoolSize);
+        index = (FieldIndex<Parcel>)db.getRoot();
+        Assert.that(index.size() == nParcels);
+        for (int i = 0; i < nParcels; i++) { 
+            Parcel parcel = index.get(new Key((long)i));
+            Assert.that(parcel != null && parcel.address.equals("Street " + i));
+        }
+        db.close();
+        System.out.println(file.nFailed + " failed writes, all " + nParcels + " records are restored");
+    }
+}